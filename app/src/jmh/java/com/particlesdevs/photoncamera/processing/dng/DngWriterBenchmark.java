@@ -0,0 +1,105 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Time to write one synthetic frame as DNG. Throughput in MB/s is the frame size
+ * (24MB for 12MP, 100MB for 50MP) divided by the reported time.
+ * <p>
+ * {@link #streamCopy} is the baseline of copying rows through an {@link OutputStream},
+ * the way a frame reaches the file through DngCreator. The frame is a gradient with a few bits of
+ * noise, so lossless JPEG sees a realistic amount of entropy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DngWriterBenchmark {
+    @Param({"12", "50"})
+    public int megapixels;
+
+    @Param({"256", "512"})
+    public int tileSize;
+
+    @Param({"1", "7"})
+    public int compression;
+
+    private int width;
+    private int height;
+    private ByteBuffer frame;
+    private DngWriter writer;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (megapixels == 50) {
+            width = 8192;
+            height = 6144;
+        } else {
+            width = 4032;
+            height = 3024;
+        }
+        frame = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < width * height; i++) {
+            int x = i % width;
+            int y = i / width;
+            int noise = (int) ((i * 2654435761L >>> 22) & 0xF);
+            frame.putShort((short) (64 + (x + y) * 900 / (width + height) + noise));
+        }
+        frame.clear();
+        ParametersSnapshot parameters = new ParametersSnapshot.Builder()
+                .setRawSize(width, height)
+                .setLevels(new float[]{64.f, 64.f, 64.f, 64.f}, 1023, 1023)
+                .build();
+        writer = new DngWriter(parameters).setTileSize(tileSize, tileSize).setCompression(compression);
+        output = File.createTempFile("DngWriterBenchmark", ".dng").toPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public long tiledGather() throws IOException {
+        return writer.write(output, frame, width * 2);
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        byte[] row = new byte[width * 2];
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+            ByteBuffer view = frame.duplicate();
+            for (int y = 0; y < height; y++) {
+                view.get(row);
+                stream.write(row);
+            }
+        }
+        return row.length;
+    }
+}
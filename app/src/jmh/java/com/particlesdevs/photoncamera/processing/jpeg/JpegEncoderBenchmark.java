@@ -0,0 +1,97 @@
+package com.particlesdevs.photoncamera.processing.jpeg;
+
+import com.particlesdevs.photoncamera.processing.ImageSaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encode one RGBA frame at {@link ImageSaver#JPG_QUALITY} on pools of 1 to 8 threads.
+ * Output goes to a counting sink, so only the encoder is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JpegEncoderBenchmark {
+    @Param({"12", "50"})
+    public int megapixels;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private int width;
+    private int height;
+    private ByteBuffer frame;
+    private ForkJoinPool pool;
+    private JpegEncoder encoder;
+
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (megapixels == 50) {
+            width = 8192;
+            height = 6144;
+        } else {
+            width = 4032;
+            height = 3024;
+        }
+        frame = ByteBuffer.allocateDirect(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = (int) (((y * width + x) * 2654435761L >>> 24) & 0x7);
+                int i = (y * width + x) * 4;
+                frame.put(i, (byte) (x * 255 / width + noise));
+                frame.put(i + 1, (byte) (y * 255 / height + noise));
+                frame.put(i + 2, (byte) ((x ^ y) & 0xFF));
+                frame.put(i + 3, (byte) 255);
+            }
+        }
+        pool = new ForkJoinPool(threads);
+        encoder = new JpegEncoder(ImageSaver.JPG_QUALITY).setPool(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingStream out = new CountingStream();
+        encoder.encode(frame, width, height, width * 4, out);
+        return out.count;
+    }
+}
@@ -0,0 +1,81 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to merge a 12MP burst with the Java merge, the number to hold libHdrX against.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CpuHdrxMergeBenchmark {
+    private static final int WIDTH = 4032;
+    private static final int HEIGHT = 3024;
+    private static final int WHITE_LEVEL = 1023;
+
+    @Param({"4", "8"})
+    public int frames;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ByteBuffer[] burst;
+    private ByteBuffer gainMap;
+    private ByteBuffer output;
+    private ForkJoinPool pool;
+    private CpuHdrxMerge merge;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        burst = new ByteBuffer[frames];
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer frame = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+            for (int p = 0; p < WIDTH * HEIGHT; p++) {
+                int noise = (int) (((p + i * 7919L) * 2654435761L >>> 24) & 0x1F);
+                frame.putShort(p * 2, (short) (64 + (p % WIDTH) * 800 / WIDTH + noise));
+            }
+            burst[i] = frame;
+        }
+        gainMap = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+        for (int p = 0; p < WIDTH * HEIGHT; p++) gainMap.putFloat(p * 4, 1.f + (p % WIDTH) / (float) WIDTH);
+        output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2);
+        pool = new ForkJoinPool(threads);
+        merge = new CpuHdrxMerge().setPool(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ByteBuffer merge() {
+        merge.init(WIDTH, HEIGHT, frames);
+        for (ByteBuffer frame : burst) merge.loadFrame(frame, 65535.f / WHITE_LEVEL);
+        merge.loadInterpolatedGainMap(gainMap);
+        merge.outputBuffer(output);
+        merge.processFrame(2e-4f, 1e-6f, 1.5f, 1.f, 64.f, 64.f, 64.f, WHITE_LEVEL,
+                0.5f, 1.f, 0.6f, 0);
+        return output;
+    }
+}
@@ -0,0 +1,46 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blend of the two calibrated matrices by white point that Initial runs for MATRIXES sensors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColorCorrectionTransformBenchmark {
+    private final float[] whitePoint = {0.5f, 1.f, 0.625f};
+    private ColorCorrectionTransform transform;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        transform = new ColorCorrectionTransform();
+        transform.correctionMode = ColorCorrectionTransform.CorrectionMode.MATRIXES;
+        transform.point1 = new float[]{0.45f, 1.f, 0.7f};
+        transform.point2 = new float[]{0.6f, 1.f, 0.5f};
+        for (int i = 0; i < 9; i++) {
+            transform.matrix[i] = i % 4 == 0 ? 1.2f : -0.1f;
+            transform.matrix2[i] = i % 4 == 0 ? 1.1f : -0.05f;
+        }
+    }
+
+    @Benchmark
+    public float[] combineMatrix() {
+        return transform.combineMatrix(whitePoint);
+    }
+}
@@ -0,0 +1,49 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 3x3 matrix routines Parameters runs to build the sensor to ProPhoto transform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConverterBenchmark {
+    private final float[] forward1 = {0.6f, 0.3f, 0.07f, 0.25f, 0.8f, -0.05f, 0.03f, -0.15f, 0.95f};
+    private final float[] forward2 = {0.65f, 0.25f, 0.07f, 0.28f, 0.75f, -0.03f, 0.05f, -0.2f, 1.0f};
+    private final float[] calibration1 = {1.02f, 0.f, 0.f, 0.f, 1.f, 0.f, 0.f, 0.f, 0.98f};
+    private final float[] calibration2 = {0.99f, 0.f, 0.f, 0.f, 1.f, 0.f, 0.f, 0.f, 1.01f};
+    private final float[] neutral = {0.5f, 1.f, 0.625f};
+    private final float[] output = new float[9];
+
+    @Benchmark
+    public float[] multiply() {
+        Converter.multiply(Converter.sXYZtoProPhoto, forward1, output);
+        return output;
+    }
+
+    @Benchmark
+    public boolean invert() {
+        return Converter.invert(forward1, output);
+    }
+
+    @Benchmark
+    public float[] cameraToXYZD50() {
+        Converter.calculateCameraToXYZD50Transform(forward1, forward2, calibration1, calibration2,
+                neutral, 0.4, output);
+        return output;
+    }
+}
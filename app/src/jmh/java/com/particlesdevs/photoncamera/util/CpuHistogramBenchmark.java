@@ -0,0 +1,83 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to histogram a 12MP frame on the CPU, every 3rd pixel as Equalization asks for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CpuHistogramBenchmark {
+    private static final int WIDTH = 4032;
+    private static final int HEIGHT = 3024;
+
+    @Param({"256", "1024", "4096"})
+    public int histSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ByteBuffer rgba8;
+    private ByteBuffer rgba16f;
+    private ByteBuffer bayer;
+    private ForkJoinPool pool;
+    private CpuHistogram histogram;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rgba8 = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+        rgba16f = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 8).order(ByteOrder.nativeOrder());
+        bayer = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        for (int p = 0; p < WIDTH * HEIGHT; p++) {
+            int level = (p % WIDTH) * 1024 / WIDTH + (int) ((p * 2654435761L >>> 24) & 0x1F);
+            for (int c = 0; c < 4; c++) {
+                rgba8.put(p * 4 + c, (byte) (level >> 2));
+                rgba16f.putShort(p * 8 + c * 2, (short) (0x3000 + level));
+            }
+            bayer.putShort(p * 2, (short) (64 + level * 15 / 16));
+        }
+        pool = new ForkJoinPool(threads);
+        histogram = new CpuHistogram(histSize).setPool(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[][] rgba8() {
+        return histogram.computeRgba8(rgba8, WIDTH, HEIGHT, WIDTH * 4);
+    }
+
+    @Benchmark
+    public int[][] rgba16f() {
+        return histogram.computeRgba16f(rgba16f, WIDTH, HEIGHT, WIDTH * 8);
+    }
+
+    @Benchmark
+    public int[][] bayer() {
+        return histogram.computeBayer(bayer, WIDTH, HEIGHT, WIDTH * 2, 0, 64, 1023);
+    }
+}
@@ -0,0 +1,54 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cumulative histograms resampled to the table size Equalization uses, from the histogram
+ * sizes the GL histogram can produce.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Math2Benchmark {
+    @Param({"256", "1024", "4096"})
+    public int histSize;
+
+    @Param({"256", "1024"})
+    public int outSize;
+
+    private int[] hist;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        hist = new int[histSize];
+        for (int i = 0; i < histSize; i++) hist[i] = random.nextInt(40000);
+    }
+
+    @Benchmark
+    public float[] buildCumulativeHist() {
+        return Math2.buildCumulativeHist(hist, outSize);
+    }
+
+    @Benchmark
+    public float[] buildCumulativeHistInv() {
+        return Math2.buildCumulativeHistInv(hist, outSize);
+    }
+}
@@ -0,0 +1,69 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Noise model fit over brightness buckets, 64 is what the noise map histogram of
+ * PyramidMerging produces, 4096 is a per tile fit over a 12MP frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NoiseFittingBenchmark {
+    @Param({"16", "64", "256", "4096"})
+    public int points;
+
+    private List<NoiseFitting.DataPoint> data;
+    private double[] w;
+    private double[] n;
+    private final NoiseFitting.Accumulator accumulator = new NoiseFitting.Accumulator();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        data = new ArrayList<>(points);
+        w = new double[points];
+        n = new double[points];
+        for (int i = 0; i < points; i++) {
+            w[i] = i / (points - 1.0);
+            n[i] = Math.sqrt(w[i] * 2e-4 + 1e-6) * (1.0 + random.nextGaussian() * 0.05);
+            data.add(new NoiseFitting.DataPoint(w[i], n[i]));
+        }
+    }
+
+    @Benchmark
+    public NoiseFitting.NoiseParameters findParameters() {
+        return NoiseFitting.findParameters(data);
+    }
+
+    @Benchmark
+    public NoiseFitting.NoiseParameters fitHuber() {
+        return NoiseFitting.fitHuber(w, n, null, points, 3);
+    }
+
+    @Benchmark
+    public NoiseFitting.NoiseParameters accumulate() {
+        accumulator.reset();
+        for (int i = 0; i < points; i++) accumulator.add(w[i], n[i]);
+        return accumulator.solve();
+    }
+}
@@ -0,0 +1,77 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line fit of a histogram ratio curve the way Equalization (1500 iterations) and AWB (700)
+ * call it, on a noisy line with 20% outliers. {@code perform} goes through the list adapter,
+ * the others call {@link LineRansac} directly with every iteration run, serially and on the
+ * common pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RANSACBenchmark {
+    @Param({"256", "1024"})
+    public int points;
+
+    @Param({"700", "1500"})
+    public int iterations;
+
+    private List<Double> data;
+    private double[] y;
+    private LineRansac serial;
+    private LineRansac parallel;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        data = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            double value = 0.33 + 0.0004 * i + random.nextGaussian() * 0.01;
+            if (random.nextInt(5) == 0) value += random.nextDouble() * 4.0;
+            data.add(value);
+        }
+        y = new double[points];
+        for (int i = 0; i < points; i++) y[i] = data.get(i);
+        serial = new LineRansac().setConfidence(1.0);
+        parallel = new LineRansac().setConfidence(1.0).setPool(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public List<Double> perform() {
+        return RANSAC.perform(data, 2, iterations, 1, 0.2);
+    }
+
+    @Benchmark
+    public double fitAllIterations() {
+        serial.fit(y, points, iterations, 1, 0.2);
+        return serial.slope;
+    }
+
+    @Benchmark
+    public double fitAllIterationsParallel() {
+        parallel.fit(y, points, iterations, 1, 0.2);
+        return parallel.slope;
+    }
+}
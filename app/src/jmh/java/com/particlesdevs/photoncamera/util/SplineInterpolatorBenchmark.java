@@ -0,0 +1,58 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a tone curve from control points and samples it into a lookup table, as Initial and
+ * Equalization do for every shot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplineInterpolatorBenchmark {
+    @Param({"8", "64"})
+    public int knots;
+
+    @Param({"256", "1024", "4096"})
+    public int samples;
+
+    private List<Float> x;
+    private List<Float> y;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        x = new ArrayList<>(knots);
+        y = new ArrayList<>(knots);
+        for (int i = 0; i < knots; i++) {
+            float t = i / (knots - 1.f);
+            x.add(t);
+            y.add((float) Math.pow(t, 1.0 / 2.2));
+        }
+    }
+
+    @Benchmark
+    public float[] curve() {
+        SplineInterpolator spline = SplineInterpolator.createMonotoneCubicSpline(x, y);
+        float[] out = new float[samples];
+        for (int i = 0; i < samples; i++) out[i] = spline.interpolate(i / (samples - 1.f));
+        return out;
+    }
+}
@@ -56,7 +56,7 @@ void main() {
         for (int i = 0; i < 4; i++) {
             vec2 align = texelFetch(alignmentTexture, ivec2((TILE*xy)/TILE_AL + ivec2(i % 2, i / 2)), 0).xy;
             //vec2 align = texture(alignmentTexture, uv + vec2(i % 2, i / 2) / uvScale).xy;
-            ivec2 aligned = (xy + ivec2(align));
+            ivec2 aligned = (xy + ivec2(floor(align + 0.5)));
             aligned = ivec2(clamp(aligned, ivec2(0), ivec2(outSize - 1))) * TILE;
             vec4 bayerAlter = getBayerVec(aligned, alterTexture);
             alignedSum += bayerAlter * w[i];
@@ -71,25 +71,15 @@ public class Camera2ApiAutoFix {
         fix.MaxRegionsAF();
     }
 
-    //private static double oldWL = -1.0;
     public static void ApplyRes(CaptureResult captureResult) {
         Camera2ApiAutoFix fix = new Camera2ApiAutoFix(captureResult);
         //fix.gains();
         fix.BL();
         fix.whitePoint();
         fix.CCM();
-        /*Camera2ApiAutoFix.WhiteLevel(CameraFragment.mCaptureResult, (int)oldWL);
-        Camera2ApiAutoFix.BlackLevel(CameraFragment.mCaptureResult, PhotonCamera.getParameters().blackLevel, 1.f);
-        oldWL = -1.0;*/
     }
 
     public static void ApplyBurst() {
-        /*if(oldWL == -1.0) {
-            PhotonCamera.getParameters().FillParameters(null,CameraFragment.mCameraCharacteristics,null);
-            Camera2ApiAutoFix.WhiteLevel(null, 65535);
-            Camera2ApiAutoFix.BlackLevel(null, PhotonCamera.getParameters().blackLevel, (float) (65535) / PhotonCamera.getParameters().whiteLevel);
-            oldWL = PhotonCamera.getParameters().whiteLevel;
-        }*/
     }
 
     private void whitePoint() {
@@ -126,26 +116,6 @@ public class Camera2ApiAutoFix {
         CameraReflectionApi.set(CONTROL_AE_COMPENSATION_RANGE,nrange);
     }
 
-    public static void patchWL(CameraCharacteristics characteristics,
-                               CaptureResult captureResult,
-                               int patchWL) {
-        if (patchWL != 0) {
-            WhiteLevel(captureResult, patchWL);
-            BlackLevel(characteristics, captureResult, PhotonCamera.getParameters().blackLevel,
-                    (float) (patchWL) / PhotonCamera.getParameters().whiteLevel);
-        }
-    }
-
-    public static void resetWL(CameraCharacteristics characteristics,
-                               CaptureResult captureResult,
-                               int patchWL) {
-        if (patchWL != 0) {
-            WhiteLevel(captureResult, PhotonCamera.getParameters().whiteLevel);
-            BlackLevel(characteristics, captureResult, PhotonCamera.getParameters().blackLevel,
-                    1.f);
-        }
-    }
-
     public static void WhiteLevel(CaptureResult res, int whitelevel) {
         if (res != null)
             CameraReflectionApi.set(CaptureResult.SENSOR_DYNAMIC_WHITE_LEVEL, whitelevel);
@@ -0,0 +1,56 @@
+package com.particlesdevs.photoncamera.api;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes a JPEG stream through and inserts an APP1 segment right after the SOI marker, where
+ * EXIF readers expect it. Everything else is written unchanged, so the image is written once.
+ * <p>
+ * Streams that do not start with SOI are passed through without the segment.
+ */
+public class ExifJpegOutputStream extends FilterOutputStream {
+    private final byte[] segment;
+    private final byte[] head = new byte[2];
+    private int headLength;
+
+    /**
+     * @param segment complete segment including marker and length, see {@link ExifSegment#build}.
+     */
+    public ExifJpegOutputStream(OutputStream out, byte[] segment) {
+        super(out);
+        this.segment = segment;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (headLength < 2) {
+            head[headLength++] = (byte) b;
+            if (headLength == 2) writeHead();
+            return;
+        }
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (headLength < 2 && len > 0) {
+            write(b[off++]);
+            len--;
+        }
+        if (len > 0) out.write(b, off, len);
+    }
+
+    private void writeHead() throws IOException {
+        out.write(head, 0, 2);
+        if ((head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8) out.write(segment);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (headLength == 1) out.write(head, 0, 1);
+        headLength = 2;
+        super.close();
+    }
+}
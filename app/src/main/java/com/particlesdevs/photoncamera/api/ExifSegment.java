@@ -0,0 +1,117 @@
+package com.particlesdevs.photoncamera.api;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.processing.dng.DngTag;
+import com.particlesdevs.photoncamera.processing.dng.TiffIfd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds the EXIF APP1 segment of a JPEG from {@link ParseExif.ExifData}, so the segment can be
+ * spliced into the encoder output with {@link ExifJpegOutputStream} instead of rewriting the
+ * file with ExifInterface.
+ * <p>
+ * Tags are split between IFD0 and the EXIF IFD the same way ExifInterface places them. Values
+ * are parsed from the strings of ExifData, empty or unparsable values are left out.
+ */
+public class ExifSegment {
+    private static final String TAG = "ExifSegment";
+    public static final int APP1 = 0xE1;
+    /**
+     * Segment length is a 16 bit field that counts itself.
+     */
+    private static final int MAX_PAYLOAD = 0xFFFF - 2;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    static final int TAG_DATETIME = 306;
+    static final int TAG_COPYRIGHT = 33432;
+    static final int TAG_EXIF_IFD = 34665;
+    static final int TAG_SENSITIVITY_TYPE = 34864;
+    static final int TAG_EXIF_VERSION = 36864;
+    static final int TAG_APERTURE_VALUE = 37378;
+    static final int TAG_COLOR_SPACE = 40961;
+    static final int COLOR_SPACE_SRGB = 1;
+
+    private ExifSegment() {
+    }
+
+    /**
+     * @return complete segment including the APP1 marker and length.
+     */
+    public static byte[] build(ParseExif.ExifData data) {
+        String description = data.IMAGE_DESCRIPTION;
+        byte[] tiff = buildTiff(data, description);
+        if (tiff.length + EXIF_HEADER.length > MAX_PAYLOAD && description != null) {
+            Log.w(TAG, "Description does not fit into the segment, dropping it");
+            tiff = buildTiff(data, null);
+        }
+        ByteBuffer out = ByteBuffer.allocate(4 + EXIF_HEADER.length + tiff.length).order(ByteOrder.BIG_ENDIAN);
+        out.put((byte) 0xFF).put((byte) APP1);
+        out.putShort((short) (2 + EXIF_HEADER.length + tiff.length));
+        out.put(EXIF_HEADER).put(tiff);
+        return out.array();
+    }
+
+    private static byte[] buildTiff(ParseExif.ExifData data, String description) {
+        ByteOrder order = ByteOrder.BIG_ENDIAN;
+        TiffIfd ifd0 = new TiffIfd(order);
+        addAscii(ifd0, DngTag.IMAGE_DESCRIPTION, description);
+        addAscii(ifd0, DngTag.MAKE, data.MAKE);
+        addAscii(ifd0, DngTag.MODEL, data.MODEL);
+        addAscii(ifd0, TAG_DATETIME, data.DATETIME);
+        addAscii(ifd0, TAG_COPYRIGHT, data.COPYRIGHT);
+        Double compression = parse(data.COMPRESSION);
+        if (compression != null) ifd0.addShort(DngTag.COMPRESSION, compression.intValue());
+
+        TiffIfd exif = new TiffIfd(order);
+        addRational(exif, DngTag.EXPOSURE_TIME, data.EXPOSURE_TIME);
+        addRational(exif, DngTag.F_NUMBER, data.F_NUMBER);
+        Double iso = parse(data.PHOTOGRAPHIC_SENSITIVITY);
+        if (iso != null) exif.addShort(DngTag.ISO_SPEED_RATINGS, (int) Math.min(iso, 65535));
+        Double sensitivityType = parse(data.SENSITIVITY_TYPE);
+        if (sensitivityType != null) exif.addShort(TAG_SENSITIVITY_TYPE, sensitivityType.intValue());
+        if (data.EXIF_VERSION != null && data.EXIF_VERSION.length() == 4)
+            exif.addUndefined(TAG_EXIF_VERSION, data.EXIF_VERSION.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        addRational(exif, TAG_APERTURE_VALUE, data.APERTURE_VALUE);
+        addRational(exif, DngTag.FOCAL_LENGTH, data.FOCAL_LENGTH);
+        if ("sRGB".equals(data.COLOR_SPACE)) exif.addShort(TAG_COLOR_SPACE, COLOR_SPACE_SRGB);
+
+        //The pointer is an inline LONG, its value does not change the size of IFD0
+        ifd0.addLong(TAG_EXIF_IFD, 0);
+        long exifOffset = 8 + ifd0.size();
+        ifd0.addLong(TAG_EXIF_IFD, exifOffset);
+        ByteBuffer first = ifd0.serialize(8);
+        ByteBuffer second = exif.serialize(exifOffset);
+        ByteBuffer out = ByteBuffer.allocate(8 + first.remaining() + second.remaining()).order(order);
+        out.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        out.put(first).put(second);
+        return out.array();
+    }
+
+    private static void addAscii(TiffIfd ifd, int tag, String value) {
+        if (value != null && !value.isEmpty()) ifd.addAscii(tag, value);
+    }
+
+    private static void addRational(TiffIfd ifd, int tag, String value) {
+        Double parsed = parse(value);
+        if (parsed != null && parsed >= 0.0) ifd.addRational(tag, parsed);
+    }
+
+    /**
+     * Parses a decimal or an "n/d" rational the way ExifInterface accepts them.
+     */
+    static Double parse(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            int slash = value.indexOf('/');
+            if (slash < 0) return Double.parseDouble(value);
+            double denominator = Double.parseDouble(value.substring(slash + 1));
+            if (denominator == 0.0) return null;
+            return Double.parseDouble(value.substring(0, slash)) / denominator;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -92,7 +92,7 @@ public class ParseExif {
         data.COMPRESSION = "97";
         data.COLOR_SPACE = "sRGB";
         data.EXIF_VERSION = "0231";
-        data.IMAGE_DESCRIPTION = PhotonCamera.getParameters().toString();
+        //The description is filled in from the ParametersSnapshot of the shot once it is processed
         /*
         //saving for later use
         float sensorWidth = CameraFragment.mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE).getWidth();
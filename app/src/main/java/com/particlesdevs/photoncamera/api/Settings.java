@@ -31,6 +31,10 @@ public class Settings {
     public double gain;
     public double shadows;
     public int rawSaver;
+    public boolean compressRaw;
+    public int processingMemory;
+    public boolean streamingMerge;
+    public boolean parallelJpeg;
     public boolean QuadBayer;
     public int cfaPattern;
     public int theme;
@@ -75,6 +79,10 @@ public class Settings {
         hdrx = PreferenceKeys.isHdrxNrOn();
         cfaPattern = PreferenceKeys.getCFAValue();
         rawSaver = PreferenceKeys.isSaveRaw();
+        compressRaw = PreferenceKeys.isCompressRawOn();
+        processingMemory = PreferenceKeys.getProcessingMemoryValue();
+        streamingMerge = PreferenceKeys.isStreamingMergeOn();
+        parallelJpeg = PreferenceKeys.isParallelJpegOn();
         remosaic = PreferenceKeys.isRemosaicOn();
         eisPhoto = PreferenceKeys.isEisPhotoOn();
         QuadBayer = PreferenceKeys.isQuadBayerOn();
@@ -1,6 +1,7 @@
 package com.particlesdevs.photoncamera.app;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
@@ -28,6 +29,8 @@ import com.particlesdevs.photoncamera.debugclient.Debugger;
 import com.particlesdevs.photoncamera.pro.SensorSpecifics;
 import com.particlesdevs.photoncamera.pro.Specific;
 import com.particlesdevs.photoncamera.pro.SupportedDevice;
+import com.particlesdevs.photoncamera.processing.parameters.NoiseCalibrator;
+import com.particlesdevs.photoncamera.processing.parameters.NoiseProfileTable;
 import com.particlesdevs.photoncamera.processing.render.Parameters;
 import com.particlesdevs.photoncamera.processing.render.PreviewParameters;
 import com.particlesdevs.photoncamera.settings.MigrationManager;
@@ -37,6 +40,10 @@ import com.particlesdevs.photoncamera.ui.SplashActivity;
 import com.particlesdevs.photoncamera.util.AssetLoader;
 import com.particlesdevs.photoncamera.util.ObjectLoader;
 import com.particlesdevs.photoncamera.util.log.ActivityLifecycleMonitor;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -63,6 +70,7 @@ public class PhotonCamera extends Application {
     private AssetLoader mAssetLoader;
     private ObjectLoader objectLoader;
     private Debugger mDebugger;
+    private final Map<String, NoiseCalibrator> mNoiseCalibrators = new HashMap<>();
 
     @Nullable
     public static PhotonCamera getInstance(Context context) {
@@ -103,6 +111,31 @@ public class PhotonCamera extends Application {
         return sPhotonCamera.mPreviewParameters;
     }
 
+    /**
+     * @return noise calibration of the selected camera, loaded from the app files on first use.
+     */
+    public static NoiseCalibrator getNoiseCalibrator() {
+        String id = sPhotonCamera.mSettings.mCameraID;
+        synchronized (sPhotonCamera.mNoiseCalibrators) {
+            NoiseCalibrator calibrator = sPhotonCamera.mNoiseCalibrators.get(id);
+            if (calibrator == null) {
+                File file = new File(sPhotonCamera.getFilesDir(), "noise_calibration_" + id + ".properties");
+                calibrator = new NoiseCalibrator(NoiseProfileTable.load(file.toPath()), file.toPath());
+                sPhotonCamera.mNoiseCalibrators.put(id, calibrator);
+            }
+            return calibrator;
+        }
+    }
+
+    /**
+     * Saves the noise calibration of every camera that changed since its last save.
+     */
+    public static void flushNoiseCalibration() {
+        synchronized (sPhotonCamera.mNoiseCalibrators) {
+            for (NoiseCalibrator calibrator : sPhotonCamera.mNoiseCalibrators.values()) calibrator.flush();
+        }
+    }
+
     public static Debugger getDebugger(){
         return sPhotonCamera.mDebugger;
     }
@@ -182,6 +215,21 @@ public class PhotonCamera extends Application {
         return sPhotonCamera.getApplicationInfo().nativeLibraryDir;
     }
 
+    public static File getFilesDirectory(){
+        return sPhotonCamera.getFilesDir();
+    }
+
+    public static File getCacheDirectory(){
+        return sPhotonCamera.getCacheDir();
+    }
+
+    public static long getTotalMemory(){
+        ActivityManager activityManager = (ActivityManager) sPhotonCamera.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.totalMem;
+    }
+
     public ExecutorService getExecutorService() {
         return executorService;
     }
@@ -0,0 +1,126 @@
+package com.particlesdevs.photoncamera.capture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Barrier that completes once a burst has delivered all of its frames and gyro segments.
+ * <p>
+ * Frames are signalled from the image reader thread and gyro segments from the capture
+ * callbacks, the processing thread waits on {@link #await} instead of polling the counters.
+ */
+public class BurstCompletion {
+    /**
+     * What {@link #await} does when the burst is not complete in time.
+     */
+    public enum TimeoutPolicy {
+        /**
+         * Complete with whatever has arrived so far.
+         */
+        PROCEED,
+        /**
+         * Fail the barrier with a {@link TimeoutException}.
+         */
+        FAIL
+    }
+
+    public static class Result {
+        public final int frames;
+        public final int gyroSegments;
+        public final boolean timedOut;
+
+        Result(int frames, int gyroSegments, boolean timedOut) {
+            this.frames = frames;
+            this.gyroSegments = gyroSegments;
+            this.timedOut = timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "frames:" + frames + " gyroSegments:" + gyroSegments + " timedOut:" + timedOut;
+        }
+    }
+
+    private final AtomicInteger frames = new AtomicInteger();
+    private final AtomicInteger gyroSegments = new AtomicInteger();
+    private final CompletableFuture<Result> future = new CompletableFuture<>();
+    private volatile int expected;
+
+    public BurstCompletion(int expected) {
+        this.expected = expected;
+        tryComplete();
+    }
+
+    /**
+     * Updates the expected count, e.g. once the capture sequence reports its real frame count.
+     */
+    public void setExpected(int expected) {
+        this.expected = expected;
+        tryComplete();
+    }
+
+    public int getExpected() {
+        return expected;
+    }
+
+    public void onFrame() {
+        frames.incrementAndGet();
+        tryComplete();
+    }
+
+    public void onGyroSegment() {
+        gyroSegments.incrementAndGet();
+        tryComplete();
+    }
+
+    public CompletableFuture<Result> future() {
+        return future;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Waits for the burst to complete.
+     *
+     * @throws TimeoutException if the burst is incomplete after the timeout and the policy is
+     *                          {@link TimeoutPolicy#FAIL}.
+     */
+    public Result await(long timeout, TimeUnit unit, TimeoutPolicy policy) throws TimeoutException, InterruptedException {
+        try {
+            return future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            if (policy == TimeoutPolicy.PROCEED) {
+                future.complete(new Result(frames.get(), gyroSegments.get(), true));
+            } else {
+                future.completeExceptionally(new TimeoutException("Burst incomplete: " +
+                        new Result(frames.get(), gyroSegments.get(), true)));
+            }
+            return join();
+        } catch (ExecutionException e) {
+            return join();
+        }
+    }
+
+    private Result join() throws TimeoutException {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            if (e.getCause() instanceof TimeoutException) throw (TimeoutException) e.getCause();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void tryComplete() {
+        int target = expected;
+        int f = frames.get();
+        int g = gyroSegments.get();
+        if (f >= target && g >= target) {
+            future.complete(new Result(f, g, false));
+        }
+    }
+}
@@ -105,6 +105,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static android.hardware.camera2.CameraMetadata.CONTROL_AE_MODE_ON;
 import static android.hardware.camera2.CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
@@ -164,6 +165,10 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
      * Timeout for the pre-capture sequence.
      */
     private static final long PRECAPTURE_TIMEOUT_MS = 100;
+    /**
+     * Max time to wait for the last frames and gyro segments of a burst after the sequence completed
+     */
+    private static final long BURST_COMPLETION_TIMEOUT_MS = 1000;
     private static final int SENSOR_ORIENTATION_DEFAULT_DEGREES = 90;
     private static final int SENSOR_ORIENTATION_INVERSE_DEGREES = 270;
     /**
@@ -1448,6 +1453,16 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
         }
     }
 
+    /**
+     * Gyro events are timestamped in the elapsedRealtimeNanos base, SENSOR_TIMESTAMP only when the
+     * timestamp source is REALTIME, otherwise in the System.nanoTime base.
+     */
+    private long getGyroTimeOffset() {
+        Integer source = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        if (source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME) return 0;
+        return SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+    }
+
     /**
      * Initiate a still image capture.
      */
@@ -1667,6 +1682,7 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
 
             int frameCount = FrameNumberSelector.getFrames();
             //if (frameCount == 1) frameCount++;
+            final BurstCompletion burstCompletion = new BurstCompletion(frameCount);
             cameraEventsListener.onFrameCountSet(frameCount);
             Log.d(TAG, "HDRFact1:" + paramController.isManualMode() + " HDRFact2:" + PhotonCamera.getSettings().alignAlgorithm);
             //IsoExpoSelector.HDR = (!manualParamModel.isManualMode()) && (PhotonCamera.getSettings().alignAlgorithm == 0);
@@ -1715,13 +1731,14 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
                     captures.add(captureBuilder.build());
                     mCaptureRequest = captureBuilder.build();
                 }
-                PhotonCamera.getGyro().PrepareGyroBurst(times, BurstShakiness);
+                PhotonCamera.getGyro().PrepareGyroBurst(times, BurstShakiness, burstCompletion, getGyroTimeOffset());
             }
             double frametime = ExposureIndex.time2sec(IsoExpoSelector.GenerateExpoPair(-1, this).exposure);
             //img
             Log.d(TAG, "FrameCount:" + frameCount);
             mImageSaver = new ImageSaver(cameraEventsListener);
             mImageSaver.setFrameCount(frameCount);
+            mImageSaver.setBurstCompletion(burstCompletion);
 //            final int[] burstcount = {0, 0, frameCount};
             /*if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
                 mImageReaderRaw.discardFreeBuffers();
@@ -1778,8 +1795,16 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
                         mImageSaver.unlimitedStart(mCameraCharacteristics, result, request, cameraRotation);
                         unlimitedStarted = true;
                     }
+                    mImageSaver.onCaptureResult(mCameraCharacteristics, result, request);
                     mCaptureResult = result;
-                    if (maxFrameCount[0] != -1) PhotonCamera.getGyro().CaptureGyroBurst();
+                    if (maxFrameCount[0] != -1) {
+                        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                        Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+                        Long skew = result.get(CaptureResult.SENSOR_ROLLING_SHUTTER_SKEW);
+                        if (timestamp != null && exposure != null)
+                            PhotonCamera.getGyro().SetFrameTiming(frameCount, timestamp, exposure, skew == null ? 0 : skew);
+                        PhotonCamera.getGyro().CaptureGyroBurst();
+                    }
                 }
 
                 @Override
@@ -1813,22 +1838,20 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
                         });
                         //Future<?> result = processExecutor.submit(() -> mImageSaver.runRaw(mCameraCharacteristics, mCaptureResult, new ArrayList<>(BurstShakiness), cameraRotation));
                         taskResults.add(result);*/
+                        burstCompletion.setExpected(finalFrameCount);
+                        //The next burst may replace these fields while this one waits at the barrier
+                        final ImageSaver saver = mImageSaver;
+                        final CaptureResult captureResult = mCaptureResult;
+                        final CaptureRequest captureRequest = mCaptureRequest;
                         processExecutor.execute(() -> {
-                            int cnt = 0;
-                            //int captureNumber = PhotonCamera.getGyro().capturingNumber;
-                            while (PhotonCamera.getGyro().capturingNumber < finalFrameCount || mImageSaver.bufferSize() < finalFrameCount){
-                                if(cnt > 1000) {
-                                    Log.d(TAG, "GyroBurstTimeout");
-                                    break;
-                                }
-                                try {
-                                    Thread.sleep(1);
-                                } catch (InterruptedException ignored) {
-                                }
-                                //if(captureNumber - PhotonCamera.getGyro().capturingNumber != 0)
-                                //    cnt = 0;
-                                //else
-                                    cnt++;
+                            int frames = finalFrameCount;
+                            try {
+                                BurstCompletion.Result arrived = burstCompletion.await(BURST_COMPLETION_TIMEOUT_MS,
+                                        TimeUnit.MILLISECONDS, BurstCompletion.TimeoutPolicy.PROCEED);
+                                if (arrived.timedOut) Log.d(TAG, "GyroBurstTimeout " + arrived);
+                                frames = Math.min(finalFrameCount, arrived.frames);
+                            } catch (TimeoutException | InterruptedException e) {
+                                Log.e(TAG, "BurstCompletion:" + Log.getStackTraceString(e));
                             }
                             PhotonCamera.getGyro().CompleteSequence();
                             mBackgroundHandler.post(() -> {
@@ -1838,9 +1861,9 @@ public class CaptureController implements MediaRecorder.OnInfoListener {
                                     createCameraPreviewSession(false);
                             });
                             try{
-                            mImageSaver.updateFrameCount(mImageSaver.bufferSize());
-                            if (mImageSaver.bufferSize() != 0)
-                                mImageSaver.runRaw(mCameraCharacteristics, mCaptureResult, mCaptureRequest, new ArrayList<>(BurstShakiness), cameraRotation);
+                            saver.updateFrameCount(frames);
+                            if (frames != 0)
+                                saver.runRaw(mCameraCharacteristics, captureResult, captureRequest, new ArrayList<>(BurstShakiness), cameraRotation);
                             } catch (Exception e){
                                 Log.e(TAG, "runRaw:"+Log.getStackTraceString(e));
                                 cameraEventsListener.onProcessingError(e.getLocalizedMessage());
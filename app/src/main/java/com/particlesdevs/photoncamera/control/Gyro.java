@@ -10,6 +10,7 @@ import android.util.Log;
 import com.hunter.library.debug.HunterDebug;
 import com.particlesdevs.photoncamera.api.CameraMode;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.capture.BurstCompletion;
 
 import java.util.ArrayList;
 
@@ -20,60 +21,30 @@ public class Gyro {
     private final Sensor mGyroSensor;
     public float[] mAngles;
     private boolean gyroburst = false;
-    private float burstout = 0.f;
     private long timeCount = 0;
-    private GyroBurst gyroBurst;
     private int filter = -1;
     public int tripodShakiness = 1000;
     private static int delayPreview = 500;
     public static int delayUs = delayPreview;
     int tripodDetectCount = 600;
     int tripodCounter = 0;
-    public int gyroCircle = 1024;
-    public GyroBurst circleBurst = new GyroBurst(gyroCircle);
-    public int circleCount = 0;
+    public static int historySize = 1 << 15;
+    /**
+     * Every gyroscope sample, preview and burst alike, bursts read their frames from it.
+     */
+    public final GyroRingBuffer history = new GyroRingBuffer(historySize);
     long temp = 0;
     public static final float NS2S = 1.0f / 1000000000.0f;
-    private long prevStamp;
-    private int counter = 0;
-    boolean lock = false;
+    private long burstOrigin;
+    private long segmentStart;
+    private GyroFrameMatcher frameMatcher;
 
     private final SensorEventListener mGravityTracker = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent sensorEvent) {
             mAngles = sensorEvent.values;
-            float anglex,angley,anglez;
-            anglex = mAngles[0]*(sensorEvent.timestamp-prevStamp)*NS2S;
-            angley = mAngles[1]*(sensorEvent.timestamp-prevStamp)*NS2S;
-            anglez = mAngles[2]*(sensorEvent.timestamp-prevStamp)*NS2S;
-            if(integrate){
-                x+=anglex;
-                y+=angley;
-                z+=anglez;
-            }
-            if (gyroburst && !lock) {
-                burstout +=Math.abs(anglex);
-                burstout +=Math.abs(angley);
-                burstout +=Math.abs(anglez);
-                if(counter < gyroBurst.movementss[0].length) {
-                    gyroBurst.movementss[0][counter] = anglex;
-                    gyroBurst.movementss[1][counter] = angley;
-                    gyroBurst.movementss[2][counter] = anglez;
-                    counter++;
-                }
-
-
-            } else {
-                circleCount%=gyroCircle;
-                circleBurst.movementss[0][circleCount] = anglex;
-                circleBurst.movementss[1][circleCount] = angley;
-                circleBurst.movementss[2][circleCount] = anglez;
-                circleBurst.timestampss[circleCount] = sensorEvent.timestamp;
-                getShakiness();//For filtering
-                if(gyroburst) CompleteGyroBurst();
-                circleCount++;
-            }
-            prevStamp = sensorEvent.timestamp;
+            history.add(sensorEvent.timestamp, mAngles[0], mAngles[1], mAngles[2]);
+            if (!gyroburst) getShakiness();//For filtering
         }
 
         @Override
@@ -98,30 +69,34 @@ public class Gyro {
 
     long[] capturingTimes;
     public int capturingNumber = 0;
-    boolean integrate = false;
-    float x,y,z;
     private ArrayList<GyroBurst> BurstShakiness;
+    private BurstCompletion burstCompletion;
     public void PrepareGyroBurst(long[] capturingTimes,ArrayList<GyroBurst> burstShakiness) {
-        lock = true;
+        PrepareGyroBurst(capturingTimes, burstShakiness, null);
+    }
+    public void PrepareGyroBurst(long[] capturingTimes,ArrayList<GyroBurst> burstShakiness, BurstCompletion burstCompletion) {
+        PrepareGyroBurst(capturingTimes, burstShakiness, burstCompletion, 0);
+    }
+
+    /**
+     * @param timeOffset added to SENSOR_TIMESTAMP to get the gyro time base, see {@link GyroFrameMatcher}.
+     */
+    public void PrepareGyroBurst(long[] capturingTimes,ArrayList<GyroBurst> burstShakiness, BurstCompletion burstCompletion, long timeOffset) {
+        this.burstCompletion = burstCompletion;
+        frameMatcher = new GyroFrameMatcher(history, capturingTimes.length, timeOffset);
         capturingNumber = 0;
-        x = 0.f;
-        y = 0.f;
-        z = 0.f;
         this.capturingTimes = new long[capturingTimes.length];
         long maxTime = Long.MIN_VALUE;
         for(long time : capturingTimes){
             if(time > maxTime) maxTime = time;
         }
-        int requiredSamples = 65535;
-        //delayUs = (int) (maxTime/requiredSamples)/1000;
         delayUs = 0;
         Log.d(TAG,"Gyro DelayUs:"+delayUs);
-        gyroBurst = new GyroBurst(requiredSamples);
         System.arraycopy(capturingTimes, 0, this.capturingTimes, 0, capturingTimes.length);
         BurstShakiness = burstShakiness;
+        burstOrigin = Long.MIN_VALUE;
         unregister();
         register();
-        lock = false;
     }
 
 
@@ -130,33 +105,44 @@ public class Gyro {
         if(gyroburst){
             CompleteGyroBurst();
         }
-        counter = 0;
-        integrate = true;
+        segmentStart = history.lastTimestamp();
+        if (burstOrigin == Long.MIN_VALUE) burstOrigin = segmentStart;
         timeCount = capturingTimes[capturingNumber%capturingTimes.length]+System.nanoTime();
-        //gyroBurst.timestamps.add(System.nanoTime());
-        burstout = 0;
         gyroburst = true;
         capturingNumber++;
+        if (burstCompletion != null) burstCompletion.onGyroSegment();
+    }
+    /**
+     * Exposure timing of a burst frame from its capture result, lets {@link #CompleteSequence}
+     * match frames to gyro samples exactly.
+     */
+    public void SetFrameTiming(int frame, long timestamp, long exposure, long skew) {
+        if (frameMatcher != null) frameMatcher.setFrame(frame, timestamp, exposure, skew);
     }
+
     public void CompleteGyroBurst() {
         if(gyroburst) {
             gyroburst = false;
-            gyroBurst.shakiness = Math.min(burstout * burstout, Float.MAX_VALUE);
-            gyroBurst.samples = counter;
-            gyroBurst.integrated[0] = -x;
-            gyroBurst.integrated[1] = y;
-            gyroBurst.integrated[2] = z;
-            BurstShakiness.add(gyroBurst.clone());
+            GyroBurst gyroBurst = new GyroBurst(history, burstOrigin, segmentStart, history.lastTimestamp());
+            gyroBurst.shakiness = Math.min(gyroBurst.shakiness * gyroBurst.shakiness, Float.MAX_VALUE);
+            BurstShakiness.add(gyroBurst);
             //Log.d(TAG, "GyroBurst counter:" + BurstShakiness.size()+" sampleCount:"+counter+" shakiness:"+gyroBurst.shakiness);
         }
     }
     @HunterDebug
     public void CompleteSequence() {
-        integrate = false;
         gyroburst = false;
+        boolean matched = frameMatcher != null && frameMatcher.match(BurstShakiness);
         delayUs = delayPreview;
         unregister();
         register();
+        if (matched) {
+            for (int i = 0; i < BurstShakiness.size(); i++)
+                Log.d(TAG, "GyroBurst Shakiness[" + i + "]:" + BurstShakiness.get(i).shakiness + " sampleCount:" + BurstShakiness.get(i).samples + " exposure:" + BurstShakiness.get(i).exposure);
+            return;
+        }
+        Log.d(TAG, "GyroBurst frames without exposure timing, using capture callbacks");
+        if (BurstShakiness.isEmpty()) return;
         int avgSize = 0;
         for (GyroBurst burst : BurstShakiness) {
             avgSize += burst.samples;
@@ -167,13 +153,7 @@ public class Gyro {
             if(BurstShakiness.get(i).samples > avgSize*2){
                 shakeInteg = Math.min(avgSize,shakeInteg);
             }
-            float shakiness = 0;
-            for (int j = 0; j < shakeInteg; j++) {
-                shakiness += Math.abs(BurstShakiness.get(i).movementss[0][j]);
-                shakiness += Math.abs(BurstShakiness.get(i).movementss[1][j]);
-                shakiness += Math.abs(BurstShakiness.get(i).movementss[2][j]);
-            }
-            BurstShakiness.get(i).shakiness = shakiness;
+            BurstShakiness.get(i).shakiness = BurstShakiness.get(i).shakiness(shakeInteg);
             BurstShakiness.get(i).samples = shakeInteg;
         }
         for(int i =0; i<BurstShakiness.size();i++){
@@ -2,32 +2,151 @@ package com.particlesdevs.photoncamera.control;
 
 import androidx.annotation.NonNull;
 
-import java.util.ArrayList;
-
-public class GyroBurst {
+/**
+ * Gyroscope motion of one frame, a time window into {@link GyroRingBuffer} rather than a copy
+ * of its samples.
+ */
+public class GyroBurst implements Cloneable {
     public float shakiness;
     public int samples;
-    public float[][] movementss;
-    public long[] timestampss;
     public float[] integrated;
-    private final int maxSamples;
-    public GyroBurst(int maxSamples){
-        this.maxSamples = maxSamples;
-        movementss = new float[3][maxSamples];
-        timestampss = new long[maxSamples];
+    /**
+     * Sensor time of the burst start, {@link #integrated} counts the rotation since then.
+     */
+    public long origin;
+    /**
+     * Sensor time window of the frame.
+     */
+    public long from, to;
+    /**
+     * SENSOR_TIMESTAMP of the frame in the camera time base, exposure time and rolling shutter
+     * skew in ns. 0 for frames delimited by capture callbacks instead of their exposure.
+     */
+    public long timestamp, exposure, skew;
+    private final GyroRingBuffer history;
+
+    /**
+     * Frame delimited by capture callbacks, {@link #integrated} is the rotation at its end.
+     */
+    public GyroBurst(GyroRingBuffer history, long origin, long from, long to) {
+        this(history, origin, from, to, to);
+    }
+
+    private GyroBurst(GyroRingBuffer history, long origin, long from, long to, long position) {
+        this.history = history;
+        this.origin = origin;
+        this.from = from;
+        this.to = to;
         integrated = new float[3];
-        samples = 0;
+        double[] values = new double[5];
+        samples = history.samples(from, to);
+        if (history.integrate(from, to, values))
+            shakiness = (float) values[GyroRingBuffer.ABSOLUTE];
+        if (history.integrate(origin, position, values)) {
+            integrated[0] = (float) -values[GyroRingBuffer.ANGLE_X];
+            integrated[1] = (float) values[GyroRingBuffer.ANGLE_Y];
+            integrated[2] = (float) values[GyroRingBuffer.ANGLE_Z];
+        }
+    }
+
+    /**
+     * Frame delimited by its exposure, the first row is exposed from {@code start} for
+     * {@code exposure} ns and every next row {@code skew / (rows - 1)} later.
+     * {@link #integrated} is the rotation at the middle of the exposure of the middle row.
+     *
+     * @param start SENSOR_TIMESTAMP in the gyro time base.
+     */
+    public static GyroBurst exposure(GyroRingBuffer history, long origin, long start, long exposure, long skew) {
+        GyroBurst burst = new GyroBurst(history, origin, start, start + skew + exposure,
+                start + (skew + exposure) / 2);
+        burst.exposure = exposure;
+        burst.skew = skew;
+        return burst;
+    }
+
+    /**
+     * Integrals while a row was exposed, the whole window for frames delimited by capture callbacks.
+     *
+     * @param row position from 0 for the first row to 1 for the last one.
+     * @param out receives the {@link GyroRingBuffer} integrals, at least 5 values.
+     * @return false when the samples are no longer held.
+     */
+    public boolean rowMotion(double row, double[] out) {
+        if (exposure == 0) return history.integrate(from, to, out);
+        long start = from + Math.round(skew * row);
+        return history.integrate(start, start + exposure, out);
+    }
+
+    /**
+     * Rotation from the burst origin to the middle of the exposure of a row, in the
+     * {@link #integrated} convention.
+     *
+     * @param out receives x, y and z angles in radians.
+     * @return false when the samples are no longer held.
+     */
+    public boolean rowPosition(double row, float[] out) {
+        long position = exposure == 0 ? to : from + Math.round(skew * row) + exposure / 2;
+        double[] values = new double[5];
+        if (!history.integrate(origin, position, values)) return false;
+        out[0] = (float) -values[GyroRingBuffer.ANGLE_X];
+        out[1] = (float) values[GyroRingBuffer.ANGLE_Y];
+        out[2] = (float) values[GyroRingBuffer.ANGLE_Z];
+        return true;
+    }
+
+    /**
+     * Blur of horizontal bands of the frame.
+     *
+     * @return integral of |x| + |y| + |z| while the middle row of every band was exposed, 0 for
+     * bands whose samples are no longer held.
+     */
+    public float[] bandShakiness(int bands) {
+        float[] out = new float[bands];
+        double[] values = new double[5];
+        for (int i = 0; i < bands; i++) {
+            if (rowMotion((i + 0.5) / bands, values)) out[i] = (float) values[GyroRingBuffer.ABSOLUTE];
+        }
+        return out;
+    }
+
+    /**
+     * @return integral of |x| + |y| + |z| over the first {@code maxSamples} samples of the frame,
+     * the stored shakiness when they are no longer held.
+     */
+    public float shakiness(int maxSamples) {
+        long end = to;
+        if (maxSamples < samples) {
+            long last = history.indexAtOrBefore(from) + maxSamples;
+            if (last < history.oldest()) return shakiness;
+            end = history.timestamp(last);
+        }
+        double[] values = new double[5];
+        if (!history.integrate(from, end, values)) return shakiness;
+        return (float) values[GyroRingBuffer.ABSOLUTE];
+    }
+
+    /**
+     * @return root mean square angular velocity of the frame in rad/s, NaN when the samples are
+     * no longer held.
+     */
+    public double rms() {
+        return history.rms(from, to);
+    }
+
+    public GyroRingBuffer getHistory() {
+        return history;
     }
 
     @NonNull
     @Override
     public GyroBurst clone() {
-        GyroBurst out = new GyroBurst(maxSamples);
-        out.movementss = movementss.clone();
-        out.timestampss = timestampss.clone();
+        GyroBurst out;
+        try {
+            out = (GyroBurst) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
         out.integrated = integrated.clone();
-        out.shakiness = shakiness;
-        out.samples = samples;
         return out;
     }
 }
@@ -0,0 +1,119 @@
+package com.particlesdevs.photoncamera.control;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches the frames of a burst to gyro samples by their exposure.
+ * <p>
+ * Capture results give SENSOR_TIMESTAMP, the start of the exposure of the first row, the exposure
+ * time and the rolling shutter skew between the first and the last row. Frame {@code i} then saw
+ * the motion between {@code timestamp + offset} and {@code timestamp + offset + skew + exposure},
+ * looked up with binary searches in {@link GyroRingBuffer}. {@code offset} converts the camera
+ * time base to the gyro one, 0 when the camera timestamps are already in the realtime base.
+ */
+public class GyroFrameMatcher {
+    private final GyroRingBuffer history;
+    private final long offset;
+    private final long[] timestamps;
+    private final long[] exposures;
+    private final long[] skews;
+
+    public GyroFrameMatcher(GyroRingBuffer history, int frames, long offset) {
+        this.history = history;
+        this.offset = offset;
+        timestamps = new long[frames];
+        exposures = new long[frames];
+        skews = new long[frames];
+        Arrays.fill(timestamps, Long.MIN_VALUE);
+    }
+
+    public int frames() {
+        return timestamps.length;
+    }
+
+    /**
+     * Records the timing of a frame, from the capture result callback.
+     *
+     * @param frame index in the burst, results outside of it are ignored.
+     */
+    public void setFrame(int frame, long timestamp, long exposure, long skew) {
+        if (frame < 0 || frame >= timestamps.length) return;
+        exposures[frame] = Math.max(exposure, 0);
+        skews[frame] = Math.max(skew, 0);
+        timestamps[frame] = timestamp;
+    }
+
+    public boolean hasFrame(int frame) {
+        return timestamps[frame] != Long.MIN_VALUE;
+    }
+
+    /**
+     * @return true when every frame has its timing and the gyro samples cover all of them.
+     */
+    public boolean isComplete() {
+        for (int i = 0; i < timestamps.length; i++) {
+            if (!covered(i)) return false;
+        }
+        return timestamps.length > 0;
+    }
+
+    private boolean covered(int frame) {
+        if (!hasFrame(frame)) return false;
+        long start = timestamps[frame] + offset;
+        long end = start + skews[frame] + exposures[frame];
+        long oldest = history.oldest();
+        return history.written() > 0 && history.timestamp(oldest) <= start && history.lastTimestamp() >= end;
+    }
+
+    /**
+     * @return start of the first exposure in the gyro time base, the origin of the rotation of
+     * every frame.
+     */
+    public long origin() {
+        long origin = Long.MAX_VALUE;
+        for (long timestamp : timestamps) {
+            if (timestamp != Long.MIN_VALUE) origin = Math.min(origin, timestamp + offset);
+        }
+        return origin;
+    }
+
+    /**
+     * @return motion of the frame, null when its timing is unknown or its samples are not held.
+     */
+    public GyroBurst frame(int frame) {
+        return frame(frame, origin());
+    }
+
+    private GyroBurst frame(int frame, long origin) {
+        if (!covered(frame)) return null;
+        GyroBurst burst = GyroBurst.exposure(history, origin, timestamps[frame] + offset,
+                exposures[frame], skews[frame]);
+        burst.timestamp = timestamps[frame];
+        return burst;
+    }
+
+    /**
+     * Replaces the frames of {@code out} with the matched ones.
+     *
+     * @return false, leaving {@code out} untouched, unless {@link #isComplete()}.
+     */
+    public boolean match(List<GyroBurst> out) {
+        if (!isComplete()) return false;
+        long origin = origin();
+        out.clear();
+        for (int i = 0; i < timestamps.length; i++) out.add(frame(i, origin));
+        return true;
+    }
+
+    /**
+     * @return the frame with the given SENSOR_TIMESTAMP, e.g. {@code Image.getTimestamp()}, or null.
+     */
+    public static GyroBurst forTimestamp(List<GyroBurst> frames, long timestamp) {
+        if (timestamp == 0) return null;
+        for (GyroBurst frame : frames) {
+            if (frame.timestamp == timestamp) return frame;
+        }
+        return null;
+    }
+}
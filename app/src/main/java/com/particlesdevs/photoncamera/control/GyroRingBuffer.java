@@ -0,0 +1,276 @@
+package com.particlesdevs.photoncamera.control;
+
+import android.os.Build;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring of gyroscope samples with timestamp indexed range queries.
+ * <p>
+ * The sensor thread is the only writer, {@link #add} does not allocate or lock. Every sample
+ * also stores the running trapezoid integrals of the angular rate per axis, of its absolute
+ * values and of its squared magnitude since the first sample, so the integral over any time
+ * range is a difference of two interpolated prefix values: two binary searches, O(log n).
+ * <p>
+ * Readers may run on any thread. A sample is published once the write counter moves past it,
+ * and queries retry when the writer reused a slot they read, so a result never mixes samples
+ * of two laps. Samples are numbered from 0 in the order they were written, only the last
+ * {@link #capacity()} are kept.
+ */
+public class GyroRingBuffer {
+    /**
+     * Prefix values per sample: angle around x, y and z, integral of |x| + |y| + |z| and of
+     * x^2 + y^2 + z^2.
+     */
+    public static final int ANGLE_X = 0;
+    public static final int ANGLE_Y = 1;
+    public static final int ANGLE_Z = 2;
+    public static final int ABSOLUTE = 3;
+    public static final int SQUARED = 4;
+    private static final int VALUES = 5;
+    private static final int RETRIES = 4;
+    private static final double NS2S = 1e-9;
+
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] rates;
+    private final double[] integrals;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicInteger fence = new AtomicInteger();
+
+    /**
+     * @param capacity samples kept, rounded up to a power of two.
+     */
+    public GyroRingBuffer(int capacity) {
+        if (capacity <= 1) throw new IllegalArgumentException("capacity must be above 1:" + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        mask = size - 1;
+        timestamps = new long[size];
+        rates = new float[size * 3];
+        integrals = new double[size * VALUES];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds a sample, from the sensor thread only.
+     *
+     * @param timestamp sensor time in ns, samples older than the last one are dropped.
+     * @param x         angular rate in rad/s.
+     * @return false when the sample was dropped.
+     */
+    public boolean add(long timestamp, float x, float y, float z) {
+        long index = written.get();
+        int slot = (int) (index & mask);
+        int out = slot * VALUES;
+        if (index > 0) {
+            int previous = (int) ((index - 1) & mask);
+            long dtNs = timestamp - timestamps[previous];
+            if (dtNs < 0) return false;
+            double dt = dtNs * NS2S;
+            float px = rates[previous * 3];
+            float py = rates[previous * 3 + 1];
+            float pz = rates[previous * 3 + 2];
+            int in = previous * VALUES;
+            integrals[out + ANGLE_X] = integrals[in + ANGLE_X] + (px + x) * 0.5 * dt;
+            integrals[out + ANGLE_Y] = integrals[in + ANGLE_Y] + (py + y) * 0.5 * dt;
+            integrals[out + ANGLE_Z] = integrals[in + ANGLE_Z] + (pz + z) * 0.5 * dt;
+            integrals[out + ABSOLUTE] = integrals[in + ABSOLUTE]
+                    + (absolute(px, py, pz) + absolute(x, y, z)) * 0.5 * dt;
+            integrals[out + SQUARED] = integrals[in + SQUARED]
+                    + (squared(px, py, pz) + squared(x, y, z)) * 0.5 * dt;
+        } else {
+            for (int i = 0; i < VALUES; i++) integrals[out + i] = 0.0;
+        }
+        timestamps[slot] = timestamp;
+        rates[slot * 3] = x;
+        rates[slot * 3 + 1] = y;
+        rates[slot * 3 + 2] = z;
+        written.lazySet(index + 1);
+        return true;
+    }
+
+    /**
+     * @return number of samples written so far, the index the next sample gets.
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * @return index of the oldest sample still held.
+     */
+    public long oldest() {
+        return Math.max(0, written.get() - capacity() + 1);
+    }
+
+    /**
+     * @return timestamp of the newest sample, {@link Long#MIN_VALUE} when there is none.
+     */
+    public long lastTimestamp() {
+        long index = written.get() - 1;
+        return index < 0 ? Long.MIN_VALUE : timestamps[(int) (index & mask)];
+    }
+
+    /**
+     * @return timestamp of sample {@code index}, which must still be held.
+     */
+    public long timestamp(long index) {
+        return timestamps[(int) (index & mask)];
+    }
+
+    /**
+     * @param axis 0, 1 or 2.
+     * @return angular rate of sample {@code index} in rad/s.
+     */
+    public float rate(long index, int axis) {
+        return rates[(int) (index & mask) * 3 + axis];
+    }
+
+    /**
+     * @return index of the last sample at or before {@code time}, {@code oldest() - 1} when all
+     * held samples are later.
+     */
+    public long indexAtOrBefore(long time) {
+        long end = written.get();
+        return search(time, Math.max(0, end - capacity() + 1), end - 1);
+    }
+
+    private long search(long time, long low, long high) {
+        long result = low - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            if (timestamps[(int) (middle & mask)] <= time) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Integrals over {@code [from, to]}, interpolating the rate linearly between samples.
+     *
+     * @param out receives the {@link #ANGLE_X} to {@link #SQUARED} integrals, at least 5 values.
+     * @return false when the held samples do not cover the range, {@code out} is then zero.
+     */
+    public boolean integrate(long from, long to, double[] out) {
+        for (int attempt = 0; attempt < RETRIES; attempt++) {
+            long end = written.get();
+            long low = Math.max(0, end - capacity() + 1);
+            long high = end - 1;
+            if (high < low || to < from || from < timestamps[(int) (low & mask)]
+                    || to > timestamps[(int) (high & mask)]) {
+                for (int i = 0; i < VALUES; i++) out[i] = 0.0;
+                return false;
+            }
+            long first = search(from, low, high);
+            long last = search(to, first, high);
+            for (int i = 0; i < VALUES; i++) out[i] = valueAt(last, to, i, high) - valueAt(first, from, i, high);
+            loadFence();
+            //The writer reuses the slot of sample written - capacity while it writes sample written
+            if (written.get() - capacity() < first) return true;
+        }
+        for (int i = 0; i < VALUES; i++) out[i] = 0.0;
+        return false;
+    }
+
+    /**
+     * Keeps the sample reads before the following read of the write counter, which an acquire
+     * read alone does not. VarHandle fences exist from Android 13, older releases get the same
+     * ordering from the release store of a read-modify-write.
+     */
+    private void loadFence() {
+        if (Build.VERSION.SDK_INT >= 33) VarHandle.acquireFence();
+        else fence.getAndIncrement();
+    }
+
+    /**
+     * Prefix value {@code value} at {@code time}, between sample {@code index} and the next one.
+     */
+    private double valueAt(long index, long time, int value, long high) {
+        int slot = (int) (index & mask);
+        double base = integrals[slot * VALUES + value];
+        long dtNs = time - timestamps[slot];
+        if (dtNs == 0 || index >= high) return base;
+        int next = (int) ((index + 1) & mask);
+        double f = dtNs / (double) (timestamps[next] - timestamps[slot]);
+        double x0 = rates[slot * 3];
+        double y0 = rates[slot * 3 + 1];
+        double z0 = rates[slot * 3 + 2];
+        double x = x0 + (rates[next * 3] - x0) * f;
+        double y = y0 + (rates[next * 3 + 1] - y0) * f;
+        double z = z0 + (rates[next * 3 + 2] - z0) * f;
+        double start;
+        double now;
+        switch (value) {
+            case ANGLE_X:
+                start = x0;
+                now = x;
+                break;
+            case ANGLE_Y:
+                start = y0;
+                now = y;
+                break;
+            case ANGLE_Z:
+                start = z0;
+                now = z;
+                break;
+            case ABSOLUTE:
+                start = absolute(x0, y0, z0);
+                now = absolute(x, y, z);
+                break;
+            default:
+                start = squared(x0, y0, z0);
+                now = squared(x, y, z);
+                break;
+        }
+        return base + (start + now) * 0.5 * dtNs * NS2S;
+    }
+
+    /**
+     * @return rotation angles around x, y and z between the timestamps in radians, null when the
+     * held samples do not cover the range.
+     */
+    public double[] rotation(long from, long to) {
+        double[] values = new double[VALUES];
+        if (!integrate(from, to, values)) return null;
+        return new double[]{values[ANGLE_X], values[ANGLE_Y], values[ANGLE_Z]};
+    }
+
+    /**
+     * @return root mean square angular velocity in the window in rad/s, NaN when the held
+     * samples do not cover it.
+     */
+    public double rms(long from, long to) {
+        double[] values = new double[VALUES];
+        if (to <= from || !integrate(from, to, values)) return Double.NaN;
+        return Math.sqrt(values[SQUARED] / ((to - from) * NS2S));
+    }
+
+    /**
+     * @return number of samples after {@code from} up to {@code to}.
+     */
+    public int samples(long from, long to) {
+        long end = written.get();
+        long low = Math.max(0, end - capacity() + 1);
+        long first = search(from, low, end - 1);
+        long last = search(to, low, end - 1);
+        return (int) Math.max(0, last - first);
+    }
+
+    private static double absolute(double x, double y, double z) {
+        return Math.abs(x) + Math.abs(y) + Math.abs(z);
+    }
+
+    private static double squared(double x, double y, double z) {
+        return x * x + y * y + z * z;
+    }
+}
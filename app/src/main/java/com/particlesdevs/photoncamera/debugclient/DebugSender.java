@@ -8,12 +8,14 @@ import android.util.Log;
 
 import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.processing.FrameStore;
 import com.particlesdevs.photoncamera.processing.ProcessingEventsListener;
 import com.particlesdevs.photoncamera.processing.SaverImplementation;
 import android.media.Image;
 
 
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class DebugSender extends SaverImplementation {
     public DebugSender(ProcessingEventsListener processingEventsListener) {
@@ -22,15 +24,21 @@ public class DebugSender extends SaverImplementation {
 
     public void addRAW16(Image image) {
         image.getFormat();
-        IMAGE_BUFFER.add(image);
+        bufferImage(image);
     }
 
     public void runRaw(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
         super.runRaw(imageFormat,characteristics,captureResult, captureRequest,burstShakiness,cameraRotation);
         Log.d("DebugSender","RunDebug sender");
-        PhotonCamera.getDebugger().debugClient.sendRaw(IMAGE_BUFFER.get(0));
+        ArrayList<FrameStore.Frame> frames = new ArrayList<>();
+        IMAGE_BUFFER.drainBurst(burstId, 1, frames, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (frames.isEmpty()) {
+            Log.e("DebugSender", "No frames received for burst:" + burstId);
+            return;
+        }
+        PhotonCamera.getDebugger().debugClient.sendRaw(frames.get(0).image());
+        frames.get(0).close();
         processingEventsListener.onProcessingFinished("Saved Unprocessed RAW");
-        IMAGE_BUFFER.clear();
         //clearImageReader(imageReader);
     }
 
@@ -0,0 +1,152 @@
+package com.particlesdevs.photoncamera.processing;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer for burst frames.
+ * <p>
+ * The camera handler thread is the only producer and the processing thread that drains a burst
+ * is the only consumer. Every frame is tagged with the id of the burst it belongs to, so frames
+ * of burst N+1 that arrive while burst N is still being drained are never handed to burst N.
+ * Waiting on either side parks the thread instead of spinning, and a full buffer applies
+ * backpressure to the producer.
+ * <p>
+ * Bursts must be drained in the order they were started. Frames left over from an older burst
+ * are handed to the {@link Releaser} when a newer burst is drained.
+ */
+public class BurstRingBuffer<T> {
+    public interface Releaser<T> {
+        void release(T item);
+    }
+
+    private final Object[] items;
+    private final long[] bursts;
+    private final int mask;
+    private final Releaser<T> releaser;
+    //Next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //Next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong burstCounter = new AtomicLong();
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity maximum number of frames held, rounded up to a power of two.
+     * @param releaser called for frames that are dropped or left over from an older burst.
+     */
+    public BurstRingBuffer(int capacity, Releaser<T> releaser) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive:" + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        items = new Object[size];
+        bursts = new long[size];
+        mask = size - 1;
+        this.releaser = releaser;
+    }
+
+    /**
+     * Starts a new burst.
+     *
+     * @return id used to tag and later drain the frames of this burst.
+     */
+    public long beginBurst() {
+        return burstCounter.incrementAndGet();
+    }
+
+    public long currentBurst() {
+        return burstCounter.get();
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Adds a frame, waiting for free space if the buffer is full.
+     *
+     * @return false if no slot became free within the timeout, the frame is not added.
+     */
+    public boolean offer(long burstId, T item, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long t = tail.get();
+        while (t - head.get() >= items.length) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            parkedProducer = Thread.currentThread();
+            if (t - head.get() >= items.length) LockSupport.parkNanos(this, remaining);
+            parkedProducer = null;
+        }
+        int index = (int) (t & mask);
+        items[index] = item;
+        bursts[index] = burstId;
+        //Volatile write publishes the slot to the consumer
+        tail.set(t + 1);
+        Thread consumer = parkedConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Moves up to {@code count} frames of the given burst into {@code out}, waiting for frames
+     * that have not arrived yet. Frames of older bursts found on the way are released, frames of
+     * newer bursts are left in the buffer.
+     *
+     * @return number of frames moved into {@code out}.
+     */
+    public int drainBurst(long burstId, int count, Collection<? super T> out, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int drained = 0;
+        long h = head.get();
+        while (drained < count) {
+            if (h == tail.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                parkedConsumer = Thread.currentThread();
+                if (h == tail.get()) LockSupport.parkNanos(this, remaining);
+                parkedConsumer = null;
+                continue;
+            }
+            int index = (int) (h & mask);
+            long itemBurst = bursts[index];
+            if (itemBurst > burstId) break;
+            @SuppressWarnings("unchecked")
+            T item = (T) items[index];
+            items[index] = null;
+            head.set(++h);
+            Thread producer = parkedProducer;
+            if (producer != null) LockSupport.unpark(producer);
+            if (itemBurst == burstId) {
+                out.add(item);
+                drained++;
+            } else if (releaser != null) {
+                releaser.release(item);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Releases every buffered frame. Must be called from the consumer side.
+     */
+    public void clear() {
+        long h = head.get();
+        while (h != tail.get()) {
+            int index = (int) (h & mask);
+            @SuppressWarnings("unchecked")
+            T item = (T) items[index];
+            items[index] = null;
+            head.set(++h);
+            if (releaser != null) releaser.release(item);
+        }
+        Thread producer = parkedProducer;
+        if (producer != null) LockSupport.unpark(producer);
+    }
+}
@@ -1,8 +1,11 @@
 package com.particlesdevs.photoncamera.processing;
 
+import android.graphics.ImageFormat;
+import android.graphics.Point;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.params.BlackLevelPattern;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.AsyncTask;
@@ -12,21 +15,44 @@ import com.hunter.library.debug.HunterDebug;
 import com.particlesdevs.photoncamera.api.CameraMode;
 import com.particlesdevs.photoncamera.api.ParseExif;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.capture.CaptureController;
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.control.GyroFrameMatcher;
+import com.particlesdevs.photoncamera.processing.parameters.FrameNumberSelector;
+import com.particlesdevs.photoncamera.processing.parameters.IsoExpoSelector;
+import com.particlesdevs.photoncamera.processing.parameters.LuckyFrameSelector;
+import com.particlesdevs.photoncamera.processing.parameters.NoiseCalibrator;
 import com.particlesdevs.photoncamera.processing.processor.HdrxProcessor;
+import com.particlesdevs.photoncamera.processing.processor.ShotJob;
+import com.particlesdevs.photoncamera.processing.processor.ShotProcessingQueue;
 import com.particlesdevs.photoncamera.processing.processor.UnlimitedProcessor;
+import com.particlesdevs.photoncamera.processing.render.Parameters;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class DefaultSaver extends SaverImplementation {
     private static final String TAG = "DefaultSaver";
+    /**
+     * Direct memory that queued and running shots may hold together, until the first shot
+     * applies the processing memory setting
+     */
+    private static final long SHOT_MEMORY_BUDGET = 1536L << 20;
+    private static final ShotProcessingQueue SHOT_QUEUE = new ShotProcessingQueue(SHOT_MEMORY_BUDGET);
     final UnlimitedProcessor mUnlimitedProcessor;
     final HdrxProcessor hdrxProcessor;
+    /**
+     * Frames of all bursts, spilled once the frames in flight cross the budget. Shared by the
+     * savers, so the regions of processed shots are reused by the next bursts.
+     */
+    private static FrameStore frameStore;
 
     public DefaultSaver(ProcessingEventsListener processingEventsListener) {
         super(processingEventsListener);
@@ -37,79 +63,219 @@ public class DefaultSaver extends SaverImplementation {
     @HunterDebug
     public void runRaw(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
         super.runRaw(imageFormat, characteristics, captureResult,captureRequest, burstShakiness, cameraRotation);
-        //Wait for one frame at least.
-        Log.d(TAG, "Acquiring:" + IMAGE_BUFFER.size());
-        while (bufferLock){}
-        Log.d(TAG, "Acquired:" + IMAGE_BUFFER.size());
-        bufferLock = true;
-        Log.d(TAG,"Size:"+IMAGE_BUFFER.size());
+        applyMemoryBudget();
+        Log.d(TAG, "Acquiring burst:" + burstId + " buffered:" + IMAGE_BUFFER.size());
         if (PhotonCamera.getSettings().frameCount == 1) {
+            ArrayList<FrameStore.Frame> single = new ArrayList<>();
+            IMAGE_BUFFER.drainBurst(burstId, 1, single, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (single.isEmpty()) {
+                Log.e(TAG, "No frames received for burst:" + burstId);
+                processingEventsListener.onProcessingError("No frames received");
+                return;
+            }
             Path dngFile = ImagePath.newDNGFilePath();
-            Log.d(TAG, "Size:" + IMAGE_BUFFER.size());
-            boolean imageSaved = ImageSaver.Util.saveSingleRaw(dngFile, IMAGE_BUFFER.get(0),
-                    characteristics, captureResult, cameraRotation);
+            Image image = single.get(0).image();
+            Parameters parameters = new Parameters();
+            parameters.FillConstParameters(characteristics, new Point(image.getWidth(), image.getHeight()));
+            Integer iso = captureResult.get(CaptureResult.SENSOR_SENSITIVITY);
+            parameters.FillDynamicParameters(captureResult, captureRequest, iso != null ? iso : 100);
+            parameters.cameraRotation = cameraRotation;
+            boolean imageSaved = ImageSaver.Util.saveSingleRaw(dngFile, image,
+                    characteristics, captureResult, parameters.snapshot(), cameraRotation);
             processingEventsListener.notifyImageSavedStatus(imageSaved, dngFile);
             processingEventsListener.onProcessingFinished("Saved Unprocessed RAW");
-            IMAGE_BUFFER.clear();
-            bufferLock = false;
+            single.get(0).close();
+            return;
+        }
+        if (streamingBurst != null) {
+            runStreaming(imageFormat, characteristics, captureResult, captureRequest, burstShakiness, cameraRotation);
+            return;
+        }
+        FrameStore store = frameStore();
+        try {
+            //Spilled frames reach the burst buffer once copied
+            store.flush();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while spilling burst:" + burstId);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (store.getSpilledBytes() > 0)
+            Log.d(TAG, "Spilled " + (store.getSpilledBytes() >> 20) + "MB at " + store.getSpillBandwidth()
+                    + " MB/s, spill file:" + (store.getFileBytes() >> 20) + "MB");
+        ArrayList<FrameStore.Frame> slicedBuffer = new ArrayList<>();
+        IMAGE_BUFFER.drainBurst(burstId, frameCount, slicedBuffer, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Log.d(TAG, "Acquired:" + slicedBuffer.size());
+        if (slicedBuffer.isEmpty()) {
+            Log.e(TAG, "No frames received for burst:" + burstId);
+            processingEventsListener.onProcessingError("No frames received");
+            return;
+        }
+
+        if (imageFormat == ImageFormat.RAW_SENSOR && NoiseCalibrator.enabled) {
+            //Width with the row padding, the patches are placed well inside of it
+            FrameStore.Frame first = slicedBuffer.get(0);
+            calibrateNoise(first.buffer(), first.width, first.height, first.rowStride, characteristics, captureResult);
+        }
+        int[] frameNumbers = null;
+        float[] sharpness = null;
+        if (imageFormat == CaptureController.RAW_FORMAT) {
+            sharpness = new float[slicedBuffer.size()];
+            for (int i = 0; i < sharpness.length; i++)
+                sharpness[i] = FRAME_SHARPNESS.get(slicedBuffer.get(i).timestamp);
+            frameNumbers = dropUnluckyFrames(slicedBuffer, burstShakiness, sharpness);
+        }
+        queueShot(imageFormat, slicedBuffer, frameNumbers, sharpness, 0, characteristics, captureResult, captureRequest,
+                burstShakiness, cameraRotation);
+    }
+
+    /**
+     * Queues the frame {@link StreamingBurst} merged the burst into while it was captured.
+     */
+    private void runStreaming(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult,
+                              CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
+        //Sets the noise model when no capture result came before the last frame
+        streamingBurst.setCapture(characteristics, captureResult, captureRequest);
+        StreamingBurst.Result merged;
+        try {
+            merged = streamingBurst.finish();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while merging burst:" + burstId);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (merged == null) {
+            Log.e(TAG, "No frames merged for burst:" + burstId);
+            processingEventsListener.onProcessingError("No frames received");
             return;
         }
+        Log.d(TAG, "Merged " + merged.frames + " frames while capturing burst:" + burstId);
+        ArrayList<FrameStore.Frame> frames = new ArrayList<>();
+        frames.add(frameStore().add(merged.image));
+        queueShot(imageFormat, frames, new int[]{merged.number}, null, merged.frames, characteristics,
+                captureResult, captureRequest, burstShakiness, cameraRotation);
+    }
+
+    /**
+     * @param mergedFrames frames merged into the only frame while captured, 0 when not merged.
+     */
+    private void queueShot(int imageFormat, ArrayList<FrameStore.Frame> frames, int[] frameNumbers, float[] sharpness,
+                           int mergedFrames, CameraCharacteristics characteristics, CaptureResult captureResult,
+                           CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
         Path dngFile = ImagePath.newDNGFilePath();
         Path jpgFile = ImagePath.newJPGFilePath();
-        //Remove broken images
-            /*for(int i =0; i<IMAGE_BUFFER.size();i++){
-                try{
-                    IMAGE_BUFFER.get(i).getFormat();
-                } catch (IllegalStateException e){
-                    IMAGE_BUFFER.remove(i);
-                    i--;
-                    Log.d(TAG,"IMGBufferSize:"+IMAGE_BUFFER.size());
-                    e.printStackTrace();
-                }
-            }*/
-        hdrxProcessor.configure(
-                PhotonCamera.getSettings().alignAlgorithm,
-                PhotonCamera.getSettings().rawSaver,
-                PhotonCamera.getSettings().selectedMode
-        );
-        ArrayList<Image> slicedBuffer = new ArrayList<>();
-        ArrayList<Image> imagebuffer = new ArrayList<>();
-        for(int i =0; i<frameCount;i++){
-            slicedBuffer.add(IMAGE_BUFFER.get(i));
+        ShotJob job = new ShotJob.Builder()
+                .setOutput(dngFile, jpgFile)
+                .setExifData(ParseExif.parse(captureResult, captureRequest))
+                .setFrames(frames, imageFormat)
+                .setGyroBursts(burstShakiness)
+                .setLuckyFrames(frameNumbers, sharpness)
+                .setCapture(characteristics, captureResult, captureRequest, cameraRotation)
+                .setConfig(PhotonCamera.getSettings().alignAlgorithm,
+                        PhotonCamera.getSettings().rawSaver,
+                        PhotonCamera.getSettings().compressRaw,
+                        PhotonCamera.getSettings().selectedMode)
+                .setMerge(PhotonCamera.getSettings().streamingMerge, mergedFrames)
+                .setProcessor(hdrxProcessor, processingCallback)
+                .build();
+        try {
+            SHOT_QUEUE.submit(job);
+            Log.d(TAG, "Queued burst:" + burstId + " queue depth:" + SHOT_QUEUE.getQueueDepth());
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while queueing burst:" + burstId);
+            for (FrameStore.Frame frame : frames) frame.close();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws away the frames {@link LuckyFrameSelector} finds too blurred before the shot is
+     * queued, so their memory goes back and the queue reserves memory only for the kept ones.
+     *
+     * @param sharpness sharpness of every frame, NaN when unknown.
+     * @return capture index of every kept frame.
+     */
+    private int[] dropUnluckyFrames(ArrayList<FrameStore.Frame> frames, List<GyroBurst> burstShakiness, float[] sharpness) {
+        int count = frames.size();
+        float[] shakiness = new float[count];
+        for (int i = 0; i < count; i++) {
+            GyroBurst gyro = GyroFrameMatcher.forTimestamp(burstShakiness, frames.get(i).timestamp);
+            if (gyro == null && i < burstShakiness.size()) gyro = burstShakiness.get(i);
+            shakiness[i] = gyro != null ? gyro.shakiness : 0.f;
         }
-        for(int i = frameCount; i<IMAGE_BUFFER.size();i++){
-            imagebuffer.add(IMAGE_BUFFER.get(i));
+        float[] blur = LuckyFrameSelector.blur(shakiness, sharpness);
+        boolean[] rejected = LuckyFrameSelector.reject(blur, FrameNumberSelector.throwCount);
+        int[] kept = new int[count];
+        int size = 0;
+        ArrayList<FrameStore.Frame> lucky = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Log.d(TAG, "unlucky map:" + blur[i] + " gyro:" + shakiness[i] + " sharpness:" + sharpness[i] + " n:" + i);
+            if (rejected[i]) {
+                Log.d(TAG, "Removing unlucky:" + blur[i] + " number:" + i);
+                frames.get(i).close();
+                continue;
+            }
+            lucky.add(frames.get(i));
+            kept[size++] = i;
         }
-        IMAGE_BUFFER.clear();
-        IMAGE_BUFFER = imagebuffer;
-        bufferLock = false;
-        for(int i =0; i<slicedBuffer.size();i++){
-            try{
-                slicedBuffer.get(i).getFormat();
-            } catch (IllegalStateException e){
-                slicedBuffer.remove(i);
-                i--;
-                Log.d(TAG,"IMGBufferSize:"+slicedBuffer.size());
-                Log.d(TAG,Log.getStackTraceString(e));
+        frames.clear();
+        frames.addAll(lucky);
+        Log.d(TAG, "Size after removal:" + size);
+        return Arrays.copyOf(kept, size);
+    }
+
+    /**
+     * Measures the sensor noise on the first frame of a burst, for the parameters of later shots.
+     */
+    static void calibrateNoise(ByteBuffer raw, int width, int height, int rowStride,
+                               CameraCharacteristics characteristics, CaptureResult captureResult) {
+        try {
+            int iso = IsoExpoSelector.fullpairs.isEmpty() ? 0 : IsoExpoSelector.fullpairs.get(0).iso;
+            Integer resultIso = captureResult.get(CaptureResult.SENSOR_SENSITIVITY);
+            if (iso <= 0 && resultIso != null) iso = resultIso;
+            if (iso <= 0) return;
+            float[] blackLevel = captureResult.get(CaptureResult.SENSOR_DYNAMIC_BLACK_LEVEL);
+            if (blackLevel == null) {
+                BlackLevelPattern pattern = characteristics.get(CameraCharacteristics.SENSOR_BLACK_LEVEL_PATTERN);
+                blackLevel = new float[4];
+                for (int i = 0; i < 4 && pattern != null; i++)
+                    blackLevel[i] = pattern.getOffsetForIndex(i & 1, i >> 1);
             }
+            Integer whiteLevel = captureResult.get(CaptureResult.SENSOR_DYNAMIC_WHITE_LEVEL);
+            if (whiteLevel == null) whiteLevel = characteristics.get(CameraCharacteristics.SENSOR_INFO_WHITE_LEVEL);
+            if (whiteLevel == null) whiteLevel = 1023;
+            Integer cfa = characteristics.get(CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
+            int cfaPattern = PhotonCamera.getSettings().cfaPattern >= 0 ? PhotonCamera.getSettings().cfaPattern
+                    : cfa == null ? 0 : cfa;
+            PhotonCamera.getNoiseCalibrator().offer(raw, width, height, rowStride, cfaPattern, blackLevel, whiteLevel, iso);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Noise calibration failed:" + Log.getStackTraceString(e));
         }
+    }
 
-        Log.d(TAG,"moving images");
-        //Log.d(TAG,"moved images:"+slicedBuffer.size());
-        hdrxProcessor.start(
-                dngFile,
-                jpgFile,
-                ParseExif.parse(captureResult, captureRequest),
-                burstShakiness,
-                slicedBuffer,
-                imageFormat,
-                cameraRotation,
-                characteristics,
-                captureResult,
-                captureRequest,
-                processingCallback
-        );
-        slicedBuffer.clear();
+    /**
+     * Sizes the shot queue from the processing memory setting, or from the device memory when
+     * the setting is on auto. Half of it may be held by frames still in their camera Images,
+     * frames past that are spilled as they arrive.
+     */
+    static void applyMemoryBudget() {
+        int megabytes = PhotonCamera.getSettings().processingMemory;
+        long budget = megabytes > 0 ? (long) megabytes << 20
+                : ShotProcessingQueue.budgetFor(PhotonCamera.getTotalMemory());
+        if (budget != SHOT_QUEUE.getMemoryBudget()) {
+            Log.d(TAG, "Shot memory budget:" + (budget >> 20) + "MB");
+            SHOT_QUEUE.setMemoryBudget(budget);
+            FrameStore.setBudgetBytes(budget / 2);
+        }
+    }
+
+    static synchronized FrameStore frameStore() {
+        if (frameStore == null) frameStore = new FrameStore(PhotonCamera.getCacheDirectory().toPath());
+        return frameStore;
+    }
+
+    public static ShotProcessingQueue getShotQueue() {
+        return SHOT_QUEUE;
     }
 
     public void unlimitedStart(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, int cameraRotation) {
@@ -117,7 +283,8 @@ public class DefaultSaver extends SaverImplementation {
         Path dngFile = ImagePath.newDNGFilePath();
         Path jpgFile = ImagePath.newJPGFilePath();
 
-        mUnlimitedProcessor.configure(PhotonCamera.getSettings().rawSaver);
+        mUnlimitedProcessor.configure(PhotonCamera.getSettings().rawSaver, PhotonCamera.getSettings().compressRaw,
+                new File(PhotonCamera.getFilesDirectory(), "unlimited_stack.bin").toPath());
         mUnlimitedProcessor.unlimitedStart(
                 dngFile,
                 jpgFile,
@@ -0,0 +1,399 @@
+package com.particlesdevs.photoncamera.processing;
+
+import android.media.Image;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Holds the raw frames of shots until they are processed.
+ * <p>
+ * Frames are added as they are acquired. A frame stays in its camera {@link Image} while the
+ * frames of all shots in flight fit into {@link #setBudgetBytes the budget}. Past that it is
+ * copied to the spill file of the store and mapped back, and the Image is closed right after
+ * so the ImageReader can hand it out again. {@link #add(Image, Consumer)} copies on the spill
+ * thread of the store, so the camera thread never waits for the disk; frames behind a spill
+ * wait for it, so they are handed on in the order they were added. Merge reads both kinds
+ * through {@link Frame#buffer}, a view of the Image plane or of the mapping, never a copy.
+ * Spilled pages are file backed, so the kernel can write them out under memory pressure
+ * instead of killing the process.
+ * <p>
+ * One store is meant to live as long as the camera. Its spill file is unlinked as soon as it is
+ * open, so nothing is left behind by a killed process. Closing a spilled frame gives its region
+ * back to the store, later frames are spilled into free regions before the file grows, and free
+ * regions at the end of the file are cut off, so the file only holds the frames still in
+ * flight. The mapping of a closed frame still takes address space until the GC collects it,
+ * views of it must not be used after {@link Frame#close}.
+ */
+public class FrameStore implements Closeable {
+    private static final String TAG = "FrameStore";
+    private static final long PAGE = 4096;
+
+    public static boolean enabled = true;
+    private static volatile long budgetBytes = 768L << 20;
+    private static final AtomicLong resident = new AtomicLong();
+
+    private final Path directory;
+    private final ExecutorService spiller = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Free regions of the spill file by offset, adjacent regions are joined.
+     */
+    private final TreeMap<Long, Long> free = new TreeMap<>();
+    private RandomAccessFile file;
+    private long fileBytes;
+    private int pending;
+    private long spilledBytes;
+    private long spillNs;
+
+    /**
+     * @param directory where the spill file is created when a frame needs it.
+     */
+    public FrameStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param bytes frames that may stay in camera Images over all shots in flight.
+     */
+    public static void setBudgetBytes(long bytes) {
+        budgetBytes = bytes;
+    }
+
+    public static long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Stores a RAW16 frame, the Image is closed by the store from now on.
+     *
+     * @param stored takes the frame, right away when it stays in memory and nothing is being
+     *               spilled, on the spill thread otherwise.
+     */
+    public void add(Image image, Consumer<Frame> stored) {
+        Image.Plane plane = image.getPlanes()[0];
+        add(plane.getBuffer(), plane.getRowStride() / plane.getPixelStride(), image.getHeight(),
+                plane.getRowStride(), image.getTimestamp(), image::close, frame -> {
+                    if (!frame.spilled) frame.image = image;
+                    stored.accept(frame);
+                });
+    }
+
+    /**
+     * Stores a RAW16 frame on the calling thread, the Image is closed by the store from now on.
+     */
+    public Frame add(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        Frame frame = add(plane.getBuffer(), plane.getRowStride() / plane.getPixelStride(), image.getHeight(),
+                plane.getRowStride(), image.getTimestamp(), image::close);
+        if (!frame.spilled) frame.image = image;
+        return frame;
+    }
+
+    /**
+     * Holds a RAW16 frame that is handed on as an Image, counted in the budget but never spilled.
+     * The Image is closed by the frame from now on.
+     */
+    public static Frame keep(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buffer = plane.getBuffer();
+        resident.addAndGet(buffer.capacity());
+        Frame frame = new Frame(buffer, plane.getRowStride() / plane.getPixelStride(), image.getHeight(),
+                plane.getRowStride(), image.getTimestamp(), image::close, null, 0, 0);
+        frame.image = image;
+        return frame;
+    }
+
+    /**
+     * @param width   samples per row, padding included.
+     * @param release returns the memory behind {@code buffer}, run when the frame is spilled or
+     *                closed.
+     * @param stored  takes the frame, right away when it stays in memory and nothing is being
+     *                spilled, on the spill thread otherwise.
+     */
+    public void add(ByteBuffer buffer, int width, int height, int rowStride, long timestamp, Runnable release,
+                    Consumer<Frame> stored) {
+        long bytes = buffer.capacity();
+        boolean over = resident.addAndGet(bytes) > budgetBytes && enabled;
+        boolean queue;
+        synchronized (this) {
+            queue = over || pending > 0;
+            if (queue) pending++;
+        }
+        if (!queue) {
+            stored.accept(new Frame(buffer, width, height, rowStride, timestamp, release, null, 0, 0));
+            return;
+        }
+        spiller.execute(() -> {
+            Frame frame = store(buffer, width, height, rowStride, timestamp, release, bytes);
+            synchronized (this) {
+                pending--;
+            }
+            stored.accept(frame);
+        });
+    }
+
+    /**
+     * Stores a frame on the calling thread.
+     *
+     * @param width   samples per row, padding included.
+     * @param release returns the memory behind {@code buffer}, run when the frame is spilled or
+     *                closed.
+     */
+    public Frame add(ByteBuffer buffer, int width, int height, int rowStride, long timestamp, Runnable release) {
+        long bytes = buffer.capacity();
+        resident.addAndGet(bytes);
+        return store(buffer, width, height, rowStride, timestamp, release, bytes);
+    }
+
+    /**
+     * Spills the frame when the frames in memory, this one included, are past the budget.
+     */
+    private Frame store(ByteBuffer buffer, int width, int height, int rowStride, long timestamp, Runnable release,
+                        long bytes) {
+        if (resident.get() > budgetBytes && enabled) {
+            long start = System.nanoTime();
+            long size = (bytes + PAGE - 1) / PAGE * PAGE;
+            long offset = -1;
+            try {
+                offset = allocate(size);
+                ByteBuffer mapped = spill(buffer, offset);
+                resident.addAndGet(-bytes);
+                release.run();
+                synchronized (this) {
+                    spilledBytes += bytes;
+                    spillNs += System.nanoTime() - start;
+                }
+                Log.d(TAG, "Spilled " + bytes + " bytes, " + getSpillBandwidth() + " MB/s");
+                return new Frame(mapped, width, height, rowStride, timestamp, null, this, offset, size);
+            } catch (IOException e) {
+                if (offset >= 0) free(offset, size);
+                Log.e(TAG, "Spill failed, frame stays in memory:" + e);
+            }
+        }
+        return new Frame(buffer, width, height, rowStride, timestamp, release, null, 0, 0);
+    }
+
+    /**
+     * @return offset of a free region of {@code size} bytes, the first one that fits or a new one
+     * at the end of the file.
+     */
+    private synchronized long allocate(long size) throws IOException {
+        if (file == null) {
+            Path path = Files.createTempFile(directory, "frames", ".spill");
+            file = new RandomAccessFile(path.toFile(), "rw");
+            Files.delete(path);
+        }
+        for (Map.Entry<Long, Long> region : free.entrySet()) {
+            if (region.getValue() < size) continue;
+            long offset = region.getKey();
+            free.remove(offset);
+            if (region.getValue() > size) free.put(offset + size, region.getValue() - size);
+            return offset;
+        }
+        long offset = fileBytes;
+        fileBytes += size;
+        return offset;
+    }
+
+    private ByteBuffer spill(ByteBuffer buffer, long offset) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            if (file == null) throw new IOException("Store closed");
+            channel = file.getChannel();
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        long bytes = source.remaining();
+        while (source.hasRemaining()) channel.write(source, offset + bytes - source.remaining());
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+        mapped.order(buffer.order());
+        return mapped;
+    }
+
+    /**
+     * Gives a region back, joins it with its free neighbours and cuts free space off the end of
+     * the file.
+     */
+    private synchronized void free(long offset, long size) {
+        if (file == null) return;
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            size += before.getValue();
+        }
+        Long after = free.get(offset + size);
+        if (after != null) {
+            free.remove(offset + size);
+            size += after;
+        }
+        if (offset + size < fileBytes) {
+            free.put(offset, size);
+            return;
+        }
+        fileBytes = offset;
+        try {
+            file.getChannel().truncate(fileBytes);
+        } catch (IOException e) {
+            Log.e(TAG, "Spill file not truncated:" + e);
+        }
+    }
+
+    /**
+     * Waits until every frame added so far was handed on.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            spiller.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Flush failed:" + e);
+        }
+    }
+
+    /**
+     * @return bytes of the spill file, the regions of spilled frames not closed yet and the free
+     * regions between them.
+     */
+    public synchronized long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * @return bytes copied to the spill file.
+     */
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return MB per second of spill time the frames were copied and mapped at.
+     */
+    public synchronized float getSpillBandwidth() {
+        return spillNs > 0 ? spilledBytes * 1e3f / spillNs : 0.f;
+    }
+
+    /**
+     * @return bytes of frames kept in memory over all stores.
+     */
+    public static long residentBytes() {
+        return resident.get();
+    }
+
+    /**
+     * Stops the spill thread and closes the spill file, spilled frames stay readable until they
+     * are closed. The store takes no frames after.
+     */
+    @Override
+    public void close() {
+        spiller.shutdown();
+        synchronized (this) {
+            if (file == null) return;
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Spill file not closed:" + e);
+            }
+            file = null;
+            free.clear();
+            fileBytes = 0;
+        }
+    }
+
+    /**
+     * A stored frame, in memory or spilled.
+     */
+    public static class Frame {
+        public final int width;
+        public final int height;
+        public final int rowStride;
+        public final long timestamp;
+        private ByteBuffer buffer;
+        private Runnable release;
+        private Image image;
+        private FrameStore store;
+        private final long offset;
+        private final long size;
+        private final boolean spilled;
+
+        /**
+         * @param store  store of the spill file region, null for frames in memory.
+         * @param offset region of the spill file holding the frame.
+         */
+        Frame(ByteBuffer buffer, int width, int height, int rowStride, long timestamp, Runnable release,
+              FrameStore store, long offset, long size) {
+            this.buffer = buffer;
+            this.width = width;
+            this.height = height;
+            this.rowStride = rowStride;
+            this.timestamp = timestamp;
+            this.release = release;
+            this.store = store;
+            this.offset = offset;
+            this.size = size;
+            this.spilled = store != null;
+        }
+
+        /**
+         * @return view of the whole frame from its first sample, sharing the stored memory.
+         */
+        public synchronized ByteBuffer buffer() {
+            if (buffer == null) throw new IllegalStateException("Frame closed");
+            ByteBuffer view = buffer.duplicate().order(buffer.order());
+            view.clear();
+            return view;
+        }
+
+        /**
+         * @return the camera Image holding the frame, null once spilled or closed.
+         */
+        public synchronized Image image() {
+            return image;
+        }
+
+        public int capacity() {
+            return buffer == null ? 0 : buffer.capacity();
+        }
+
+        public boolean isSpilled() {
+            return spilled;
+        }
+
+        /**
+         * Returns the memory or the spill file region of the frame, views from {@link #buffer}
+         * must not be used after.
+         */
+        public synchronized void close() {
+            if (buffer == null) return;
+            if (release != null) {
+                resident.addAndGet(-buffer.capacity());
+                release.run();
+                release = null;
+            }
+            if (store != null) {
+                store.free(offset, size);
+                store = null;
+            }
+            image = null;
+            buffer = null;
+        }
+    }
+}
@@ -1,25 +1,55 @@
 package com.particlesdevs.photoncamera.processing;
 
-import android.media.Image;
-
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.processing.merge.GyroWarpMesh;
 import com.particlesdevs.photoncamera.processing.parameters.IsoExpoSelector;
 
 import java.nio.ByteBuffer;
 
 public class ImageFrame {
     public ByteBuffer buffer;
-    public Image image;
+    /**
+     * Stored frame behind {@link #buffer}, closed once the frame was merged.
+     */
+    public FrameStore.Frame frame;
     public GyroBurst frameGyro;
     public float[][][] BlurKernels;
     public double posx, posy;
     public double rX, rY, rZ;
+    /**
+     * Row major 3x3 homography from raw pixels of the burst start view to raw pixels of this
+     * frame, from rX, rY and rZ.
+     */
     public double[] HomographyMatrix;
+    /**
+     * Gyro warp from the alignment reference to this frame, null without gyro samples.
+     */
+    public GyroWarpMesh warpMesh;
     public double rotation;
+    /**
+     * {@link com.particlesdevs.photoncamera.processing.parameters.FrameSharpness} score, NaN when
+     * not scored.
+     */
+    public float sharpness = Float.NaN;
+    /**
+     * Blur relative to the burst, see {@link com.particlesdevs.photoncamera.processing.parameters.LuckyFrameSelector}.
+     */
+    public float blur;
     public int number;
     public IsoExpoSelector.ExpoPair pair;
 
     public ImageFrame(ByteBuffer in) {
         buffer = in;
     }
+
+    public void close() {
+        if (frame != null) frame.close();
+    }
+
+    /**
+     * @return rX, rY and rZ, see {@link com.particlesdevs.photoncamera.processing.merge.GyroAlignmentSeed}.
+     */
+    public float[] gyroRotation() {
+        return new float[]{(float) rX, (float) rY, (float) rZ};
+    }
 }
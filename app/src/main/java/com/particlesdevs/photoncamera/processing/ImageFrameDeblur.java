@@ -2,19 +2,19 @@ package com.particlesdevs.photoncamera.processing;
 
 import android.graphics.Point;
 
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.control.GyroBurst;
-import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.merge.GyroAlignmentSeed;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
 public class ImageFrameDeblur {
     public GyroBurst firstFrameGyro;
     //private GyroMap gyroMap;
     private Point size, kernelSize, kernelCount, nsize;
-    private Parameters parameters;
+    private ParametersSnapshot parameters;
 
-    public ImageFrameDeblur() {
-        parameters = PhotonCamera.getParameters();
-        size = parameters.rawSize;
+    public ImageFrameDeblur(ParametersSnapshot parameters) {
+        this.parameters = parameters;
+        size = new Point(parameters.rawWidth, parameters.rawHeight);
         nsize = new Point(size.x / 4, size.y / 4);
         kernelSize = new Point(64, 64);
         kernelCount = new Point(nsize.x / kernelSize.x, nsize.y / kernelSize.y);
@@ -70,5 +70,6 @@ public class ImageFrameDeblur {
         in.posx = xf * parameters.perXAngle;
         in.posy = yf * parameters.perYAngle;
         in.rotation = zf;
+        in.HomographyMatrix = GyroAlignmentSeed.fromParameters(parameters).homography(new float[3], in.gyroRotation());
     }
 }
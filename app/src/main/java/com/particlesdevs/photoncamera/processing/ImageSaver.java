@@ -2,28 +2,41 @@ package com.particlesdevs.photoncamera.processing;
 
 import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.DngCreator;
+import android.hardware.camera2.params.ColorSpaceTransform;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.util.Log;
+import android.util.Size;
 
 import androidx.exifinterface.media.ExifInterface;
 
 import com.hunter.library.debug.HunterDebug;
+import com.particlesdevs.photoncamera.api.ExifJpegOutputStream;
+import com.particlesdevs.photoncamera.api.ExifSegment;
 import com.particlesdevs.photoncamera.api.ParseExif;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.capture.BurstCompletion;
 import com.particlesdevs.photoncamera.capture.CaptureController;
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.processing.dng.DngTag;
+import com.particlesdevs.photoncamera.processing.dng.DngWriter;
+import com.particlesdevs.photoncamera.processing.jpeg.JpegEncoder;
 import com.particlesdevs.photoncamera.processing.processor.ProcessorBase;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 import com.particlesdevs.photoncamera.util.FileManager;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -47,10 +60,19 @@ public class ImageSaver {
     private int imageFormat;
     private int frameCounter = 0;
     private int desiredFrameCount = 0;
+    private final long burstId;
+    private BurstCompletion burstCompletion;
+    private StreamingBurst streamingBurst;
     public boolean newBurst = false;
 
     public void setFrameCount(int desiredFrameCount){
         this.desiredFrameCount = desiredFrameCount;
+        DefaultSaver.applyMemoryBudget();
+        if (StreamingBurst.appliesTo(desiredFrameCount)) streamingBurst = new StreamingBurst(desiredFrameCount);
+    }
+
+    public void setBurstCompletion(BurstCompletion burstCompletion){
+        this.burstCompletion = burstCompletion;
     }
 
     public void updateFrameCount(int desiredFrameCount){
@@ -64,6 +86,8 @@ public class ImageSaver {
 
     public ImageSaver(ProcessingEventsListener processingEventsListener) {
         implementation = new DefaultSaver(processingEventsListener);
+        burstId = SaverImplementation.IMAGE_BUFFER.beginBurst();
+        implementation.burstId = burstId;
         init(implementation);
     }
 
@@ -84,8 +108,11 @@ public class ImageSaver {
             implementation = getImageSaver(format, implementation);
             Log.d(TAG,"Implementation:" + implementation);
             implementation.frameCount = desiredFrameCount;
+            implementation.burstId = burstId;
             implementation.newBurst = newBurst;
+            implementation.streamingBurst = streamingBurst;
             implementation.addImage(mImage);
+            if (burstCompletion != null) burstCompletion.onFrame();
         } else {
             Image mImage;
             try {
@@ -100,7 +127,15 @@ public class ImageSaver {
         frameCounter++;
     }
 
+    /**
+     * First capture result of the burst, lets frames be merged while the rest is captured.
+     */
+    public void onCaptureResult(CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest) {
+        if (streamingBurst != null) streamingBurst.setCapture(characteristics, captureResult, captureRequest);
+    }
+
     public void runRaw(CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
+        implementation.streamingBurst = streamingBurst;
         implementation.runRaw(imageFormat,characteristics,captureResult, captureRequest,burstShakiness,cameraRotation);
     }
 
@@ -116,14 +151,29 @@ public class ImageSaver {
     public static class Util {
         public static boolean saveBitmapAsJPG(Path fileToSave, Bitmap img, int jpgQuality, ParseExif.ExifData exifData) {
             exifData.COMPRESSION = String.valueOf(jpgQuality);
-            try {
-                OutputStream outputStream = Files.newOutputStream(fileToSave);
+            //EXIF is spliced in while the encoder writes, the file is written once
+            try (OutputStream outputStream = new ExifJpegOutputStream(Files.newOutputStream(fileToSave),
+                    ExifSegment.build(exifData))) {
                 img.compress(Bitmap.CompressFormat.JPEG, jpgQuality, outputStream);
-                outputStream.flush();
-                outputStream.close();
                 img.recycle();
-                ExifInterface inter = ParseExif.setAllAttributes(fileToSave.toFile(), exifData);
-                inter.saveAttributes();
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        /**
+         * Encodes the RGBA read back of the post pipeline with {@link JpegEncoder} on the common
+         * pool, without copying it into a Bitmap first.
+         */
+        public static boolean saveRgbaAsJPG(Path fileToSave, ByteBuffer rgba, int width, int height, int jpgQuality,
+                                            ParseExif.ExifData exifData) {
+            exifData.COMPRESSION = String.valueOf(jpgQuality);
+            try (OutputStream outputStream = new ExifJpegOutputStream(Files.newOutputStream(fileToSave),
+                    ExifSegment.build(exifData))) {
+                rgba.position(0);
+                new JpegEncoder(jpgQuality).encode(rgba, width, height, width * 4, outputStream);
                 return true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -147,27 +197,107 @@ public class ImageSaver {
             }
         }
 
-        //Different method name just for clarity of usage
+        /**
+         * Writes a merged frame with {@link DngWriter}, levels and color come from the shot
+         * parameters instead of the patched camera characteristics.
+         */
+        @HunterDebug
         public static boolean saveStackedRaw(Path dngFilePath,
                                              Image image,
+                                             ParametersSnapshot parameters,
                                              CameraCharacteristics characteristics,
                                              CaptureResult captureResult,
-                                             int cameraRotation) {
-            return saveSingleRaw(dngFilePath, image, characteristics, captureResult, cameraRotation);
+                                             String description,
+                                             boolean compress) {
+            Image.Plane plane = image.getPlanes()[0];
+            return saveStackedRaw(dngFilePath, plane.getBuffer(), plane.getRowStride(), parameters, characteristics,
+                    captureResult, description, compress);
+        }
+
+        /**
+         * @param buffer          merged RAW16 frame.
+         * @param rowStride       bytes per row of {@code buffer}.
+         * @param characteristics source of the calibration matrices and the active area.
+         */
+        public static boolean saveStackedRaw(Path dngFilePath,
+                                             ByteBuffer buffer,
+                                             int rowStride,
+                                             ParametersSnapshot parameters,
+                                             CameraCharacteristics characteristics,
+                                             CaptureResult captureResult,
+                                             String description,
+                                             boolean compress) {
+            Long exposureTime = captureResult.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Integer iso = captureResult.get(CaptureResult.SENSOR_SENSITIVITY);
+            Float aperture = captureResult.get(CaptureResult.LENS_APERTURE);
+            DngWriter writer = new DngWriter(parameters)
+                    .setCamera(Build.MANUFACTURER, Build.MODEL)
+                    .setDescription(description)
+                    .setRotation(parameters.cameraRotation)
+                    .setExposure(exposureTime != null ? exposureTime : 0,
+                            iso != null ? iso : 0,
+                            aperture != null ? aperture : 0.f)
+                    .setDateTime(System.currentTimeMillis());
+            setCalibration(writer, characteristics);
+            Size pixelArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_PIXEL_ARRAY_SIZE);
+            Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_PRE_CORRECTION_ACTIVE_ARRAY_SIZE);
+            //The active array is in pixel array coordinates, it fits only a full pixel array frame
+            if (pixelArray != null && activeArray != null && pixelArray.getWidth() == parameters.rawWidth
+                    && pixelArray.getHeight() == parameters.rawHeight) {
+                writer.setActiveArea(activeArray.left, activeArray.top, activeArray.right, activeArray.bottom);
+            }
+            if (compress) writer.setCompression(DngTag.COMPRESSION_LOSSLESS_JPEG);
+            try {
+                writer.write(dngFilePath, buffer.duplicate().order(ByteOrder.nativeOrder()), rowStride);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        /**
+         * Calibration matrices of the sensor with their reference illuminants, the second one
+         * only when the camera reports it.
+         */
+        private static void setCalibration(DngWriter writer, CameraCharacteristics characteristics) {
+            ColorSpaceTransform colorMatrix1 = characteristics.get(CameraCharacteristics.SENSOR_COLOR_TRANSFORM1);
+            Integer illuminant1 = characteristics.get(CameraCharacteristics.SENSOR_REFERENCE_ILLUMINANT1);
+            if (colorMatrix1 == null || illuminant1 == null) return;
+            writer.setCalibration(0, illuminant1, matrix(colorMatrix1),
+                    matrix(characteristics.get(CameraCharacteristics.SENSOR_FORWARD_MATRIX1)),
+                    matrix(characteristics.get(CameraCharacteristics.SENSOR_CALIBRATION_TRANSFORM1)));
+            ColorSpaceTransform colorMatrix2 = characteristics.get(CameraCharacteristics.SENSOR_COLOR_TRANSFORM2);
+            Byte illuminant2 = characteristics.get(CameraCharacteristics.SENSOR_REFERENCE_ILLUMINANT2);
+            if (colorMatrix2 == null || illuminant2 == null) return;
+            writer.setCalibration(1, illuminant2, matrix(colorMatrix2),
+                    matrix(characteristics.get(CameraCharacteristics.SENSOR_FORWARD_MATRIX2)),
+                    matrix(characteristics.get(CameraCharacteristics.SENSOR_CALIBRATION_TRANSFORM2)));
+        }
+
+        private static double[] matrix(ColorSpaceTransform transform) {
+            if (transform == null) return null;
+            double[] out = new double[9];
+            for (int i = 0; i < 9; i++) out[i] = transform.getElement(i % 3, i / 3).doubleValue();
+            return out;
         }
 
+        /**
+         * @param parameters snapshot of the shot, its description is saved with the frame.
+         */
         @HunterDebug
         public static boolean saveSingleRaw(Path dngFilePath,
                                             Image image,
                                             CameraCharacteristics characteristics,
                                             CaptureResult captureResult,
+                                            ParametersSnapshot parameters,
                                             int cameraRotation) {
             Log.d(TAG, "activearr:" + characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE));
             Log.d(TAG, "precorr:" + characteristics.get(CameraCharacteristics.SENSOR_INFO_PRE_CORRECTION_ACTIVE_ARRAY_SIZE));
             Log.d(TAG, "image:" + image.getCropRect());
             DngCreator dngCreator =
                     new DngCreator(characteristics, captureResult)
-                            .setDescription(PhotonCamera.getParameters().toString())
+                            .setDescription(parameters.description)
                             .setOrientation(ParseExif.getOrientation(cameraRotation));
             try {
                 OutputStream outputStream = Files.newOutputStream(dngFilePath);
@@ -1,8 +1,12 @@
 package com.particlesdevs.photoncamera.processing;
 
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
 import android.media.Image;
 
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.control.GyroBurst;
 import com.particlesdevs.photoncamera.processing.DefaultSaver;
 import com.particlesdevs.photoncamera.processing.ImagePath;
 import com.particlesdevs.photoncamera.processing.ProcessingEventsListener;
@@ -11,6 +15,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 
 public class JPEGSaver extends DefaultSaver {
     private static final String TAG = "JPEGSaver";
@@ -18,12 +23,18 @@ public class JPEGSaver extends DefaultSaver {
         super(processingEventsListener);
     }
 
+    /**
+     * Frames of this burst seen so far. Frames are saved or closed as they arrive, they never
+     * wait in {@link #IMAGE_BUFFER}, so this producer side never has to clear it.
+     */
+    private int received = 0;
+
     public void addImage(Image image) {
         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
         try {
-            IMAGE_BUFFER.add(image);
+            received++;
             byte[] bytes = new byte[buffer.remaining()];
-            if (IMAGE_BUFFER.size() == PhotonCamera.getCaptureController().mMeasuredFrameCnt && PhotonCamera.getSettings().frameCount != 1) {
+            if (received == PhotonCamera.getCaptureController().mMeasuredFrameCnt && PhotonCamera.getSettings().frameCount != 1) {
                 Path jpgPath = ImagePath.newJPGFilePath();
                 buffer.duplicate().get(bytes);
                 Files.write(jpgPath, bytes);
@@ -31,20 +42,23 @@ public class JPEGSaver extends DefaultSaver {
 //                hdrxProcessor.start(dngFile, jpgFile, IMAGE_BUFFER, mImage.getFormat(),
 //                        CaptureController.mCameraCharacteristics, CaptureController.mCaptureResult,
 //                        () -> clearImageReader(mReader));
-
-                IMAGE_BUFFER.clear();
             }
             if (PhotonCamera.getSettings().frameCount == 1) {
                 Path jpgPath = ImagePath.newJPGFilePath();
-                IMAGE_BUFFER.clear();
                 buffer.get(bytes);
                 Files.write(jpgPath, bytes);
-                image.close();
                 processingEventsListener.onProcessingFinished("JPEG: Single Frame, Not Processed!");
                 processingEventsListener.notifyImageSavedStatus(true, jpgPath);
             }
         } catch (IOException | NullPointerException e) {
             e.printStackTrace();
+        } finally {
+            image.close();
         }
     }
+
+    @Override
+    public void runRaw(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
+        //Frames were saved as they arrived
+    }
 }
@@ -1,5 +1,7 @@
 package com.particlesdevs.photoncamera.processing;
 
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
 import android.media.Image;
 import android.os.AsyncTask;
 import android.util.Log;
@@ -7,6 +9,8 @@ import android.util.Log;
 import com.particlesdevs.photoncamera.R;
 import com.particlesdevs.photoncamera.api.CameraMode;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.capture.CaptureController;
+import com.particlesdevs.photoncamera.processing.parameters.FrameSharpness;
 
 public class RAW16Saver extends DefaultSaver{
     private static final String TAG = "RAW16Saver";
@@ -20,13 +24,44 @@ public class RAW16Saver extends DefaultSaver{
             mUnlimitedProcessor.unlimitedCycle(image);
         } else {
             Log.d(TAG, "start buffer size:" + IMAGE_BUFFER.size());
-            image.getFormat();
-                /*while (bufferLock){
-                    try {
-                        Thread.sleep(1);
-                    } catch (InterruptedException ignored) {}
-                }*/
-            IMAGE_BUFFER.add(image);
+            int format = image.getFormat();
+            if (FrameSharpness.enabled && format == ImageFormat.RAW_SENSOR)
+                scoreSharpness(image);
+            if (streamingBurst != null && format == ImageFormat.RAW_SENSOR) streamingBurst.offer(image);
+            else if (format == ImageFormat.RAW_SENSOR && PhotonCamera.getSettings().frameCount != 1) storeImage(image);
+            else bufferImage(image);
+        }
+    }
+
+    /**
+     * Stores the frame as it arrives, so it is spilled as soon as the frames in flight cross the
+     * budget instead of holding its Image until the burst is drained. Spilled frames reach the
+     * burst buffer from the spill thread once copied.
+     */
+    private void storeImage(Image image) {
+        try {
+            frameStore().add(image, this::bufferFrame);
+        } catch (IllegalStateException e) {
+            Log.d(TAG, "Broken image:" + Log.getStackTraceString(e));
+            image.close();
+        }
+    }
+
+    /**
+     * Scores the frame while it is still hot, so unlucky frames can be thrown away before the
+     * shot is queued.
+     */
+    private void scoreSharpness(Image image) {
+        try {
+            Integer cfa = CaptureController.mCameraCharacteristics == null ? null
+                    : CaptureController.mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
+            int cfaPattern = PhotonCamera.getSettings().cfaPattern >= 0 ? PhotonCamera.getSettings().cfaPattern
+                    : cfa == null ? 0 : cfa;
+            Image.Plane plane = image.getPlanes()[0];
+            FRAME_SHARPNESS.offer(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                    plane.getRowStride(), cfaPattern, image.getTimestamp());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Sharpness scoring failed:" + Log.getStackTraceString(e));
         }
     }
 
@@ -5,18 +5,29 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.media.Image;
 import android.media.ImageReader;
+import android.util.Log;
 
 import com.particlesdevs.photoncamera.capture.CaptureController;
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.processing.parameters.FrameSharpness;
 import com.particlesdevs.photoncamera.processing.processor.ProcessorBase;
 
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class SaverImplementation {
     private static final String TAG = "SaverImplementation";
-    public volatile boolean bufferLock = false;
+    protected static final int BURST_CAPACITY = 128;
+    protected static final long OFFER_TIMEOUT_MS = 500;
+    protected static final long DRAIN_TIMEOUT_MS = 1000;
     public volatile boolean newBurst = false;
-    public static ArrayList<Image> IMAGE_BUFFER = new ArrayList<>();
+    public static final BurstRingBuffer<FrameStore.Frame> IMAGE_BUFFER = new BurstRingBuffer<>(BURST_CAPACITY, FrameStore.Frame::close);
+    public static final FrameSharpness FRAME_SHARPNESS = new FrameSharpness(BURST_CAPACITY);
+    public long burstId;
+    /**
+     * Merge of the burst while it is captured, null when frames are buffered until runRaw.
+     */
+    public StreamingBurst streamingBurst;
     public int frameCount = 0;
     private int imageFormat;
     public final ProcessingEventsListener processingEventsListener;
@@ -46,6 +57,17 @@ public class SaverImplementation {
         //image.close();
     }
 
+    protected void bufferImage(Image image) {
+        bufferFrame(FrameStore.keep(image));
+    }
+
+    protected void bufferFrame(FrameStore.Frame frame) {
+        if (!IMAGE_BUFFER.offer(burstId, frame, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            Log.e(TAG, "Burst buffer full, dropping frame of burst:" + burstId);
+            frame.close();
+        }
+    }
+
     void addRAW10(Image image){
         //image.close();
     }
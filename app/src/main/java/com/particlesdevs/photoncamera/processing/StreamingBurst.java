@@ -0,0 +1,275 @@
+package com.particlesdevs.photoncamera.processing;
+
+import android.graphics.Point;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.media.Image;
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.api.CameraMode;
+import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.processing.merge.CpuTileAligner;
+import com.particlesdevs.photoncamera.processing.merge.StreamingHdrxMerge;
+import com.particlesdevs.photoncamera.processing.opengl.scripts.InterpolateGainMap;
+import com.particlesdevs.photoncamera.processing.parameters.IsoExpoSelector;
+import com.particlesdevs.photoncamera.processing.parameters.NoiseCalibrator;
+import com.particlesdevs.photoncamera.processing.processor.ProcessorBase;
+import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Merges the frames of a burst while it is captured, with the streaming merge setting on.
+ * <p>
+ * Every frame goes to {@link #offer} as it is acquired and is folded into a
+ * {@link StreamingHdrxMerge} on a merge thread, then its Image is closed, so memory does not
+ * grow with the burst and merging overlaps capture. The reference is the first frame of the
+ * lowest exposure multiplier, as the processor picks it; frames that arrive before it, or
+ * before the first capture result gives the noise model, wait for it. Frames are merged as
+ * they come, so no unlucky frames are thrown away.
+ * <p>
+ * {@link #finish} writes the merge into the reference Image, which is then processed as a
+ * burst of one frame.
+ */
+public class StreamingBurst {
+    private static final String TAG = "StreamingBurst";
+    private static final ExecutorService MERGER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Accumulator and aligner pyramids, kept between bursts and only used on {@link #MERGER}.
+     */
+    private static final StreamingHdrxMerge MERGE = new StreamingHdrxMerge().setAligner(new CpuTileAligner());
+
+    private final float[] layerMpy;
+    private final int[] iso;
+    private final float minMpy;
+    private final double mergeStrength;
+    private final ArrayList<Image> pending = new ArrayList<>();
+    private final ArrayList<Integer> pendingNumbers = new ArrayList<>();
+    private int arrived;
+    private boolean finished;
+    private CameraCharacteristics characteristics;
+    private CaptureResult captureResult;
+    private CaptureRequest captureRequest;
+    /* Merge thread only */
+    private Image reference;
+    private int referenceNumber = -1;
+    private float exposureScale;
+    private boolean failed;
+
+    /**
+     * @param frameCount frames requested, their exposures are taken from
+     *                   {@link IsoExpoSelector#fullpairs}.
+     */
+    public StreamingBurst(int frameCount) {
+        layerMpy = new float[frameCount];
+        iso = new int[frameCount];
+        float min = Float.MAX_VALUE;
+        for (int i = 0; i < frameCount; i++) {
+            IsoExpoSelector.ExpoPair pair = i < IsoExpoSelector.fullpairs.size() ? IsoExpoSelector.fullpairs.get(i) : null;
+            layerMpy[i] = pair != null ? pair.layerMpy : 1.f;
+            iso[i] = pair != null ? pair.iso : 0;
+            min = Math.min(min, layerMpy[i]);
+        }
+        minMpy = min;
+        mergeStrength = PhotonCamera.getSettings().mergeStrength;
+    }
+
+    /**
+     * @return true when bursts of this size are merged while captured.
+     */
+    public static boolean appliesTo(int frameCount) {
+        return PhotonCamera.getSettings().streamingMerge && frameCount > 1
+                && PhotonCamera.getSettings().frameCount != 1
+                && PhotonCamera.getSettings().alignAlgorithm == 0
+                && PhotonCamera.getSettings().selectedMode != CameraMode.UNLIMITED;
+    }
+
+    /**
+     * Capture result the merge weights are computed from, only the first one is used.
+     */
+    public synchronized void setCapture(CameraCharacteristics characteristics, CaptureResult captureResult,
+                                        CaptureRequest captureRequest) {
+        if (this.captureResult != null || captureResult == null) return;
+        this.characteristics = characteristics;
+        this.captureResult = captureResult;
+        this.captureRequest = captureRequest;
+        MERGER.execute(this::mergePending);
+    }
+
+    /**
+     * Takes a RAW16 frame in capture order, the Image is closed by the burst from now on.
+     */
+    public synchronized void offer(Image image) {
+        if (finished) {
+            Log.d(TAG, "Frame after the merge finished, dropped");
+            image.close();
+            return;
+        }
+        pending.add(image);
+        pendingNumbers.add(arrived++);
+        if (captureResult != null) MERGER.execute(this::mergePending);
+    }
+
+    /**
+     * Waits until every offered frame is merged.
+     *
+     * @return the reference with the merge written over it, null when nothing could be merged.
+     */
+    public Result finish() throws InterruptedException {
+        try {
+            return MERGER.submit(this::finishMerge).get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Streaming merge failed:" + Log.getStackTraceString(e.getCause()));
+            MERGER.execute(this::release);
+            return null;
+        }
+    }
+
+    private void mergePending() {
+        mergePending(false);
+    }
+
+    /**
+     * @param last take the lowest multiplier that arrived when the reference itself was dropped.
+     */
+    private void mergePending(boolean last) {
+        while (true) {
+            Image image;
+            int number;
+            synchronized (this) {
+                if (failed || finished || captureResult == null) return;
+                if (reference == null) {
+                    int index = referenceIndex(last);
+                    if (index < 0) return;
+                    image = pending.remove(index);
+                    number = pendingNumbers.remove(index);
+                } else {
+                    if (pending.isEmpty()) return;
+                    image = pending.remove(0);
+                    number = pendingNumbers.remove(0);
+                }
+            }
+            try {
+                if (reference == null) start(image, number);
+                else MERGE.addFrame(image.getPlanes()[0].getBuffer(), exposureScale * minMpy / layer(number), null);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Streaming merge failed:" + Log.getStackTraceString(e));
+                synchronized (this) {
+                    failed = true;
+                }
+            }
+            if (image != reference) image.close();
+        }
+    }
+
+    /**
+     * @param any take the lowest multiplier that arrived when the reference itself did not.
+     * @return index in {@link #pending} of the reference, -1 while it did not arrive.
+     */
+    private int referenceIndex(boolean any) {
+        int best = -1;
+        for (int i = 0; i < pending.size(); i++) {
+            float mpy = layer(pendingNumbers.get(i));
+            if (mpy == minMpy) return i;
+            if (any && (best < 0 || mpy < layer(pendingNumbers.get(best)))) best = i;
+        }
+        return best;
+    }
+
+    private float layer(int number) {
+        return number < layerMpy.length ? layerMpy[number] : minMpy;
+    }
+
+    private void start(Image image, int number) {
+        Image.Plane plane = image.getPlanes()[0];
+        //Rows are merged with their padding, as the processor reads stored frames
+        int width = plane.getRowStride() / plane.getPixelStride();
+        int height = image.getHeight();
+        int isoSum = 0;
+        for (int value : iso) isoSum += value;
+        Parameters parameters = new Parameters();
+        parameters.FillConstParameters(characteristics, new Point(width, height));
+        parameters.FillDynamicParameters(captureResult, captureRequest, iso.length > 0 ? isoSum / iso.length : 0);
+        ParametersSnapshot shot = parameters.snapshot();
+        if (NoiseCalibrator.enabled)
+            DefaultSaver.calibrateNoise(plane.getBuffer(), image.getWidth(), height, plane.getRowStride(),
+                    characteristics, captureResult);
+
+        InterpolateGainMap interpolateGainMap = new InterpolateGainMap(new Point(width, height));
+        interpolateGainMap.parameters = parameters;
+        interpolateGainMap.Run();
+        interpolateGainMap.close();
+
+        double noisempy = Math.pow(2.0, mergeStrength);
+        float noiseS = (float) Math.max(shot.withStackedFrames(1).noiseS() * noisempy, Float.MIN_NORMAL);
+        float noiseO = (float) Math.max(shot.withStackedFrames(1).noiseO() * noisempy, Float.MIN_NORMAL);
+        exposureScale = ProcessorBase.FAKE_WL / shot.whiteLevel;
+        reference = image;
+        referenceNumber = number;
+        MERGE.init(width, height);
+        MERGE.loadInterpolatedGainMap(interpolateGainMap.Output);
+        MERGE.start(plane.getBuffer(), exposureScale * minMpy / layer(number),
+                noiseS, noiseO, 1.5f, 1, 0.f, 0.f, 0.f, shot.whiteLevel,
+                shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2), shot.cfaPattern);
+        Log.d(TAG, "Reference frame:" + number);
+    }
+
+    private Result finishMerge() {
+        mergePending(true);
+        synchronized (this) {
+            finished = true;
+        }
+        if (failed || reference == null) {
+            release();
+            return null;
+        }
+        MERGE.finish(reference.getPlanes()[0].getBuffer());
+        Result result = new Result(reference, referenceNumber, MERGE.getFrames());
+        reference = null;
+        return result;
+    }
+
+    /**
+     * Closes the reference and every frame that was not merged.
+     */
+    private void release() {
+        synchronized (this) {
+            for (Image image : pending) image.close();
+            pending.clear();
+            pendingNumbers.clear();
+            failed = true;
+        }
+        if (reference != null) reference.close();
+        reference = null;
+    }
+
+    public static class Result {
+        /**
+         * Reference frame holding the merge.
+         */
+        public final Image image;
+        /**
+         * Capture index of the reference.
+         */
+        public final int number;
+        /**
+         * Frames merged, the reference included.
+         */
+        public final int frames;
+
+        Result(Image image, int number, int frames) {
+            this.image = image;
+            this.number = number;
+            this.frames = frames;
+        }
+    }
+}
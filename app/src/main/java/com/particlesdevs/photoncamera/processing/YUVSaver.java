@@ -1,9 +1,15 @@
 package com.particlesdevs.photoncamera.processing;
 
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
 import android.media.Image;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.control.GyroBurst;
+
+import java.util.ArrayList;
 
 public class YUVSaver extends DefaultSaver{
     private static final String TAG = "YUVSaver";
@@ -11,21 +17,31 @@ public class YUVSaver extends DefaultSaver{
         super(processingEventsListener);
     }
 
+    /**
+     * Frames of this burst seen so far. Frames are closed as they arrive, they never wait in
+     * {@link #IMAGE_BUFFER}, so this producer side never has to clear it.
+     */
+    private int received = 0;
+
     public void addImage(Image image) {
-        Log.d(TAG, "start buffersize:" + IMAGE_BUFFER.size());
-        IMAGE_BUFFER.add(image);
-        if (IMAGE_BUFFER.size() == PhotonCamera.getCaptureController().mMeasuredFrameCnt && PhotonCamera.getSettings().frameCount != 1) {
+        received++;
+        Log.d(TAG, "start received:" + received);
+        image.close();
+        if (received == PhotonCamera.getCaptureController().mMeasuredFrameCnt && PhotonCamera.getSettings().frameCount != 1) {
 
 //            hdrxProcessor.start(dngFile, jpgFile, IMAGE_BUFFER, mImage.getFormat(),
 //                        CaptureController.mCameraCharacteristics, CaptureController.mCaptureResult,
 //                        () -> clearImageReader(mReader));
 
-            IMAGE_BUFFER.clear();
         }
         if (PhotonCamera.getSettings().frameCount == 1) {
-            IMAGE_BUFFER.clear();
             processingEventsListener.onProcessingFinished("YUV: Single Frame, Not Processed!");
 
         }
     }
+
+    @Override
+    public void runRaw(int imageFormat, CameraCharacteristics characteristics, CaptureResult captureResult, CaptureRequest captureRequest, ArrayList<GyroBurst> burstShakiness, int cameraRotation) {
+        //Frames were closed as they arrived
+    }
 }
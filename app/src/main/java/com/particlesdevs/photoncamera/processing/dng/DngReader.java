@@ -0,0 +1,231 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal reader for the main image of a bayer DNG, used to verify written files and to load
+ * frames off-device. Only the first directory is parsed, strips and tiles are supported, either
+ * uncompressed or lossless JPEG.
+ */
+public class DngReader {
+    private static class Entry {
+        final int type;
+        final int count;
+        final int valueOffset;
+
+        Entry(int type, int count, int valueOffset) {
+            this.type = type;
+            this.count = count;
+            this.valueOffset = valueOffset;
+        }
+    }
+
+    private final ByteBuffer file;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+    public DngReader(ByteBuffer file) throws IOException {
+        this.file = file.duplicate();
+        this.file.position(0);
+        byte b0 = this.file.get(0);
+        byte b1 = this.file.get(1);
+        if (b0 == 'I' && b1 == 'I') this.file.order(ByteOrder.LITTLE_ENDIAN);
+        else if (b0 == 'M' && b1 == 'M') this.file.order(ByteOrder.BIG_ENDIAN);
+        else throw new IOException("Not a TIFF file");
+        if (this.file.getShort(2) != 42) throw new IOException("Not a TIFF file");
+        int ifd = this.file.getInt(4);
+        int count = this.file.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = this.file.getShort(entry) & 0xFFFF;
+            int type = this.file.getShort(entry + 2) & 0xFFFF;
+            int valueCount = this.file.getInt(entry + 4);
+            int size = DngTag.typeSize(type) * valueCount;
+            int valueOffset = size <= 4 ? entry + 8 : this.file.getInt(entry + 8);
+            entries.put(tag, new Entry(type, valueCount, valueOffset));
+        }
+    }
+
+    public static DngReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new DngReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public ByteOrder order() {
+        return file.order();
+    }
+
+    public boolean hasTag(int tag) {
+        return entries.containsKey(tag);
+    }
+
+    public int getType(int tag) {
+        return entry(tag).type;
+    }
+
+    private Entry entry(int tag) {
+        Entry entry = entries.get(tag);
+        if (entry == null) throw new IllegalArgumentException("Missing tag " + tag);
+        return entry;
+    }
+
+    /**
+     * @return integer values of a BYTE, SHORT or LONG tag.
+     */
+    public long[] getLongs(int tag) {
+        Entry entry = entry(tag);
+        long[] out = new long[entry.count];
+        for (int i = 0; i < entry.count; i++) {
+            switch (entry.type) {
+                case DngTag.TYPE_SHORT:
+                    out[i] = file.getShort(entry.valueOffset + i * 2) & 0xFFFF;
+                    break;
+                case DngTag.TYPE_LONG:
+                    out[i] = file.getInt(entry.valueOffset + i * 4) & 0xFFFFFFFFL;
+                    break;
+                case DngTag.TYPE_SLONG:
+                    out[i] = file.getInt(entry.valueOffset + i * 4);
+                    break;
+                default:
+                    out[i] = file.get(entry.valueOffset + i) & 0xFF;
+            }
+        }
+        return out;
+    }
+
+    public long getLong(int tag) {
+        return getLongs(tag)[0];
+    }
+
+    /**
+     * @return values of a rational, floating point or integer tag.
+     */
+    public double[] getDoubles(int tag) {
+        Entry entry = entry(tag);
+        double[] out = new double[entry.count];
+        for (int i = 0; i < entry.count; i++) {
+            int offset = entry.valueOffset + i * DngTag.typeSize(entry.type);
+            switch (entry.type) {
+                case DngTag.TYPE_RATIONAL:
+                    out[i] = (file.getInt(offset) & 0xFFFFFFFFL) / (double) (file.getInt(offset + 4) & 0xFFFFFFFFL);
+                    break;
+                case DngTag.TYPE_SRATIONAL:
+                    out[i] = file.getInt(offset) / (double) file.getInt(offset + 4);
+                    break;
+                case DngTag.TYPE_FLOAT:
+                    out[i] = file.getFloat(offset);
+                    break;
+                case DngTag.TYPE_DOUBLE:
+                    out[i] = file.getDouble(offset);
+                    break;
+                default:
+                    out[i] = getLongs(tag)[i];
+            }
+        }
+        return out;
+    }
+
+    public String getAscii(int tag) {
+        byte[] bytes = getBytes(tag);
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) length++;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return raw value bytes of the tag.
+     */
+    public byte[] getBytes(int tag) {
+        Entry entry = entry(tag);
+        byte[] out = new byte[DngTag.typeSize(entry.type) * entry.count];
+        ByteBuffer view = file.duplicate();
+        view.position(entry.valueOffset);
+        view.get(out);
+        return out;
+    }
+
+    public int getWidth() {
+        return (int) getLong(DngTag.IMAGE_WIDTH);
+    }
+
+    public int getHeight() {
+        return (int) getLong(DngTag.IMAGE_LENGTH);
+    }
+
+    /**
+     * Reads the 16 bit frame.
+     *
+     * @return samples packed row by row, in the byte order of the file.
+     */
+    public ByteBuffer readRaw() throws IOException {
+        int width = getWidth();
+        int height = getHeight();
+        if (getLong(DngTag.BITS_PER_SAMPLE) != 16)
+            throw new IOException("Only 16 bit samples are supported");
+        long compression = hasTag(DngTag.COMPRESSION) ? getLong(DngTag.COMPRESSION) : DngTag.COMPRESSION_NONE;
+        if (compression != DngTag.COMPRESSION_NONE && compression != DngTag.COMPRESSION_LOSSLESS_JPEG)
+            throw new IOException("Unsupported compression " + compression);
+        ByteBuffer out = ByteBuffer.allocateDirect(width * height * 2).order(order());
+        boolean tiled = hasTag(DngTag.TILE_OFFSETS);
+        int blockWidth = tiled ? (int) getLong(DngTag.TILE_WIDTH) : width;
+        int blockHeight = tiled ? (int) getLong(DngTag.TILE_LENGTH)
+                : hasTag(DngTag.ROWS_PER_STRIP) ? (int) Math.min(getLong(DngTag.ROWS_PER_STRIP), height) : height;
+        long[] offsets = getLongs(tiled ? DngTag.TILE_OFFSETS : DngTag.STRIP_OFFSETS);
+        int blocksAcross = (width + blockWidth - 1) / blockWidth;
+        if (compression == DngTag.COMPRESSION_LOSSLESS_JPEG) {
+            long[] byteCounts = getLongs(tiled ? DngTag.TILE_BYTE_COUNTS : DngTag.STRIP_BYTE_COUNTS);
+            readLosslessJpeg(out, offsets, byteCounts, blocksAcross, blockWidth, blockHeight);
+            out.clear();
+            return out;
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            int x0 = (i % blocksAcross) * blockWidth;
+            int y0 = (i / blocksAcross) * blockHeight;
+            int cols = Math.min(blockWidth, width - x0);
+            int rows = Math.min(blockHeight, height - y0);
+            ByteBuffer src = file.duplicate();
+            for (int row = 0; row < rows; row++) {
+                int from = (int) offsets[i] + row * blockWidth * 2;
+                src.limit(from + cols * 2).position(from);
+                out.position(((y0 + row) * width + x0) * 2);
+                out.put(src);
+                src.limit(src.capacity());
+            }
+        }
+        out.clear();
+        return out;
+    }
+
+    private void readLosslessJpeg(ByteBuffer out, long[] offsets, long[] byteCounts, int blocksAcross,
+                                  int blockWidth, int blockHeight) throws IOException {
+        int width = getWidth();
+        int height = getHeight();
+        short[] block = new short[0];
+        for (int i = 0; i < offsets.length; i++) {
+            ByteBuffer src = file.duplicate();
+            src.limit((int) (offsets[i] + byteCounts[i])).position((int) offsets[i]);
+            Lj92Decoder decoder = new Lj92Decoder(src);
+            int decodedWidth = decoder.getWidth();
+            if (decodedWidth < Math.min(blockWidth, width) || decoder.getHeight() < Math.min(blockHeight, height))
+                throw new IOException("Tile " + i + " is " + decodedWidth + "x" + decoder.getHeight());
+            if (block.length < decodedWidth * decoder.getHeight()) block = new short[decodedWidth * decoder.getHeight()];
+            decoder.decode(block);
+            int x0 = (i % blocksAcross) * blockWidth;
+            int y0 = (i / blocksAcross) * blockHeight;
+            int cols = Math.min(blockWidth, width - x0);
+            int rows = Math.min(blockHeight, height - y0);
+            for (int row = 0; row < rows; row++) {
+                int index = ((y0 + row) * width + x0) * 2;
+                for (int col = 0; col < cols; col++) out.putShort(index + col * 2, block[row * decodedWidth + col]);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+/**
+ * TIFF, TIFF/EP and DNG tag ids and field types used by {@link DngWriter} and {@link DngReader}.
+ */
+public final class DngTag {
+    public static final int TYPE_BYTE = 1;
+    public static final int TYPE_ASCII = 2;
+    public static final int TYPE_SHORT = 3;
+    public static final int TYPE_LONG = 4;
+    public static final int TYPE_RATIONAL = 5;
+    public static final int TYPE_UNDEFINED = 7;
+    public static final int TYPE_SLONG = 9;
+    public static final int TYPE_SRATIONAL = 10;
+    public static final int TYPE_FLOAT = 11;
+    public static final int TYPE_DOUBLE = 12;
+
+    public static final int NEW_SUBFILE_TYPE = 254;
+    public static final int IMAGE_WIDTH = 256;
+    public static final int IMAGE_LENGTH = 257;
+    public static final int BITS_PER_SAMPLE = 258;
+    public static final int COMPRESSION = 259;
+    public static final int PHOTOMETRIC_INTERPRETATION = 262;
+    public static final int IMAGE_DESCRIPTION = 270;
+    public static final int MAKE = 271;
+    public static final int MODEL = 272;
+    public static final int STRIP_OFFSETS = 273;
+    public static final int ORIENTATION = 274;
+    public static final int SAMPLES_PER_PIXEL = 277;
+    public static final int ROWS_PER_STRIP = 278;
+    public static final int STRIP_BYTE_COUNTS = 279;
+    public static final int PLANAR_CONFIGURATION = 284;
+    public static final int SOFTWARE = 305;
+    public static final int DATE_TIME = 306;
+    public static final int TILE_WIDTH = 322;
+    public static final int TILE_LENGTH = 323;
+    public static final int TILE_OFFSETS = 324;
+    public static final int TILE_BYTE_COUNTS = 325;
+    public static final int CFA_REPEAT_PATTERN_DIM = 33421;
+    public static final int CFA_PATTERN = 33422;
+    public static final int EXPOSURE_TIME = 33434;
+    public static final int F_NUMBER = 33437;
+    public static final int ISO_SPEED_RATINGS = 34855;
+    public static final int DATE_TIME_ORIGINAL = 36867;
+    public static final int FOCAL_LENGTH = 37386;
+    public static final int DNG_VERSION = 50706;
+    public static final int DNG_BACKWARD_VERSION = 50707;
+    public static final int UNIQUE_CAMERA_MODEL = 50708;
+    public static final int CFA_PLANE_COLOR = 50710;
+    public static final int CFA_LAYOUT = 50711;
+    public static final int BLACK_LEVEL_REPEAT_DIM = 50713;
+    public static final int BLACK_LEVEL = 50714;
+    public static final int WHITE_LEVEL = 50717;
+    public static final int DEFAULT_CROP_ORIGIN = 50719;
+    public static final int DEFAULT_CROP_SIZE = 50720;
+    public static final int COLOR_MATRIX_1 = 50721;
+    public static final int COLOR_MATRIX_2 = 50722;
+    public static final int CAMERA_CALIBRATION_1 = 50723;
+    public static final int CAMERA_CALIBRATION_2 = 50724;
+    public static final int AS_SHOT_NEUTRAL = 50728;
+    public static final int CALIBRATION_ILLUMINANT_1 = 50778;
+    public static final int CALIBRATION_ILLUMINANT_2 = 50779;
+    public static final int ACTIVE_AREA = 50829;
+    public static final int FORWARD_MATRIX_1 = 50964;
+    public static final int FORWARD_MATRIX_2 = 50965;
+    public static final int OPCODE_LIST_2 = 51009;
+    public static final int NOISE_PROFILE = 51041;
+
+    public static final int COMPRESSION_NONE = 1;
+    public static final int COMPRESSION_LOSSLESS_JPEG = 7;
+    public static final int PHOTOMETRIC_CFA = 32803;
+    public static final int ILLUMINANT_UNKNOWN = 0;
+    public static final int ILLUMINANT_D50 = 23;
+
+    private DngTag() {
+    }
+
+    /**
+     * @return size in bytes of one value of the given field type.
+     */
+    public static int typeSize(int type) {
+        switch (type) {
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+            case TYPE_FLOAT:
+                return 4;
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL:
+            case TYPE_DOUBLE:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import com.particlesdevs.photoncamera.processing.render.Converter;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streaming DNG writer for 16 bit bayer frames.
+ * <p>
+ * The frame is written as uncompressed tiles straight from the source buffer: every tile row is
+ * a view into the frame and the views are handed to {@link FileChannel#write(ByteBuffer[], int, int)}
+ * in batches, so the frame is never copied on the Java side. Tiles come first, the directory
+ * is written after them and the header is patched to point at it.
+ * <p>
+ * The file uses the byte order of the source buffer, so samples never need to be swapped.
+ * Metadata is taken from a {@link ParametersSnapshot}: CFA pattern, black and white levels,
+ * neutral point, noise profile and the lens shading map as GainMap opcodes. Calibration
+ * matrices with their illuminants, the active area and the capture time come from the camera
+ * through {@link #setCalibration}, {@link #setActiveArea} and {@link #setDateTime}; without a
+ * calibration the color transform of the shot is written against an unknown illuminant.
+ * <p>
+ * With {@link DngTag#COMPRESSION_LOSSLESS_JPEG} tiles are encoded by {@link Lj92Encoder} on a
+ * fork-join pool. A window of tiles is encoded ahead while the finished ones are written in
+ * order, so compression overlaps with storage I/O.
+ */
+public class DngWriter {
+    public static final int DEFAULT_TILE_SIZE = 256;
+    /**
+     * Buffers per gathering write, matches IOV_MAX on Linux.
+     */
+    private static final int MAX_GATHER = 1024;
+    private static final int OPCODE_GAIN_MAP = 9;
+    private static final int OPCODE_DNG_VERSION = 0x01030000;
+    private static final int OPCODE_FLAG_OPTIONAL_FOR_PREVIEW = 2;
+    /**
+     * Pixels left out of the default crop on every side of the active area, as DngCreator does.
+     */
+    private static final int CROP_MARGIN = 8;
+
+    private final ParametersSnapshot parameters;
+    private String make = "";
+    private String model = "";
+    private String software = "PhotonCamera";
+    private String description;
+    private int orientation = 1;
+    private int tileWidth = DEFAULT_TILE_SIZE;
+    private int tileHeight = DEFAULT_TILE_SIZE;
+    private long exposureTimeNs;
+    private int iso;
+    private float fNumber;
+    private int compression = DngTag.COMPRESSION_NONE;
+    private ForkJoinPool pool;
+    private final Calibration[] calibrations = new Calibration[2];
+    private int[] activeArea;
+    private long dateTimeMs;
+
+    /**
+     * Color calibration for one reference illuminant.
+     */
+    private static class Calibration {
+        final int illuminant;
+        final double[] colorMatrix;
+        final double[] forwardMatrix;
+        final double[] cameraCalibration;
+
+        Calibration(int illuminant, double[] colorMatrix, double[] forwardMatrix, double[] cameraCalibration) {
+            this.illuminant = illuminant;
+            this.colorMatrix = colorMatrix;
+            this.forwardMatrix = forwardMatrix;
+            this.cameraCalibration = cameraCalibration;
+        }
+    }
+
+    public DngWriter(ParametersSnapshot parameters) {
+        this.parameters = parameters;
+    }
+
+    public DngWriter setCamera(String make, String model) {
+        this.make = make;
+        this.model = model;
+        return this;
+    }
+
+    public DngWriter setSoftware(String software) {
+        this.software = software;
+        return this;
+    }
+
+    public DngWriter setDescription(String description) {
+        this.description = description;
+        return this;
+    }
+
+    /**
+     * @param cameraRotation rotation of the frame in degrees, converted to the TIFF orientation.
+     */
+    public DngWriter setRotation(int cameraRotation) {
+        orientation = orientation(cameraRotation);
+        return this;
+    }
+
+    public DngWriter setExposure(long exposureTimeNs, int iso, float fNumber) {
+        this.exposureTimeNs = exposureTimeNs;
+        this.iso = iso;
+        this.fNumber = fNumber;
+        return this;
+    }
+
+    /**
+     * Calibration of the sensor for one reference illuminant, as reported by the camera.
+     *
+     * @param index             0 for the first illuminant, 1 for the second.
+     * @param illuminant        EXIF LightSource value, the camera2 reference illuminant.
+     * @param colorMatrix       XYZ to camera row major 3x3 matrix.
+     * @param forwardMatrix     white balanced camera to XYZ(D50) matrix, may be null.
+     * @param cameraCalibration per unit calibration matrix, may be null.
+     */
+    public DngWriter setCalibration(int index, int illuminant, double[] colorMatrix,
+                                    double[] forwardMatrix, double[] cameraCalibration) {
+        if (index < 0 || index > 1)
+            throw new IllegalArgumentException("Calibration index must be 0 or 1:" + index);
+        checkMatrix(colorMatrix);
+        if (forwardMatrix != null) checkMatrix(forwardMatrix);
+        if (cameraCalibration != null) checkMatrix(cameraCalibration);
+        calibrations[index] = new Calibration(illuminant, colorMatrix, forwardMatrix, cameraCalibration);
+        return this;
+    }
+
+    /**
+     * Area of the frame holding image pixels, the default crop is taken inside of it.
+     * The full frame when not set.
+     */
+    public DngWriter setActiveArea(int left, int top, int right, int bottom) {
+        if (left < 0 || top < 0 || right > parameters.rawWidth || bottom > parameters.rawHeight
+                || right <= left || bottom <= top)
+            throw new IllegalArgumentException("Active area " + left + "," + top + "," + right + "," + bottom
+                    + " outside of " + parameters.rawWidth + "x" + parameters.rawHeight);
+        activeArea = new int[]{left, top, right, bottom};
+        return this;
+    }
+
+    /**
+     * @param dateTimeMs capture time in milliseconds since the epoch, written in local time.
+     */
+    public DngWriter setDateTime(long dateTimeMs) {
+        this.dateTimeMs = dateTimeMs;
+        return this;
+    }
+
+    private static void checkMatrix(double[] matrix) {
+        if (matrix == null || matrix.length != 9)
+            throw new IllegalArgumentException("Expected a 3x3 matrix");
+    }
+
+    /**
+     * @param tileWidth  tile width in pixels, a multiple of 16.
+     * @param tileHeight tile height in pixels, a multiple of 16.
+     */
+    public DngWriter setTileSize(int tileWidth, int tileHeight) {
+        if (tileWidth <= 0 || tileHeight <= 0 || tileWidth % 16 != 0 || tileHeight % 16 != 0)
+            throw new IllegalArgumentException("Tile size must be a positive multiple of 16:" + tileWidth + "x" + tileHeight);
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        return this;
+    }
+
+    /**
+     * @param compression {@link DngTag#COMPRESSION_NONE} or {@link DngTag#COMPRESSION_LOSSLESS_JPEG}.
+     */
+    public DngWriter setCompression(int compression) {
+        if (compression != DngTag.COMPRESSION_NONE && compression != DngTag.COMPRESSION_LOSSLESS_JPEG)
+            throw new IllegalArgumentException("Unsupported compression " + compression);
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param pool pool for tile compression, the common pool when not set.
+     */
+    public DngWriter setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public static int orientation(int cameraRotation) {
+        switch (cameraRotation) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    public long write(Path path, ByteBuffer raw, int rowStride) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return write(channel, raw, rowStride);
+        }
+    }
+
+    /**
+     * Writes the frame at the current position of the channel.
+     *
+     * @param raw       16 bit samples starting at the buffer position, left untouched.
+     * @param rowStride distance between rows in bytes.
+     * @return number of bytes written.
+     */
+    public long write(FileChannel channel, ByteBuffer raw, int rowStride) throws IOException {
+        int width = parameters.rawWidth;
+        int height = parameters.rawHeight;
+        if (rowStride < width * 2)
+            throw new IllegalArgumentException("Row stride " + rowStride + " is smaller than the row of " + width + " pixels");
+        if (raw.remaining() < (long) rowStride * (height - 1) + width * 2L)
+            throw new IllegalArgumentException("Buffer holds " + raw.remaining() + " bytes, frame " + width + "x" + height + " needs more");
+        ByteOrder order = raw.order();
+        long start = channel.position();
+
+        ByteBuffer header = ByteBuffer.allocate(8).order(order);
+        byte marker = (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M');
+        header.put(marker).put(marker).putShort((short) 42).putInt(0);
+        header.flip();
+        writeFully(channel, header);
+
+        int tilesAcross = (width + tileWidth - 1) / tileWidth;
+        int tilesDown = (height + tileHeight - 1) / tileHeight;
+        long[] offsets = new long[tilesAcross * tilesDown];
+        long[] byteCounts = new long[offsets.length];
+        long position = 8;
+        if (compression == DngTag.COMPRESSION_LOSSLESS_JPEG) {
+            position = writeCompressedTiles(channel, raw, rowStride, width, height, tilesAcross, offsets, byteCounts);
+        } else {
+            long tileBytes = (long) tileWidth * tileHeight * 2;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = position;
+                byteCounts[i] = tileBytes;
+                position += tileBytes;
+            }
+            writeTiles(channel, raw, rowStride, width, height, tilesAcross, tilesDown);
+        }
+
+        long ifdOffset = position;
+        if ((ifdOffset & 1) != 0) {
+            writeFully(channel, ByteBuffer.allocate(1));
+            ifdOffset++;
+        }
+        if (ifdOffset > 0xFFFFFFFFL) throw new IOException("DNG larger than 4GB");
+        ByteBuffer ifd = buildIfd(order, offsets, byteCounts).serialize(ifdOffset);
+        long end = ifdOffset + ifd.remaining();
+        writeFully(channel, ifd);
+
+        ByteBuffer patch = ByteBuffer.allocate(4).order(order).putInt((int) ifdOffset);
+        patch.flip();
+        while (patch.hasRemaining()) channel.write(patch, start + 4 + patch.position());
+        return end;
+    }
+
+    private void writeTiles(FileChannel channel, ByteBuffer raw, int rowStride, int width, int height,
+                            int tilesAcross, int tilesDown) throws IOException {
+        int base = raw.position();
+        ByteBuffer zeros = ByteBuffer.allocateDirect(tileWidth * 2);
+        //Views are reused between batches, no allocation per tile row
+        ByteBuffer[] rowViews = new ByteBuffer[MAX_GATHER];
+        ByteBuffer[] padViews = new ByteBuffer[MAX_GATHER];
+        for (int i = 0; i < MAX_GATHER; i++) {
+            rowViews[i] = raw.duplicate();
+            padViews[i] = zeros.duplicate();
+        }
+        ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        int count = 0;
+        int rowUsed = 0;
+        int padUsed = 0;
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                int x0 = tx * tileWidth;
+                int cols = Math.min(tileWidth, width - x0);
+                for (int row = 0; row < tileHeight; row++) {
+                    if (count + 2 > MAX_GATHER) {
+                        writeFully(channel, gather, count);
+                        count = 0;
+                        rowUsed = 0;
+                        padUsed = 0;
+                    }
+                    int y = ty * tileHeight + row;
+                    int padBytes = tileWidth * 2;
+                    if (y < height) {
+                        int from = base + y * rowStride + x0 * 2;
+                        ByteBuffer view = rowViews[rowUsed++];
+                        view.clear();
+                        view.limit(from + cols * 2).position(from);
+                        gather[count++] = view;
+                        padBytes = (tileWidth - cols) * 2;
+                    }
+                    if (padBytes > 0) {
+                        ByteBuffer pad = padViews[padUsed++];
+                        pad.clear();
+                        pad.limit(padBytes);
+                        gather[count++] = pad;
+                    }
+                }
+            }
+        }
+        writeFully(channel, gather, count);
+    }
+
+    /**
+     * Encodes tiles ahead of the writer, one encoder per slot of the window. A slot is reused
+     * only after its tile has been written.
+     *
+     * @return file position after the last tile.
+     */
+    private long writeCompressedTiles(FileChannel channel, ByteBuffer raw, int rowStride, int width, int height,
+                                      int tilesAcross, long[] offsets, long[] byteCounts) throws IOException {
+        if ((raw.position() & 1) != 0 || (rowStride & 1) != 0)
+            throw new IllegalArgumentException("Compressed frames need 16 bit aligned rows");
+        ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+        ShortBuffer frame = raw.duplicate().order(raw.order()).asShortBuffer();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        Lj92Encoder[] encoders = new Lj92Encoder[window];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[window];
+        int tiles = offsets.length;
+        int submitted = 0;
+        long position = 8;
+        try {
+            for (int i = 0; i < tiles; i++) {
+                for (; submitted < tiles && submitted < i + window; submitted++) {
+                    int slot = submitted % window;
+                    if (encoders[slot] == null) encoders[slot] = new Lj92Encoder(tileWidth, tileHeight);
+                    Lj92Encoder encoder = encoders[slot];
+                    int x0 = (submitted % tilesAcross) * tileWidth;
+                    int y0 = (submitted / tilesAcross) * tileHeight;
+                    int cols = Math.min(tileWidth, width - x0);
+                    int rows = Math.min(tileHeight, height - y0);
+                    int offset = y0 * (rowStride / 2) + x0;
+                    tasks[slot] = pool.submit(() -> encoder.encode(frame, offset, rowStride / 2, cols, rows));
+                }
+                int slot = i % window;
+                tasks[slot].join();
+                tasks[slot] = null;
+                ByteBuffer tile = encoders[slot].output();
+                offsets[i] = position;
+                byteCounts[i] = tile.remaining();
+                writeFully(channel, tile);
+                position += byteCounts[i];
+            }
+        } finally {
+            //Never return while a task still reads the frame
+            for (ForkJoinTask<?> task : tasks) {
+                if (task != null) task.quietlyJoin();
+            }
+        }
+        return position;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            channel.write(buffers, offset, count - offset);
+            while (offset < count && !buffers[offset].hasRemaining()) offset++;
+        }
+    }
+
+    private TiffIfd buildIfd(ByteOrder order, long[] offsets, long[] byteCounts) {
+        TiffIfd ifd = new TiffIfd(order);
+        ifd.addLong(DngTag.NEW_SUBFILE_TYPE, 0);
+        ifd.addLong(DngTag.IMAGE_WIDTH, parameters.rawWidth);
+        ifd.addLong(DngTag.IMAGE_LENGTH, parameters.rawHeight);
+        ifd.addShort(DngTag.BITS_PER_SAMPLE, 16);
+        ifd.addShort(DngTag.COMPRESSION, compression);
+        ifd.addShort(DngTag.PHOTOMETRIC_INTERPRETATION, DngTag.PHOTOMETRIC_CFA);
+        if (description != null) ifd.addAscii(DngTag.IMAGE_DESCRIPTION, description);
+        ifd.addAscii(DngTag.MAKE, make);
+        ifd.addAscii(DngTag.MODEL, model);
+        ifd.addShort(DngTag.ORIENTATION, orientation);
+        ifd.addShort(DngTag.SAMPLES_PER_PIXEL, 1);
+        ifd.addShort(DngTag.PLANAR_CONFIGURATION, 1);
+        ifd.addAscii(DngTag.SOFTWARE, software);
+        ifd.addLong(DngTag.TILE_WIDTH, tileWidth);
+        ifd.addLong(DngTag.TILE_LENGTH, tileHeight);
+        ifd.addLong(DngTag.TILE_OFFSETS, offsets);
+        ifd.addLong(DngTag.TILE_BYTE_COUNTS, byteCounts);
+        ifd.addShort(DngTag.CFA_REPEAT_PATTERN_DIM, 2, 2);
+        ifd.addByte(DngTag.CFA_PATTERN, cfaColors(parameters.cfaPattern));
+        if (exposureTimeNs > 0) ifd.addRational(DngTag.EXPOSURE_TIME, exposureTimeNs / 1e9);
+        if (fNumber > 0) ifd.addRational(DngTag.F_NUMBER, fNumber);
+        if (iso > 0) ifd.addShort(DngTag.ISO_SPEED_RATINGS, Math.min(iso, 65535));
+        if (parameters.focalLength > 0) ifd.addRational(DngTag.FOCAL_LENGTH, parameters.focalLength);
+        if (dateTimeMs > 0) {
+            String dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(new Date(dateTimeMs));
+            ifd.addAscii(DngTag.DATE_TIME, dateTime);
+            ifd.addAscii(DngTag.DATE_TIME_ORIGINAL, dateTime);
+        }
+        byte[] gainMap = gainMapOpcodes();
+        //ForwardMatrix needs a 1.2 reader, GainMap opcodes a 1.3 one
+        ifd.addByte(DngTag.DNG_VERSION, 1, 4, 0, 0);
+        ifd.addByte(DngTag.DNG_BACKWARD_VERSION, 1, gainMap != null ? 3 : 2, 0, 0);
+        ifd.addAscii(DngTag.UNIQUE_CAMERA_MODEL, (make + " " + model).trim());
+        ifd.addByte(DngTag.CFA_PLANE_COLOR, 0, 1, 2);
+        ifd.addShort(DngTag.CFA_LAYOUT, 1);
+        ifd.addShort(DngTag.BLACK_LEVEL_REPEAT_DIM, 2, 2);
+        float[] blackLevel = parameters.getBlackLevel();
+        ifd.addRational(DngTag.BLACK_LEVEL, blackLevel[0], blackLevel[1], blackLevel[2], blackLevel[3]);
+        ifd.addLong(DngTag.WHITE_LEVEL, parameters.whiteLevel);
+        int[] area = activeArea != null ? activeArea : new int[]{0, 0, parameters.rawWidth, parameters.rawHeight};
+        ifd.addLong(DngTag.ACTIVE_AREA, area[1], area[0], area[3], area[2]);
+        int margin = Math.min(CROP_MARGIN, Math.min(area[2] - area[0], area[3] - area[1]) / 4);
+        ifd.addRational(DngTag.DEFAULT_CROP_ORIGIN, margin, margin);
+        ifd.addRational(DngTag.DEFAULT_CROP_SIZE, area[2] - area[0] - 2 * margin, area[3] - area[1] - 2 * margin);
+        Calibration first = calibrations[0] != null ? calibrations[0] : shotCalibration();
+        addCalibration(ifd, first, DngTag.COLOR_MATRIX_1, DngTag.FORWARD_MATRIX_1,
+                DngTag.CAMERA_CALIBRATION_1, DngTag.CALIBRATION_ILLUMINANT_1);
+        if (calibrations[0] != null && calibrations[1] != null) {
+            addCalibration(ifd, calibrations[1], DngTag.COLOR_MATRIX_2, DngTag.FORWARD_MATRIX_2,
+                    DngTag.CAMERA_CALIBRATION_2, DngTag.CALIBRATION_ILLUMINANT_2);
+        }
+        ifd.addRational(DngTag.AS_SHOT_NEUTRAL, parameters.whitePoint(0), parameters.whitePoint(1), parameters.whitePoint(2));
+        if (gainMap != null) ifd.addUndefined(DngTag.OPCODE_LIST_2, gainMap);
+        double[][] noise = parameters.getBaseNoiseModel();
+        if (noise[0][0] > 0.0) {
+            ifd.addDouble(DngTag.NOISE_PROFILE, noise[0][0], noise[0][1], noise[1][0], noise[1][1], noise[2][0], noise[2][1]);
+        }
+        return ifd;
+    }
+
+    /**
+     * @return color of every pixel of the 2x2 CFA cell, 0 red, 1 green, 2 blue.
+     */
+    static int[] cfaColors(int cfaPattern) {
+        switch (cfaPattern) {
+            case 1:
+                return new int[]{1, 0, 2, 1};
+            case 2:
+                return new int[]{1, 2, 0, 1};
+            case 3:
+                return new int[]{2, 1, 1, 0};
+            default:
+                return new int[]{0, 1, 1, 2};
+        }
+    }
+
+    private static void addCalibration(TiffIfd ifd, Calibration calibration, int colorMatrixTag,
+                                       int forwardMatrixTag, int cameraCalibrationTag, int illuminantTag) {
+        ifd.addSRational(colorMatrixTag, calibration.colorMatrix);
+        if (calibration.forwardMatrix != null) ifd.addSRational(forwardMatrixTag, calibration.forwardMatrix);
+        if (calibration.cameraCalibration != null) ifd.addSRational(cameraCalibrationTag, calibration.cameraCalibration);
+        ifd.addShort(illuminantTag, calibration.illuminant);
+    }
+
+    /**
+     * Calibration for the shot alone when the camera gave none. The sensor to XYZ transform of
+     * the shot already holds its white balance, so it is valid for the as shot neutral only and
+     * the illuminant is unknown. The forward matrix takes the white balance back out, so a reader
+     * of the forward matrix gets the transform of the shot back.
+     */
+    private Calibration shotCalibration() {
+        float[] sensorToXYZ = new float[9];
+        Converter.multiply(Converter.sProPhotoToXYZ, parameters.getSensorToProPhoto(), sensorToXYZ);
+        float[] xyzToSensor = new float[9];
+        double[] colorMatrix = new double[9];
+        double[] forwardMatrix = new double[9];
+        if (!Converter.invert(sensorToXYZ, xyzToSensor)) {
+            colorMatrix[0] = colorMatrix[4] = colorMatrix[8] = 1.0;
+            return new Calibration(DngTag.ILLUMINANT_UNKNOWN, colorMatrix, null, null);
+        }
+        float maxNeutral = Math.max(Math.max(parameters.whitePoint(0), parameters.whitePoint(1)), parameters.whitePoint(2));
+        for (int i = 0; i < 9; i++) {
+            colorMatrix[i] = xyzToSensor[i];
+            forwardMatrix[i] = sensorToXYZ[i] * parameters.whitePoint(i % 3) / maxNeutral;
+        }
+        return new Calibration(DngTag.ILLUMINANT_UNKNOWN, colorMatrix, forwardMatrix, null);
+    }
+
+    /**
+     * Lens shading map as one GainMap opcode per CFA position. Opcode lists are always big
+     * endian. The map is stored as R, Geven, Godd, B per point like the camera2 shading map.
+     */
+    private byte[] gainMapOpcodes() {
+        float[] gainMap = parameters.getGainMap();
+        int mapWidth = parameters.mapWidth;
+        int mapHeight = parameters.mapHeight;
+        if (!parameters.hasGainMap || gainMap == null || mapWidth < 2 || mapHeight < 2
+                || gainMap.length < mapWidth * mapHeight * 4) return null;
+        int[] colors = cfaColors(parameters.cfaPattern);
+        int paramsSize = 76 + mapWidth * mapHeight * 4;
+        ByteBuffer out = ByteBuffer.allocate(4 + 4 * (16 + paramsSize)).order(ByteOrder.BIG_ENDIAN);
+        out.putInt(4);
+        for (int cell = 0; cell < 4; cell++) {
+            int top = cell / 2;
+            int left = cell % 2;
+            int channel;
+            switch (colors[cell]) {
+                case 0:
+                    channel = 0;
+                    break;
+                case 2:
+                    channel = 3;
+                    break;
+                default:
+                    channel = top == 0 ? 1 : 2;
+            }
+            out.putInt(OPCODE_GAIN_MAP).putInt(OPCODE_DNG_VERSION).putInt(OPCODE_FLAG_OPTIONAL_FOR_PREVIEW).putInt(paramsSize);
+            out.putInt(top).putInt(left).putInt(parameters.rawHeight).putInt(parameters.rawWidth);
+            //Plane, planes, row pitch, column pitch
+            out.putInt(0).putInt(1).putInt(2).putInt(2);
+            out.putInt(mapHeight).putInt(mapWidth);
+            out.putDouble(1.0 / (mapHeight - 1)).putDouble(1.0 / (mapWidth - 1));
+            out.putDouble(0.0).putDouble(0.0);
+            out.putInt(1);
+            for (int i = 0; i < mapWidth * mapHeight; i++) out.putFloat(gainMap[i * 4 + channel]);
+        }
+        return out.array();
+    }
+}
@@ -0,0 +1,222 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Lossless JPEG (DNG compression 7) decoder for single scan tiles, used by {@link DngReader}.
+ * <p>
+ * Supports any component count, predictors 1-7 and point transform. Restart intervals are not
+ * supported, {@link Lj92Encoder} does not write them.
+ */
+public class Lj92Decoder {
+    private final ByteBuffer data;
+    private final int[][] tables = new int[4][];
+    private final int[] componentIds = new int[4];
+    private final int[] componentTables = new int[4];
+    private int precision;
+    private int width;
+    private int height;
+    private int components;
+    private int predictor;
+    private int pointTransform;
+    private int bitBuffer;
+    private int bitCount;
+
+    /**
+     * Parses the headers of one encoded tile.
+     */
+    public Lj92Decoder(ByteBuffer data) throws IOException {
+        this.data = data.slice();
+        if (readMarker() != 0xD8) throw new IOException("Missing SOI");
+        while (true) {
+            int marker = readMarker();
+            int length = readShort() - 2;
+            int end = this.data.position() + length;
+            switch (marker) {
+                case 0xC4:
+                    while (this.data.position() < end) readTable();
+                    break;
+                case 0xC3:
+                    precision = readByte();
+                    height = readShort();
+                    width = readShort();
+                    components = readByte();
+                    if (components < 1 || components > 4) throw new IOException("Invalid component count " + components);
+                    for (int c = 0; c < components; c++) {
+                        componentIds[c] = readByte();
+                        readByte();
+                        readByte();
+                    }
+                    break;
+                case 0xDA:
+                    int count = readByte();
+                    if (count != components) throw new IOException("Scan does not cover all components");
+                    for (int c = 0; c < count; c++) {
+                        int id = readByte();
+                        int table = readByte() >> 4;
+                        for (int k = 0; k < components; k++) if (componentIds[k] == id) componentTables[k] = table;
+                    }
+                    predictor = readByte();
+                    readByte();
+                    pointTransform = readByte() & 0xF;
+                    this.data.position(end);
+                    return;
+                case 0xDD:
+                    if (readShort() != 0) throw new IOException("Restart intervals are not supported");
+                    break;
+                default:
+                    if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xCC)
+                        throw new IOException("Not a lossless JPEG, SOF" + (marker - 0xC0));
+            }
+            this.data.position(end);
+        }
+    }
+
+    /**
+     * @return samples per decoded row, all components interleaved.
+     */
+    public int getWidth() {
+        return width * components;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    /**
+     * Decodes the scan into {@code out}, row by row with all components interleaved.
+     */
+    public void decode(short[] out) throws IOException {
+        int rowLength = width * components;
+        if (out.length < rowLength * height) throw new IllegalArgumentException("Output is too small");
+        for (int c = 0; c < components; c++) {
+            if (tables[componentTables[c]] == null) throw new IOException("Missing Huffman table " + componentTables[c]);
+        }
+        int mask = (1 << precision) - 1;
+        int initial = 1 << (precision - pointTransform - 1);
+        for (int y = 0; y < height; y++) {
+            int row = y * rowLength;
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < components; c++) {
+                    int i = row + x * components + c;
+                    int prediction;
+                    if (y == 0 && x == 0) prediction = initial;
+                    else if (y == 0) prediction = out[i - components] & 0xFFFF;
+                    else if (x == 0) prediction = out[i - rowLength] & 0xFFFF;
+                    else prediction = predict(out[i - components] & 0xFFFF, out[i - rowLength] & 0xFFFF,
+                                out[i - rowLength - components] & 0xFFFF);
+                    out[i] = (short) ((prediction + readDiff(tables[componentTables[c]])) & mask);
+                }
+            }
+        }
+        if (pointTransform != 0) {
+            for (int i = 0; i < rowLength * height; i++) out[i] = (short) (out[i] << pointTransform);
+        }
+    }
+
+    private int predict(int a, int b, int c) {
+        switch (predictor) {
+            case 1:
+                return a;
+            case 2:
+                return b;
+            case 3:
+                return c;
+            case 4:
+                return a + b - c;
+            case 5:
+                return a + ((b - c) >> 1);
+            case 6:
+                return b + ((a - c) >> 1);
+            case 7:
+                return (a + b) >> 1;
+            default:
+                return 0;
+        }
+    }
+
+    private int readDiff(int[] table) throws IOException {
+        fill(16);
+        int entry = table[(bitBuffer >>> (bitCount - 16)) & 0xFFFF];
+        if (entry == 0) throw new IOException("Invalid Huffman code");
+        bitCount -= entry >>> 8;
+        int category = entry & 0xFF;
+        if (category == 0) return 0;
+        if (category == 16) return 32768;
+        fill(category);
+        bitCount -= category;
+        int diff = (bitBuffer >>> bitCount) & ((1 << category) - 1);
+        if (diff < 1 << (category - 1)) diff -= (1 << category) - 1;
+        return diff;
+    }
+
+    /**
+     * Makes at least {@code bits} bits available, reads zeros past the end of the scan.
+     */
+    private void fill(int bits) {
+        while (bitCount < bits) {
+            int b = 0;
+            if (data.remaining() >= 2 && (data.get(data.position()) & 0xFF) == 0xFF) {
+                if (data.get(data.position() + 1) == 0) {
+                    b = 0xFF;
+                    data.position(data.position() + 2);
+                }
+            } else if (data.hasRemaining()) {
+                b = data.get() & 0xFF;
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Reads one DHT table into a 16 bit lookup: symbol in the low byte, code length above it.
+     */
+    private void readTable() throws IOException {
+        int id = readByte() & 0xF;
+        if (id > 3) throw new IOException("Invalid Huffman table id " + id);
+        int[] bits = new int[17];
+        int total = 0;
+        for (int i = 1; i <= 16; i++) {
+            bits[i] = readByte();
+            total += bits[i];
+        }
+        int[] table = new int[1 << 16];
+        int code = 0;
+        for (int size = 1; size <= 16; size++) {
+            for (int n = 0; n < bits[size]; n++) {
+                int symbol = readByte();
+                int first = code << (16 - size);
+                int last = (code + 1) << (16 - size);
+                if (last > table.length) throw new IOException("Invalid Huffman table");
+                for (int k = first; k < last; k++) table[k] = (size << 8) | symbol;
+                code++;
+                total--;
+            }
+            code <<= 1;
+        }
+        if (total != 0) throw new IOException("Invalid Huffman table");
+        tables[id] = table;
+    }
+
+    private int readMarker() throws IOException {
+        int b = readByte();
+        while (b != 0xFF) b = readByte();
+        while (b == 0xFF) b = readByte();
+        return b;
+    }
+
+    private int readByte() throws IOException {
+        if (!data.hasRemaining()) throw new IOException("Unexpected end of data");
+        return data.get() & 0xFF;
+    }
+
+    private int readShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+}
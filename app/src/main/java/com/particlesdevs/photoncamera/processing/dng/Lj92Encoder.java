@@ -0,0 +1,269 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Lossless JPEG (ITU T.81 process 14, DNG compression 7) encoder for one tile of 16 bit samples.
+ * <p>
+ * The tile is coded as two interleaved components of half the width, the usual DNG layout for
+ * bayer data: the left neighbour of a sample in the same component has the same CFA color, so
+ * predictor 1 works on same-color differences. Every tile gets an optimal Huffman table built
+ * from its own difference histogram.
+ * <p>
+ * An encoder keeps its working arrays between tiles, one instance per thread.
+ */
+public class Lj92Encoder {
+    static final int PRECISION = 16;
+    static final int COMPONENTS = 2;
+    static final int PREDICTOR = 1;
+    private static final int SYMBOLS = PRECISION + 1;
+
+    private final int width;
+    private final int height;
+    private final int[] samples;
+    private final int[] diffs;
+    private final int[] frequencies = new int[SYMBOLS + 1];
+    private final int[] bits = new int[33];
+    private final int[] huffval = new int[SYMBOLS];
+    private final int[] codes = new int[SYMBOLS];
+    private final int[] codeLengths = new int[SYMBOLS];
+    private int symbolCount;
+    private short[] row = new short[0];
+    private byte[] out;
+    private int length;
+    private long bitBuffer;
+    private int bitCount;
+
+    /**
+     * @param width  tile width in samples, even.
+     * @param height tile height in samples.
+     */
+    public Lj92Encoder(int width, int height) {
+        if (width <= 0 || height <= 0 || width % COMPONENTS != 0)
+            throw new IllegalArgumentException("Invalid tile size:" + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        samples = new int[width * height];
+        diffs = new int[width * height];
+        out = new byte[width * height * 2 + 1024];
+    }
+
+    /**
+     * Encodes one tile. Samples outside of {@code cols}x{@code rows} are filled by repeating the
+     * last column and row, which costs almost nothing after prediction.
+     *
+     * @param frame  frame samples.
+     * @param offset index of the top left sample of the tile.
+     * @param stride distance between rows in samples.
+     * @return size of the encoded tile, the data is in {@link #output()}.
+     */
+    public int encode(ShortBuffer frame, int offset, int stride, int cols, int rows) {
+        if (cols <= 0 || rows <= 0 || cols > width || rows > height)
+            throw new IllegalArgumentException("Invalid region:" + cols + "x" + rows);
+        load(frame, offset, stride, cols, rows);
+        predict();
+        buildTable();
+        length = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        writeHeaders();
+        writeScan();
+        ensure(2);
+        out[length++] = (byte) 0xFF;
+        out[length++] = (byte) 0xD9;
+        return length;
+    }
+
+    /**
+     * @return view of the last encoded tile, valid until the next {@link #encode} call.
+     */
+    public ByteBuffer output() {
+        return ByteBuffer.wrap(out, 0, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void load(ShortBuffer frame, int offset, int stride, int cols, int rows) {
+        if (row.length < cols) row = new short[cols];
+        ShortBuffer source = frame.duplicate();
+        for (int y = 0; y < rows; y++) {
+            int rowStart = y * width;
+            source.position(offset + y * stride);
+            source.get(row, 0, cols);
+            for (int x = 0; x < cols; x++) samples[rowStart + x] = row[x] & 0xFFFF;
+            //Repeat the last pixel of the same color
+            for (int x = cols; x < width; x++) samples[rowStart + x] = samples[rowStart + (x >= COMPONENTS ? x - COMPONENTS : 0)];
+        }
+        for (int y = rows; y < height; y++) {
+            System.arraycopy(samples, (y >= 2 ? y - 2 : 0) * width, samples, y * width, width);
+        }
+    }
+
+    private void predict() {
+        Arrays.fill(frequencies, 0);
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = rowStart + x;
+                int prediction;
+                if (x < COMPONENTS) prediction = y == 0 ? 1 << (PRECISION - 1) : samples[i - width];
+                else prediction = samples[i - COMPONENTS];
+                int diff = (samples[i] - prediction) & 0xFFFF;
+                if (diff >= 0x8000) diff -= 0x10000;
+                diffs[i] = diff;
+                frequencies[category(diff)]++;
+            }
+        }
+    }
+
+    static int category(int diff) {
+        if (diff == 0) return 0;
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(diff));
+    }
+
+    /**
+     * Optimal table limited to 16 bit codes, ITU T.81 Annex K.2.
+     */
+    private void buildTable() {
+        int[] freq = frequencies;
+        //Reserved symbol keeps the all ones code unused
+        freq[SYMBOLS] = 1;
+        int[] codeSize = new int[SYMBOLS + 1];
+        int[] others = new int[SYMBOLS + 1];
+        Arrays.fill(others, -1);
+        while (true) {
+            int v1 = -1;
+            int v2 = -1;
+            for (int i = 0; i <= SYMBOLS; i++) {
+                if (freq[i] == 0) continue;
+                if (v1 < 0 || freq[i] <= freq[v1]) {
+                    v2 = v1;
+                    v1 = i;
+                } else if (v2 < 0 || freq[i] <= freq[v2]) {
+                    v2 = i;
+                }
+            }
+            if (v2 < 0) break;
+            freq[v1] += freq[v2];
+            freq[v2] = 0;
+            codeSize[v1]++;
+            while (others[v1] >= 0) {
+                v1 = others[v1];
+                codeSize[v1]++;
+            }
+            others[v1] = v2;
+            codeSize[v2]++;
+            while (others[v2] >= 0) {
+                v2 = others[v2];
+                codeSize[v2]++;
+            }
+        }
+        Arrays.fill(bits, 0);
+        for (int i = 0; i <= SYMBOLS; i++) if (codeSize[i] > 0) bits[codeSize[i]]++;
+        for (int i = 32; i > 16; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0) j--;
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+        int longest = 16;
+        while (bits[longest] == 0) longest--;
+        bits[longest]--;
+
+        symbolCount = 0;
+        for (int size = 1; size <= 32; size++) {
+            for (int i = 0; i < SYMBOLS; i++) if (codeSize[i] == size) huffval[symbolCount++] = i;
+        }
+        Arrays.fill(codeLengths, 0);
+        int code = 0;
+        int k = 0;
+        for (int size = 1; size <= 16; size++) {
+            for (int n = 0; n < bits[size]; n++) {
+                int symbol = huffval[k++];
+                codes[symbol] = code++;
+                codeLengths[symbol] = size;
+            }
+            code <<= 1;
+        }
+    }
+
+    private void writeHeaders() {
+        ensure(64);
+        putMarker(0xD8);
+        putMarker(0xC4);
+        putShort(2 + 1 + 16 + symbolCount);
+        out[length++] = 0;
+        for (int size = 1; size <= 16; size++) out[length++] = (byte) bits[size];
+        for (int i = 0; i < symbolCount; i++) out[length++] = (byte) huffval[i];
+        putMarker(0xC3);
+        putShort(8 + 3 * COMPONENTS);
+        out[length++] = (byte) PRECISION;
+        putShort(height);
+        putShort(width / COMPONENTS);
+        out[length++] = (byte) COMPONENTS;
+        for (int c = 0; c < COMPONENTS; c++) {
+            out[length++] = (byte) c;
+            out[length++] = 0x11;
+            out[length++] = 0;
+        }
+        putMarker(0xDA);
+        putShort(6 + 2 * COMPONENTS);
+        out[length++] = (byte) COMPONENTS;
+        for (int c = 0; c < COMPONENTS; c++) {
+            out[length++] = (byte) c;
+            out[length++] = 0;
+        }
+        out[length++] = PREDICTOR;
+        out[length++] = 0;
+        out[length++] = 0;
+    }
+
+    private void writeScan() {
+        for (int y = 0; y < height; y++) {
+            //Code and extra bits are at most 32 bits, doubled by byte stuffing in the worst case
+            ensure(width * 8);
+            int rowStart = y * width;
+            for (int i = rowStart; i < rowStart + width; i++) {
+                int diff = diffs[i];
+                int category = category(diff);
+                int extra = category < 16 ? category : 0;
+                int value = (codes[category] << extra) | ((diff < 0 ? diff - 1 : diff) & ((1 << extra) - 1));
+                putBits(value, codeLengths[category] + extra);
+            }
+        }
+        if (bitCount > 0) putBits(0x7F, 8 - bitCount);
+    }
+
+    private void putBits(int value, int count) {
+        bitBuffer = (bitBuffer << count) | (value & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            int b = (int) (bitBuffer >>> bitCount) & 0xFF;
+            out[length++] = (byte) b;
+            if (b == 0xFF) out[length++] = 0;
+        }
+    }
+
+    private void putMarker(int marker) {
+        out[length++] = (byte) 0xFF;
+        out[length++] = (byte) marker;
+    }
+
+    private void putShort(int value) {
+        out[length++] = (byte) (value >>> 8);
+        out[length++] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, length + bytes));
+    }
+}
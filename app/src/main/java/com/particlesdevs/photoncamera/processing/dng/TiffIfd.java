@@ -0,0 +1,142 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One TIFF image file directory, entries are kept sorted by tag as the format requires. Used for
+ * DNG files and for the TIFF structure of EXIF segments.
+ */
+public class TiffIfd {
+    private static class Entry {
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int type, int count, byte[] value) {
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    private final ByteOrder order;
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+
+    public TiffIfd(ByteOrder order) {
+        this.order = order;
+    }
+
+    private ByteBuffer allocate(int type, int count) {
+        return ByteBuffer.allocate(DngTag.typeSize(type) * count).order(order);
+    }
+
+    private void put(int tag, int type, int count, ByteBuffer value) {
+        entries.put(tag, new Entry(type, count, value.array()));
+    }
+
+    public void addByte(int tag, int... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_BYTE, values.length);
+        for (int v : values) buffer.put((byte) v);
+        put(tag, DngTag.TYPE_BYTE, values.length, buffer);
+    }
+
+    public void addUndefined(int tag, byte[] values) {
+        entries.put(tag, new Entry(DngTag.TYPE_UNDEFINED, values.length, values.clone()));
+    }
+
+    public void addAscii(int tag, String value) {
+        byte[] text = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] terminated = new byte[text.length + 1];
+        System.arraycopy(text, 0, terminated, 0, text.length);
+        entries.put(tag, new Entry(DngTag.TYPE_ASCII, terminated.length, terminated));
+    }
+
+    public void addShort(int tag, int... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_SHORT, values.length);
+        for (int v : values) buffer.putShort((short) v);
+        put(tag, DngTag.TYPE_SHORT, values.length, buffer);
+    }
+
+    public void addLong(int tag, long... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_LONG, values.length);
+        for (long v : values) buffer.putInt((int) v);
+        put(tag, DngTag.TYPE_LONG, values.length, buffer);
+    }
+
+    public void addRational(int tag, double... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_RATIONAL, values.length);
+        for (double v : values) {
+            v = Math.max(v, 0.0);
+            long denominator = denominator(v, 0xFFFFFFFFL);
+            buffer.putInt((int) Math.round(v * denominator)).putInt((int) denominator);
+        }
+        put(tag, DngTag.TYPE_RATIONAL, values.length, buffer);
+    }
+
+    public void addSRational(int tag, double... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_SRATIONAL, values.length);
+        for (double v : values) {
+            long denominator = denominator(v, Integer.MAX_VALUE);
+            buffer.putInt((int) Math.round(v * denominator)).putInt((int) denominator);
+        }
+        put(tag, DngTag.TYPE_SRATIONAL, values.length, buffer);
+    }
+
+    public void addDouble(int tag, double... values) {
+        ByteBuffer buffer = allocate(DngTag.TYPE_DOUBLE, values.length);
+        for (double v : values) buffer.putDouble(v);
+        put(tag, DngTag.TYPE_DOUBLE, values.length, buffer);
+    }
+
+    private static long denominator(double v, long maxNumerator) {
+        long denominator = 10000;
+        while (denominator > 1 && Math.abs(v) * denominator > maxNumerator) denominator /= 10;
+        return denominator;
+    }
+
+    /**
+     * @return serialized size including the values that do not fit into their entry.
+     */
+    public int size() {
+        int size = 2 + entries.size() * 12 + 4;
+        for (Entry entry : entries.values()) {
+            if (entry.value.length > 4) size += (entry.value.length + 1) & ~1;
+        }
+        return size;
+    }
+
+    /**
+     * Serializes the directory for the given file offset, values larger than four bytes are
+     * placed right after it.
+     */
+    public ByteBuffer serialize(long offset) {
+        ByteBuffer out = ByteBuffer.allocate(size()).order(order);
+        long dataOffset = offset + 2 + entries.size() * 12 + 4;
+        out.putShort((short) entries.size());
+        ByteBuffer data = ByteBuffer.allocate(out.capacity() - (int) (dataOffset - offset)).order(order);
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            out.putShort((short) (int) e.getKey());
+            out.putShort((short) entry.type);
+            out.putInt(entry.count);
+            if (entry.value.length <= 4) {
+                out.put(entry.value);
+                for (int i = entry.value.length; i < 4; i++) out.put((byte) 0);
+            } else {
+                out.putInt((int) (dataOffset + data.position()));
+                data.put(entry.value);
+                if ((entry.value.length & 1) != 0) data.put((byte) 0);
+            }
+        }
+        //No next IFD
+        out.putInt(0);
+        data.flip();
+        out.put(data);
+        out.flip();
+        return out;
+    }
+}
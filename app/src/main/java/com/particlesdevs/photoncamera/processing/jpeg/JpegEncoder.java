@@ -0,0 +1,140 @@
+package com.particlesdevs.photoncamera.processing.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Baseline JPEG encoder for RGBA frames, as read back from the GL pipeline.
+ * <p>
+ * The image is cut into strips of one MCU row, each strip is a restart interval. Strips are
+ * encoded in parallel on a fork-join pool and written in order with RST markers in between.
+ * A window of strips is encoded ahead of the writer, one {@link JpegStripEncoder} per slot, so
+ * encoding allocates nothing per strip. Output is YCbCr 4:2:0 with the Annex K tables scaled
+ * to the requested quality, the same kind of file Bitmap.compress produces.
+ */
+public class JpegEncoder {
+    private final int quality;
+    private final int[] lumaTable;
+    private final int[] chromaTable;
+    private ForkJoinPool pool;
+
+    /**
+     * @param quality 1-100, see {@link com.particlesdevs.photoncamera.processing.ImageSaver#JPG_QUALITY}.
+     */
+    public JpegEncoder(int quality) {
+        this.quality = quality;
+        lumaTable = JpegTables.lumaTable(quality);
+        chromaTable = JpegTables.chromaTable(quality);
+    }
+
+    /**
+     * @param pool pool for strip encoding, the common pool when not set.
+     */
+    public JpegEncoder setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @param rgba      RGBA pixels starting at the buffer position, left untouched. Alpha is ignored.
+     * @param rowStride distance between rows in bytes.
+     * @return number of bytes written.
+     */
+    public long encode(ByteBuffer rgba, int width, int height, int rowStride, OutputStream out) throws IOException {
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF)
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        if (rowStride < width * 4)
+            throw new IllegalArgumentException("Row stride " + rowStride + " is smaller than the row of " + width + " pixels");
+        if (rgba.remaining() < (long) rowStride * (height - 1) + width * 4L)
+            throw new IllegalArgumentException("Buffer holds " + rgba.remaining() + " bytes, image " + width + "x" + height + " needs more");
+        int mcusAcross = (width + JpegStripEncoder.MCU_SIZE - 1) / JpegStripEncoder.MCU_SIZE;
+        int strips = (height + JpegStripEncoder.MCU_SIZE - 1) / JpegStripEncoder.MCU_SIZE;
+        byte[] header = header(width, height, mcusAcross);
+        out.write(header);
+        long written = header.length;
+
+        ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        JpegStripEncoder[] encoders = new JpegStripEncoder[window];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[window];
+        int submitted = 0;
+        try {
+            for (int i = 0; i < strips; i++) {
+                for (; submitted < strips && submitted < i + window; submitted++) {
+                    int slot = submitted % window;
+                    if (encoders[slot] == null) encoders[slot] = new JpegStripEncoder(width, lumaTable, chromaTable);
+                    JpegStripEncoder encoder = encoders[slot];
+                    int y0 = submitted * JpegStripEncoder.MCU_SIZE;
+                    int rows = Math.min(JpegStripEncoder.MCU_SIZE, height - y0);
+                    tasks[slot] = pool.submit(() -> encoder.encode(rgba, rowStride, y0, rows));
+                }
+                int slot = i % window;
+                tasks[slot].join();
+                tasks[slot] = null;
+                out.write(encoders[slot].buffer(), 0, encoders[slot].length());
+                written += encoders[slot].length();
+                if (i != strips - 1) {
+                    out.write(0xFF);
+                    out.write(0xD0 + (i & 7));
+                    written += 2;
+                }
+            }
+        } finally {
+            //Never return while a task still reads the frame
+            for (ForkJoinTask<?> task : tasks) {
+                if (task != null) task.quietlyJoin();
+            }
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+        return written + 2;
+    }
+
+    private byte[] header(int width, int height, int restartInterval) {
+        ByteBuffer header = ByteBuffer.allocate(1024);
+        header.putShort((short) 0xFFD8);
+        //JFIF 1.01, no density
+        header.putShort((short) 0xFFE0).putShort((short) 16);
+        header.put(new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0}).putShort((short) 1).putShort((short) 1).put((byte) 0).put((byte) 0);
+        putQuantization(header, 0, lumaTable);
+        putQuantization(header, 1, chromaTable);
+        //Baseline frame, Y 2x2 sampled, Cb and Cr 1x1
+        header.putShort((short) 0xFFC0).putShort((short) 17).put((byte) 8);
+        header.putShort((short) height).putShort((short) width).put((byte) 3);
+        header.put((byte) 1).put((byte) 0x22).put((byte) 0);
+        header.put((byte) 2).put((byte) 0x11).put((byte) 1);
+        header.put((byte) 3).put((byte) 0x11).put((byte) 1);
+        putHuffman(header, JpegTables.DC_LUMA);
+        putHuffman(header, JpegTables.AC_LUMA);
+        putHuffman(header, JpegTables.DC_CHROMA);
+        putHuffman(header, JpegTables.AC_CHROMA);
+        header.putShort((short) 0xFFDD).putShort((short) 4).putShort((short) restartInterval);
+        header.putShort((short) 0xFFDA).putShort((short) 12).put((byte) 3);
+        header.put((byte) 1).put((byte) 0x00);
+        header.put((byte) 2).put((byte) 0x11);
+        header.put((byte) 3).put((byte) 0x11);
+        header.put((byte) 0).put((byte) 63).put((byte) 0);
+        byte[] out = new byte[header.position()];
+        header.flip();
+        header.get(out);
+        return out;
+    }
+
+    private static void putQuantization(ByteBuffer header, int id, int[] table) {
+        header.putShort((short) 0xFFDB).putShort((short) 67).put((byte) id);
+        for (int i = 0; i < 64; i++) header.put((byte) table[JpegTables.ZIGZAG[i]]);
+    }
+
+    private static void putHuffman(ByteBuffer header, JpegTables.Huffman table) {
+        header.putShort((short) 0xFFC4).putShort((short) (3 + 16 + table.values.length)).put((byte) table.id);
+        for (int count : table.bits) header.put((byte) count);
+        for (int value : table.values) header.put((byte) value);
+    }
+}
@@ -0,0 +1,258 @@
+package com.particlesdevs.photoncamera.processing.jpeg;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Baseline JPEG core for one restart interval: a strip of 16 pixel rows as YCbCr 4:2:0 MCUs.
+ * <p>
+ * Every strip starts with fresh DC predictors and ends byte aligned, so strips are independent
+ * and can be encoded in any order. All working arrays are allocated once per encoder and reused
+ * between strips.
+ */
+class JpegStripEncoder {
+    static final int MCU_SIZE = 16;
+    private static final float[] AAN_SCALE = {
+            1.0f, 1.387039845f, 1.306562965f, 1.175875602f,
+            1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+    };
+
+    private final int width;
+    private final int mcusAcross;
+    private final int planeWidth;
+    private final float[] lumaDivisors = new float[64];
+    private final float[] chromaDivisors = new float[64];
+    private final byte[] row;
+    private final float[] luma;
+    private final float[] cb;
+    private final float[] cr;
+    private final float[] block = new float[64];
+    private final int[] quantized = new int[64];
+    private byte[] out;
+    private int length;
+    private long bitBuffer;
+    private int bitCount;
+
+    /**
+     * @param lumaTable   luminance quantization table in natural order.
+     * @param chromaTable chrominance quantization table in natural order.
+     */
+    JpegStripEncoder(int width, int[] lumaTable, int[] chromaTable) {
+        this.width = width;
+        mcusAcross = (width + MCU_SIZE - 1) / MCU_SIZE;
+        planeWidth = mcusAcross * MCU_SIZE;
+        for (int i = 0; i < 64; i++) {
+            float scale = AAN_SCALE[i / 8] * AAN_SCALE[i % 8] * 8.f;
+            lumaDivisors[i] = 1.f / (lumaTable[i] * scale);
+            chromaDivisors[i] = 1.f / (chromaTable[i] * scale);
+        }
+        row = new byte[width * 4];
+        luma = new float[planeWidth * MCU_SIZE];
+        cb = new float[planeWidth / 2 * MCU_SIZE / 2];
+        cr = new float[planeWidth / 2 * MCU_SIZE / 2];
+        out = new byte[planeWidth * MCU_SIZE];
+    }
+
+    byte[] buffer() {
+        return out;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Encodes the strip of rows {@code y0} to {@code y0 + rows}, rows past the image repeat the
+     * last one.
+     *
+     * @param rgba      RGBA pixels, the buffer position is the top left pixel.
+     * @param rowStride distance between rows in bytes.
+     */
+    void encode(ByteBuffer rgba, int rowStride, int y0, int rows) {
+        load(rgba, rowStride, y0, rows);
+        length = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        int dcY = 0;
+        int dcCb = 0;
+        int dcCr = 0;
+        int chromaWidth = planeWidth / 2;
+        for (int mcu = 0; mcu < mcusAcross; mcu++) {
+            //Six blocks of at most 64 codes of 27 bits, doubled by byte stuffing
+            ensure(6 * 64 * 8);
+            int x0 = mcu * MCU_SIZE;
+            dcY = encodeBlock(luma, x0, planeWidth, lumaDivisors, dcY, JpegTables.DC_LUMA, JpegTables.AC_LUMA);
+            dcY = encodeBlock(luma, x0 + 8, planeWidth, lumaDivisors, dcY, JpegTables.DC_LUMA, JpegTables.AC_LUMA);
+            dcY = encodeBlock(luma, x0 + 8 * planeWidth, planeWidth, lumaDivisors, dcY, JpegTables.DC_LUMA, JpegTables.AC_LUMA);
+            dcY = encodeBlock(luma, x0 + 8 * planeWidth + 8, planeWidth, lumaDivisors, dcY, JpegTables.DC_LUMA, JpegTables.AC_LUMA);
+            dcCb = encodeBlock(cb, x0 / 2, chromaWidth, chromaDivisors, dcCb, JpegTables.DC_CHROMA, JpegTables.AC_CHROMA);
+            dcCr = encodeBlock(cr, x0 / 2, chromaWidth, chromaDivisors, dcCr, JpegTables.DC_CHROMA, JpegTables.AC_CHROMA);
+        }
+        if (bitCount > 0) putBits(0x7F, 8 - bitCount);
+    }
+
+    /**
+     * Converts the strip to level shifted YCbCr planes, chroma is averaged over 2x2 pixels.
+     */
+    private void load(ByteBuffer rgba, int rowStride, int y0, int rows) {
+        Arrays.fill(cb, 0.f);
+        Arrays.fill(cr, 0.f);
+        int chromaWidth = planeWidth / 2;
+        ByteBuffer source = rgba.duplicate();
+        int base = rgba.position();
+        for (int y = 0; y < MCU_SIZE; y++) {
+            int lumaRow = y * planeWidth;
+            if (y < rows) {
+                source.position(base + (y0 + y) * rowStride);
+                source.get(row, 0, width * 4);
+                for (int x = 0; x < width; x++) {
+                    int r = row[x * 4] & 0xFF;
+                    int g = row[x * 4 + 1] & 0xFF;
+                    int b = row[x * 4 + 2] & 0xFF;
+                    luma[lumaRow + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128.f;
+                    int c = (y / 2) * chromaWidth + x / 2;
+                    cb[c] += -0.168736f * r - 0.331264f * g + 0.5f * b;
+                    cr[c] += 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+                for (int x = width; x < planeWidth; x++) luma[lumaRow + x] = luma[lumaRow + width - 1];
+                if ((width & 1) != 0) {
+                    int c = (y / 2) * chromaWidth + width / 2;
+                    int last = width - 1;
+                    int r = row[last * 4] & 0xFF;
+                    int g = row[last * 4 + 1] & 0xFF;
+                    int b = row[last * 4 + 2] & 0xFF;
+                    cb[c] += -0.168736f * r - 0.331264f * g + 0.5f * b;
+                    cr[c] += 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+            } else {
+                System.arraycopy(luma, (rows - 1) * planeWidth, luma, lumaRow, planeWidth);
+            }
+        }
+        int chromaRows = (rows + 1) / 2;
+        int chromaCols = (width + 1) / 2;
+        for (int y = 0; y < MCU_SIZE / 2; y++) {
+            int start = y * chromaWidth;
+            if (y < chromaRows) {
+                //Odd last row only added one row of pixels
+                float scale = (y == chromaRows - 1 && (rows & 1) != 0) ? 0.5f : 0.25f;
+                for (int x = 0; x < chromaCols; x++) {
+                    cb[start + x] *= scale;
+                    cr[start + x] *= scale;
+                }
+                for (int x = chromaCols; x < chromaWidth; x++) {
+                    cb[start + x] = cb[start + chromaCols - 1];
+                    cr[start + x] = cr[start + chromaCols - 1];
+                }
+            } else {
+                System.arraycopy(cb, (chromaRows - 1) * chromaWidth, cb, start, chromaWidth);
+                System.arraycopy(cr, (chromaRows - 1) * chromaWidth, cr, start, chromaWidth);
+            }
+        }
+    }
+
+    private int encodeBlock(float[] plane, int offset, int stride, float[] divisors, int previousDc,
+                            JpegTables.Huffman dcTable, JpegTables.Huffman acTable) {
+        for (int y = 0; y < 8; y++) System.arraycopy(plane, offset + y * stride, block, y * 8, 8);
+        forwardDct(block);
+        for (int i = 0; i < 64; i++) quantized[i] = Math.round(block[i] * divisors[i]);
+
+        int dc = quantized[0];
+        int diff = dc - previousDc;
+        int category = category(diff);
+        putBits(dcTable.codes[category], dcTable.sizes[category]);
+        if (category > 0) putBits(diff < 0 ? diff - 1 : diff, category);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = quantized[JpegTables.ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                putBits(acTable.codes[0xF0], acTable.sizes[0xF0]);
+                run -= 16;
+            }
+            category = category(value);
+            int symbol = (run << 4) | category;
+            putBits(acTable.codes[symbol], acTable.sizes[symbol]);
+            putBits(value < 0 ? value - 1 : value, category);
+            run = 0;
+        }
+        if (run > 0) putBits(acTable.codes[0], acTable.sizes[0]);
+        return dc;
+    }
+
+    private static int category(int value) {
+        if (value == 0) return 0;
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Float AAN forward DCT, output is scaled by the AAN factors folded into the divisors.
+     */
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int line = 0; line < 8; line++) {
+                int p = line * next;
+                float d0 = data[p];
+                float d1 = data[p + step];
+                float d2 = data[p + 2 * step];
+                float d3 = data[p + 3 * step];
+                float d4 = data[p + 4 * step];
+                float d5 = data[p + 5 * step];
+                float d6 = data[p + 6 * step];
+                float d7 = data[p + 7 * step];
+                float tmp0 = d0 + d7;
+                float tmp7 = d0 - d7;
+                float tmp1 = d1 + d6;
+                float tmp6 = d1 - d6;
+                float tmp2 = d2 + d5;
+                float tmp5 = d2 - d5;
+                float tmp3 = d3 + d4;
+                float tmp4 = d3 - d4;
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                data[p] = tmp10 + tmp11;
+                data[p + 4 * step] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[p + 2 * step] = tmp13 + z1;
+                data[p + 6 * step] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                data[p + 5 * step] = z13 + z2;
+                data[p + 3 * step] = z13 - z2;
+                data[p + step] = z11 + z4;
+                data[p + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    private void putBits(int value, int count) {
+        bitBuffer = (bitBuffer << count) | (value & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            int b = (int) (bitBuffer >>> bitCount) & 0xFF;
+            out[length++] = (byte) b;
+            if (b == 0xFF) out[length++] = 0;
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, length + bytes));
+    }
+}
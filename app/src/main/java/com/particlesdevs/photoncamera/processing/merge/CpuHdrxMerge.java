@@ -0,0 +1,334 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Java reference of the libHdrX merge, for devices and hosts without the native library.
+ * <p>
+ * Every frame is merged into the reference with a weight per tile. Tiles are {@link #TILE}
+ * pixels wide and overlap by half, the weight of a pixel is interpolated between the centres
+ * of the four tiles around it, so tile borders never show. The weight compares the difference
+ * to the reference with the difference the noise model predicts for the tile:
+ * <pre>
+ *     V = var(reference) + var(frame)
+ *     w = elFactor * var(reference) / var(frame) * smooth * V / (smooth * V + max(0, D - V))
+ * </pre>
+ * where D is the mean squared difference. Aligned tiles that differ only by noise are merged
+ * at full weight, moving content falls off smoothly. Differences are weighted by the gain map
+ * and the white point, so they count the way they show after white balance. Clipped pixels of
+ * the other frames are skipped.
+ * <p>
+ * The work is split into rows of tiles on a fork-join pool and uses only primitive arrays:
+ * the first pass sums the differences of every {@link #STEP} sized cell, the second pass
+ * writes the output rows. Frames are not aligned here, the tile weights reject what moved.
+ */
+public class CpuHdrxMerge implements HdrxMerge {
+    private static final String TAG = "CpuHdrxMerge";
+    public static final int TILE = 32;
+    static final int STEP = TILE / 2;
+    /**
+     * Part of the white level above which a sample of another frame is treated as clipped.
+     */
+    private static final float CLIP = 0.98f;
+
+    private int width;
+    private int height;
+    private ShortBuffer[] frames = new ShortBuffer[0];
+    private float[] exposures = new float[0];
+    private int loaded;
+    private FloatBuffer gainMap;
+    private ShortBuffer output;
+    private ForkJoinPool pool;
+
+    /**
+     * @param pool pool for the tile rows, the common pool when not set.
+     */
+    public CpuHdrxMerge setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    @Override
+    public void init(int width, int height, int frames) {
+        if (width <= 0 || height <= 0 || frames <= 0)
+            throw new IllegalArgumentException("Invalid burst " + width + "x" + height + "x" + frames);
+        this.width = width;
+        this.height = height;
+        this.frames = new ShortBuffer[frames];
+        this.exposures = new float[frames];
+        loaded = 0;
+        gainMap = null;
+        output = null;
+    }
+
+    @Override
+    public void loadFrame(ByteBuffer frame, float exposure) {
+        if (loaded == frames.length)
+            throw new IllegalStateException("All " + frames.length + " frames are already loaded");
+        frames[loaded] = view(frame).asShortBuffer();
+        exposures[loaded] = exposure;
+        loaded++;
+    }
+
+    @Override
+    public void loadInterpolatedGainMap(ByteBuffer gainMap) {
+        this.gainMap = view(gainMap).asFloatBuffer();
+    }
+
+    @Override
+    public void outputBuffer(ByteBuffer output) {
+        this.output = view(output).asShortBuffer();
+    }
+
+    private ByteBuffer view(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+        view.position(0);
+        return view;
+    }
+
+    @Override
+    public void processFrame(float noiseS, float noiseO, float smooth, float elFactor, float blR, float blG, float blB,
+                             float wlFactor, float wpR, float wpG, float wpB, int cfaPattern) {
+        if (loaded == 0) throw new IllegalStateException("No frames loaded");
+        if (output == null) throw new IllegalStateException("No output buffer");
+        long start = System.nanoTime();
+        ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+        int[] channels = cfaChannels(cfaPattern);
+        float[] black = new float[4];
+        float[] shading = new float[4];
+        float[] whitePoint = {wpR, wpG, wpB};
+        float[] blackLevel = {blR, blG, blB};
+        for (int i = 0; i < 4; i++) {
+            black[i] = blackLevel[channels[i]];
+            float wp = whitePoint[channels[i]] > 0.f ? whitePoint[channels[i]] : 1.f;
+            shading[i] = 1.f / (wp * wp);
+        }
+        float whiteLevel = wlFactor > 0.f ? wlFactor : 65535.f;
+
+        int cellsX = (width + STEP - 1) / STEP;
+        int cellsY = (height + STEP - 1) / STEP;
+        double[] cellK = new double[cellsX * cellsY];
+        double[] cellSignal = new double[cellsX * cellsY];
+        double[][] cellDiff = new double[loaded][cellsX * cellsY];
+        pool.invoke(new Rows(0, cellsY, cy ->
+                sumCells(cy, cellsX, black, shading, cellK, cellSignal, cellDiff)));
+
+        int gridX = cellsX + 1;
+        int gridY = cellsY + 1;
+        float[][] weights = new float[loaded][gridX * gridY];
+        pool.invoke(new Rows(0, gridY, gy -> {
+            for (int gx = 0; gx < gridX; gx++)
+                tileWeights(gx, gy, cellsX, cellsY, cellK, cellSignal, cellDiff, weights,
+                        noiseS, noiseO, smooth, elFactor, whiteLevel);
+        }));
+
+        pool.invoke(new Rows(0, cellsY, cy -> mergeRows(cy, gridX, weights, whiteLevel * CLIP)));
+        Log.d(TAG, "Merged " + loaded + " frames " + width + "x" + height + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        //Buffers belong to the caller
+        for (int i = 0; i < loaded; i++) frames[i] = null;
+        loaded = 0;
+        gainMap = null;
+        output = null;
+    }
+
+    /**
+     * Sums the shading weight, the reference signal and the squared difference of every frame
+     * over the cells of one cell row.
+     */
+    private void sumCells(int cy, int cellsX, float[] black, float[] shading,
+                          double[] cellK, double[] cellSignal, double[][] cellDiff) {
+        short[] reference = new short[width];
+        short[] row = new short[width];
+        float[] gain = new float[width];
+        float[] k = new float[width];
+        float[] u = new float[width];
+        float[] signal = new float[width];
+        int cellRow = cy * cellsX;
+        float exposure0 = exposures[0];
+        for (int y = cy * STEP; y < Math.min(height, (cy + 1) * STEP); y++) {
+            read(frames[0], y, reference);
+            readGain(y, gain);
+            int p = (y & 1) << 1;
+            for (int x = 0; x < width; x++) {
+                int c = p | (x & 1);
+                float g = gain[x];
+                k[x] = g * g * shading[c];
+                int raw = reference[x] & 0xFFFF;
+                u[x] = raw * exposure0;
+                signal[x] = Math.max(0.f, raw - black[c]) * exposure0;
+            }
+            for (int cx = 0; cx < cellsX; cx++) {
+                float sumK = 0.f;
+                float sumSignal = 0.f;
+                for (int x = cx * STEP; x < Math.min(width, (cx + 1) * STEP); x++) {
+                    sumK += k[x];
+                    sumSignal += k[x] * signal[x];
+                }
+                cellK[cellRow + cx] += sumK;
+                cellSignal[cellRow + cx] += sumSignal;
+            }
+            for (int f = 1; f < loaded; f++) {
+                read(frames[f], y, row);
+                float exposure = exposures[f];
+                double[] diff = cellDiff[f];
+                for (int cx = 0; cx < cellsX; cx++) {
+                    float sum = 0.f;
+                    for (int x = cx * STEP; x < Math.min(width, (cx + 1) * STEP); x++) {
+                        float d = (row[x] & 0xFFFF) * exposure - u[x];
+                        sum += k[x] * d * d;
+                    }
+                    diff[cellRow + cx] += sum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Weight of every frame for the tile centred on grid point (gx, gy), made of the up to
+     * four cells around it.
+     */
+    private void tileWeights(int gx, int gy, int cellsX, int cellsY, double[] cellK, double[] cellSignal,
+                             double[][] cellDiff, float[][] weights, float noiseS, float noiseO,
+                             float smooth, float elFactor, float whiteLevel) {
+        double k = 0.0;
+        double signal = 0.0;
+        double[] diff = new double[loaded];
+        for (int cy = Math.max(0, gy - 1); cy < Math.min(cellsY, gy + 1); cy++) {
+            for (int cx = Math.max(0, gx - 1); cx < Math.min(cellsX, gx + 1); cx++) {
+                int cell = cy * cellsX + cx;
+                k += cellK[cell];
+                signal += cellSignal[cell];
+                for (int f = 1; f < loaded; f++) diff[f] += cellDiff[f][cell];
+            }
+        }
+        int point = gy * (cellsX + 1) + gx;
+        double referenceVariance = variance(exposures[0], whiteLevel, noiseS, noiseO, signal, k);
+        for (int f = 1; f < loaded; f++) {
+            double frameVariance = variance(exposures[f], whiteLevel, noiseS, noiseO, signal, k);
+            double expected = referenceVariance + frameVariance;
+            float weight = elFactor;
+            if (expected > 0.0) {
+                double excess = Math.max(0.0, diff[f] - expected);
+                weight *= (float) (referenceVariance / frameVariance * smooth * expected / (smooth * expected + excess));
+            }
+            weights[f][point] = weight;
+        }
+    }
+
+    /**
+     * Summed variance of a frame in output units, for a tile with the given sums of shading
+     * weight and weighted signal.
+     */
+    static double variance(float exposure, float whiteLevel, float noiseS, float noiseO, double signal, double k) {
+        double scale = (double) exposure * whiteLevel;
+        return scale * noiseS * signal + scale * scale * noiseO * k;
+    }
+
+    private void mergeRows(int cy, int gridX, float[][] weights, float clip) {
+        short[] row = new short[width];
+        float[] sum = new float[width];
+        float[] weightSum = new float[width];
+        float[] rowWeights = new float[gridX];
+        for (int y = cy * STEP; y < Math.min(height, (cy + 1) * STEP); y++) {
+            read(frames[0], y, row);
+            float exposure0 = exposures[0];
+            for (int x = 0; x < width; x++) {
+                sum[x] = (row[x] & 0xFFFF) * exposure0;
+                weightSum[x] = 1.f;
+            }
+            float ty = ((y % STEP) + 0.5f) / STEP;
+            int top = (y / STEP) * gridX;
+            for (int f = 1; f < loaded; f++) {
+                float[] grid = weights[f];
+                for (int gx = 0; gx < gridX; gx++)
+                    rowWeights[gx] = grid[top + gx] + (grid[top + gridX + gx] - grid[top + gx]) * ty;
+                read(frames[f], y, row);
+                float exposure = exposures[f];
+                for (int cx = 0; cx < gridX - 1; cx++) {
+                    float step = (rowWeights[cx + 1] - rowWeights[cx]) / STEP;
+                    float w = rowWeights[cx] + step * 0.5f;
+                    for (int x = cx * STEP; x < Math.min(width, (cx + 1) * STEP); x++, w += step) {
+                        int raw = row[x] & 0xFFFF;
+                        if (w <= 0.f || raw >= clip) continue;
+                        sum[x] += w * raw * exposure;
+                        weightSum[x] += w;
+                    }
+                }
+            }
+            for (int x = 0; x < width; x++) row[x] = (short) Math.min(65535, (int) (sum[x] / weightSum[x] + 0.5f));
+            ShortBuffer out = output.duplicate();
+            out.position(y * width);
+            out.put(row, 0, width);
+        }
+    }
+
+    private void read(ShortBuffer frame, int y, short[] row) {
+        ShortBuffer source = frame.duplicate();
+        source.position(y * width);
+        source.get(row, 0, width);
+    }
+
+    private void readGain(int y, float[] row) {
+        if (gainMap == null) {
+            Arrays.fill(row, 1.f);
+            return;
+        }
+        FloatBuffer source = gainMap.duplicate();
+        source.position(y * width);
+        source.get(row, 0, width);
+    }
+
+    /**
+     * @return color channel (0 red, 1 green, 2 blue) of the four bayer positions in row order.
+     */
+    public static int[] cfaChannels(int cfaPattern) {
+        switch (cfaPattern) {
+            case 1:
+                return new int[]{1, 0, 2, 1};
+            case 2:
+                return new int[]{1, 2, 0, 1};
+            case 3:
+                return new int[]{2, 1, 1, 0};
+            case 4:
+                return new int[]{1, 1, 1, 1};
+            default:
+                return new int[]{0, 1, 1, 2};
+        }
+    }
+
+    /**
+     * Runs a body for every index of a range, split in halves down to single indices.
+     */
+    @SuppressWarnings("serial")
+    static final class Rows extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        Rows(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+            } else if (to > from) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Rows(from, middle, body), new Rows(middle, to, body));
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hierarchical tile alignment on the CPU, writes the alignment buffer of
+ * {@link com.particlesdevs.photoncamera.processing.opengl.scripts.PyramidMerging}.
+ * <p>
+ * Frames are reduced to luma by summing every bayer quad, then to a pyramid of {@link #LEVELS}
+ * levels that halve the size each step. Every level has its own grid of tiles, {@link #TILE}
+ * pixels wide and overlapping by half. Search starts on the coarsest level and goes down: a
+ * tile starts from the best of its parent tiles' vectors and searches a small window around it,
+ * with L2 cost on the coarse levels and L1 on the finest one. The finest vectors are refined to
+ * subpixel with a quadric fitted to the L2 costs of the 3x3 offsets around the minimum.
+ * <p>
+ * The output holds, for every frame after the first, {@link #alignmentSize} floats: a grid of
+ * {@code (width / 16 + 1) x (height / 16 + 1)} tiles centred every 16 raw pixels, each with the
+ * (x, y) offset in bayer quads at which the frame matches the reference. All pyramids are
+ * allocated in {@link #init}, frames are processed {@link #setSlots slots} at a time and every
+ * level is split into rows of tiles of all those frames on a fork-join pool.
+ * <p>
+ * A frame with a {@link #setSeed seed}, e.g. from {@link GyroAlignmentSeed}, skips the levels
+ * above {@link #seedLevel}: its tiles start from the better of the zero and the seed vector and
+ * search {@link #SEED_RADIUS} around it. The reach of the search is then the seed plus a small
+ * residual instead of the fixed window of the whole pyramid.
+ * <p>
+ * Frames that come one at a time are aligned with {@link #loadReference} and
+ * {@link #alignFrame}, which build the reference pyramid once and reuse it for every frame.
+ */
+public class CpuTileAligner {
+    private static final String TAG = "CpuTileAligner";
+    public static final int LEVELS = 4;
+    public static final int TILE = 16;
+    private static final int STEP = TILE / 2;
+    /**
+     * Search radius of every level, finest first.
+     */
+    private static final int[] RADIUS = {1, 2, 2, 4};
+    /**
+     * Search radius on {@link #seedLevel} for seeded frames.
+     */
+    public static final int SEED_RADIUS = 2;
+    /**
+     * Coarsest level searched for seeded frames.
+     */
+    public static int seedLevel = 1;
+
+    private int width;
+    private int height;
+    private int frames;
+    private final int[] levelWidth = new int[LEVELS];
+    private final int[] levelHeight = new int[LEVELS];
+    private final int[] tilesX = new int[LEVELS];
+    private final int[] tilesY = new int[LEVELS];
+    private ShortBuffer[] inputs = new ShortBuffer[0];
+    private float[][] seeds = new float[0][];
+    private float[] exposures = new float[0];
+    private int loaded;
+    private FloatBuffer output;
+    private ForkJoinPool pool;
+    private int slots = 2;
+    private float[][] reference;
+    private boolean referenceLoaded;
+    private float[][][] alternates;
+    private int[][][] vectors;
+    private float tilesPerSecond;
+
+    public CpuTileAligner setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @param slots frames aligned at the same time, each takes a pyramid of memory.
+     */
+    public CpuTileAligner setSlots(int slots) {
+        this.slots = Math.max(1, slots);
+        return this;
+    }
+
+    /**
+     * @return number of floats the alignment of one frame takes in the output.
+     */
+    public static int alignmentSize(int width, int height) {
+        return (width / 16 + 1) * (height / 16 + 1) * 2;
+    }
+
+    /**
+     * @return finest level tiles aligned per second by the last {@link #align}.
+     */
+    public float getTilesPerSecond() {
+        return tilesPerSecond;
+    }
+
+    public void init(int width, int height, int frames) {
+        if (width < 2 || height < 2 || frames <= 0)
+            throw new IllegalArgumentException("Invalid burst " + width + "x" + height + "x" + frames);
+        boolean sameSize = reference != null && this.width == width && this.height == height
+                && alternates.length == Math.min(slots, Math.max(1, frames - 1));
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        inputs = new ShortBuffer[frames];
+        seeds = new float[frames][];
+        exposures = new float[frames];
+        loaded = 0;
+        output = null;
+        referenceLoaded = false;
+        if (sameSize) return;
+        int w = width / 2;
+        int h = height / 2;
+        for (int l = 0; l < LEVELS; l++) {
+            levelWidth[l] = w;
+            levelHeight[l] = h;
+            tilesX[l] = w / STEP + 1;
+            tilesY[l] = h / STEP + 1;
+            w = Math.max(1, w / 2);
+            h = Math.max(1, h / 2);
+        }
+        reference = pyramid();
+        int count = Math.min(slots, Math.max(1, frames - 1));
+        alternates = new float[count][][];
+        vectors = new int[count][LEVELS][];
+        for (int s = 0; s < count; s++) {
+            alternates[s] = pyramid();
+            for (int l = 0; l < LEVELS; l++) vectors[s][l] = new int[tilesX[l] * tilesY[l] * 2];
+        }
+    }
+
+    private float[][] pyramid() {
+        float[][] pyramid = new float[LEVELS][];
+        for (int l = 0; l < LEVELS; l++) pyramid[l] = new float[levelWidth[l] * levelHeight[l]];
+        return pyramid;
+    }
+
+    /**
+     * @param frame    16 bit bayer frame in native byte order, the first one is the reference.
+     * @param exposure multiplier that brings the frame to the brightness of the others.
+     */
+    public void loadFrame(ByteBuffer frame, float exposure) {
+        if (loaded == frames)
+            throw new IllegalStateException("All " + frames + " frames are already loaded");
+        inputs[loaded] = frame.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        exposures[loaded] = exposure;
+        loaded++;
+    }
+
+    /**
+     * Predicted vectors of a frame, in the output layout.
+     *
+     * @param frame index in load order, from 1.
+     * @param seed  {@link #alignmentSize} floats, not copied, null for none.
+     */
+    public void setSeed(int frame, float[] seed) {
+        if (frame < 1 || frame >= frames) throw new IllegalArgumentException("Invalid frame " + frame);
+        if (seed != null && seed.length < alignmentSize(width, height))
+            throw new IllegalArgumentException("Seed of " + seed.length + " floats");
+        seeds[frame] = seed;
+    }
+
+    /**
+     * @param output at least {@code (frames - 1) * alignmentSize * 4} bytes.
+     */
+    public void outputBuffer(ByteBuffer output) {
+        ByteBuffer view = output.duplicate().order(ByteOrder.nativeOrder());
+        view.position(0);
+        this.output = view.asFloatBuffer();
+    }
+
+    public void align() {
+        if (loaded != frames) throw new IllegalStateException("Loaded " + loaded + " of " + frames + " frames");
+        if (output == null) throw new IllegalStateException("No output buffer");
+        long start = System.nanoTime();
+        ForkJoinPool pool = pool();
+        buildPyramid(pool, new float[][][]{reference}, new int[]{0});
+        referenceLoaded = false;
+        for (int first = 1; first < frames; first += alternates.length)
+            alignFrames(pool, first, Math.min(alternates.length, frames - first));
+        long elapsed = System.nanoTime() - start;
+        long tiles = (long) (frames - 1) * tilesX[0] * tilesY[0];
+        tilesPerSecond = elapsed > 0 ? tiles * 1e9f / elapsed : 0.f;
+        Log.d(TAG, "Aligned " + (frames - 1) + " frames, " + tiles + " tiles in " + elapsed / 1000000
+                + " ms, " + (int) tilesPerSecond + " tiles/s");
+        for (int i = 0; i < loaded; i++) inputs[i] = null;
+        for (int i = 0; i < seeds.length; i++) seeds[i] = null;
+        loaded = 0;
+        output = null;
+    }
+
+    /**
+     * Builds the pyramid of the reference once for {@link #alignFrame}, after
+     * {@code init(width, height, 2)}. The frame is not used after return.
+     */
+    public void loadReference(ByteBuffer frame, float exposure) {
+        if (frames != 2) throw new IllegalStateException("Initialized for " + frames + " frames");
+        inputs[0] = frame.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        exposures[0] = exposure;
+        buildPyramid(pool(), new float[][][]{reference}, new int[]{0});
+        inputs[0] = null;
+        referenceLoaded = true;
+    }
+
+    /**
+     * Aligns one frame to the reference of {@link #loadReference}, output as {@link #align}
+     * writes the first frame after the reference.
+     *
+     * @param seed   see {@link #setSeed}, null for none.
+     * @param output at least {@code alignmentSize * 4} bytes.
+     */
+    public void alignFrame(ByteBuffer frame, float exposure, float[] seed, ByteBuffer output) {
+        if (!referenceLoaded) throw new IllegalStateException("No reference");
+        long start = System.nanoTime();
+        inputs[1] = frame.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        exposures[1] = exposure;
+        setSeed(1, seed);
+        outputBuffer(output);
+        alignFrames(pool(), 1, 1);
+        long elapsed = System.nanoTime() - start;
+        tilesPerSecond = elapsed > 0 ? (long) tilesX[0] * tilesY[0] * 1e9f / elapsed : 0.f;
+        inputs[1] = null;
+        seeds[1] = null;
+        this.output = null;
+    }
+
+    /**
+     * Aligns {@code count} frames from {@code first} to the reference pyramid, one slot each.
+     */
+    private void alignFrames(ForkJoinPool pool, int first, int count) {
+        int[] frameOf = new int[count];
+        for (int s = 0; s < count; s++) frameOf[s] = first + s;
+        buildPyramid(pool, alternates, frameOf);
+        for (int l = LEVELS - 1; l >= 0; l--) {
+            int level = l;
+            int rows = tilesY[level];
+            pool.invoke(new CpuHdrxMerge.Rows(0, count * rows, i ->
+                    searchRow(i / rows, frameOf[i / rows], level, i % rows)));
+        }
+        pool.invoke(new CpuHdrxMerge.Rows(0, count * tilesY[0], i ->
+                refineRow(i / tilesY[0], frameOf[i / tilesY[0]], i % tilesY[0])));
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Fills the pyramids of the given frames, level by level with all frames' rows in parallel.
+     */
+    private void buildPyramid(ForkJoinPool pool, float[][][] pyramids, int[] frameOf) {
+        int count = frameOf.length;
+        int rows0 = levelHeight[0];
+        pool.invoke(new CpuHdrxMerge.Rows(0, count * rows0, i ->
+                lumaRow(inputs[frameOf[i / rows0]], exposures[frameOf[i / rows0]], pyramids[i / rows0][0], i % rows0)));
+        for (int l = 1; l < LEVELS; l++) {
+            int level = l;
+            int rows = levelHeight[l];
+            pool.invoke(new CpuHdrxMerge.Rows(0, count * rows, i ->
+                    downscaleRow(pyramids[i / rows], level, i % rows)));
+        }
+    }
+
+    private void lumaRow(ShortBuffer frame, float exposure, float[] luma, int y) {
+        int w = levelWidth[0];
+        ShortBuffer top = frame.duplicate();
+        top.position(2 * y * width);
+        ShortBuffer bottom = frame.duplicate();
+        bottom.position((2 * y + 1) * width);
+        int out = y * w;
+        for (int x = 0; x < w; x++) {
+            int sum = (top.get() & 0xFFFF) + (top.get() & 0xFFFF) + (bottom.get() & 0xFFFF) + (bottom.get() & 0xFFFF);
+            luma[out + x] = sum * exposure;
+        }
+    }
+
+    private void downscaleRow(float[][] pyramid, int level, int y) {
+        float[] source = pyramid[level - 1];
+        float[] target = pyramid[level];
+        int sourceWidth = levelWidth[level - 1];
+        int sourceHeight = levelHeight[level - 1];
+        int y0 = Math.min(2 * y, sourceHeight - 1) * sourceWidth;
+        int y1 = Math.min(2 * y + 1, sourceHeight - 1) * sourceWidth;
+        int w = levelWidth[level];
+        for (int x = 0; x < w; x++) {
+            int x0 = Math.min(2 * x, sourceWidth - 1);
+            int x1 = Math.min(2 * x + 1, sourceWidth - 1);
+            target[y * w + x] = 0.25f * (source[y0 + x0] + source[y0 + x1] + source[y1 + x0] + source[y1 + x1]);
+        }
+    }
+
+    /**
+     * Aligns one row of tiles of one level, starting from the vectors of the level above or
+     * the seed.
+     */
+    private void searchRow(int slot, int frame, int level, int ty) {
+        float[] seed = seeds[frame];
+        int top = seed != null ? Math.min(seedLevel, LEVELS - 1) : LEVELS - 1;
+        if (level > top) return;
+        float[] ref = reference[level];
+        float[] alt = alternates[slot][level];
+        int[] out = vectors[slot][level];
+        int[] parent = level < top ? vectors[slot][level + 1] : null;
+        int radius = parent == null && seed != null ? SEED_RADIUS : RADIUS[level];
+        boolean started = parent != null || seed != null;
+        boolean l1 = level == 0;
+        for (int tx = 0; tx < tilesX[level]; tx++) {
+            int bestX = 0;
+            int bestY = 0;
+            float best = Float.MAX_VALUE;
+            if (parent != null) {
+                //Tiles between two parents try both of them
+                int px0 = Math.min(tx >> 1, tilesX[level + 1] - 1);
+                int py0 = Math.min(ty >> 1, tilesY[level + 1] - 1);
+                int px1 = Math.min((tx + 1) >> 1, tilesX[level + 1] - 1);
+                int py1 = Math.min((ty + 1) >> 1, tilesY[level + 1] - 1);
+                for (int c = 0; c < 4; c++) {
+                    int p = ((c < 2 ? py0 : py1) * tilesX[level + 1] + ((c & 1) == 0 ? px0 : px1)) * 2;
+                    int cx = parent[p] * 2;
+                    int cy = parent[p + 1] * 2;
+                    if (c > 0 && cx == bestX && cy == bestY) continue;
+                    float cost = cost(ref, alt, level, tx, ty, cx, cy, l1);
+                    if (cost < best) {
+                        best = cost;
+                        bestX = cx;
+                        bestY = cy;
+                    }
+                }
+            } else if (seed != null) {
+                //Seed of the finest tile at the centre, in pixels of this level
+                int i = (Math.min(ty << level, tilesY[0] - 1) * tilesX[0] + Math.min(tx << level, tilesX[0] - 1)) * 2;
+                int sx = Math.round(seed[i] / (1 << level));
+                int sy = Math.round(seed[i + 1] / (1 << level));
+                best = cost(ref, alt, level, tx, ty, 0, 0, l1);
+                float cost = sx == 0 && sy == 0 ? best : cost(ref, alt, level, tx, ty, sx, sy, l1);
+                if (cost < best) {
+                    best = cost;
+                    bestX = sx;
+                    bestY = sy;
+                }
+            }
+            int startX = bestX;
+            int startY = bestY;
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    if (started && dx == 0 && dy == 0) continue;
+                    float cost = cost(ref, alt, level, tx, ty, startX + dx, startY + dy, l1);
+                    if (cost < best) {
+                        best = cost;
+                        bestX = startX + dx;
+                        bestY = startY + dy;
+                    }
+                }
+            }
+            out[(ty * tilesX[level] + tx) * 2] = bestX;
+            out[(ty * tilesX[level] + tx) * 2 + 1] = bestY;
+        }
+    }
+
+    /**
+     * Writes one row of finest tiles with subpixel offsets to the output.
+     */
+    private void refineRow(int slot, int frame, int ty) {
+        float[] ref = reference[0];
+        float[] alt = alternates[slot][0];
+        int[] level0 = vectors[slot][0];
+        float[] costs = new float[9];
+        int base = (frame - 1) * tilesX[0] * tilesY[0] * 2;
+        for (int tx = 0; tx < tilesX[0]; tx++) {
+            int i = (ty * tilesX[0] + tx) * 2;
+            int vx = level0[i];
+            int vy = level0[i + 1];
+            boolean inside = true;
+            for (int c = 0; c < 9; c++) {
+                costs[c] = cost(ref, alt, 0, tx, ty, vx + c % 3 - 1, vy + c / 3 - 1, false);
+                inside &= costs[c] != Float.MAX_VALUE;
+            }
+            float subX = 0.f;
+            float subY = 0.f;
+            //Least squares quadric through the 3x3 costs, a x^2 + b y^2 + c xy + d x + e y + f
+            float a = (costs[0] + costs[2] + costs[3] + costs[5] + costs[6] + costs[8]) / 6.f
+                    - (costs[1] + costs[4] + costs[7]) / 3.f;
+            float b = (costs[0] + costs[1] + costs[2] + costs[6] + costs[7] + costs[8]) / 6.f
+                    - (costs[3] + costs[4] + costs[5]) / 3.f;
+            float c = (costs[0] - costs[2] - costs[6] + costs[8]) / 4.f;
+            float d = (costs[2] + costs[5] + costs[8] - costs[0] - costs[3] - costs[6]) / 6.f;
+            float e = (costs[6] + costs[7] + costs[8] - costs[0] - costs[1] - costs[2]) / 6.f;
+            float determinant = 4.f * a * b - c * c;
+            if (inside && a > 0.f && determinant > 0.f) {
+                subX = Math.max(-1.f, Math.min(1.f, (c * e - 2.f * b * d) / determinant));
+                subY = Math.max(-1.f, Math.min(1.f, (c * d - 2.f * a * e) / determinant));
+            }
+            output.put(base + i, vx + subX);
+            output.put(base + i + 1, vy + subY);
+        }
+    }
+
+    /**
+     * Difference between the reference tile and the frame shifted by (dx, dy). Samples that
+     * fall outside the frame are left out and the sum is scaled to the full tile, shifts that
+     * keep less than a quarter of the tile are rejected.
+     */
+    private float cost(float[] ref, float[] alt, int level, int tx, int ty, int dx, int dy, boolean l1) {
+        int w = levelWidth[level];
+        int h = levelHeight[level];
+        int x0 = Math.max(0, (tx - 1) * STEP);
+        int x1 = Math.min(w, (tx + 1) * STEP);
+        int y0 = Math.max(0, (ty - 1) * STEP);
+        int y1 = Math.min(h, (ty + 1) * STEP);
+        int area = (x1 - x0) * (y1 - y0);
+        int sx0 = Math.max(x0, -dx);
+        int sx1 = Math.min(x1, w - dx);
+        int sy0 = Math.max(y0, -dy);
+        int sy1 = Math.min(y1, h - dy);
+        int valid = Math.max(0, sx1 - sx0) * Math.max(0, sy1 - sy0);
+        if (valid * 4 < area) return Float.MAX_VALUE;
+        float sum = 0.f;
+        for (int y = sy0; y < sy1; y++) {
+            int r = y * w;
+            int a = (y + dy) * w + dx;
+            if (l1) {
+                for (int x = sx0; x < sx1; x++) sum += Math.abs(ref[r + x] - alt[a + x]);
+            } else {
+                for (int x = sx0; x < sx1; x++) {
+                    float d = ref[r + x] - alt[a + x];
+                    sum += d * d;
+                }
+            }
+        }
+        return valid == area ? sum : sum * area / valid;
+    }
+}
@@ -0,0 +1,117 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+/**
+ * Predicts the alignment vectors of a frame from its gyro rotation, seeds for
+ * {@link CpuTileAligner#setSeed}.
+ * <p>
+ * Rotations follow {@code ImageFrame.rX/rY/rZ}, the integrated gyro angles since the burst
+ * start: x turns the view along the raw x axis so the principal point moves by {@code x * focal}
+ * pixels as in {@code ImageFrameDeblur}, y along the raw y axis, z rolls the view around the
+ * principal point. The rotation between the reference and a frame is projected through the
+ * pinhole model, {@code H = K * R(reference) * R(frame)^T * K^-1}, so the predicted vectors also
+ * carry the perspective and roll that a single translation leaves to the search.
+ */
+public class GyroAlignmentSeed {
+    public static boolean enabled = true;
+    public final double focalX;
+    public final double focalY;
+    public final double centerX;
+    public final double centerY;
+
+    /**
+     * @param focalX focal length in raw pixels.
+     * @param centerX principal point in raw pixels.
+     */
+    public GyroAlignmentSeed(double focalX, double focalY, double centerX, double centerY) {
+        this.focalX = focalX;
+        this.focalY = focalY;
+        this.centerX = centerX;
+        this.centerY = centerY;
+    }
+
+    /**
+     * Principal point from {@code cameraIntrinsic}, focal length in mm times the pixels per mm
+     * of each axis: the intrinsic matrix holds it in mm rather than pixels. {@code perXAngle}
+     * and {@code perYAngle} only when the sensor size is unknown.
+     */
+    public static GyroAlignmentSeed fromParameters(ParametersSnapshot parameters) {
+        double[] intrinsic = parameters.getCameraIntrinsic();
+        double centerX = intrinsic != null ? intrinsic[2] : parameters.rawWidth / 2.0;
+        double centerY = intrinsic != null ? intrinsic[5] : parameters.rawHeight / 2.0;
+        if (parameters.focalLength <= 0.f || parameters.xPerMm <= 0.0 || parameters.yPerMm <= 0.0)
+            return new GyroAlignmentSeed(parameters.perXAngle, parameters.perYAngle, centerX, centerY);
+        return new GyroAlignmentSeed(parameters.focalLength * parameters.xPerMm,
+                parameters.focalLength * parameters.yPerMm, centerX, centerY);
+    }
+
+    /**
+     * @param rotation x, y and z angles in radians.
+     * @return row major 3x3 rotation matrix, roll * tilt * pan.
+     */
+    public static double[] rotation(float[] rotation) {
+        double ca = Math.cos(rotation[0]), sa = Math.sin(rotation[0]);
+        double cb = Math.cos(rotation[1]), sb = Math.sin(rotation[1]);
+        double cc = Math.cos(rotation[2]), sc = Math.sin(rotation[2]);
+        double[] pan = {ca, 0, sa, 0, 1, 0, -sa, 0, ca};
+        double[] tilt = {1, 0, 0, 0, cb, sb, 0, -sb, cb};
+        double[] roll = {cc, -sc, 0, sc, cc, 0, 0, 0, 1};
+        return multiply(roll, multiply(tilt, pan));
+    }
+
+    /**
+     * @return row major 3x3 homography from raw pixels of the reference to raw pixels of the
+     * frame that show the same point.
+     */
+    public double[] homography(float[] reference, float[] frame) {
+        double[] r = multiply(rotation(reference), transpose(rotation(frame)));
+        double[] k = {focalX, 0, centerX, 0, focalY, centerY, 0, 0, 1};
+        double[] kInverse = {1 / focalX, 0, -centerX / focalX, 0, 1 / focalY, -centerY / focalY, 0, 0, 1};
+        return multiply(k, multiply(r, kInverse));
+    }
+
+    /**
+     * Fills a seed in the {@link CpuTileAligner} output layout: a grid of
+     * {@code (width / 16 + 1) x (height / 16 + 1)} tiles centred every 16 raw pixels, each with
+     * the (x, y) offset in bayer quads at which the frame should match the reference.
+     *
+     * @param out at least {@link CpuTileAligner#alignmentSize} floats.
+     * @return {@code out}.
+     */
+    public float[] field(float[] reference, float[] frame, int width, int height, float[] out) {
+        double[] h = homography(reference, frame);
+        int tilesX = width / 16 + 1;
+        int tilesY = height / 16 + 1;
+        for (int ty = 0; ty < tilesY; ty++) {
+            double y = ty * 16;
+            for (int tx = 0; tx < tilesX; tx++) {
+                double x = tx * 16;
+                double w = h[6] * x + h[7] * y + h[8];
+                double px = (h[0] * x + h[1] * y + h[2]) / w;
+                double py = (h[3] * x + h[4] * y + h[5]) / w;
+                int i = (ty * tilesX + tx) * 2;
+                out[i] = (float) ((px - x) * 0.5);
+                out[i + 1] = (float) ((py - y) * 0.5);
+            }
+        }
+        return out;
+    }
+
+    public float[] field(float[] reference, float[] frame, int width, int height) {
+        return field(reference, frame, width, height, new float[CpuTileAligner.alignmentSize(width, height)]);
+    }
+
+    static double[] multiply(double[] a, double[] b) {
+        double[] out = new double[9];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++)
+                out[r * 3 + c] = a[r * 3] * b[c] + a[r * 3 + 1] * b[3 + c] + a[r * 3 + 2] * b[6 + c];
+        }
+        return out;
+    }
+
+    static double[] transpose(double[] a) {
+        return new double[]{a[0], a[3], a[6], a[1], a[4], a[7], a[2], a[5], a[8]};
+    }
+}
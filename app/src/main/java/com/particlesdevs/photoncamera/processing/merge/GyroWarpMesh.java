@@ -0,0 +1,200 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import com.particlesdevs.photoncamera.control.GyroBurst;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Gyro predicted warp from the reference frame to another frame of the burst, with rolling
+ * shutter correction.
+ * <p>
+ * The rows of both frames are split into {@link #bands} horizontal bands. Band {@code b} uses
+ * the rotations both frames had while its middle row was exposed, giving one
+ * {@link GyroAlignmentSeed#homography homography} per band. The homographies are then sampled
+ * every {@link #step} raw pixels into a mesh of displacements, blended linearly between band
+ * centres so the warp has no seams. Merge stages take the mesh as a small texture or sample it
+ * with {@link #map}; {@link #warp} resamples a whole bayer frame on the CPU, for testing.
+ */
+public class GyroWarpMesh {
+    public static final int DEFAULT_STEP = 64;
+    /**
+     * Bands used for bursts, 1 disables the rolling shutter correction.
+     */
+    public static int defaultBands = 8;
+    public final int width;
+    public final int height;
+    public final int bands;
+    /**
+     * Row major 3x3 homography of every band, raw pixels of the reference to raw pixels of the
+     * frame.
+     */
+    public final float[] homographies;
+    /**
+     * Mesh spacing in raw pixels, vertices per row and per column.
+     */
+    public final int step, meshX, meshY;
+    /**
+     * Frame position minus reference position of every vertex, in raw pixels, x and y per vertex
+     * row by row.
+     */
+    public final float[] mesh;
+
+    private GyroWarpMesh(int width, int height, float[] homographies, int step) {
+        this.width = width;
+        this.height = height;
+        this.bands = homographies.length / 9;
+        this.homographies = homographies;
+        this.step = step;
+        meshX = (width + step - 1) / step + 1;
+        meshY = (height + step - 1) / step + 1;
+        mesh = new float[meshX * meshY * 2];
+        double[] position = new double[2];
+        for (int j = 0; j < meshY; j++) {
+            double y = j * step;
+            for (int i = 0; i < meshX; i++) {
+                double x = i * step;
+                project(x, y, position);
+                mesh[(j * meshX + i) * 2] = (float) (position[0] - x);
+                mesh[(j * meshX + i) * 2 + 1] = (float) (position[1] - y);
+            }
+        }
+    }
+
+    /**
+     * @param reference rotation of every band of the reference, {@code float[bands][3]} in the
+     *                  {@code ImageFrame.rX/rY/rZ} convention.
+     * @param frame     rotation of every band of the frame.
+     * @param step      mesh spacing in raw pixels.
+     */
+    public static GyroWarpMesh build(GyroAlignmentSeed camera, float[][] reference, float[][] frame,
+                                     int width, int height, int step) {
+        if (reference.length != frame.length || reference.length == 0)
+            throw new IllegalArgumentException("Bands " + reference.length + " and " + frame.length);
+        float[] homographies = new float[reference.length * 9];
+        for (int b = 0; b < reference.length; b++) {
+            double[] h = camera.homography(reference[b], frame[b]);
+            for (int k = 0; k < 9; k++) homographies[b * 9 + k] = (float) h[k];
+        }
+        return new GyroWarpMesh(width, height, homographies, Math.max(step, 1));
+    }
+
+    /**
+     * @return rotation while the middle row of each band was exposed, the frame rotation for
+     * every band when the burst has no exposure timing or its samples are gone.
+     */
+    public static float[][] rotations(GyroBurst burst, int bands) {
+        float[][] out = new float[bands][3];
+        for (int b = 0; b < bands; b++) {
+            if (!burst.rowPosition((b + 0.5) / bands, out[b]))
+                System.arraycopy(burst.integrated, 0, out[b], 0, 3);
+        }
+        return out;
+    }
+
+    /**
+     * Exact position through the band homographies, before sampling into the mesh.
+     */
+    private void project(double x, double y, double[] out) {
+        double band = y * bands / height - 0.5;
+        int b0 = Math.max(0, Math.min(bands - 1, (int) Math.floor(band)));
+        int b1 = Math.min(bands - 1, b0 + 1);
+        double t = Math.max(0.0, Math.min(1.0, band - b0));
+        double x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+        for (int k = 0; k < 2; k++) {
+            int h = (k == 0 ? b0 : b1) * 9;
+            double w = homographies[h + 6] * x + homographies[h + 7] * y + homographies[h + 8];
+            double px = (homographies[h] * x + homographies[h + 1] * y + homographies[h + 2]) / w;
+            double py = (homographies[h + 3] * x + homographies[h + 4] * y + homographies[h + 5]) / w;
+            if (k == 0) {
+                x0 = px;
+                y0 = py;
+            } else {
+                x1 = px;
+                y1 = py;
+            }
+        }
+        out[0] = x0 + (x1 - x0) * t;
+        out[1] = y0 + (y1 - y0) * t;
+    }
+
+    /**
+     * Position in the frame of a reference pixel, bilinear between mesh vertices.
+     *
+     * @param out receives x and y in raw pixels.
+     */
+    public void map(double x, double y, double[] out) {
+        double gx = Math.max(0.0, Math.min(meshX - 1, x / step));
+        double gy = Math.max(0.0, Math.min(meshY - 1, y / step));
+        int i = Math.min((int) gx, meshX - 2);
+        int j = Math.min((int) gy, meshY - 2);
+        double fx = gx - i;
+        double fy = gy - j;
+        int v00 = (j * meshX + i) * 2;
+        int v10 = v00 + 2;
+        int v01 = v00 + meshX * 2;
+        int v11 = v01 + 2;
+        for (int c = 0; c < 2; c++) {
+            double top = mesh[v00 + c] + (mesh[v10 + c] - mesh[v00 + c]) * fx;
+            double bottom = mesh[v01 + c] + (mesh[v11 + c] - mesh[v01 + c]) * fx;
+            out[c] = (c == 0 ? x : y) + top + (bottom - top) * fy;
+        }
+    }
+
+    /**
+     * Fills a {@link CpuTileAligner#setSeed seed} in the aligner output layout.
+     *
+     * @param out at least {@link CpuTileAligner#alignmentSize} floats.
+     * @return {@code out}.
+     */
+    public float[] seed(float[] out) {
+        int tilesX = width / 16 + 1;
+        int tilesY = height / 16 + 1;
+        double[] position = new double[2];
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                map(tx * 16, ty * 16, position);
+                int i = (ty * tilesX + tx) * 2;
+                out[i] = (float) ((position[0] - tx * 16) * 0.5);
+                out[i + 1] = (float) ((position[1] - ty * 16) * 0.5);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Resamples a 16 bit bayer frame into the geometry of the reference. Every pixel takes the
+     * same CFA color from the frame, bilinear between the four nearest samples of that color,
+     * positions past the border are clamped to it.
+     *
+     * @param frame frame of {@link #width} x {@link #height} samples, row by row.
+     * @param out   receives the warped frame, same layout.
+     */
+    public void warp(ShortBuffer frame, ShortBuffer out) {
+        int planeWidth = width / 2;
+        int planeHeight = height / 2;
+        double[] position = new double[2];
+        for (int qy = 0; qy < planeHeight; qy++) {
+            for (int qx = 0; qx < planeWidth; qx++) {
+                //One displacement per bayer quad, from its centre
+                map(qx * 2 + 0.5, qy * 2 + 0.5, position);
+                double dx = position[0] - (qx * 2 + 0.5);
+                double dy = position[1] - (qy * 2 + 0.5);
+                for (int c = 0; c < 4; c++) {
+                    int ox = c & 1;
+                    int oy = c >> 1;
+                    double px = Math.max(0.0, Math.min(planeWidth - 1, qx + dx * 0.5));
+                    double py = Math.max(0.0, Math.min(planeHeight - 1, qy + dy * 0.5));
+                    int x0 = Math.min((int) px, planeWidth - 2);
+                    int y0 = Math.min((int) py, planeHeight - 2);
+                    double fx = px - x0;
+                    double fy = py - y0;
+                    int r0 = (y0 * 2 + oy) * width + ox;
+                    int r1 = r0 + 2 * width;
+                    double top = (frame.get(r0 + x0 * 2) & 0xFFFF) * (1 - fx) + (frame.get(r0 + x0 * 2 + 2) & 0xFFFF) * fx;
+                    double bottom = (frame.get(r1 + x0 * 2) & 0xFFFF) * (1 - fx) + (frame.get(r1 + x0 * 2 + 2) & 0xFFFF) * fx;
+                    out.put((qy * 2 + oy) * width + qx * 2 + ox, (short) Math.round(top + (bottom - top) * fy));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Burst merge with the contract of {@link com.particlesdevs.photoncamera.Wrapper}.
+ * <p>
+ * Frames are 16 bit bayer buffers of {@code width * height} samples in native byte order.
+ * The first loaded frame is the reference, the output keeps its geometry and byte layout.
+ * Buffers are read in place and must stay valid until {@link #processFrame} returns.
+ */
+public interface HdrxMerge {
+    /**
+     * @param width  frame width in pixels.
+     * @param height frame height in pixels.
+     * @param frames number of frames that will be loaded.
+     */
+    void init(int width, int height, int frames);
+
+    /**
+     * @param frame    bayer frame.
+     * @param exposure multiplier that brings the frame to the output scale.
+     */
+    void loadFrame(ByteBuffer frame, float exposure);
+
+    /**
+     * @param gainMap lens shading gain of every pixel as 32 bit floats.
+     */
+    void loadInterpolatedGainMap(ByteBuffer gainMap);
+
+    void outputBuffer(ByteBuffer output);
+
+    /**
+     * @param noiseS     signal dependent noise of a single frame, normalized to the white level.
+     * @param noiseO     signal independent noise of a single frame, normalized to the white level.
+     * @param smooth     how much difference beyond the noise is still merged.
+     * @param elFactor   weight of the other frames relative to the reference.
+     * @param blR        black level of red in input units.
+     * @param wlFactor   white level of the input frames.
+     * @param wpR        white point of red, see {@link com.particlesdevs.photoncamera.processing.render.ParametersSnapshot#whitePoint}.
+     * @param cfaPattern CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT.
+     */
+    void processFrame(float noiseS, float noiseO, float smooth, float elFactor, float blR, float blG, float blB,
+                      float wlFactor, float wpR, float wpG, float wpB, int cfaPattern);
+}
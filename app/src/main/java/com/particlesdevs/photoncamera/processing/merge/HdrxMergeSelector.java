@@ -0,0 +1,30 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.WrapperAl;
+
+public class HdrxMergeSelector {
+    private static final String TAG = "HdrxMergeSelector";
+    /**
+     * Use the Java merge and alignment even when the native libraries are present, to compare
+     * the two on device.
+     */
+    public static boolean forceCpu = false;
+    private static Boolean alignmentAvailable;
+
+    public static HdrxMerge getMerge() {
+        if (!forceCpu && NativeHdrxMerge.isAvailable()) return new NativeHdrxMerge();
+        Log.d(TAG, "Using CPU merge");
+        return new CpuHdrxMerge();
+    }
+
+    /**
+     * @return true when alignment vectors should come from {@link CpuTileAligner} instead of
+     * libalignmentVectors.
+     */
+    public static synchronized boolean useCpuAlignment() {
+        if (alignmentAvailable == null) alignmentAvailable = NativeHdrxMerge.loads(WrapperAl.class.getName());
+        return forceCpu || !alignmentAvailable;
+    }
+}
@@ -0,0 +1,62 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.Wrapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link HdrxMerge} backed by libHdrX.
+ */
+public class NativeHdrxMerge implements HdrxMerge {
+    private static final String TAG = "NativeHdrxMerge";
+    private static Boolean available;
+
+    /**
+     * @return true when libHdrX could be loaded on this device.
+     */
+    public static synchronized boolean isAvailable() {
+        if (available == null) available = loads(Wrapper.class.getName());
+        return available;
+    }
+
+    /**
+     * @return true when the class and the library its static block loads could be initialized.
+     */
+    static boolean loads(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            Log.w(TAG, className + " is not available: " + e);
+            return false;
+        }
+    }
+
+    @Override
+    public void init(int width, int height, int frames) {
+        Wrapper.init(width, height, frames);
+    }
+
+    @Override
+    public void loadFrame(ByteBuffer frame, float exposure) {
+        Wrapper.loadFrame(frame, exposure);
+    }
+
+    @Override
+    public void loadInterpolatedGainMap(ByteBuffer gainMap) {
+        Wrapper.loadInterpolatedGainMap(gainMap);
+    }
+
+    @Override
+    public void outputBuffer(ByteBuffer output) {
+        Wrapper.outputBuffer(output);
+    }
+
+    @Override
+    public void processFrame(float noiseS, float noiseO, float smooth, float elFactor, float blR, float blG, float blB,
+                             float wlFactor, float wpR, float wpG, float wpB, int cfaPattern) {
+        Wrapper.processFrame(noiseS, noiseO, smooth, elFactor, blR, blG, blB, wlFactor, wpR, wpG, wpB, cfaPattern);
+    }
+}
@@ -0,0 +1,346 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Burst merge that folds frames into an accumulator one at a time, so a frame can be released
+ * as soon as it is merged and memory does not grow with the burst.
+ * <p>
+ * {@link #start} takes the reference, which stays in place until {@link #finish}, and fills
+ * the accumulator, a weighted sum and a weight per pixel, with it. It also builds the pyramid
+ * of the {@link CpuTileAligner}, when one is set, once for the burst. Every {@link #addFrame}
+ * aligns the frame to that pyramid and merges it with the weights of {@link CpuHdrxMerge}:
+ * cells of {@link #STEP} pixels are centred on the alignment grid, each cell is shifted by its
+ * vector rounded to whole bayer quads, and the weight of a grid point compares the difference
+ * of the 3x3 cells around it with what the noise model predicts. Weights are interpolated between grid points and clipped samples are
+ * skipped, as in the one pass merge. {@link #finish} writes the weighted mean.
+ * <p>
+ * The accumulator takes 8 bytes per pixel next to the reference, alignment two pyramids, which
+ * replaces holding every frame of the burst until the merge.
+ */
+public class StreamingHdrxMerge {
+    private static final String TAG = "StreamingHdrxMerge";
+    static final int STEP = 16;
+    private static final float CLIP = 0.98f;
+
+    private int width;
+    private int height;
+    private int gridX;
+    private int gridY;
+    private ShortBuffer reference;
+    private float exposure0;
+    private FloatBuffer gainMap;
+    private FloatBuffer sum;
+    private FloatBuffer weight;
+    private ForkJoinPool pool;
+    private CpuTileAligner aligner;
+    private ByteBuffer vectors;
+    private float noiseS, noiseO, smooth, elFactor, whiteLevel;
+    private final float[] black = new float[4];
+    private final float[] shading = new float[4];
+    private double[] cellK, cellSignal, cellDiff;
+    private float[] gridWeights;
+    private int[] shifts;
+    private int frames;
+    private long mergeNs;
+
+    public StreamingHdrxMerge setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @param aligner aligner of every added frame to the reference, null to merge unaligned.
+     */
+    public StreamingHdrxMerge setAligner(CpuTileAligner aligner) {
+        this.aligner = aligner;
+        return this;
+    }
+
+    /**
+     * Allocates the accumulator, kept between bursts of the same size.
+     */
+    public void init(int width, int height) {
+        if (width < STEP || height < STEP)
+            throw new IllegalArgumentException("Invalid frame " + width + "x" + height);
+        boolean sameSize = sum != null && this.width == width && this.height == height;
+        this.width = width;
+        this.height = height;
+        reference = null;
+        gainMap = null;
+        frames = 0;
+        mergeNs = 0;
+        if (sameSize) return;
+        gridX = width / STEP + 1;
+        gridY = height / STEP + 1;
+        sum = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        weight = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vectors = ByteBuffer.allocateDirect(CpuTileAligner.alignmentSize(width, height) * 4).order(ByteOrder.nativeOrder());
+        cellK = new double[gridX * gridY];
+        cellSignal = new double[gridX * gridY];
+        cellDiff = new double[gridX * gridY];
+        gridWeights = new float[gridX * gridY];
+        shifts = new int[gridX * gridY * 2];
+    }
+
+    /**
+     * @param gainMap lens shading gain of every pixel as 32 bit floats, null for none.
+     */
+    public void loadInterpolatedGainMap(ByteBuffer gainMap) {
+        this.gainMap = gainMap == null ? null : view(gainMap).asFloatBuffer();
+    }
+
+    /**
+     * Fills the accumulator with the reference, parameters as {@link HdrxMerge#processFrame}.
+     *
+     * @param reference bayer frame that must stay valid until {@link #finish}.
+     * @param exposure  multiplier that brings the reference to the output scale.
+     */
+    public void start(ByteBuffer reference, float exposure, float noiseS, float noiseO, float smooth,
+                      float elFactor, float blR, float blG, float blB, float wlFactor,
+                      float wpR, float wpG, float wpB, int cfaPattern) {
+        if (sum == null) throw new IllegalStateException("Not initialized");
+        long start = System.nanoTime();
+        this.reference = view(reference).asShortBuffer();
+        this.exposure0 = exposure;
+        this.noiseS = noiseS;
+        this.noiseO = noiseO;
+        this.smooth = smooth;
+        this.elFactor = elFactor;
+        whiteLevel = wlFactor > 0.f ? wlFactor : 65535.f;
+        int[] channels = CpuHdrxMerge.cfaChannels(cfaPattern);
+        float[] whitePoint = {wpR, wpG, wpB};
+        float[] blackLevel = {blR, blG, blB};
+        for (int i = 0; i < 4; i++) {
+            black[i] = blackLevel[channels[i]];
+            float wp = whitePoint[channels[i]] > 0.f ? whitePoint[channels[i]] : 1.f;
+            shading[i] = 1.f / (wp * wp);
+        }
+        ForkJoinPool pool = pool();
+        pool.invoke(new CpuHdrxMerge.Rows(0, height, y -> {
+            short[] row = new short[width];
+            float[] values = new float[width];
+            read(this.reference, y, row);
+            for (int x = 0; x < width; x++) values[x] = (row[x] & 0xFFFF) * exposure0;
+            FloatBuffer out = sum.duplicate();
+            out.position(y * width);
+            out.put(values);
+            Arrays.fill(values, 1.f);
+            out = weight.duplicate();
+            out.position(y * width);
+            out.put(values);
+        }));
+        if (aligner != null) {
+            aligner.init(width, height, 2);
+            aligner.loadReference(view(reference), exposure0);
+        }
+        frames = 1;
+        mergeNs = System.nanoTime() - start;
+    }
+
+    /**
+     * Aligns a frame and merges it into the accumulator. The frame is not used after return.
+     *
+     * @param exposure multiplier that brings the frame to the output scale.
+     * @param seed     predicted alignment, see {@link CpuTileAligner#setSeed}, null for none.
+     */
+    public void addFrame(ByteBuffer frame, float exposure, float[] seed) {
+        if (reference == null) throw new IllegalStateException("No reference");
+        long start = System.nanoTime();
+        ShortBuffer samples = view(frame).asShortBuffer();
+        if (aligner != null) {
+            aligner.alignFrame(view(frame), exposure, seed, vectors);
+            FloatBuffer aligned = vectors.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for (int i = 0; i < shifts.length; i++) shifts[i] = 2 * Math.round(aligned.get(i));
+        } else {
+            Arrays.fill(shifts, 0);
+        }
+        ForkJoinPool pool = pool();
+        pool.invoke(new CpuHdrxMerge.Rows(0, gridY, gy -> sumCells(samples, exposure, gy)));
+        pool.invoke(new CpuHdrxMerge.Rows(0, gridY, gy -> {
+            for (int gx = 0; gx < gridX; gx++) gridWeight(exposure, gx, gy);
+        }));
+        pool.invoke(new CpuHdrxMerge.Rows(0, height, y -> accumulateRow(samples, exposure, y)));
+        frames++;
+        long elapsed = System.nanoTime() - start;
+        mergeNs += elapsed;
+        Log.d(TAG, "Merged frame " + frames + " in " + elapsed / 1000000 + " ms");
+    }
+
+    /**
+     * Writes the weighted mean of the merged frames and releases the reference.
+     *
+     * @param output 16 bit bayer frame, may be the reference buffer.
+     */
+    public void finish(ByteBuffer output) {
+        if (reference == null) throw new IllegalStateException("No reference");
+        ShortBuffer out = view(output).asShortBuffer();
+        pool().invoke(new CpuHdrxMerge.Rows(0, height, y -> {
+            float[] sums = new float[width];
+            float[] weights = new float[width];
+            short[] row = new short[width];
+            FloatBuffer source = sum.duplicate();
+            source.position(y * width);
+            source.get(sums);
+            source = weight.duplicate();
+            source.position(y * width);
+            source.get(weights);
+            for (int x = 0; x < width; x++) row[x] = (short) Math.min(65535, (int) (sums[x] / weights[x] + 0.5f));
+            ShortBuffer target = out.duplicate();
+            target.position(y * width);
+            target.put(row);
+        }));
+        Log.d(TAG, "Merged " + frames + " frames " + width + "x" + height + ", "
+                + getFramesPerSecond() + " frames/s");
+        reference = null;
+        gainMap = null;
+    }
+
+    /**
+     * @return frames in the accumulator, the reference included.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return frames merged per second of merge time since {@link #start}.
+     */
+    public float getFramesPerSecond() {
+        return mergeNs > 0 ? frames * 1e9f / mergeNs : 0.f;
+    }
+
+    /**
+     * Sums shading weight, reference signal and squared difference of the cells of one grid
+     * row, every cell read through its own shift.
+     */
+    private void sumCells(ShortBuffer frame, float exposure, int gy) {
+        short[] row = new short[width];
+        float[] gain = new float[width];
+        int y0 = Math.max(0, gy * STEP - STEP / 2);
+        int y1 = Math.min(height, gy * STEP + STEP / 2);
+        for (int gx = 0; gx < gridX; gx++) {
+            int cell = gy * gridX + gx;
+            cellK[cell] = 0.0;
+            cellSignal[cell] = 0.0;
+            cellDiff[cell] = 0.0;
+        }
+        for (int y = y0; y < y1; y++) {
+            read(reference, y, row);
+            readGain(y, gain);
+            int p = (y & 1) << 1;
+            for (int gx = 0; gx < gridX; gx++) {
+                int cell = gy * gridX + gx;
+                int sx = shifts[cell * 2];
+                int sy = y + shifts[cell * 2 + 1];
+                if (sy < 0 || sy >= height) continue;
+                int x0 = Math.max(Math.max(0, gx * STEP - STEP / 2), -sx);
+                int x1 = Math.min(Math.min(width, gx * STEP + STEP / 2), width - sx);
+                float sumK = 0.f, sumSignal = 0.f, sumDiff = 0.f;
+                int base = sy * width + sx;
+                for (int x = x0; x < x1; x++) {
+                    int c = p | (x & 1);
+                    float g = gain[x];
+                    float k = g * g * shading[c];
+                    int raw = row[x] & 0xFFFF;
+                    float d = (frame.get(base + x) & 0xFFFF) * exposure - raw * exposure0;
+                    sumK += k;
+                    sumSignal += k * Math.max(0.f, raw - black[c]) * exposure0;
+                    sumDiff += k * d * d;
+                }
+                cellK[cell] += sumK;
+                cellSignal[cell] += sumSignal;
+                cellDiff[cell] += sumDiff;
+            }
+        }
+    }
+
+    private void gridWeight(float exposure, int gx, int gy) {
+        double k = 0.0, signal = 0.0, diff = 0.0;
+        for (int cy = Math.max(0, gy - 1); cy <= Math.min(gridY - 1, gy + 1); cy++) {
+            for (int cx = Math.max(0, gx - 1); cx <= Math.min(gridX - 1, gx + 1); cx++) {
+                int cell = cy * gridX + cx;
+                k += cellK[cell];
+                signal += cellSignal[cell];
+                diff += cellDiff[cell];
+            }
+        }
+        double referenceVariance = CpuHdrxMerge.variance(exposure0, whiteLevel, noiseS, noiseO, signal, k);
+        double frameVariance = CpuHdrxMerge.variance(exposure, whiteLevel, noiseS, noiseO, signal, k);
+        double expected = referenceVariance + frameVariance;
+        float w = elFactor;
+        if (expected > 0.0) {
+            double excess = Math.max(0.0, diff - expected);
+            w *= (float) (referenceVariance / frameVariance * smooth * expected / (smooth * expected + excess));
+        }
+        gridWeights[gy * gridX + gx] = w;
+    }
+
+    private void accumulateRow(ShortBuffer frame, float exposure, int y) {
+        float[] sums = new float[width];
+        float[] weights = new float[width];
+        float[] rowWeights = new float[gridX];
+        FloatBuffer sumRow = sum.duplicate();
+        sumRow.position(y * width);
+        sumRow.get(sums);
+        FloatBuffer weightRow = weight.duplicate();
+        weightRow.position(y * width);
+        weightRow.get(weights);
+        float clip = whiteLevel * CLIP;
+        int top = Math.min(y / STEP, gridY - 2) * gridX;
+        float ty = ((y % STEP) + 0.5f) / STEP;
+        for (int gx = 0; gx < gridX; gx++)
+            rowWeights[gx] = gridWeights[top + gx] + (gridWeights[top + gridX + gx] - gridWeights[top + gx]) * ty;
+        int nearest = Math.min((y + STEP / 2) / STEP, gridY - 1) * gridX;
+        for (int x = 0; x < width; x++) {
+            int cx = Math.min(x / STEP, gridX - 2);
+            float w = rowWeights[cx] + (rowWeights[cx + 1] - rowWeights[cx]) * (((x - cx * STEP) + 0.5f) / STEP);
+            if (w <= 0.f) continue;
+            int cell = nearest + Math.min((x + STEP / 2) / STEP, gridX - 1);
+            int sx = x + shifts[cell * 2];
+            int sy = y + shifts[cell * 2 + 1];
+            if (sx < 0 || sx >= width || sy < 0 || sy >= height) continue;
+            int raw = frame.get(sy * width + sx) & 0xFFFF;
+            if (raw >= clip) continue;
+            sums[x] += w * raw * exposure;
+            weights[x] += w;
+        }
+        sumRow.position(y * width);
+        sumRow.put(sums);
+        weightRow.position(y * width);
+        weightRow.put(weights);
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    private ByteBuffer view(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+        view.position(0);
+        return view;
+    }
+
+    private void read(ShortBuffer frame, int y, short[] row) {
+        ShortBuffer source = frame.duplicate();
+        source.position(y * width);
+        source.get(row, 0, width);
+    }
+
+    private void readGain(int y, float[] row) {
+        if (gainMap == null) {
+            Arrays.fill(row, 1.f);
+            return;
+        }
+        FloatBuffer source = gainMap.duplicate();
+        source.position(y * width);
+        source.get(row, 0, width);
+    }
+}
@@ -0,0 +1,345 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Unlimited mode frame average on the CPU, kept in a memory mapped file so a stack survives the
+ * process and does not need a GL context.
+ * <p>
+ * Every sample is normalized as in {@code average.glsl}, over the white level and clipped to
+ * the white point of its channel, and added to a 32 bit float sum with a Kahan compensation
+ * term, so hundreds of frames keep the precision of a double sum at 8 bytes per pixel.
+ * <p>
+ * The file holds a header and two slots of sums. Every {@link #checkpointFrames} frames the
+ * slot in use is forced to storage and the header is pointed at it with a single 8 byte write,
+ * then the next frame reads that slot and sums into the other one. A slot named by the header
+ * is never written again before the next checkpoint, so a process killed at any point leaves
+ * the last checkpoint intact for {@link #recover} to finish. {@link #open} always starts an
+ * empty stack.
+ */
+public class UnlimitedAccumulator implements Closeable {
+    private static final String TAG = "UnlimitedAccumulator";
+    private static final int MAGIC = 0x50554143;
+    private static final int VERSION = 1;
+    private static final int HEADER = 4096;
+    private static final int STATE = 40;
+    private static final int TIME = 48;
+
+    /**
+     * Frames between two checkpoints.
+     */
+    public static int checkpointFrames = 16;
+
+    private final Path path;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] slots = new MappedByteBuffer[2];
+    private final FloatBuffer[] sums = new FloatBuffer[2];
+    private final FloatBuffer[] compensations = new FloatBuffer[2];
+    public final int width;
+    public final int height;
+    public final int cfaPattern;
+    public final float whiteLevel;
+    private final float[] clip = new float[4];
+    private ForkJoinPool pool;
+    private int slot;
+    private int frames;
+    private int committed;
+    private int resumed;
+    private boolean fork;
+    private long accumulateNs;
+
+    private UnlimitedAccumulator(Path path, RandomAccessFile file, int width, int height, int cfaPattern,
+                                 float whiteLevel, float[] whitePoint) throws IOException {
+        this.path = path;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.cfaPattern = cfaPattern;
+        this.whiteLevel = whiteLevel;
+        int[] channels = CpuHdrxMerge.cfaChannels(cfaPattern);
+        for (int i = 0; i < 4; i++) clip[i] = whitePoint[channels[i]];
+        long slotBytes = slotBytes(width, height);
+        FileChannel channel = file.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        header.order(ByteOrder.nativeOrder());
+        for (int s = 0; s < 2; s++) {
+            slots[s] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + s * slotBytes, slotBytes);
+            slots[s].order(ByteOrder.nativeOrder());
+            ByteBuffer sum = slots[s].duplicate().order(ByteOrder.nativeOrder());
+            sum.limit(width * height * 4);
+            sums[s] = sum.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+            ByteBuffer compensation = slots[s].duplicate().order(ByteOrder.nativeOrder());
+            compensation.position(width * height * 4);
+            compensations[s] = compensation.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    /**
+     * Starts an empty stack in {@code path}, over whatever the file held.
+     *
+     * @param whitePoint white point of red, green and blue as in {@code average.glsl}.
+     */
+    public static UnlimitedAccumulator open(Path path, int width, int height, int cfaPattern,
+                                            float whiteLevel, float[] whitePoint) throws IOException {
+        long slotBytes = slotBytes(width, height);
+        if (width <= 0 || height <= 0 || slotBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid frame " + width + "x" + height);
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            //Dropping the old length zero fills both slots again
+            file.setLength(0);
+            file.setLength(HEADER + 2 * slotBytes);
+            UnlimitedAccumulator accumulator = new UnlimitedAccumulator(path, file, width, height, cfaPattern,
+                    whiteLevel, whitePoint);
+            MappedByteBuffer h = accumulator.header;
+            h.putInt(0, MAGIC);
+            h.putInt(4, VERSION);
+            h.putInt(8, width);
+            h.putInt(12, height);
+            h.putInt(16, cfaPattern);
+            h.putFloat(20, whiteLevel);
+            h.putFloat(24, whitePoint[0]);
+            h.putFloat(28, whitePoint[1]);
+            h.putFloat(32, whitePoint[2]);
+            h.putLong(STATE, 0L);
+            h.putLong(TIME, System.currentTimeMillis());
+            h.force();
+            accumulator.fork = true;
+            return accumulator;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the checkpoint left in {@code path} by a killed process, to finish it after a restart.
+     *
+     * @return null when there is no complete checkpoint.
+     */
+    public static UnlimitedAccumulator recover(Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER) return null;
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            ByteBuffer h = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER)
+                    .order(ByteOrder.nativeOrder());
+            int width = h.getInt(8);
+            int height = h.getInt(12);
+            if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION || width <= 0 || height <= 0
+                    || file.length() != HEADER + 2 * slotBytes(width, height)) {
+                file.close();
+                return null;
+            }
+            UnlimitedAccumulator accumulator = new UnlimitedAccumulator(path, file, width, height, h.getInt(16),
+                    h.getFloat(20), new float[]{h.getFloat(24), h.getFloat(28), h.getFloat(32)});
+            accumulator.readState();
+            return accumulator;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static long slotBytes(int width, int height) {
+        return (long) width * height * 8;
+    }
+
+    private void readState() {
+        long state = header.getLong(STATE);
+        slot = (int) (state & 1);
+        frames = (int) (state >>> 1);
+        committed = frames;
+        resumed = frames;
+        fork = true;
+    }
+
+    public UnlimitedAccumulator setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Adds a frame and checkpoints when {@link #checkpointFrames} frames were added since the
+     * last one.
+     *
+     * @param raw       RAW16 samples in native byte order.
+     * @param rowStride bytes per row.
+     */
+    public void add(ByteBuffer raw, int rowStride) {
+        long start = System.nanoTime();
+        ShortBuffer samples = raw.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int stride = rowStride / 2;
+        int target = fork ? 1 - slot : slot;
+        FloatBuffer sumIn = sums[slot];
+        FloatBuffer compensationIn = compensations[slot];
+        FloatBuffer sumOut = sums[target];
+        FloatBuffer compensationOut = compensations[target];
+        float scale = 1.f / whiteLevel;
+        pool().invoke(new CpuHdrxMerge.Rows(0, height, y -> {
+            float clip0 = clip[(y & 1) * 2];
+            float clip1 = clip[(y & 1) * 2 + 1];
+            short[] row = new short[width];
+            float[] sum = new float[width];
+            float[] compensation = new float[width];
+            ShortBuffer in = samples.duplicate();
+            in.position(y * stride);
+            in.get(row);
+            row(sumIn, y).get(sum);
+            row(compensationIn, y).get(compensation);
+            for (int x = 0; x < width; x++) {
+                float value = (row[x] & 0xFFFF) * scale;
+                value = Math.max(0.f, Math.min(value, (x & 1) == 0 ? clip0 : clip1));
+                float corrected = value - compensation[x];
+                float next = sum[x] + corrected;
+                compensation[x] = (next - sum[x]) - corrected;
+                sum[x] = next;
+            }
+            row(sumOut, y).put(sum);
+            row(compensationOut, y).put(compensation);
+        }));
+        slot = target;
+        fork = false;
+        frames++;
+        accumulateNs += System.nanoTime() - start;
+        if (frames - committed >= Math.max(checkpointFrames, 1)) checkpoint();
+    }
+
+    private FloatBuffer row(FloatBuffer plane, int y) {
+        FloatBuffer row = plane.duplicate();
+        row.position(y * width);
+        return row;
+    }
+
+    /**
+     * Forces the frames added so far to storage and makes them the state a restart resumes.
+     */
+    public void checkpoint() {
+        if (frames == committed) return;
+        long start = System.nanoTime();
+        slots[slot].force();
+        header.putLong(TIME, System.currentTimeMillis());
+        header.putLong(STATE, ((long) frames << 1) | slot);
+        header.force();
+        committed = frames;
+        fork = true;
+        Log.d(TAG, "Checkpoint " + frames + " frames in " + (System.nanoTime() - start) / 1e6 + "ms");
+    }
+
+    /**
+     * Writes the mean of the stack as 16 bit samples scaled to {@code outputWhiteLevel}, with
+     * the hot pixel median of {@code medianfilterhotpixeltoraw.glsl}.
+     *
+     * @param output tightly packed frame of {@link #width}x{@link #height} samples.
+     */
+    public void finish(ByteBuffer output, float outputWhiteLevel) {
+        ShortBuffer target = output.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        FloatBuffer sum = sums[slot];
+        FloatBuffer compensation = compensations[slot];
+        float scale = frames > 0 ? outputWhiteLevel / frames : 0.f;
+        int greenX = CpuHdrxMerge.cfaChannels(cfaPattern)[0] == 1 ? 0 : 1;
+        pool().invoke(new CpuHdrxMerge.Rows(0, height, y -> {
+            float[] v = new float[9];
+            for (int x = 0; x < width; x++) {
+                float center = sample(sum, compensation, x, y);
+                if (((x + y + greenX) & 1) == 0) {
+                    v[0] = sample(sum, compensation, x - 1, y + 1);
+                    v[1] = sample(sum, compensation, x + 1, y + 1);
+                    v[2] = sample(sum, compensation, x - 1, y - 1);
+                    v[3] = sample(sum, compensation, x + 1, y - 1);
+                    v[5] = sample(sum, compensation, x, y + 2);
+                    v[6] = sample(sum, compensation, x + 2, y);
+                    v[7] = sample(sum, compensation, x, y - 2);
+                    v[8] = sample(sum, compensation, x - 2, y);
+                } else {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        for (int dy = -1; dy <= 1; dy++) {
+                            v[(dx + 1) * 3 + dy + 1] = sample(sum, compensation, x + dx * 2, y + dy * 2);
+                        }
+                    }
+                }
+                v[4] = center;
+                float neighbours = (v[0] + v[1] + v[2] + v[3] + v[5] + v[6] + v[7] + v[8]) / 8.f;
+                if (center * 0.7f > neighbours) {
+                    Arrays.sort(v);
+                    center = v[4];
+                }
+                target.put(y * width + x, (short) Math.max(0, Math.min(65535, (int) (center * scale))));
+            }
+        }));
+        Log.d(TAG, "Finished " + frames + " frames " + width + "x" + height + ", "
+                + getFramesPerSecond() + " frames/s");
+    }
+
+    /**
+     * @return compensated sum of a pixel, coordinates clamped to the frame on the same channel.
+     */
+    private float sample(FloatBuffer sum, FloatBuffer compensation, int x, int y) {
+        if (x < 0) x += 2 * ((1 - x) / 2);
+        else if (x >= width) x -= 2 * ((x - width + 2) / 2);
+        if (y < 0) y += 2 * ((1 - y) / 2);
+        else if (y >= height) y -= 2 * ((y - height + 2) / 2);
+        int i = y * width + x;
+        return sum.get(i) - compensation.get(i);
+    }
+
+    /**
+     * @return frames in the stack, those resumed from a checkpoint included.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return frames the stack held when it was recovered, 0 for a stack that was opened.
+     */
+    public int getResumedFrames() {
+        return resumed;
+    }
+
+    /**
+     * @return frames accumulated per second of accumulation time since the stack was opened or
+     * recovered.
+     */
+    public float getFramesPerSecond() {
+        return accumulateNs > 0 ? (frames - resumed) * 1e9f / accumulateNs : 0.f;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Releases the file, the last checkpoint stays in it.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Releases and deletes the file once the stack was finished.
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+}
@@ -19,12 +19,8 @@ public class BayerBilateralChroma extends Node {
     @Override
     public void Run() {
         NoiseModeler modeler = basePipeline.mParameters.noiseModeler;
-        float noiseS = modeler.computeModel[0].first.floatValue()+
-                modeler.computeModel[1].first.floatValue()+
-                modeler.computeModel[2].first.floatValue();
-        float noiseO = modeler.computeModel[0].second.floatValue()+
-                modeler.computeModel[1].second.floatValue()+
-                modeler.computeModel[2].second.floatValue();
+        float noiseS = (float) modeler.stacked.sumS();
+        float noiseO = (float) modeler.stacked.sumO();
         noiseS/=3.f;
         noiseO/=3.f;
         Log.d(Name,"NoiseS:"+noiseS+", NoiseO:"+noiseO);
@@ -20,12 +20,8 @@ public class Bilateral extends Node {
     @Override
     public void Run() {
         NoiseModeler modeler = basePipeline.mParameters.noiseModeler;
-        float noiseS = modeler.computeModel[0].first.floatValue()+
-                modeler.computeModel[1].first.floatValue()+
-                modeler.computeModel[2].first.floatValue();
-        float noiseO = modeler.computeModel[0].second.floatValue()+
-                modeler.computeModel[1].second.floatValue()+
-                modeler.computeModel[2].second.floatValue();
+        float noiseS = (float) modeler.stacked.sumS();
+        float noiseO = (float) modeler.stacked.sumO();
         noiseS/=3.f;
         noiseO/=3.f;
         GLTexture map = glUtils.medianDown(previousNode.WorkingTexture,4);
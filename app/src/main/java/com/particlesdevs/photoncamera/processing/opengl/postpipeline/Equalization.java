@@ -555,9 +555,9 @@ public class Equalization extends Node {
         whiteBalanceSearch = getTuning("WhiteBalanceSearch", whiteBalanceSearch);
         tonemapCoeffs = getTuning("TonemapCoeffs", tonemapCoeffs);
         WorkingTexture = basePipeline.getMain();
-        float rmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[0].second) + Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[0].first));
-        float gmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[1].second) + Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[1].first));
-        float bmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[2].second) + Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[2].first));
+        float rmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.O(0)) + Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(0)));
+        float gmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.O(1)) + Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(1)));
+        float bmax = (float)(Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.O(2)) + Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(2)));
         Log.d("Equalization","rgb max shift:"+rmax+","+gmax+","+bmax);
         endT("Equalization Part 00");
         GLHistogram histParser = Analyze();
@@ -15,8 +15,8 @@ import com.particlesdevs.photoncamera.processing.opengl.GLImage;
 import com.particlesdevs.photoncamera.processing.opengl.GLInterface;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
 import com.particlesdevs.photoncamera.processing.parameters.ResolutionSolution;
-import com.particlesdevs.photoncamera.processing.render.NoiseModeler;
 import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -30,6 +30,11 @@ public class PostPipeline extends GLBasePipeline {
     public ArrayList<Bitmap> debugData = new ArrayList<>();
     public ArrayList<ImageFrame> SAGAIN;
     public Point cropSize;
+    /**
+     * RGBA bytes of the last {@link #Run}, the read back the returned Bitmap was copied from.
+     */
+    public ByteBuffer outputBuffer;
+    public Point outputSize;
     public float[] analyzedBL = new float[]{0.f, 0.f, 0.f};
     float regenerationSense = 1.f;
     float totalGain = 1.f;
@@ -60,19 +65,16 @@ public class PostPipeline extends GLBasePipeline {
 
     float constShift = 0.0f;
 
-    public Bitmap Run(ByteBuffer inBuffer, Parameters parameters) {
+    /**
+     * @param snapshot shot parameters, the pipeline works on a private copy that its nodes may adjust.
+     */
+    public Bitmap Run(ByteBuffer inBuffer, ParametersSnapshot snapshot) {
+        Parameters parameters = Parameters.from(snapshot);
         mParameters = parameters;
         mSettings = PhotonCamera.getSettings();
         workSize = new Point(mParameters.rawSize.x, mParameters.rawSize.y);
-        NoiseModeler modeler = mParameters.noiseModeler;
-        noiseS = modeler.computeModel[0].first.floatValue() +
-                modeler.computeModel[1].first.floatValue() +
-                modeler.computeModel[2].first.floatValue();
-        noiseO = modeler.computeModel[0].second.floatValue() +
-                modeler.computeModel[1].second.floatValue() +
-                modeler.computeModel[2].second.floatValue();
-        noiseS /= 3.f;
-        noiseO /= 3.f;
+        noiseS = snapshot.noiseS();
+        noiseO = snapshot.noiseO();
         double noisempy = Math.pow(2.0, mSettings.noiseRstr + constShift);
         Log.d("PostPipeline", "noisempy:" + noisempy);
         noiseS *= noisempy;
@@ -109,7 +111,10 @@ public class PostPipeline extends GLBasePipeline {
         glint.parameters = parameters;
 
         BuildDefaultPipeline();
-        Bitmap res = runAll().getBufferedImage();
+        GLImage result = runAll();
+        Bitmap res = result.getBufferedImage();
+        outputBuffer = result.byteBuffer;
+        outputSize = rotatedSize;
         GLTexture.closeAll();
         return res;
     }
@@ -24,9 +24,9 @@ public class SmartNR extends Node {
 
     @Override
     public void Run() {
-        float LumaDenoiseLevel = (float)Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[1].first);
-        float ChromaDenoiseLevel = (float)Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[0].first);
-        ChromaDenoiseLevel+=(float)Math.sqrt(basePipeline.mParameters.noiseModeler.computeModel[2].first);
+        float LumaDenoiseLevel = (float)Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(1));
+        float ChromaDenoiseLevel = (float)Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(0));
+        ChromaDenoiseLevel+=(float)Math.sqrt(basePipeline.mParameters.noiseModeler.stacked.S(2));
         ChromaDenoiseLevel/=2.f;
         LumaDenoiseLevel*=basePipeline.mSettings.noiseRstr;
         ChromaDenoiseLevel*=basePipeline.mSettings.noiseRstr;
@@ -4,7 +4,6 @@ import android.graphics.Point;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.processor.ProcessorBase;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
@@ -56,13 +55,13 @@ public class AlignAndMerge extends Node {
             };*/
 
     private void CorrectedRaw(GLTexture out, int number) {
-        float bl = Math.min(Math.min(Math.min(PhotonCamera.getParameters().blackLevel[0],PhotonCamera.getParameters().blackLevel[1]),
-                PhotonCamera.getParameters().blackLevel[2]),PhotonCamera.getParameters().blackLevel[3]);    
+        float bl = Math.min(Math.min(Math.min(basePipeline.mParameters.blackLevel[0],basePipeline.mParameters.blackLevel[1]),
+                basePipeline.mParameters.blackLevel[2]),basePipeline.mParameters.blackLevel[3]);    
         //glProg.setDefine("BL",bl);
         glProg.useAssetProgram("precorrection");
         GLTexture inraw = new GLTexture(rawSize, new GLFormat(GLFormat.DataType.UNSIGNED_16), images.get(number).buffer);
         glProg.setTexture("InputBuffer",inraw);
-        glProg.setVar("WhiteLevel",(float)PhotonCamera.getParameters().whiteLevel);
+        glProg.setVar("WhiteLevel",(float)basePipeline.mParameters.whiteLevel);
         glProg.drawBlocks(out);
         inraw.close();
     }
@@ -71,7 +70,7 @@ public class AlignAndMerge extends Node {
         glProg.useAssetProgram("boxdown22");
         glProg.setTexture("InputBuffer", input);
         glProg.setTexture("GainMap", GainMap);
-        glProg.setVar("CfaPattern", PhotonCamera.getParameters().cfaPattern);
+        glProg.setVar("CfaPattern", basePipeline.mParameters.cfaPattern);
         glProg.drawBlocks(basePipeline.main3,out.mSize);
 
         glUtils.median(basePipeline.main3,out,new Point(1,1));
@@ -406,7 +405,7 @@ public class AlignAndMerge extends Node {
         //FilterTemporal();
         for (int i = 1; i < images.size(); i++) {
             CorrectedRaw(inputraw,i);
-            images.get(i).image.close();
+            images.get(i).close();
             Output = Merge(Output, inputraw,i);
         }
         for(int i = 0; i<images.size()-1;i++){
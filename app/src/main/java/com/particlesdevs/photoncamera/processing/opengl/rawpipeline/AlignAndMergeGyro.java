@@ -4,7 +4,6 @@ import android.graphics.Point;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
@@ -36,18 +35,18 @@ public class AlignAndMergeGyro extends Node {
     public void Compile() {}
 
     private void CorrectedRaw(GLTexture out, int number) {
-        float bl = Math.min(Math.min(Math.min(PhotonCamera.getParameters().blackLevel[0],PhotonCamera.getParameters().blackLevel[1]),
-                PhotonCamera.getParameters().blackLevel[2]),PhotonCamera.getParameters().blackLevel[3]);
+        float bl = Math.min(Math.min(Math.min(basePipeline.mParameters.blackLevel[0],basePipeline.mParameters.blackLevel[1]),
+                basePipeline.mParameters.blackLevel[2]),basePipeline.mParameters.blackLevel[3]);
         float mpy = minMpy / images.get(number).pair.layerMpy;
-        glProg.setDefine("BL",PhotonCamera.getParameters().blackLevel);
-        glProg.setDefine("WP",PhotonCamera.getParameters().whitePoint);
+        glProg.setDefine("BL",basePipeline.mParameters.blackLevel);
+        glProg.setDefine("WP",basePipeline.mParameters.whitePoint);
         glProg.setDefine("MPY",mpy);
-        glProg.setDefine("BAYER",PhotonCamera.getParameters().cfaPattern);
+        glProg.setDefine("BAYER",basePipeline.mParameters.cfaPattern);
         Log.d("Align","mpy:"+mpy);
         glProg.useAssetProgram("precorrection");
         GLTexture inraw = new GLTexture(rawSize, new GLFormat(GLFormat.DataType.UNSIGNED_16), images.get(number).buffer);
         glProg.setTexture("InputBuffer",inraw);
-        glProg.setVar("WhiteLevel",(float)PhotonCamera.getParameters().whiteLevel);
+        glProg.setVar("WhiteLevel",(float)basePipeline.mParameters.whiteLevel);
         glProg.drawBlocks(out);
         inraw.close();
     }
@@ -56,7 +55,7 @@ public class AlignAndMergeGyro extends Node {
         glProg.useAssetProgram("boxdown22");
         glProg.setTexture("InputBuffer", input);
         glProg.setTexture("GainMap", GainMap);
-        glProg.setVar("CfaPattern", PhotonCamera.getParameters().cfaPattern);
+        glProg.setVar("CfaPattern", basePipeline.mParameters.cfaPattern);
         glProg.drawBlocks(basePipeline.main3,out.mSize);
         //glUtils.SaveProgResult(output.mSize,"boxdown");
         //glProg.close();
@@ -280,8 +279,8 @@ public class AlignAndMergeGyro extends Node {
         glProg.setDefine("TILESIZE","("+tileSize+")");
         glProg.setDefine("MIN",minMpy);
         glProg.setDefine("MPY",minMpy / images.get(num).pair.layerMpy);
-        glProg.setDefine("WP",PhotonCamera.getParameters().whitePoint);
-        glProg.setDefine("BAYER",PhotonCamera.getParameters().cfaPattern);
+        glProg.setDefine("WP",basePipeline.mParameters.whitePoint);
+        glProg.setDefine("BAYER",basePipeline.mParameters.cfaPattern);
         glProg.setDefine("HDR",IsoExpoSelector.HDR);
         glProg.setDefine("ROTATIOn", (float) images.get(num).rotation);
         glProg.useAssetProgram("spatialmerge");
@@ -327,9 +326,9 @@ public class AlignAndMergeGyro extends Node {
     private GLTexture RawOutput(GLTexture input) {
         //startT();
         float[] outBL = new float[4];
-        for(int i=0;i<outBL.length;i++) outBL[i] = PhotonCamera.getParameters().blackLevel[i]*(ProcessorBase.FAKE_WL/((float)PhotonCamera.getParameters().whiteLevel));
+        for(int i=0;i<outBL.length;i++) outBL[i] = basePipeline.mParameters.blackLevel[i]*(ProcessorBase.FAKE_WL/((float)basePipeline.mParameters.whiteLevel));
         glProg.setDefine("BL",outBL);
-        glProg.setDefine("BAYER",PhotonCamera.getParameters().cfaPattern);
+        glProg.setDefine("BAYER",basePipeline.mParameters.cfaPattern);
         glProg.useAssetProgram("toraw");
         glProg.setTexture("InputBuffer", input);
         glProg.setVar("whitelevel", ProcessorBase.FAKE_WL);
@@ -437,7 +436,7 @@ public class AlignAndMergeGyro extends Node {
         //FilterTemporal();
         for (int i = 1; i < images.size(); i++) {
             CorrectedRaw(inputraw,i);
-            images.get(i).image.close();
+            images.get(i).close();
             Output = Merge(Output, inputraw,i);
         }
         for(int i = 0; i<images.size()-1;i++){
@@ -4,7 +4,6 @@ import android.graphics.Point;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
@@ -40,7 +39,7 @@ public class AlignAndMergeNCam extends Node {
     private GLTexture CorrectedRaw(ByteBuffer input) {
         glProg.useAssetProgram("precorrection");
         glProg.setTexture("InputBuffer", new GLTexture(rawSize, new GLFormat(GLFormat.DataType.UNSIGNED_16), input));
-        glProg.setVar("WhiteLevel", (float) PhotonCamera.getParameters().realWL);
+        glProg.setVar("WhiteLevel", (float) basePipeline.mParameters.realWL);
         GLTexture output = new GLTexture(rawSize, new GLFormat(GLFormat.DataType.FLOAT_16), null);
         glProg.drawBlocks(output);
         glProg.close();
@@ -3,7 +3,6 @@ package com.particlesdevs.photoncamera.processing.opengl.rawpipeline;
 import android.graphics.Point;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
@@ -26,7 +25,7 @@ public class HybridAlign extends Node {
         glProg.useAssetProgram("precorrection");
         GLTexture inraw = new GLTexture(rawSize, new GLFormat(GLFormat.DataType.UNSIGNED_16), images.get(number).buffer);
         glProg.setTexture("InputBuffer",inraw);
-        glProg.setVar("WhiteLevel",(float)PhotonCamera.getParameters().whiteLevel);
+        glProg.setVar("WhiteLevel",(float)basePipeline.mParameters.whiteLevel);
         glProg.drawBlocks(out);
         inraw.close();
     }
@@ -63,7 +62,7 @@ public class HybridAlign extends Node {
         GLTexture Output = new GLTexture(inputraw.mSize,inputraw.mFormat,images.get(0).buffer);
         for (int i = 1; i < images.size(); i++) {
             CorrectedRaw(inputraw,i);
-            if(i!=0) images.get(i).image.close();
+            if(i!=0) images.get(i).close();
 
             Output = Merge(Output, inputraw, alignments.get(i),i);
         }
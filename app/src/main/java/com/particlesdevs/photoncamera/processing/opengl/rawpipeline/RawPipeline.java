@@ -3,13 +3,13 @@ package com.particlesdevs.photoncamera.processing.opengl.rawpipeline;
 import android.media.Image;
 import android.util.Log;
 
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.opengl.GLBasePipeline;
 import com.particlesdevs.photoncamera.processing.opengl.GLCoreBlockProcessing;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLInterface;
 import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -20,8 +20,8 @@ public class RawPipeline extends GLBasePipeline {
     public ArrayList<ByteBuffer> alignments;
     public int alignAlgorithm;
 
-    public ByteBuffer Run() {
-        mParameters = PhotonCamera.getParameters();
+    public ByteBuffer Run(ParametersSnapshot parameters) {
+        mParameters = Parameters.from(parameters);
         GLCoreBlockProcessing glproc = new GLCoreBlockProcessing(mParameters.rawSize, new GLFormat(GLFormat.DataType.UNSIGNED_16));
         //GLContext glContext = new GLContext(parameters.rawSize.x,parameters.rawSize.y);
         glint = new GLInterface(glproc);
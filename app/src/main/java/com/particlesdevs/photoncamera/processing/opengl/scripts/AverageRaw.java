@@ -4,13 +4,13 @@ import android.graphics.Point;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.processor.UnlimitedProcessor;
 import com.particlesdevs.photoncamera.processing.opengl.GLCoreBlockProcessing;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLOneScript;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
 import static android.opengl.GLES20.GL_MIRRORED_REPEAT;
 import static android.opengl.GLES20.GL_NEAREST;
@@ -23,10 +23,12 @@ public class AverageRaw extends GLOneScript {
     int stackUsed = 1;
 
     private boolean stacked = false;
+    public ParametersSnapshot parameters;
     public AverageRaw(Point size, String name) {
         super(size, new GLCoreBlockProcessing(size,new GLFormat(GLFormat.DataType.UNSIGNED_16)), "average", name);
     }
     float[] wpoints;
+    float[] blackLevel;
     public void Init(){
         stacked = false;
         first = new GLTexture(size,new GLFormat(GLFormat.DataType.FLOAT_16));
@@ -34,7 +36,8 @@ public class AverageRaw extends GLOneScript {
         stack = new GLTexture(size,new GLFormat(GLFormat.DataType.FLOAT_16));
         stack2 = new GLTexture(size,new GLFormat(GLFormat.DataType.FLOAT_16));
         finalTex = new GLTexture(size,new GLFormat(GLFormat.DataType.UNSIGNED_16));
-        float []oldp = PhotonCamera.getParameters().whitePoint;
+        blackLevel = parameters.getBlackLevel();
+        float []oldp = parameters.getWhitePoint();
         wpoints = new float[oldp.length];
         float min = 1000.f;
         for(float p : oldp){
@@ -96,10 +99,10 @@ public class AverageRaw extends GLOneScript {
             glProg.setTexture("InputBuffer", in1);
         }
         glProg.setTexture("InputBuffer2", in2);
-        glProg.setVar("CfaPattern",PhotonCamera.getParameters().cfaPattern);
-        glProg.setVar("blacklevel", PhotonCamera.getParameters().blackLevel);
+        glProg.setVar("CfaPattern",parameters.cfaPattern);
+        glProg.setVar("blacklevel", blackLevel);
         glProg.setVar("WhitePoint", wpoints);
-        glProg.setVar("whitelevel", (int) (PhotonCamera.getParameters().whiteLevel));
+        glProg.setVar("whitelevel", parameters.whiteLevel);
         glProg.setVar("unlimitedcount", unlimitedCounter);
 
         //WorkingTexture.BufferLoad();
@@ -131,8 +134,8 @@ public class AverageRaw extends GLOneScript {
         //AverageStack();
         glProg = glOne.glProgram;
         glProg.useAssetProgram("medianfilterhotpixeltoraw");
-        glProg.setVar("CfaPattern",PhotonCamera.getParameters().cfaPattern);
-        Log.d(Name,"CFAPattern:"+PhotonCamera.getParameters().cfaPattern);
+        glProg.setVar("CfaPattern",parameters.cfaPattern);
+        Log.d(Name,"CFAPattern:"+parameters.cfaPattern);
         if(stacked) {
             glProg.setTexture("InputBuffer", GetStackedIn());
         } else {
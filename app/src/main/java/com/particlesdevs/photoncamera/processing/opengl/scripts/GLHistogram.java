@@ -8,9 +8,31 @@ import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLImage;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
+import com.particlesdevs.photoncamera.util.CpuHistogram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static android.opengl.GLES31.*;
 
 
 public class GLHistogram implements AutoCloseable{
+    private static final String TAG = "GLHistogram";
+    /**
+     * GL histograms slower than this are timed once against the CPU.
+     */
+    private static final long SLOW_MS = 60;
+    /**
+     * Rows read back at a time when counting on the CPU.
+     */
+    private static final int BAND_ROWS = 128;
+    /**
+     * Reads the texture back and counts it with {@link CpuHistogram}, for devices where the
+     * histogram compute shader is slow or broken. Set once the shader fails, counts nothing, or
+     * is slower than the CPU. Custom programs always run on GL.
+     */
+    public static boolean onCpu = false;
+    private static boolean cpuTimed = false;
     GLContext context;
     GLProg glProg;
     GLBuffer[] buffers = new GLBuffer[4];
@@ -48,6 +70,43 @@ public class GLHistogram implements AutoCloseable{
         return out;
     }
     public int[][] Compute(GLTexture input){
+        if(Custom) return ComputeGl(input);
+        if(onCpu) return ComputeCpu(input);
+        long time = System.currentTimeMillis();
+        int[][] out;
+        try {
+            out = ComputeGl(input);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Histogram shader failed, counting on the CPU:" + Log.getStackTraceString(e));
+            onCpu = true;
+            return ComputeCpu(input);
+        }
+        long elapsed = System.currentTimeMillis() - time;
+        if (isEmpty(out)) {
+            Log.w(TAG, "Histogram shader counted nothing, counting on the CPU");
+            onCpu = true;
+            return ComputeCpu(input);
+        }
+        if (elapsed > SLOW_MS && !cpuTimed) {
+            cpuTimed = true;
+            time = System.currentTimeMillis();
+            out = ComputeCpu(input);
+            onCpu = System.currentTimeMillis() - time < elapsed;
+            Log.d(TAG, "Histogram shader took " + elapsed + " ms, on CPU:" + onCpu);
+        }
+        return out;
+    }
+
+    private boolean isEmpty(int[][] histograms) {
+        boolean[] channels = {Rc, Gc, Bc, Ac};
+        for (int c = 0; c < 4; c++) {
+            if (!channels[c]) continue;
+            for (int count : histograms[c]) if (count != 0) return false;
+        }
+        return true;
+    }
+
+    private int[][] ComputeGl(GLTexture input){
         long time = System.currentTimeMillis();
         input.Bufferize();
         int tile = 8;
@@ -73,7 +132,61 @@ public class GLHistogram implements AutoCloseable{
         outputArr[1] = buffers[1].readBufferIntegers();
         outputArr[2] = buffers[2].readBufferIntegers();
         outputArr[3] = buffers[3].readBufferIntegers();
-        Log.d("GLHistogram"," elapsed:"+(System.currentTimeMillis()-time)+" ms");
+        Log.d(TAG," elapsed:"+(System.currentTimeMillis()-time)+" ms");
+        return outputArr;
+    }
+
+    /**
+     * Reads the texture back a band of rows at a time, as half floats when the driver reads
+     * float targets that way, and leaves the framebuffer and viewport as they were.
+     */
+    private int[][] ComputeCpu(GLTexture input){
+        long time = System.currentTimeMillis();
+        int[] framebuffer = new int[1];
+        int[] viewport = new int[4];
+        glGetIntegerv(GL_FRAMEBUFFER_BINDING, framebuffer, 0);
+        glGetIntegerv(GL_VIEWPORT, viewport, 0);
+        input.BufferLoad();
+        CpuHistogram histogram = new CpuHistogram(histSize);
+        histogram.resize = resize;
+        histogram.channels[0] = Rc;
+        histogram.channels[1] = Gc;
+        histogram.channels[2] = Bc;
+        histogram.channels[3] = Ac;
+        int type;
+        int pixelBytes;
+        if(input.mFormat.mFormat == GLFormat.DataType.UNSIGNED_8 || input.mFormat.mFormat == GLFormat.DataType.SIMPLE_8) {
+            type = GL_UNSIGNED_BYTE;
+            pixelBytes = 4;
+        } else {
+            int[] readFormat = new int[1];
+            int[] readType = new int[1];
+            glGetIntegerv(GL_IMPLEMENTATION_COLOR_READ_FORMAT, readFormat, 0);
+            glGetIntegerv(GL_IMPLEMENTATION_COLOR_READ_TYPE, readType, 0);
+            boolean half = readFormat[0] == GL_RGBA && readType[0] == GL_HALF_FLOAT;
+            type = half ? GL_HALF_FLOAT : GL_FLOAT;
+            pixelBytes = half ? 8 : 16;
+        }
+        int width = input.mSize.x;
+        int height = input.mSize.y;
+        //Bands start on sampled rows
+        int band = Math.max(resize, 1) * Math.max(1, BAND_ROWS / Math.max(resize, 1));
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * band * pixelBytes).order(ByteOrder.nativeOrder());
+        int[][] out = new int[4][histSize];
+        for (int y = 0; y < height; y += band) {
+            int rows = Math.min(band, height - y);
+            pixels.clear();
+            glReadPixels(0, y, width, rows, GL_RGBA, type, pixels);
+            int[][] counts = type == GL_UNSIGNED_BYTE ? histogram.computeRgba8(pixels, width, rows, width * pixelBytes)
+                    : type == GL_HALF_FLOAT ? histogram.computeRgba16f(pixels, width, rows, width * pixelBytes)
+                    : histogram.computeRgba32f(pixels, width, rows, width * pixelBytes);
+            for (int c = 0; c < 4; c++)
+                for (int i = 0; i < histSize; i++) out[c][i] += counts[c][i];
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer[0]);
+        glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        outputArr = out;
+        Log.d(TAG," cpu elapsed:"+(System.currentTimeMillis()-time)+" ms");
         return outputArr;
     }
 
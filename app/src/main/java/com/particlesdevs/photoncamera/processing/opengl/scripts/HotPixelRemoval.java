@@ -2,15 +2,16 @@ package com.particlesdevs.photoncamera.processing.opengl.scripts;
 
 import android.graphics.Point;
 
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.opengl.GLCoreBlockProcessing;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLOneScript;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
+import com.particlesdevs.photoncamera.processing.render.Parameters;
 
 
 public class HotPixelRemoval extends GLOneScript {
+    public Parameters parameters;
     public HotPixelRemoval(Point size, String rid, String name) {
         super(size, new GLCoreBlockProcessing(size,new GLFormat(GLFormat.DataType.UNSIGNED_16)), rid, name);
     }
@@ -20,7 +21,7 @@ public class HotPixelRemoval extends GLOneScript {
         GLProg glProg = glOne.glProgram;
         GLTexture input1 = new GLTexture(size,new GLFormat(GLFormat.DataType.UNSIGNED_16),scriptParams.input);
         glProg.setTexture("InputBuffer",input1);
-        glProg.setVar("CfaPattern",PhotonCamera.getParameters().cfaPattern);
+        glProg.setVar("CfaPattern",parameters.cfaPattern);
         WorkingTexture = new GLTexture(input1);
     }
 }
\ No newline at end of file
@@ -4,16 +4,17 @@ import android.graphics.Point;
 import android.util.Log;
 
 import com.particlesdevs.photoncamera.R;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.opengl.GLFormat;
 import com.particlesdevs.photoncamera.processing.opengl.GLOneScript;
 import com.particlesdevs.photoncamera.processing.opengl.GLProg;
 import com.particlesdevs.photoncamera.processing.opengl.GLTexture;
 import com.particlesdevs.photoncamera.processing.opengl.GLUtils;
+import com.particlesdevs.photoncamera.processing.render.Parameters;
 
 public class LuckyOperator extends GLOneScript {
     Point insize;
     public long out = 0;
+    public Parameters parameters;
     public LuckyOperator(Point size) {
         super(new Point(size.x/(64),size.y/(64)), null, new GLFormat(GLFormat.DataType.FLOAT_16,4), "luckyoperator", "LuckyOperator");
         insize = size;
@@ -25,7 +26,7 @@ public class LuckyOperator extends GLOneScript {
         GLProg glProg = glOne.glProgram;
         GLTexture input1 = new GLTexture(insize,new GLFormat(GLFormat.DataType.UNSIGNED_16),scriptParams.input);
         glProg.setTexture("InputBuffer",input1);
-        glProg.setVar("CfaPattern",PhotonCamera.getParameters().cfaPattern);
+        glProg.setVar("CfaPattern",parameters.cfaPattern);
         WorkingTexture = new GLTexture(input1.mSize.x/2,input1.mSize.y/2,new GLFormat(GLFormat.DataType.FLOAT_16),null);
         glProg.drawBlocks(input1);
         GLTexture luckyTex = new GLTexture(input1.mSize,WorkingTexture.mFormat,null);
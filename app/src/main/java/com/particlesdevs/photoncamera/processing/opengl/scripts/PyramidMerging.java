@@ -163,12 +163,8 @@ public class PyramidMerging extends GLOneScript {
         Log.d(Name, "Fitted parameters: " + fitted.toString());*/
         GLUtils.Pyramid pyramid = new GLUtils.Pyramid();
         NoiseModeler modeler = parameters.noiseModeler;
-        float noiseS = modeler.baseModel[0].first.floatValue() +
-                modeler.baseModel[1].first.floatValue() +
-                modeler.baseModel[2].first.floatValue();
-        float noiseO = modeler.baseModel[0].second.floatValue() +
-                modeler.baseModel[1].second.floatValue() +
-                modeler.baseModel[2].second.floatValue();
+        float noiseS = (float) modeler.model.sumS();
+        float noiseO = (float) modeler.model.sumO();
         noiseS /= 3.f;
         noiseO /= 3.f;
         double noisempy = Math.pow(2.0, PhotonCamera.getSettings().mergeStrength);
@@ -245,7 +241,7 @@ public class PyramidMerging extends GLOneScript {
         inputAlter.close();
 
         for (int i = 1; i < images.size(); i++) {
-            images.get(i).image.close();
+            images.get(i).close();
         }
 
         for (int i = 0; i < pyramid.gauss.length; i++) {
@@ -0,0 +1,162 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.processing.merge.CpuHdrxMerge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Scores the sharpness of RAW16 frames on the CPU as they arrive, the image half of lucky frame
+ * selection, see {@link LuckyFrameSelector}.
+ * <p>
+ * The two greens of every {@link #decimation}-th bayer quad are summed into a decimated green
+ * plane. Each tile of {@link #TILE}x{@link #TILE} plane samples gets its gradient energy, the
+ * mean squared difference between horizontal and vertical neighbours, over its variance: the
+ * part of the detail at the finest scale, free of exposure and black level. The frame score is
+ * the summed energy over the summed variance of all tiles, so textured tiles outweigh flat ones
+ * whose variance is only noise. Motion blur and missed focus both lower it, noise raises all
+ * frames of a burst alike.
+ * <p>
+ * Scores are kept for the last {@code capacity} frames by sensor timestamp, so a burst can be
+ * ranked once it is drained without keeping its frames around for a second pass.
+ */
+public class FrameSharpness {
+    private static final String TAG = "FrameSharpness";
+    /**
+     * Plane samples per tile side.
+     */
+    public static final int TILE = 32;
+
+    public static boolean enabled = true;
+    /**
+     * Bayer quads between two plane samples along each axis.
+     */
+    public static int decimation = 2;
+
+    private final long[] timestamps;
+    private final float[] scores;
+    private int next;
+    private float[] plane = new float[0];
+    /**
+     * Time the last scored frame took.
+     */
+    public volatile double lastFrameMs;
+
+    /**
+     * @param capacity frames whose score is kept.
+     */
+    public FrameSharpness(int capacity) {
+        timestamps = new long[capacity];
+        scores = new float[capacity];
+        Arrays.fill(timestamps, Long.MIN_VALUE);
+    }
+
+    /**
+     * Scores a frame and keeps its score for {@link #get}.
+     *
+     * @return the score.
+     */
+    public float offer(ByteBuffer raw, int width, int height, int rowStride, int cfaPattern, long timestamp) {
+        float score = score(raw, width, height, rowStride, cfaPattern, null);
+        put(timestamp, score);
+        return score;
+    }
+
+    public synchronized void put(long timestamp, float score) {
+        timestamps[next] = timestamp;
+        scores[next] = score;
+        next = (next + 1) % timestamps.length;
+    }
+
+    /**
+     * @return score of the frame with that sensor timestamp, NaN when it was not scored or is
+     * no longer kept.
+     */
+    public synchronized float get(long timestamp) {
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] == timestamp) return scores[i];
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * @param raw       RAW16 samples in native byte order.
+     * @param rowStride bytes per row.
+     * @param tiles     receives the score of every tile row by row when not null, at least
+     *                  {@link #tiles} values.
+     * @return frame score, 0 for a frame too small for one tile.
+     */
+    public synchronized float score(ByteBuffer raw, int width, int height, int rowStride, int cfaPattern, float[] tiles) {
+        long start = System.nanoTime();
+        ShortBuffer samples = raw.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int stride = rowStride / 2;
+        int step = Math.max(decimation, 1) * 2;
+        int planeWidth = width / step;
+        int planeHeight = height / step;
+        if (plane.length < planeWidth * planeHeight) plane = new float[planeWidth * planeHeight];
+        int[] channels = CpuHdrxMerge.cfaChannels(cfaPattern);
+        //Greens sit on one diagonal of the quad
+        int g0 = channels[0] == 1 ? 0 : 1;
+        int g1 = 3 - g0;
+        int offset0 = (g0 >> 1) * stride + (g0 & 1);
+        int offset1 = (g1 >> 1) * stride + (g1 & 1);
+        for (int y = 0; y < planeHeight; y++) {
+            int row = y * step * stride;
+            for (int x = 0; x < planeWidth; x++) {
+                int p = row + x * step;
+                plane[y * planeWidth + x] = (samples.get(p + offset0) & 0xFFFF) + (samples.get(p + offset1) & 0xFFFF);
+            }
+        }
+
+        int tilesX = planeWidth / TILE;
+        int tilesY = planeHeight / TILE;
+        double energySum = 0.0;
+        double varianceSum = 0.0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                double energy = 0.0;
+                double mean = 0.0;
+                double sumSq = 0.0;
+                for (int y = ty * TILE; y < (ty + 1) * TILE; y++) {
+                    int row = y * planeWidth;
+                    for (int x = tx * TILE; x < (tx + 1) * TILE; x++) {
+                        float value = plane[row + x];
+                        mean += value;
+                        sumSq += value * value;
+                        if (x > tx * TILE) {
+                            float d = value - plane[row + x - 1];
+                            energy += d * d;
+                        }
+                        if (y > ty * TILE) {
+                            float d = value - plane[row - planeWidth + x];
+                            energy += d * d;
+                        }
+                    }
+                }
+                mean /= TILE * TILE;
+                energy /= 2.0 * TILE * (TILE - 1);
+                double variance = Math.max(sumSq / (TILE * TILE) - mean * mean, 1e-6);
+                if (tiles != null) tiles[ty * tilesX + tx] = (float) (energy / variance);
+                energySum += energy;
+                varianceSum += variance;
+            }
+        }
+        lastFrameMs = (System.nanoTime() - start) / 1e6;
+        if (tilesX * tilesY == 0) return 0.f;
+        float score = (float) (energySum / varianceSum);
+        Log.d(TAG, "Sharpness:" + score + " time:" + lastFrameMs + "ms");
+        return score;
+    }
+
+    /**
+     * @return tiles {@link #score} fills for a frame.
+     */
+    public static int tiles(int width, int height) {
+        int step = Math.max(decimation, 1) * 2;
+        return (width / step / TILE) * (height / step / TILE);
+    }
+}
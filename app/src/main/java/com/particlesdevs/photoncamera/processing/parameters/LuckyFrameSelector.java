@@ -0,0 +1,77 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+/**
+ * Ranks the frames of a burst by how blurred they are and picks the unlucky ones to throw away.
+ * <p>
+ * Blur mixes the gyro shakiness of a frame over the burst mean with the burst mean
+ * {@link FrameSharpness} over the sharpness of the frame, so 1 is an average frame on both
+ * counts and lower is sharper. When any frame lacks a sharpness score the ranking falls back to
+ * the gyro alone.
+ */
+public class LuckyFrameSelector {
+    /**
+     * Part of the blur taken from the image sharpness, the rest from the gyro.
+     */
+    public static float sharpnessWeight = 0.5f;
+    /**
+     * Blur over the burst mean above which a frame may be thrown away.
+     */
+    public static double pickiness = 1.05;
+
+    /**
+     * @param shakiness gyro shakiness of every frame.
+     * @param sharpness sharpness of every frame, NaN when unknown.
+     * @return blur of every frame relative to the burst, lower is sharper.
+     */
+    public static float[] blur(float[] shakiness, float[] sharpness) {
+        int count = shakiness.length;
+        double meanShakiness = 0.0;
+        double meanSharpness = 0.0;
+        boolean scored = sharpness != null && sharpness.length == count;
+        for (int i = 0; i < count; i++) {
+            meanShakiness += shakiness[i];
+            if (scored) {
+                if (!(sharpness[i] > 0.f) || Float.isInfinite(sharpness[i])) scored = false;
+                else meanSharpness += sharpness[i];
+            }
+        }
+        meanShakiness /= count;
+        meanSharpness /= count;
+        float weight = scored ? Math.max(0.f, Math.min(1.f, sharpnessWeight)) : 0.f;
+        float[] out = new float[count];
+        for (int i = 0; i < count; i++) {
+            double gyro = meanShakiness > 0.0 ? shakiness[i] / meanShakiness : 1.0;
+            double image = weight > 0.f ? meanSharpness / sharpness[i] : 1.0;
+            out[i] = (float) (gyro * (1.0 - weight) + image * weight);
+        }
+        return out;
+    }
+
+    /**
+     * Throws away the blurriest frames above {@link #pickiness} times the mean blur, at most
+     * {@code throwCount} of them, or a quarter of the burst when that would be none. Bursts of
+     * less than 4 frames are kept whole.
+     *
+     * @return true for every frame to throw away.
+     */
+    public static boolean[] reject(float[] blur, int throwCount) {
+        int count = blur.length;
+        boolean[] rejected = new boolean[count];
+        if (count < 4) return rejected;
+        int size = count - throwCount;
+        if (size == count) size = (int) (count * 0.75);
+        size = Math.max(size, 1);
+        double mean = 0.0;
+        for (float b : blur) mean += b;
+        mean /= count;
+        for (int removed = 0; removed < count - size; removed++) {
+            int worst = -1;
+            for (int i = 0; i < count; i++) {
+                if (!rejected[i] && (worst < 0 || blur[i] > blur[worst])) worst = i;
+            }
+            if (blur[worst] <= mean * pickiness) break;
+            rejected[worst] = true;
+        }
+        return rejected;
+    }
+}
@@ -0,0 +1,239 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.processing.merge.CpuHdrxMerge;
+import com.particlesdevs.photoncamera.util.NoiseFitting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the sensor noise on RAW16 frames and collects it in a {@link NoiseProfileTable}.
+ * <p>
+ * A frame is sampled on a grid of at most {@link #patchesPerFrame} patches of
+ * {@link #PATCH}x{@link #PATCH} Bayer quads. Each CFA position of a patch gives its mean and
+ * variance, positions whose variance is well above what neighbouring samples differ by, along
+ * rows or along columns, hold texture or gradients and are skipped, as are positions with clipped samples. The flat
+ * observations of each channel are fitted with {@link NoiseFitting#fitHuber} and added to the
+ * table with the Huber weights of that fit, so the few textured patches that pass the flatness
+ * test do not pull the table. A frame reads 256 samples per patch, a few milliseconds for the
+ * default budget, and {@link #offer} calibrates at most one frame per {@link #minIntervalMs}.
+ * <p>
+ * The table is saved on a background thread, at most once per {@link #saveIntervalMs} while
+ * frames keep adding to it, and on {@link #flush}. {@link #offer} and {@link #calibrate} are
+ * synchronized, frames come from the saver and from the streaming merge thread.
+ */
+public class NoiseCalibrator {
+    private static final String TAG = "NoiseCalibrator";
+    /**
+     * Bayer quads per patch side.
+     */
+    public static final int PATCH = 8;
+    /**
+     * Largest variance of a flat patch, relative to half the mean squared neighbour difference
+     * along the smoother of the two axes.
+     */
+    private static final double FLATNESS = 1.6;
+    /**
+     * Part of the white level above which a sample is treated as clipped.
+     */
+    private static final double CLIP = 0.98;
+    /**
+     * Flat patches a channel needs in one frame before it is added to the table.
+     */
+    private static final int MIN_PATCHES = 16;
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public static int patchesPerFrame = 768;
+    public static long minIntervalMs = 1000;
+    public static long saveIntervalMs = 30000;
+    /**
+     * When set, a reliable measured model replaces the noise profile the camera reports.
+     */
+    public static boolean enabled = true;
+
+    private final NoiseProfileTable table;
+    private final Path path;
+    private final double[][] w = new double[3][];
+    private final double[][] n = new double[3][];
+    private final int[] counts = new int[3];
+    private double[] weights = new double[0];
+    private long lastFrameNs = Long.MIN_VALUE;
+    private long lastSaveNs = Long.MIN_VALUE;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    /**
+     * Time the last calibrated frame took.
+     */
+    public double lastFrameMs;
+    /**
+     * Flat observations of the last calibrated frame.
+     */
+    public int lastObservations;
+
+    /**
+     * @param path file the table is saved to, null to keep it in memory.
+     */
+    public NoiseCalibrator(NoiseProfileTable table, Path path) {
+        this.table = table;
+        this.path = path;
+    }
+
+    public NoiseProfileTable getTable() {
+        return table;
+    }
+
+    /**
+     * Calibrates on the frame unless the last calibrated frame is more recent than
+     * {@link #minIntervalMs}.
+     *
+     * @return true when the frame was used.
+     */
+    public synchronized boolean offer(ByteBuffer raw, int width, int height, int rowStride, int cfaPattern,
+                         float[] blackLevel, float whiteLevel, int iso) {
+        long now = System.nanoTime();
+        if (lastFrameNs != Long.MIN_VALUE && now - lastFrameNs < minIntervalMs * 1000000L) return false;
+        lastFrameNs = now;
+        if (calibrate(raw, width, height, rowStride, cfaPattern, blackLevel, whiteLevel, iso) > 0) {
+            dirty.set(true);
+            if (lastSaveNs == Long.MIN_VALUE || now - lastSaveNs >= saveIntervalMs * 1000000L) {
+                lastSaveNs = now;
+                flush();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves the table on the background thread if it changed since the last save.
+     *
+     * @return done once the table and every save scheduled before are written.
+     */
+    public Future<?> flush() {
+        return SAVER.submit(this::saveIfChanged);
+    }
+
+    private void saveIfChanged() {
+        if (path == null || !dirty.getAndSet(false)) return;
+        try {
+            table.save(path);
+        } catch (IOException e) {
+            dirty.set(true);
+            Log.e(TAG, "Failed to save calibration " + path + ":" + e);
+        }
+    }
+
+    /**
+     * Adds the flat patches of a frame to the table.
+     *
+     * @param raw        RAW16 samples in native byte order.
+     * @param rowStride  bytes per row.
+     * @param blackLevel black level of the four CFA positions, as SENSOR_DYNAMIC_BLACK_LEVEL.
+     * @return flat observations added, the frame is counted in the table only when there are any.
+     */
+    public synchronized int calibrate(ByteBuffer raw, int width, int height, int rowStride, int cfaPattern,
+                         float[] blackLevel, float whiteLevel, int iso) {
+        long start = System.nanoTime();
+        ShortBuffer samples = raw.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int stride = rowStride / 2;
+        int size = PATCH * 2;
+        int patchesX = width / size;
+        int patchesY = height / size;
+        int gridX = Math.max(1, Math.min(patchesX, (int) Math.round(Math.sqrt(patchesPerFrame * (double) width / height))));
+        int gridY = Math.max(1, Math.min(patchesY, patchesPerFrame / gridX));
+        int capacity = gridX * gridY * 4;
+        for (int c = 0; c < 3; c++) {
+            if (w[c] == null || w[c].length < capacity) {
+                w[c] = new double[capacity];
+                n[c] = new double[capacity];
+            }
+            counts[c] = 0;
+        }
+        int[] channels = CpuHdrxMerge.cfaChannels(cfaPattern);
+        for (int gy = 0; gy < gridY; gy++) {
+            int y0 = ((int) ((gy + 0.5) * height / gridY) - PATCH) & ~1;
+            if (y0 < 0 || y0 + size > height) continue;
+            for (int gx = 0; gx < gridX; gx++) {
+                int x0 = ((int) ((gx + 0.5) * width / gridX) - PATCH) & ~1;
+                if (x0 < 0 || x0 + size > width) continue;
+                measurePatch(samples, stride, x0, y0, channels, blackLevel, whiteLevel);
+            }
+        }
+        int added = 0;
+        for (int c = 0; c < 3; c++) {
+            int count = counts[c];
+            if (count < MIN_PATCHES) continue;
+            if (added == 0) table.addFrame(iso);
+            if (weights.length < count) weights = new double[count];
+            NoiseFitting.NoiseParameters fit = NoiseFitting.fitHuber(w[c], n[c], null, count, 2);
+            if (!NoiseFitting.huberWeights(w[c], n[c], null, count, fit, weights)) {
+                for (int i = 0; i < count; i++) {
+                    double predicted = Math.max(w[c][i] * fit.S + fit.O, 1e-10);
+                    weights[i] = 1.0 / (predicted * predicted);
+                }
+            }
+            for (int i = 0; i < count; i++) table.add(iso, c, w[c][i], n[c][i], weights[i]);
+            added += count;
+        }
+        lastObservations = added;
+        lastFrameMs = (System.nanoTime() - start) / 1e6;
+        Log.d(TAG, "Calibrated ISO:" + iso + " observations:" + added + " time:" + lastFrameMs + "ms");
+        return added;
+    }
+
+    private void measurePatch(ShortBuffer samples, int stride, int x0, int y0, int[] channels,
+                              float[] blackLevel, float whiteLevel) {
+        double clip = whiteLevel * CLIP;
+        for (int p = 0; p < 4; p++) {
+            int dx = p & 1;
+            int dy = p >> 1;
+            double black = blackLevel[p];
+            double sum = 0.0;
+            double sumSq = 0.0;
+            double sumDiffX = 0.0;
+            double sumDiffY = 0.0;
+            int max = 0;
+            for (int y = 0; y < PATCH; y++) {
+                int row = (y0 + y * 2 + dy) * stride + x0 + dx;
+                int previous = samples.get(row) & 0xFFFF;
+                for (int x = 0; x < PATCH; x++) {
+                    int value = samples.get(row + x * 2) & 0xFFFF;
+                    double v = value - black;
+                    sum += v;
+                    sumSq += v * v;
+                    double d = value - previous;
+                    sumDiffX += d * d;
+                    if (y > 0) {
+                        d = value - (samples.get(row - stride * 2 + x * 2) & 0xFFFF);
+                        sumDiffY += d * d;
+                    }
+                    previous = value;
+                    if (value > max) max = value;
+                }
+            }
+            if (max >= clip) continue;
+            int count = PATCH * PATCH;
+            double mean = sum / count;
+            double variance = (sumSq - sum * mean) / (count - 1);
+            double diffVariance = Math.min(sumDiffX, sumDiffY) / (2.0 * PATCH * (PATCH - 1));
+            if (diffVariance <= 0.0 || variance > FLATNESS * diffVariance) continue;
+            double range = whiteLevel - black;
+            int c = channels[p];
+            w[c][counts[c]] = mean / range;
+            n[c][counts[c]] = Math.sqrt(variance) / range;
+            counts[c]++;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.util.NoiseFitting;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Measured noise model of one sensor, per ISO bucket.
+ * <p>
+ * Buckets are {@link #STEPS_PER_STOP} per stop of SENSOR_SENSITIVITY, which is the analog gain
+ * up to the maximum analog sensitivity and adds the digital gain above it. Each bucket keeps a
+ * {@link NoiseFitting.Accumulator} per color channel, so observations of every calibrated frame
+ * keep refining the fit, also across app restarts once the table is saved.
+ * <p>
+ * A model for any ISO comes from the nearest reliable bucket, S scaled with the ISO and O with
+ * its square, as the generic generators of {@link com.particlesdevs.photoncamera.processing.render.NoiseModeler}
+ * do. All methods are synchronized, the table is filled on the processing thread and read when
+ * the parameters of a shot are built. {@link #save} holds the lock only to copy the table, the
+ * file is written outside of it.
+ */
+public class NoiseProfileTable {
+    private static final String TAG = "NoiseProfileTable";
+    private static final int VERSION = 1;
+    public static final int STEPS_PER_STOP = 3;
+    /**
+     * Frames a bucket needs before its model is used.
+     */
+    public static int minFrames = 3;
+    /**
+     * Observations per channel a bucket needs before its model is used.
+     */
+    public static long minObservations = 300;
+    /**
+     * Buckets further away than this many stops are not used to model an ISO.
+     */
+    public static double maxStops = 1.0;
+
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+
+    private static class Bucket {
+        double logIsoSum;
+        long frames;
+        final NoiseFitting.Accumulator[] channels = new NoiseFitting.Accumulator[3];
+
+        Bucket() {
+            for (int i = 0; i < channels.length; i++) channels[i] = new NoiseFitting.Accumulator();
+        }
+
+        double iso() {
+            return Math.exp(logIsoSum / frames);
+        }
+
+        boolean reliable() {
+            if (frames < minFrames) return false;
+            for (NoiseFitting.Accumulator channel : channels)
+                if (channel.count() < minObservations) return false;
+            return true;
+        }
+    }
+
+    public static int bucket(int iso) {
+        return (int) Math.round(Math.log(Math.max(iso, 1)) / Math.log(2.0) * STEPS_PER_STOP);
+    }
+
+    /**
+     * Counts a calibrated frame, its observations are added with {@link #add}.
+     */
+    public synchronized void addFrame(int iso) {
+        Bucket bucket = getOrCreate(iso);
+        bucket.logIsoSum += Math.log(Math.max(iso, 1));
+        bucket.frames++;
+    }
+
+    /**
+     * @param channel 0, 1 or 2 for R, G and B.
+     * @param w       mean of a patch normalized to the white level.
+     * @param N       noise standard deviation of the patch, normalized the same way.
+     */
+    public synchronized void add(int iso, int channel, double w, double N, double weight) {
+        getOrCreate(iso).channels[channel].add(w, N, weight);
+    }
+
+    private Bucket getOrCreate(int iso) {
+        int key = bucket(iso);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return S and O per channel at the ISO as {@code double[3][2]}, or null when no reliable
+     * bucket is close enough.
+     */
+    public synchronized double[][] model(int iso) {
+        int key = bucket(iso);
+        Bucket nearest = null;
+        int distance = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, Bucket> entry : buckets.entrySet()) {
+            int d = Math.abs(entry.getKey() - key);
+            if (d < distance && entry.getValue().reliable()) {
+                distance = d;
+                nearest = entry.getValue();
+            }
+        }
+        if (nearest == null || distance > maxStops * STEPS_PER_STOP) return null;
+        double ratio = iso / nearest.iso();
+        double[][] model = new double[3][2];
+        for (int c = 0; c < 3; c++) {
+            NoiseFitting.NoiseParameters fit = nearest.channels[c].solve();
+            if (fit.S <= 0.0 || fit.O < 0.0) {
+                Log.d(TAG, "Rejected fit at ISO:" + nearest.iso() + " channel:" + c + " " + fit);
+                return null;
+            }
+            model[c][0] = fit.S * ratio;
+            model[c][1] = fit.O * ratio * ratio;
+        }
+        return model;
+    }
+
+    public synchronized int size() {
+        return buckets.size();
+    }
+
+    public synchronized long frames(int iso) {
+        Bucket bucket = buckets.get(bucket(iso));
+        return bucket == null ? 0 : bucket.frames;
+    }
+
+    public synchronized void clear() {
+        buckets.clear();
+    }
+
+    /**
+     * Writes the table to a properties file, replacing it only once it is complete.
+     */
+    public void save(Path path) throws IOException {
+        Properties properties = toProperties();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "PhotonCamera noise calibration");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private synchronized Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(VERSION));
+        for (Map.Entry<Integer, Bucket> entry : buckets.entrySet()) {
+            String prefix = "bucket." + entry.getKey() + ".";
+            Bucket bucket = entry.getValue();
+            properties.setProperty(prefix + "logIsoSum", String.valueOf(bucket.logIsoSum));
+            properties.setProperty(prefix + "frames", String.valueOf(bucket.frames));
+            for (int c = 0; c < 3; c++) {
+                double[] state = bucket.channels[c].toArray();
+                StringBuilder value = new StringBuilder();
+                for (int i = 0; i < state.length; i++) {
+                    if (i > 0) value.append(',');
+                    value.append(state[i]);
+                }
+                properties.setProperty(prefix + c, value.toString());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return the saved table, an empty one when the file is missing or not readable.
+     */
+    public static NoiseProfileTable load(Path path) {
+        NoiseProfileTable table = new NoiseProfileTable();
+        if (!Files.exists(path)) return table;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            if (Integer.parseInt(properties.getProperty("version", "0")) != VERSION) {
+                Log.d(TAG, "Dropping calibration of another version:" + path);
+                return table;
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if (!name.startsWith("bucket.") || !name.endsWith(".frames")) continue;
+                String prefix = name.substring(0, name.length() - "frames".length());
+                int key = Integer.parseInt(prefix.substring("bucket.".length(), prefix.length() - 1));
+                Bucket bucket = new Bucket();
+                bucket.frames = Long.parseLong(properties.getProperty(name));
+                bucket.logIsoSum = Double.parseDouble(properties.getProperty(prefix + "logIsoSum"));
+                for (int c = 0; c < 3; c++) {
+                    String[] parts = properties.getProperty(prefix + c).split(",");
+                    double[] state = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) state[i] = Double.parseDouble(parts[i]);
+                    bucket.channels[c] = NoiseFitting.Accumulator.fromArray(state);
+                }
+                table.buckets.put(key, bucket);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unreadable calibration " + path + ":" + e);
+            table.buckets.clear();
+        }
+        return table;
+    }
+}
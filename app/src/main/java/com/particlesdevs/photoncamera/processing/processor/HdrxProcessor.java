@@ -5,10 +5,8 @@ import android.graphics.Point;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
-import android.media.Image;
 import android.util.Log;
 
-import com.particlesdevs.photoncamera.Wrapper;
 import com.particlesdevs.photoncamera.WrapperAl;
 import com.particlesdevs.photoncamera.api.Camera2ApiAutoFix;
 import com.particlesdevs.photoncamera.api.CameraMode;
@@ -16,68 +14,83 @@ import com.particlesdevs.photoncamera.api.ParseExif;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.capture.CaptureController;
 import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.control.GyroFrameMatcher;
+import com.particlesdevs.photoncamera.processing.FrameStore;
 import com.particlesdevs.photoncamera.processing.ImageFrame;
 import com.particlesdevs.photoncamera.processing.ImageFrameDeblur;
 import com.particlesdevs.photoncamera.processing.ImageSaver;
 import com.particlesdevs.photoncamera.processing.ProcessingEventsListener;
+import com.particlesdevs.photoncamera.processing.merge.CpuTileAligner;
+import com.particlesdevs.photoncamera.processing.merge.GyroAlignmentSeed;
+import com.particlesdevs.photoncamera.processing.merge.GyroWarpMesh;
+import com.particlesdevs.photoncamera.processing.merge.HdrxMerge;
+import com.particlesdevs.photoncamera.processing.merge.HdrxMergeSelector;
+import com.particlesdevs.photoncamera.processing.merge.StreamingHdrxMerge;
 import com.particlesdevs.photoncamera.processing.opengl.postpipeline.PostPipeline;
 import com.particlesdevs.photoncamera.processing.opengl.scripts.InterpolateGainMap;
 import com.particlesdevs.photoncamera.processing.opengl.scripts.PyramidMerging;
 import com.particlesdevs.photoncamera.processing.parameters.FrameNumberSelector;
 import com.particlesdevs.photoncamera.processing.parameters.IsoExpoSelector;
+import com.particlesdevs.photoncamera.processing.parameters.LuckyFrameSelector;
 import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 
-public class HdrxProcessor extends ProcessorBase {
+public class HdrxProcessor extends ProcessorBase implements ShotJob.Processor {
     private static final String TAG = "HdrxProcessor";
-    private ArrayList<Image> mImageFramesToProcess;
+    private ArrayList<FrameStore.Frame> mImageFramesToProcess;
     private int imageFormat;
     /* config */
     private int alignAlgorithm;
     private int saveRAW;
+    private boolean compressRaw;
     private CameraMode cameraMode;
+    private boolean streamingMerge;
+    private int mergedFrames;
     private ArrayList<GyroBurst> BurstShakiness;
+    private int[] frameNumbers;
+    private float[] frameSharpness;
+    private ShotProcessingQueue.StageTimer timer;
 
 
     public HdrxProcessor(ProcessingEventsListener processingEventsListener) {
         super(processingEventsListener);
     }
 
-    public void configure(int alignAlgorithm, int saveRAW, CameraMode cameraMode) {
-        this.alignAlgorithm = alignAlgorithm;
-        this.saveRAW = saveRAW;
-        this.cameraMode = cameraMode;
-    }
-
-    public void start(Path dngFile, Path jpgFile,
-                      ParseExif.ExifData exifData,
-                      ArrayList<GyroBurst> BurstShakiness,
-                      ArrayList<Image> imageBuffer,
-                      int imageFormat,
-                      int cameraRotation,
-                      CameraCharacteristics characteristics,
-                      CaptureResult captureResult,
-                      CaptureRequest captureRequest,
-                      ProcessingCallback callback) {
-        this.jpgFile = jpgFile;
-        this.dngFile = dngFile;
-        this.exifData = exifData;
-        this.BurstShakiness = new ArrayList<>(BurstShakiness);
-        this.imageFormat = imageFormat;
-        this.cameraRotation = cameraRotation;
-        this.mImageFramesToProcess = imageBuffer;
-        this.callback = callback;
-        this.characteristics = characteristics;
-        this.captureResult = captureResult;
-        this.captureRequest = captureRequest;
-        Log.d(TAG, "HdrxProcessor called start()");
+    @Override
+    public void process(ShotJob job, ShotProcessingQueue.StageTimer timer) throws Exception {
+        this.alignAlgorithm = job.alignAlgorithm;
+        this.saveRAW = job.saveRAW;
+        this.compressRaw = job.compressRaw;
+        this.cameraMode = job.cameraMode;
+        this.streamingMerge = job.streamingMerge;
+        this.mergedFrames = job.mergedFrames;
+        this.jpgFile = job.jpgFile;
+        this.dngFile = job.dngFile;
+        this.exifData = job.exifData;
+        this.BurstShakiness = new ArrayList<>(job.gyroBursts);
+        this.frameNumbers = job.frameNumbers;
+        this.frameSharpness = job.frameSharpness;
+        this.imageFormat = job.imageFormat;
+        this.cameraRotation = job.cameraRotation;
+        this.mImageFramesToProcess = new ArrayList<>(job.frames);
+        this.callback = job.callback;
+        this.characteristics = job.characteristics;
+        this.captureResult = job.captureResult;
+        this.captureRequest = job.captureRequest;
+        this.timer = timer;
+        Log.d(TAG, "HdrxProcessor called process()");
         Run();
     }
 
-    public void Run() {
+    /**
+     * Notifies the listener when processing fails and rethrows, so the queue reports the shot
+     * as failed.
+     */
+    public void Run() throws Exception {
         try {
             Camera2ApiAutoFix.ApplyRes(captureResult);
             if (imageFormat == CaptureController.RAW_FORMAT) {
@@ -91,6 +104,7 @@ public class HdrxProcessor extends ProcessorBase {
             Log.e(TAG, "Error in HdrX Processing:"+Log.getStackTraceString(e));
             callback.onFailed();
             processingEventsListener.onProcessingError("HdrX Processing Failed");
+            throw e;
         }
     }
 
@@ -102,13 +116,12 @@ public class HdrxProcessor extends ProcessorBase {
 
         long startTime = System.currentTimeMillis();
         Log.d(TAG, "ApplyHdrX() mImageFramesToProcess.size():" + mImageFramesToProcess.size());
-        int width = mImageFramesToProcess.get(0).getPlanes()[0].getRowStride() /
-                mImageFramesToProcess.get(0).getPlanes()[0].getPixelStride();
-        int height = mImageFramesToProcess.get(0).getHeight();
-        Log.d(TAG, "APPLY HDRX: buffer:" + mImageFramesToProcess.get(0).getPlanes()[0].getBuffer().asShortBuffer().remaining());
+        int width = mImageFramesToProcess.get(0).width;
+        int height = mImageFramesToProcess.get(0).height;
+        Log.d(TAG, "APPLY HDRX: buffer:" + mImageFramesToProcess.get(0).buffer().asShortBuffer().remaining());
         Log.d(TAG, "Api WhiteLevel:" + characteristics.get(CameraCharacteristics.SENSOR_INFO_WHITE_LEVEL));
         Log.d(TAG, "Api BlackLevel:" + characteristics.get(CameraCharacteristics.SENSOR_BLACK_LEVEL_PATTERN));
-        Parameters processingParameters = PhotonCamera.getParameters();
+        Parameters processingParameters = new Parameters();
         processingParameters.FillConstParameters(characteristics, new Point(width, height));
 
 
@@ -119,14 +132,17 @@ public class HdrxProcessor extends ProcessorBase {
         int ISO = 0;
         for (int i = 0; i < mImageFramesToProcess.size(); i++) {
             ByteBuffer byteBuffer;
-            byteBuffer = mImageFramesToProcess.get(i).getPlanes()[0].getBuffer();
+            byteBuffer = mImageFramesToProcess.get(i).buffer();
+            int number = frameNumbers != null ? frameNumbers[i] : i;
             ImageFrame frame = new ImageFrame(byteBuffer);
-            frame.frameGyro = BurstShakiness.get(i);
-            frame.image = mImageFramesToProcess.get(i);
-            //Log.d(TAG,"Timestamp:"+frame.image.getTimestamp());
+            frame.frame = mImageFramesToProcess.get(i);
+            frame.frameGyro = GyroFrameMatcher.forTimestamp(BurstShakiness, frame.frame.timestamp);
+            if (frame.frameGyro == null) frame.frameGyro = BurstShakiness.get(number);
             //frame.pair = IsoExpoSelector.pairs.get(i % IsoExpoSelector.patternSize);
-            frame.pair = IsoExpoSelector.fullpairs.get(i);
-            frame.number = i;
+            frame.pair = IsoExpoSelector.fullpairs.get(number);
+            frame.number = number;
+            if (frameSharpness != null && number < frameSharpness.length)
+                frame.sharpness = frameSharpness[number];
             /*if(i == mImageFramesToProcess.size()-1){
                 int ind = Math.max(0,mImageFramesToProcess.size()-2);
                 frame.frameGyro = BurstShakiness.get(ind);
@@ -138,34 +154,37 @@ public class HdrxProcessor extends ProcessorBase {
 
         processingParameters.FillDynamicParameters(captureResult, captureRequest,ISO);
         processingParameters.cameraRotation = cameraRotation;
+        ParametersSnapshot shot = processingParameters.snapshot();
 
-        exifData.IMAGE_DESCRIPTION = processingParameters.toString();
-        ImageFrameDeblur imageFrameDeblur = new ImageFrameDeblur();
+        exifData.IMAGE_DESCRIPTION = shot.description;
+        ImageFrameDeblur imageFrameDeblur = new ImageFrameDeblur(shot);
         imageFrameDeblur.firstFrameGyro = images.get(0).frameGyro.clone();
         for (int i = 0; i < images.size(); i++)
             imageFrameDeblur.processDeblurPosition(images.get(i));
-        if (mImageFramesToProcess.size() >= 3)
-            images.sort((img1, img2) -> Float.compare(img1.frameGyro.shakiness, img2.frameGyro.shakiness));
-        double unluckypickiness = 1.05;
-        float unluckyavr = 0;
-        for (ImageFrame image : images) {
-            unluckyavr += image.frameGyro.shakiness;
-            Log.d(TAG, "unlucky map:" + image.frameGyro.shakiness + "n:" + image.number);
+        float[] shakiness = new float[images.size()];
+        float[] sharpness = new float[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            shakiness[i] = images.get(i).frameGyro.shakiness;
+            sharpness[i] = images.get(i).sharpness;
         }
-        unluckyavr /= images.size();
-
-        if (images.size() >= 4) {
-            int size = (int) (images.size() - FrameNumberSelector.throwCount);
-            Log.d(TAG, "Throw Count:" + size);
-            Log.d(TAG, "Image Count:" + images.size());
-            if (size == images.size()) size = (int) (images.size() * 0.75);
-            for (int i = images.size(); i > size; i--) {
-                float curunlucky = images.get(images.size() - 1).frameGyro.shakiness;
-                if (curunlucky > unluckyavr * unluckypickiness) {
-                    Log.d(TAG, "Removing unlucky:" + curunlucky + " number:" + images.get(images.size() - 1).number);
-                    images.get(images.size() - 1).image.close();
-                    images.remove(images.size() - 1);
-                }
+        float[] blur = LuckyFrameSelector.blur(shakiness, sharpness);
+        for (int i = 0; i < images.size(); i++) {
+            images.get(i).blur = blur[i];
+            Log.d(TAG, "unlucky map:" + blur[i] + " gyro:" + shakiness[i] + " sharpness:" + sharpness[i]
+                    + " n:" + images.get(i).number);
+        }
+        if (mImageFramesToProcess.size() >= 3)
+            images.sort((img1, img2) -> Float.compare(img1.blur, img2.blur));
+
+        //Unlucky frames are thrown away before queueing when the saver ranked the burst
+        if (frameNumbers == null) {
+            for (int i = 0; i < images.size(); i++) blur[i] = images.get(i).blur;
+            boolean[] rejected = LuckyFrameSelector.reject(blur, FrameNumberSelector.throwCount);
+            for (int i = images.size() - 1; i >= 0; i--) {
+                if (!rejected[i]) continue;
+                Log.d(TAG, "Removing unlucky:" + images.get(i).blur + " number:" + images.get(i).number);
+                images.get(i).close();
+                images.remove(i);
             }
             Log.d(TAG, "Size after removal:" + images.size());
         }
@@ -196,33 +215,47 @@ public class HdrxProcessor extends ProcessorBase {
             }
         }
 
-        processingParameters.noiseModeler.computeStackingNoiseModel(1);
-        float NoiseS = processingParameters.noiseModeler.computeModel[0].first.floatValue() +
-                processingParameters.noiseModeler.computeModel[1].first.floatValue() +
-                processingParameters.noiseModeler.computeModel[2].first.floatValue();
-        float NoiseO = processingParameters.noiseModeler.computeModel[0].second.floatValue() +
-                processingParameters.noiseModeler.computeModel[1].second.floatValue() +
-                processingParameters.noiseModeler.computeModel[2].second.floatValue();
-        NoiseS /= 3.f;
-        NoiseO /= 3.f;
+        float NoiseS = shot.withStackedFrames(1).noiseS();
+        float NoiseO = shot.withStackedFrames(1).noiseO();
         double noisempy = Math.pow(2.0, PhotonCamera.getSettings().mergeStrength);
         int cnt = (int) ((NoiseS + NoiseO) * PhotonCamera.getSettings().frameCount * Math.pow(2.0, PhotonCamera.getSettings().mergeStrength) / (0.001f));
         Log.d(TAG, "Desired Frame count0:" + cnt);
         cnt = Math.max(cnt, 3);
         //cnt = Math.min(cnt,images.size());
         cnt = images.size();
-        processingParameters.noiseModeler.computeStackingNoiseModel(cnt);
+        //A burst merged while captured comes as its reference only
+        shot = shot.withStackedFrames(mergedFrames > 0 ? mergedFrames : cnt);
         Log.d(TAG, "Desired Frame count1:" + cnt);
         NoiseS = (float) Math.max(NoiseS * noisempy, Float.MIN_NORMAL);
         NoiseO = (float) Math.max(NoiseO * noisempy, Float.MIN_NORMAL);
-        FrameNumberSelector.frameCount = cnt;
-        if (alignAlgorithm == 0) {
-            Wrapper.init(width, height, cnt);
+        FrameNumberSelector.frameCount = mergedFrames > 0 ? mergedFrames : cnt;
+        timer.stage("prepare");
+        HdrxMerge merge = null;
+        StreamingHdrxMerge streaming = null;
+        CpuTileAligner aligner = null;
+        if (mergedFrames > 0) {
+            Log.d(TAG, "Merged while captured:" + mergedFrames + " frames");
+        } else if (alignAlgorithm == 0 && streamingMerge) {
+            streaming = new StreamingHdrxMerge().setAligner(new CpuTileAligner());
+            streaming.init(width, height);
+        } else if (alignAlgorithm == 0) {
+            merge = HdrxMergeSelector.getMerge();
+            merge.init(width, height, cnt);
+        } else if (alignAlgorithm == 1 && HdrxMergeSelector.useCpuAlignment()) {
+            aligner = new CpuTileAligner();
+            aligner.init(width, height, cnt);
         } else {
             WrapperAl.init(width, height, cnt);
         }
 
-        if (alignAlgorithm != 0){
+        GyroAlignmentSeed gyroSeed = (aligner != null || streaming != null) && GyroAlignmentSeed.enabled
+                && images.get(selected).frameGyro.samples > 0 ? GyroAlignmentSeed.fromParameters(shot) : null;
+        float[][] referenceBands = gyroSeed != null
+                ? GyroWarpMesh.rotations(images.get(selected).frameGyro, GyroWarpMesh.defaultBands) : null;
+        int loadedFrames = 1;
+        if (aligner != null) {
+            aligner.loadFrame(images.get(selected).buffer, 1.f);
+        } else if (alignAlgorithm != 0){
             WrapperAl.loadFrame(images.get(selected).buffer, 1.f);
         }
         for (int i = 0; i < cnt; i++) {
@@ -231,33 +264,48 @@ public class HdrxProcessor extends ProcessorBase {
             //    mpy = 1.f;
             //if(images.get(i).pair.curlayer == IsoExpoSelector.ExpoPair.exposureLayer.Low) mpy = 1.f;
             Log.d(TAG, "Load: i: " + i + " expo layer:" + images.get(i).pair.curlayer +
-                    " mpy:" + mpy + " wl:" + ((FAKE_WL) / processingParameters.whiteLevel) * mpy);
+                    " mpy:" + mpy + " wl:" + ((FAKE_WL) / shot.whiteLevel) * mpy);
             if (alignAlgorithm == 0) {
-                Wrapper.loadFrame(images.get(i).buffer, ((FAKE_WL) / processingParameters.whiteLevel) * mpy);
+                if (merge != null) merge.loadFrame(images.get(i).buffer, ((FAKE_WL) / shot.whiteLevel) * mpy);
             } else {
                 if(i == selected) {
                     Log.d(TAG, "Base frame:" + i);
                     continue;
                 }
-                WrapperAl.loadFrame(images.get(i).buffer, mpy);
+                if (aligner != null) {
+                    if (gyroSeed != null && images.get(i).frameGyro.samples > 0) {
+                        images.get(i).warpMesh = GyroWarpMesh.build(gyroSeed, referenceBands,
+                                GyroWarpMesh.rotations(images.get(i).frameGyro, GyroWarpMesh.defaultBands),
+                                width, height, GyroWarpMesh.DEFAULT_STEP);
+                        aligner.setSeed(loadedFrames, images.get(i).warpMesh.seed(
+                                new float[CpuTileAligner.alignmentSize(width, height)]));
+                    }
+                    aligner.loadFrame(images.get(i).buffer, mpy);
+                    loadedFrames++;
+                }
+                else WrapperAl.loadFrame(images.get(i).buffer, mpy);
             }
         }
 
-        Log.d(TAG, "White Level:" + processingParameters.whiteLevel);
+        Log.d(TAG, "White Level:" + shot.whiteLevel);
         Log.d(TAG, "Wrapper.loadFrame");
         //float noiseLevel = (float) Math.sqrt((CaptureController.mCaptureResult.get(CaptureResult.SENSOR_SENSITIVITY)) *
         //        IsoExpoSelector.getMPY() - 40.)*6400.f / (6.2f*IsoExpoSelector.getISOAnalog());
 
 
         ByteBuffer output = null;
-        InterpolateGainMap interpolateGainMap;
-        interpolateGainMap = new InterpolateGainMap(new Point(width, height));
-        interpolateGainMap.parameters = processingParameters;
-        interpolateGainMap.Run();
-        interpolateGainMap.close();
+        InterpolateGainMap interpolateGainMap = null;
+        if (mergedFrames == 0) {
+            interpolateGainMap = new InterpolateGainMap(new Point(width, height));
+            interpolateGainMap.parameters = processingParameters;
+            interpolateGainMap.Run();
+            interpolateGainMap.close();
+        }
         int fx = width/16 + 1;
         int fy = height/16 + 1;
-        if(alignAlgorithm != 2) {
+        if (mergedFrames > 0) {
+            output = null;
+        } else if(alignAlgorithm != 2) {
             if(alignAlgorithm == 1){
                 output = ByteBuffer.allocateDirect(fx * fy * 4 * 2 * (cnt-1));
             } else {
@@ -266,13 +314,46 @@ public class HdrxProcessor extends ProcessorBase {
         } else {
             output = ByteBuffer.allocateDirect(images.get(0).buffer.capacity()*3);
         }
-        if (alignAlgorithm == 0) {
-            Wrapper.loadInterpolatedGainMap(interpolateGainMap.Output);
-            Wrapper.outputBuffer(output);
-            Wrapper.processFrame(NoiseS, NoiseO, 1.5f, 1, 0.f, 0.f, 0.f, processingParameters.whiteLevel
-                    , processingParameters.whitePoint[0], processingParameters.whitePoint[1], processingParameters.whitePoint[2], processingParameters.cfaPattern);
+        if (mergedFrames > 0) {
+            Log.d(TAG, "Merge skipped, reference holds it");
+        } else if (streaming != null) {
+            //Frames are folded in and released one by one, the reference goes first and holds the result
+            images.add(0, images.remove(selected));
+            streaming.loadInterpolatedGainMap(interpolateGainMap.Output);
+            streaming.start(images.get(0).buffer, ((FAKE_WL) / shot.whiteLevel) * minMpy / images.get(0).pair.layerMpy,
+                    NoiseS, NoiseO, 1.5f, 1, 0.f, 0.f, 0.f, shot.whiteLevel,
+                    shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2), shot.cfaPattern);
+            for (int i = 1; i < images.size(); i++) {
+                float[] seed = null;
+                if (referenceBands != null && images.get(i).frameGyro.samples > 0) {
+                    images.get(i).warpMesh = GyroWarpMesh.build(gyroSeed, referenceBands,
+                            GyroWarpMesh.rotations(images.get(i).frameGyro, GyroWarpMesh.defaultBands),
+                            width, height, GyroWarpMesh.DEFAULT_STEP);
+                    seed = images.get(i).warpMesh.seed(new float[CpuTileAligner.alignmentSize(width, height)]);
+                }
+                streaming.addFrame(images.get(i).buffer, ((FAKE_WL) / shot.whiteLevel) * minMpy / images.get(i).pair.layerMpy, seed);
+                images.get(i).close();
+            }
+            streaming.finish(output);
+        } else if (alignAlgorithm == 0) {
+            merge.loadInterpolatedGainMap(interpolateGainMap.Output);
+            merge.outputBuffer(output);
+            merge.processFrame(NoiseS, NoiseO, 1.5f, 1, 0.f, 0.f, 0.f, shot.whiteLevel
+                    , shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2), shot.cfaPattern);
+            for (int i = 1; i < images.size(); i++) {
+                images.get(i).close();
+            }
+        } else if (aligner != null) {
+            aligner.outputBuffer(output);
+            aligner.align();
+            PyramidMerging pyramidMerging = new PyramidMerging(new Point(width, height), images, output);
+            pyramidMerging.parameters = Parameters.from(shot);
+            pyramidMerging.Run();
+            pyramidMerging.close();
+            output.clear();
+            output = pyramidMerging.Output;
             for (int i = 1; i < images.size(); i++) {
-                images.get(i).image.close();
+                images.get(i).close();
             }
         } else {
             WrapperAl.loadInterpolatedGainMap(interpolateGainMap.Output);
@@ -284,59 +365,50 @@ public class HdrxProcessor extends ProcessorBase {
             Log.d(TAG, "Packed");
             if(alignAlgorithm != 1) {
                 for (int i = 1; i < images.size(); i++) {
-                    images.get(i).image.close();
+                    images.get(i).close();
                 }
             }
             if(alignAlgorithm == 1) {
-                float bl = processingParameters.blackLevel[0]+processingParameters.blackLevel[1]+processingParameters.blackLevel[2]+processingParameters.blackLevel[3];
-                WrapperAl.processFrame(NoiseS, NoiseO, 0.004f + (NoiseS + NoiseO), 1, 0.f, 0.f, 0.f, processingParameters.whiteLevel
-                        , processingParameters.whitePoint[0], processingParameters.whitePoint[1], processingParameters.whitePoint[2], processingParameters.cfaPattern);
+                float bl = shot.blackLevelSum();
+                WrapperAl.processFrame(NoiseS, NoiseO, 0.004f + (NoiseS + NoiseO), 1, 0.f, 0.f, 0.f, shot.whiteLevel
+                        , shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2), shot.cfaPattern);
                 PyramidMerging pyramidMerging = new PyramidMerging(new Point(width, height), images, output);
-                pyramidMerging.parameters = processingParameters;
+                pyramidMerging.parameters = Parameters.from(shot);
                 pyramidMerging.Run();
                 pyramidMerging.close();
                 output.clear();
                 output = pyramidMerging.Output;
                 for (int i = 1; i < images.size(); i++) {
-                    images.get(i).image.close();
+                    images.get(i).close();
                 }
             } else {
                 WrapperAl.processFrameBayerShift(NoiseS,NoiseO,0.f, 0.f, 0.f,
-                        processingParameters.whiteLevel, processingParameters.whitePoint[0], processingParameters.whitePoint[1], processingParameters.whitePoint[2],
-                        processingParameters.cfaPattern);
+                        shot.whiteLevel, shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2),
+                        shot.cfaPattern);
             }
         }
         //interpolateGainMap.Output.clear();
-        float[] oldBL = processingParameters.blackLevel.clone();
 
         Log.d(TAG, "HDRX Alignment elapsed:" + (System.currentTimeMillis() - startTime) + " ms");
+        timer.stage("merge");
         //Black shot fix
         ByteBuffer result = null;
-        if(alignAlgorithm != 2) {
-            images.get(0).image.getPlanes()[0].getBuffer().position(0);
-            images.get(0).image.getPlanes()[0].getBuffer().put(output);
+        if (mergedFrames > 0) {
+            result = images.get(0).frame.buffer();
+        } else if(alignAlgorithm != 2) {
+            result = images.get(0).frame.buffer();
+            result.put(output);
             output.clear();
-            images.get(0).image.getPlanes()[0].getBuffer().position(0);
-            result = images.get(0).image.getPlanes()[0].getBuffer();
+            result.position(0);
         } else {
             result = output;
         }
         if ((saveRAW >= 1) && alignAlgorithm != 2) {
-            int patchWL = (int) FAKE_WL;
-
-            Camera2ApiAutoFix.patchWL(characteristics, captureResult, patchWL);
-            boolean imageSaved = ImageSaver.Util.saveStackedRaw(dngFile, images.get(0).image,
-                    characteristics, captureResult, cameraRotation);
-
-
-            Camera2ApiAutoFix.resetWL(characteristics, captureResult, patchWL);
+            boolean imageSaved = ImageSaver.Util.saveStackedRaw(dngFile, result, images.get(0).frame.rowStride,
+                    shot.scaledToWhiteLevel(FAKE_WL), characteristics, captureResult, exifData.IMAGE_DESCRIPTION, compressRaw);
 
             processingEventsListener.notifyImageSavedStatus(imageSaved, dngFile);
-            processingParameters.blackLevel[0] = oldBL[0];
-            processingParameters.blackLevel[1] = oldBL[1];
-            processingParameters.blackLevel[2] = oldBL[2];
-            processingParameters.blackLevel[3] = oldBL[3];
-            Camera2ApiAutoFix.resetWL(characteristics, captureResult, (int) FAKE_WL);
+            timer.stage("saveRaw");
 
             /*parameters.blackLevel[0] = 0.f;
             parameters.blackLevel[1] -= bl;
@@ -345,7 +417,7 @@ public class HdrxProcessor extends ProcessorBase {
             if (saveRAW == 2) {
                 processingEventsListener.onProcessingFinished("HdrX RAW Processing Finished");
                 callback.onFinished();
-                images.get(0).image.close();
+                images.get(0).close();
                 return;
             }
         }
@@ -356,15 +428,14 @@ public class HdrxProcessor extends ProcessorBase {
             }
         }*/
 
-        IncreaseWLBL();
-
         PostPipeline pipeline = new PostPipeline();
         pipeline.lowFrame = lowexp;
         pipeline.highFrame = highexp;
 
-        Bitmap img = pipeline.Run(result, PhotonCamera.getParameters());
+        Bitmap img = pipeline.Run(result, shot.scaledToWhiteLevel(FAKE_WL));
+        timer.stage("postPipeline");
 
-        img = overlay(img, pipeline.debugData.toArray(new Bitmap[0]));
+        Bitmap overlaid = overlay(img, pipeline.debugData.toArray(new Bitmap[0]));
         try {
             processingEventsListener.onProcessingFinished("HdrX JPG Processing Finished");
         }
@@ -372,9 +443,17 @@ public class HdrxProcessor extends ProcessorBase {
             Log.d(TAG,"Error in processingEventsListener.onProcessingFinished:"+Log.getStackTraceString(e));
         }
 
-        //Saves the final bitmap
-        boolean imageSaved = ImageSaver.Util.saveBitmapAsJPG(jpgFile, img,
-                ImageSaver.JPG_QUALITY, exifData);
+        //Saves the final bitmap, the parallel encoder reads the pipeline output when nothing was drawn over it
+        boolean imageSaved;
+        if (PhotonCamera.getSettings().parallelJpeg && overlaid == img) {
+            img.recycle();
+            imageSaved = ImageSaver.Util.saveRgbaAsJPG(jpgFile, pipeline.outputBuffer,
+                    pipeline.outputSize.x, pipeline.outputSize.y, ImageSaver.JPG_QUALITY, exifData);
+        } else {
+            imageSaved = ImageSaver.Util.saveBitmapAsJPG(jpgFile, overlaid,
+                    ImageSaver.JPG_QUALITY, exifData);
+        }
+        timer.stage("saveJpg");
 
         try {
             processingEventsListener.notifyImageSavedStatus(imageSaved, jpgFile);
@@ -386,7 +465,7 @@ public class HdrxProcessor extends ProcessorBase {
         pipeline.close();
 
         //if(saveRAW)
-        images.get(0).image.close();
+        images.get(0).close();
         callback.onFinished();
     }
 
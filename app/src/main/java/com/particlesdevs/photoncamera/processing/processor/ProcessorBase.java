@@ -25,7 +25,6 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 
 import com.particlesdevs.photoncamera.api.ParseExif;
-import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.ProcessingEventsListener;
 
 import java.nio.file.Path;
@@ -76,18 +75,6 @@ public abstract class ProcessorBase {
     public void process() {
     }
 
-    public void IncreaseWLBL() {
-        //Increase WL and BL for processing
-        for (int i = 0; i < 4; i++) {
-            PhotonCamera.getParameters().blackLevel[i] *= FAKE_WL / PhotonCamera.getParameters().whiteLevel;
-        }
-        IncreaseWL();
-    }
-
-    public void IncreaseWL() {
-        PhotonCamera.getParameters().whiteLevel = (int) (FAKE_WL);
-    }
-
     public interface ProcessingCallback {
         void onStarted();
 
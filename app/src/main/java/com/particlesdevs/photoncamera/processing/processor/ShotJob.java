@@ -0,0 +1,209 @@
+package com.particlesdevs.photoncamera.processing.processor;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+
+import com.particlesdevs.photoncamera.api.CameraMode;
+import com.particlesdevs.photoncamera.api.ParseExif;
+import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.processing.FrameStore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything needed to process one captured burst, fixed at the time the burst was handed over.
+ * <p>
+ * Processing settings are copied here instead of being read from the global settings on the
+ * processing thread, so a shot queued behind another one is processed with the settings it was
+ * captured with.
+ */
+public class ShotJob implements ShotProcessingQueue.Job {
+    /**
+     * Working memory of the processing stage in units of one raw frame: output buffer, gain map
+     * and the GL textures of the post pipeline.
+     */
+    private static final int WORKING_SET_FRAMES = 6;
+
+    public interface Processor {
+        void process(ShotJob job, ShotProcessingQueue.StageTimer timer) throws Exception;
+    }
+
+    public final Path dngFile;
+    public final Path jpgFile;
+    public final ParseExif.ExifData exifData;
+    public final List<FrameStore.Frame> frames;
+    public final List<GyroBurst> gyroBursts;
+    /**
+     * Capture index of every frame when unlucky frames were already thrown away, null otherwise.
+     */
+    public final int[] frameNumbers;
+    /**
+     * {@link com.particlesdevs.photoncamera.processing.parameters.FrameSharpness} of every
+     * captured frame by capture index, null when not scored.
+     */
+    public final float[] frameSharpness;
+    public final int imageFormat;
+    public final int cameraRotation;
+    public final CameraCharacteristics characteristics;
+    public final CaptureResult captureResult;
+    public final CaptureRequest captureRequest;
+    public final int alignAlgorithm;
+    public final int saveRAW;
+    public final boolean compressRaw;
+    public final CameraMode cameraMode;
+    /**
+     * Merge the frames one at a time with {@link com.particlesdevs.photoncamera.processing.merge.StreamingHdrxMerge}.
+     */
+    public final boolean streamingMerge;
+    /**
+     * Frames already merged into the only frame of the job while captured, 0 when not merged.
+     */
+    public final int mergedFrames;
+    public final ProcessorBase.ProcessingCallback callback;
+    private final Processor processor;
+    private final long memoryBytes;
+
+    private ShotJob(Builder builder) {
+        dngFile = builder.dngFile;
+        jpgFile = builder.jpgFile;
+        exifData = builder.exifData;
+        frames = Collections.unmodifiableList(new ArrayList<>(builder.frames));
+        gyroBursts = Collections.unmodifiableList(new ArrayList<>(builder.gyroBursts));
+        frameNumbers = builder.frameNumbers;
+        frameSharpness = builder.frameSharpness;
+        imageFormat = builder.imageFormat;
+        cameraRotation = builder.cameraRotation;
+        characteristics = builder.characteristics;
+        captureResult = builder.captureResult;
+        captureRequest = builder.captureRequest;
+        alignAlgorithm = builder.alignAlgorithm;
+        saveRAW = builder.saveRAW;
+        compressRaw = builder.compressRaw;
+        cameraMode = builder.cameraMode;
+        streamingMerge = builder.streamingMerge;
+        mergedFrames = builder.mergedFrames;
+        callback = builder.callback;
+        processor = builder.processor;
+        long frameBytes = 0;
+        long largestFrame = 0;
+        for (FrameStore.Frame frame : frames) {
+            long bytes = frame.capacity();
+            //Spilled frames are file backed pages the kernel can drop
+            if (!frame.isSpilled()) frameBytes += bytes;
+            largestFrame = Math.max(largestFrame, bytes);
+        }
+        memoryBytes = frameBytes + largestFrame * WORKING_SET_FRAMES;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Runs the processor, then closes every frame it did not close, also when it failed.
+     */
+    @Override
+    public void process(ShotProcessingQueue.StageTimer timer) throws Exception {
+        try {
+            processor.process(this, timer);
+        } finally {
+            for (FrameStore.Frame frame : frames) frame.close();
+        }
+    }
+
+    public static class Builder {
+        private Path dngFile;
+        private Path jpgFile;
+        private ParseExif.ExifData exifData;
+        private List<FrameStore.Frame> frames = Collections.emptyList();
+        private List<GyroBurst> gyroBursts = Collections.emptyList();
+        private int[] frameNumbers;
+        private float[] frameSharpness;
+        private int imageFormat;
+        private int cameraRotation;
+        private CameraCharacteristics characteristics;
+        private CaptureResult captureResult;
+        private CaptureRequest captureRequest;
+        private int alignAlgorithm;
+        private int saveRAW;
+        private boolean compressRaw;
+        private CameraMode cameraMode;
+        private boolean streamingMerge;
+        private int mergedFrames;
+        private ProcessorBase.ProcessingCallback callback;
+        private Processor processor;
+
+        public Builder setOutput(Path dngFile, Path jpgFile) {
+            this.dngFile = dngFile;
+            this.jpgFile = jpgFile;
+            return this;
+        }
+
+        public Builder setExifData(ParseExif.ExifData exifData) {
+            this.exifData = exifData;
+            return this;
+        }
+
+        public Builder setFrames(List<FrameStore.Frame> frames, int imageFormat) {
+            this.frames = frames;
+            this.imageFormat = imageFormat;
+            return this;
+        }
+
+        public Builder setGyroBursts(List<GyroBurst> gyroBursts) {
+            this.gyroBursts = gyroBursts;
+            return this;
+        }
+
+        /**
+         * @param frameNumbers capture index of every frame, null when all captured frames are kept.
+         * @param sharpness    sharpness of every captured frame by capture index, null when not scored.
+         */
+        public Builder setLuckyFrames(int[] frameNumbers, float[] sharpness) {
+            this.frameNumbers = frameNumbers;
+            this.frameSharpness = sharpness;
+            return this;
+        }
+
+        public Builder setCapture(CameraCharacteristics characteristics, CaptureResult captureResult,
+                                  CaptureRequest captureRequest, int cameraRotation) {
+            this.characteristics = characteristics;
+            this.captureResult = captureResult;
+            this.captureRequest = captureRequest;
+            this.cameraRotation = cameraRotation;
+            return this;
+        }
+
+        public Builder setConfig(int alignAlgorithm, int saveRAW, boolean compressRaw, CameraMode cameraMode) {
+            this.alignAlgorithm = alignAlgorithm;
+            this.saveRAW = saveRAW;
+            this.compressRaw = compressRaw;
+            this.cameraMode = cameraMode;
+            return this;
+        }
+
+        /**
+         * @param mergedFrames frames merged into the only frame while captured, 0 when not merged.
+         */
+        public Builder setMerge(boolean streamingMerge, int mergedFrames) {
+            this.streamingMerge = streamingMerge;
+            this.mergedFrames = mergedFrames;
+            return this;
+        }
+
+        public Builder setProcessor(Processor processor, ProcessorBase.ProcessingCallback callback) {
+            this.processor = processor;
+            this.callback = callback;
+            return this;
+        }
+
+        public ShotJob build() {
+            return new ShotJob(this);
+        }
+    }
+}
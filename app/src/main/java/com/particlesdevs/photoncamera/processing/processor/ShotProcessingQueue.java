@@ -0,0 +1,208 @@
+package com.particlesdevs.photoncamera.processing.processor;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serial processing stage for captured shots.
+ * <p>
+ * Capture threads hand finished bursts to {@link #submit}, which only blocks while the shot
+ * does not fit into the direct-memory budget. Shots are then processed one by one on a
+ * dedicated worker thread, so the camera can capture burst N+1 while burst N is processed.
+ * A shot that is larger than the whole budget is still admitted once nothing else is in flight.
+ */
+public class ShotProcessingQueue {
+    private static final String TAG = "ShotProcessingQueue";
+    private static final long MIN_BUDGET = 512L << 20;
+    private static final long MAX_BUDGET = 3072L << 20;
+
+    public interface Job {
+        /**
+         * Direct memory held by the job from admission until it finished processing.
+         */
+        long memoryBytes();
+
+        void process(StageTimer timer) throws Exception;
+    }
+
+    public interface StatsListener {
+        void onJobFinished(JobStats stats);
+    }
+
+    /**
+     * Collects per-stage latency of a single job.
+     */
+    public static class StageTimer {
+        private final Map<String, Long> stages = new LinkedHashMap<>();
+        private long stageStart = System.nanoTime();
+
+        /**
+         * Ends the current stage under the given name and starts the next one.
+         */
+        public void stage(String name) {
+            long now = System.nanoTime();
+            Long previous = stages.get(name);
+            stages.put(name, (previous == null ? 0 : previous) + (now - stageStart));
+            stageStart = now;
+        }
+
+        public Map<String, Long> stagesMs() {
+            Map<String, Long> out = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> entry : stages.entrySet()) {
+                out.put(entry.getKey(), entry.getValue() / 1000000);
+            }
+            return Collections.unmodifiableMap(out);
+        }
+    }
+
+    public static class JobStats {
+        public final long id;
+        public final long memoryBytes;
+        public final int queueDepth;
+        public final long admissionWaitMs;
+        public final long queueWaitMs;
+        public final long processingMs;
+        public final Map<String, Long> stageMs;
+        public final boolean failed;
+
+        JobStats(long id, long memoryBytes, int queueDepth, long admissionWaitMs, long queueWaitMs,
+                 long processingMs, Map<String, Long> stageMs, boolean failed) {
+            this.id = id;
+            this.memoryBytes = memoryBytes;
+            this.queueDepth = queueDepth;
+            this.admissionWaitMs = admissionWaitMs;
+            this.queueWaitMs = queueWaitMs;
+            this.processingMs = processingMs;
+            this.stageMs = stageMs;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "job:" + id +
+                    " memoryMB:" + (memoryBytes >> 20) +
+                    " queueDepth:" + queueDepth +
+                    " admissionWait:" + admissionWaitMs + "ms" +
+                    " queueWait:" + queueWaitMs + "ms" +
+                    " processing:" + processingMs + "ms" +
+                    " stages:" + stageMs +
+                    (failed ? " FAILED" : "");
+        }
+    }
+
+    private final ExecutorService worker;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final Object budgetLock = new Object();
+    private long memoryBudget;
+    private long reservedBytes;
+    private long jobCounter;
+    private volatile StatsListener statsListener;
+
+    public ShotProcessingQueue(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ShotProcessing");
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+    }
+
+    /**
+     * @param totalMemory memory of the device, 0 when unknown.
+     * @return budget for a device with that memory, a quarter of it between 512MB and 3GB.
+     */
+    public static long budgetFor(long totalMemory) {
+        return Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, totalMemory / 4));
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        synchronized (budgetLock) {
+            this.memoryBudget = memoryBudget;
+            budgetLock.notifyAll();
+        }
+    }
+
+    public long getMemoryBudget() {
+        synchronized (budgetLock) {
+            return memoryBudget;
+        }
+    }
+
+    public long getReservedBytes() {
+        synchronized (budgetLock) {
+            return reservedBytes;
+        }
+    }
+
+    /**
+     * @return number of admitted jobs that are waiting for or running on the worker.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public void setStatsListener(StatsListener statsListener) {
+        this.statsListener = statsListener;
+    }
+
+    /**
+     * Admits the job against the memory budget, waiting while earlier jobs hold too much
+     * memory, and schedules it on the worker.
+     *
+     * @return future completed with the job statistics once the job has been processed.
+     */
+    public CompletableFuture<JobStats> submit(Job job) throws InterruptedException {
+        long bytes = job.memoryBytes();
+        long admissionStart = System.nanoTime();
+        long id;
+        synchronized (budgetLock) {
+            while (reservedBytes > 0 && reservedBytes + bytes > memoryBudget) {
+                budgetLock.wait();
+            }
+            reservedBytes += bytes;
+            id = ++jobCounter;
+        }
+        long admitted = System.nanoTime();
+        int depth = queueDepth.incrementAndGet();
+        CompletableFuture<JobStats> result = new CompletableFuture<>();
+        worker.execute(() -> {
+            long started = System.nanoTime();
+            StageTimer timer = new StageTimer();
+            boolean failed = false;
+            try {
+                job.process(timer);
+            } catch (Throwable e) {
+                failed = true;
+                Log.e(TAG, "Job " + id + " failed:" + Log.getStackTraceString(e));
+            } finally {
+                synchronized (budgetLock) {
+                    reservedBytes -= bytes;
+                    budgetLock.notifyAll();
+                }
+                queueDepth.decrementAndGet();
+            }
+            long finished = System.nanoTime();
+            JobStats stats = new JobStats(id, bytes, depth,
+                    (admitted - admissionStart) / 1000000,
+                    (started - admitted) / 1000000,
+                    (finished - started) / 1000000,
+                    timer.stagesMs(), failed);
+            Log.d(TAG, stats.toString());
+            StatsListener listener = statsListener;
+            if (listener != null) listener.onJobFinished(stats);
+            result.complete(stats);
+        });
+        return result;
+    }
+
+    public void shutdown() {
+        worker.shutdown();
+    }
+}
@@ -8,39 +8,64 @@ import android.hardware.camera2.CaptureResult;
 import android.media.Image;
 import android.util.Log;
 
-import com.particlesdevs.photoncamera.api.Camera2ApiAutoFix;
 import com.particlesdevs.photoncamera.api.ParseExif;
 import com.particlesdevs.photoncamera.app.PhotonCamera;
+import com.particlesdevs.photoncamera.processing.ImagePath;
 import com.particlesdevs.photoncamera.processing.ImageSaver;
 import com.particlesdevs.photoncamera.processing.ProcessingEventsListener;
+import com.particlesdevs.photoncamera.processing.merge.UnlimitedAccumulator;
 import com.particlesdevs.photoncamera.processing.opengl.postpipeline.PostPipeline;
 import com.particlesdevs.photoncamera.processing.opengl.scripts.AverageParams;
 import com.particlesdevs.photoncamera.processing.opengl.scripts.AverageRaw;
 import com.particlesdevs.photoncamera.processing.parameters.FrameNumberSelector;
 import com.particlesdevs.photoncamera.processing.parameters.IsoExpoSelector;
+import com.particlesdevs.photoncamera.processing.render.Parameters;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class UnlimitedProcessor extends ProcessorBase {
     private static final String TAG = "UnlimitedProcessor";
+    private static final ExecutorService RECOVERY = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        return t;
+    });
     public static int unlimitedCounter = 1;
     private static boolean unlimitedEnd = false;
 
     private static Image lastImage;
     private AverageRaw averageRaw;
+    private UnlimitedAccumulator accumulator;
     private boolean lock = false;
     private boolean fillParams = false;
+    private ParametersSnapshot parameters;
 
     /* config */
     private int saveRAW;
+    private boolean compressRaw;
+    private Path accumulatorFile;
 
     public UnlimitedProcessor(ProcessingEventsListener processingEventsListener) {
         super(processingEventsListener);
     }
 
-    public void configure(int saveRAW) {
+    /**
+     * @param accumulatorFile file of the {@link UnlimitedAccumulator} stack, null to always
+     *                        average on GL with {@link AverageRaw}, which is also the fallback
+     *                        when the file cannot be mapped.
+     */
+    public void configure(int saveRAW, boolean compressRaw, Path accumulatorFile) {
         this.saveRAW = saveRAW;
+        this.compressRaw = compressRaw;
+        this.accumulatorFile = accumulatorFile;
     }
 
     public void unlimitedStart(Path dngFile, Path jpgFile, ParseExif.ExifData exifData,
@@ -58,7 +83,12 @@ public class UnlimitedProcessor extends ProcessorBase {
         this.captureRequest = captureRequest;
         unlimitedEnd = false;
         lock = false;
+        fillParams = false;
         this.callback = callback;
+        //Every stream starts on an empty stack
+        discardStack();
+        unlimitedCounter = 1;
+        recoverLeftStack();
     }
 
     public void unlimitedCycle(Image image) {
@@ -68,20 +98,30 @@ public class UnlimitedProcessor extends ProcessorBase {
         }*/
         int width = image.getPlanes()[0].getRowStride() / image.getPlanes()[0].getPixelStride();
         int height = image.getHeight();
-        PhotonCamera.getParameters().rawSize = new Point(width, height);
         if(!fillParams){
-            PhotonCamera.getParameters().FillConstParameters(characteristics, PhotonCamera.getParameters().rawSize);
-            PhotonCamera.getParameters().FillDynamicParameters(captureResult, captureRequest, IsoExpoSelector.fullpairs.get(0).iso);
-            PhotonCamera.getParameters().cameraRotation = this.cameraRotation;
-            exifData.IMAGE_DESCRIPTION = PhotonCamera.getParameters().toString();
+            Parameters processingParameters = new Parameters();
+            processingParameters.FillConstParameters(characteristics, new Point(width, height));
+            processingParameters.FillDynamicParameters(captureResult, captureRequest, IsoExpoSelector.fullpairs.get(0).iso);
+            processingParameters.cameraRotation = this.cameraRotation;
+            parameters = processingParameters.snapshot();
+            exifData.IMAGE_DESCRIPTION = parameters.description;
             fillParams = true;
         }
-        if (averageRaw == null) {
-            averageRaw = new AverageRaw(PhotonCamera.getParameters().rawSize, "UnlimitedAvr");
+        if (accumulator == null && averageRaw == null && accumulatorFile != null) {
+            accumulator = openAccumulator();
+        }
+        if (accumulator != null) {
+            accumulator.add(image.getPlanes()[0].getBuffer(), image.getPlanes()[0].getRowStride());
+            unlimitedCounter = accumulator.getFrames() + 1;
+        } else {
+            if (averageRaw == null) {
+                averageRaw = new AverageRaw(new Point(parameters.rawWidth, parameters.rawHeight), "UnlimitedAvr");
+                averageRaw.parameters = parameters;
+            }
+            averageRaw.additionalParams = new AverageParams(null, image.getPlanes()[0].getBuffer());
+            averageRaw.Run();
+            unlimitedCounter++;
         }
-        averageRaw.additionalParams = new AverageParams(null, image.getPlanes()[0].getBuffer());
-        averageRaw.Run();
-        unlimitedCounter++;
         /*
         if (unlimitedEnd) {
             unlimitedEnd = false;
@@ -106,26 +146,129 @@ public class UnlimitedProcessor extends ProcessorBase {
         }
     }
 
+    /**
+     * Opens an empty CPU stack.
+     *
+     * @return null when the file cannot be mapped, frames are then averaged on GL.
+     */
+    private UnlimitedAccumulator openAccumulator() {
+        try {
+            return UnlimitedAccumulator.open(accumulatorFile, parameters.rawWidth,
+                    parameters.rawHeight, parameters.cfaPattern, parameters.whiteLevel, parameters.getWhitePoint());
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unlimited stack unavailable:" + e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the CPU stack and releases the GL one, whatever state processing left them in.
+     */
+    private void discardStack() {
+        if (accumulator != null) {
+            try {
+                accumulator.delete();
+            } catch (IOException e) {
+                Log.e(TAG, "Unlimited stack not deleted:" + e);
+            }
+            accumulator = null;
+        }
+        if (averageRaw != null) {
+            averageRaw.close();
+            averageRaw = null;
+        }
+    }
+
+    /**
+     * Moves a stack a killed process left in the accumulator file aside and saves it as a DNG of
+     * its own in the background. The DNG is tagged with the capture metadata of the stream
+     * starting now, the stack keeps none.
+     */
+    private void recoverLeftStack() {
+        if (accumulatorFile == null || !Files.isRegularFile(accumulatorFile)) return;
+        Path left = accumulatorFile.resolveSibling(accumulatorFile.getFileName() + ".recovered");
+        try {
+            Files.move(accumulatorFile, left, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.e(TAG, "Left unlimited stack not moved:" + e);
+            return;
+        }
+        Path dngFile = ImagePath.newDNGFilePath();
+        CameraCharacteristics characteristics = this.characteristics;
+        CaptureResult captureResult = this.captureResult;
+        CaptureRequest captureRequest = this.captureRequest;
+        boolean compressRaw = this.compressRaw;
+        int iso = IsoExpoSelector.fullpairs.isEmpty() ? 100 : IsoExpoSelector.fullpairs.get(0).iso;
+        RECOVERY.execute(() -> {
+            boolean imageSaved = saveRecoveredStack(left, dngFile, characteristics, captureResult, captureRequest,
+                    iso, compressRaw);
+            if (imageSaved) processingEventsListener.notifyImageSavedStatus(true, dngFile);
+        });
+    }
+
+    /**
+     * Finishes the checkpoint in {@code path} into a DNG and deletes the file.
+     *
+     * @return true when a DNG was written.
+     */
+    private static boolean saveRecoveredStack(Path path, Path dngFile, CameraCharacteristics characteristics,
+                                              CaptureResult captureResult, CaptureRequest captureRequest,
+                                              int iso, boolean compressRaw) {
+        try {
+            try (UnlimitedAccumulator recovered = UnlimitedAccumulator.recover(path)) {
+                if (recovered == null || recovered.getFrames() == 0) return false;
+                Parameters processingParameters = new Parameters();
+                processingParameters.FillConstParameters(characteristics, new Point(recovered.width, recovered.height));
+                processingParameters.FillDynamicParameters(captureResult, captureRequest, iso);
+                ParametersSnapshot stacked = processingParameters.snapshot().withStackedFrames(recovered.getFrames());
+                if (stacked.cfaPattern != recovered.cfaPattern) {
+                    Log.e(TAG, "Left unlimited stack of another sensor dropped");
+                    return false;
+                }
+                ByteBuffer output = ByteBuffer.allocateDirect(recovered.width * recovered.height * 2)
+                        .order(ByteOrder.nativeOrder());
+                recovered.finish(output, FAKE_WL);
+                Log.d(TAG, "Recovered unlimited stack of " + recovered.getFrames() + " frames");
+                return ImageSaver.Util.saveStackedRaw(dngFile, output, recovered.width * 2,
+                        stacked.scaledToWhiteLevel(FAKE_WL - 1), characteristics, captureResult,
+                        stacked.description, compressRaw);
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Left unlimited stack not recovered:" + Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
     private void processUnlimited(Image image) {
         callback.onStarted();
 //        PhotonCamera.getParameters().path = ImageSaver.jpgFilePathToSave.getAbsolutePath();
         processingEventsListener.onProcessingStarted("Unlimited");
-        averageRaw.FinalScript();
-        ByteBuffer unlimitedBuffer = averageRaw.Output;
-        image.getPlanes()[0].getBuffer().position(0);
-        image.getPlanes()[0].getBuffer().put(unlimitedBuffer);
-        image.getPlanes()[0].getBuffer().position(0);
-        averageRaw.close();
-        averageRaw = null;
+        if (accumulator != null) {
+            accumulator.finish(image.getPlanes()[0].getBuffer(), FAKE_WL);
+            Log.d(TAG, "Unlimited stack " + accumulator.getFramesPerSecond() + " frames/s");
+            try {
+                accumulator.delete();
+            } catch (IOException e) {
+                Log.e(TAG, "Unlimited stack not deleted:" + e);
+            }
+            accumulator = null;
+        } else {
+            averageRaw.FinalScript();
+            ByteBuffer unlimitedBuffer = averageRaw.Output;
+            image.getPlanes()[0].getBuffer().position(0);
+            image.getPlanes()[0].getBuffer().put(unlimitedBuffer);
+            image.getPlanes()[0].getBuffer().position(0);
+            averageRaw.close();
+            averageRaw = null;
+        }
         if (saveRAW >= 1) {
 
             processingEventsListener.onProcessingFinished("Unlimited rawSaver Processing Finished");
-            Camera2ApiAutoFix.patchWL(characteristics, captureResult, (int) FAKE_WL-1);
 
             boolean imageSaved = ImageSaver.Util.saveStackedRaw(dngFile, image,
-                    characteristics, captureResult, cameraRotation);
-
-            Camera2ApiAutoFix.resetWL(characteristics, captureResult, (int) FAKE_WL-1);
+                    parameters.scaledToWhiteLevel(FAKE_WL-1), characteristics, captureResult, exifData.IMAGE_DESCRIPTION, compressRaw);
 
             processingEventsListener.notifyImageSavedStatus(imageSaved, dngFile);
             if (saveRAW == 2) {
@@ -135,14 +278,20 @@ public class UnlimitedProcessor extends ProcessorBase {
             }
         }
 
-        IncreaseWLBL();
         PostPipeline pipeline = new PostPipeline();
-        Bitmap bitmap = pipeline.Run(image.getPlanes()[0].getBuffer(), PhotonCamera.getParameters());
+        Bitmap bitmap = pipeline.Run(image.getPlanes()[0].getBuffer(), parameters.scaledToWhiteLevel(FAKE_WL));
 
         processingEventsListener.onProcessingFinished("Unlimited JPG Processing Finished");
 
-        boolean imageSaved = ImageSaver.Util.saveBitmapAsJPG(jpgFile, bitmap,
-                ImageSaver.JPG_QUALITY, exifData);
+        boolean imageSaved;
+        if (PhotonCamera.getSettings().parallelJpeg) {
+            bitmap.recycle();
+            imageSaved = ImageSaver.Util.saveRgbaAsJPG(jpgFile, pipeline.outputBuffer,
+                    pipeline.outputSize.x, pipeline.outputSize.y, ImageSaver.JPG_QUALITY, exifData);
+        } else {
+            imageSaved = ImageSaver.Util.saveBitmapAsJPG(jpgFile, bitmap,
+                    ImageSaver.JPG_QUALITY, exifData);
+        }
 
         processingEventsListener.notifyImageSavedStatus(imageSaved, jpgFile);
 
@@ -156,11 +305,12 @@ public class UnlimitedProcessor extends ProcessorBase {
         unlimitedEnd = false;
         lock = true;
         FrameNumberSelector.frameCount = unlimitedCounter;
-        PhotonCamera.getParameters().noiseModeler.computeStackingNoiseModel();
+        parameters = parameters.withStackedFrames(unlimitedCounter);
         unlimitedCounter = 1;
         try {
             processUnlimited(lastImage);
         } catch (Exception e) {
+            discardStack();
             callback.onFailed();
             processingEventsListener.onProcessingError("Unlimited Processing Failed!");
             e.printStackTrace();
@@ -247,7 +247,7 @@ public class Converter {
      * @param m      matrix to invert.
      * @param output set the output to be the inverse of m.
      */
-    private static boolean invert(float[] m, /*out*/float[] output) {
+    public static boolean invert(float[] m, /*out*/float[] output) {
         double a00 = m[0];
         double a01 = m[1];
         double a02 = m[2];
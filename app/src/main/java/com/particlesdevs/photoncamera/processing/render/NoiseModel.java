@@ -0,0 +1,113 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Immutable noise model, N^2 = S * level + O per color channel, on primitive doubles.
+ * <p>
+ * Unlike the {@code Pair} arrays of {@link NoiseModeler} nothing is boxed, the sums and means
+ * the post pipeline asks for are computed once, and an instance can be shared between threads.
+ */
+public final class NoiseModel {
+    private final double[] s = new double[3];
+    private final double[] o = new double[3];
+    private final double sumS;
+    private final double sumO;
+
+    /**
+     * @param model S and O per color channel, {@code double[3][2]}, copied.
+     */
+    public NoiseModel(double[][] model) {
+        for (int i = 0; i < 3; i++) {
+            s[i] = model[i][0];
+            o[i] = model[i][1];
+        }
+        sumS = s[0] + s[1] + s[2];
+        sumO = o[0] + o[1] + o[2];
+    }
+
+    /**
+     * Same model for every channel.
+     */
+    public NoiseModel(double S, double O) {
+        this(new double[][]{{S, O}, {S, O}, {S, O}});
+    }
+
+    public double S(int channel) {
+        return s[channel];
+    }
+
+    public double O(int channel) {
+        return o[channel];
+    }
+
+    public double sumS() {
+        return sumS;
+    }
+
+    public double sumO() {
+        return sumO;
+    }
+
+    public double meanS() {
+        return sumS / 3.0;
+    }
+
+    public double meanO() {
+        return sumO / 3.0;
+    }
+
+    /**
+     * @return noise standard deviation of the channel at a level normalized to the white level.
+     */
+    public double sigma(int channel, double level) {
+        return Math.sqrt(Math.max(s[channel] * level + o[channel], 0.0));
+    }
+
+    /**
+     * @return the model after merging {@code frames} frames, see {@link NoiseModeler#stackingNoiseRemove}.
+     */
+    public NoiseModel stacked(int frames) {
+        double remove = 1.0 / NoiseModeler.stackingNoiseRemove(frames);
+        return scaled(remove, remove);
+    }
+
+    /**
+     * @return the model with S multiplied by {@code sScale} and O by {@code oScale}.
+     */
+    public NoiseModel scaled(double sScale, double oScale) {
+        double[][] model = new double[3][2];
+        for (int i = 0; i < 3; i++) {
+            model[i][0] = s[i] * sScale;
+            model[i][1] = o[i] * oScale;
+        }
+        return new NoiseModel(model);
+    }
+
+    /**
+     * @return S and O per channel as {@code double[3][2]}, a copy.
+     */
+    public double[][] toArray() {
+        return new double[][]{{s[0], o[0]}, {s[1], o[1]}, {s[2], o[2]}};
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof NoiseModel)) return false;
+        NoiseModel model = (NoiseModel) other;
+        return Arrays.equals(s, model.s) && Arrays.equals(o, model.o);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(s) + Arrays.hashCode(o);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "S:" + Arrays.toString(s) + " O:" + Arrays.toString(o);
+    }
+}
@@ -7,10 +7,40 @@ import com.particlesdevs.photoncamera.processing.parameters.FrameNumberSelector;
 
 public class NoiseModeler {
     private static String TAG = "NoiseModeler";
+    /**
+     * Views of {@link #model} and {@link #stacked} for existing callers, kept in sync with them.
+     */
     public Pair<Double,Double>[] baseModel;
     public Pair<Double,Double>[] computeModel;
+    /**
+     * Single frame model.
+     */
+    public volatile NoiseModel model;
+    /**
+     * Model after merging {@link #stackedFrames} frames.
+     */
+    public volatile NoiseModel stacked;
     public int AnalogueISO;
     public int SensivityISO;
+    public int stackedFrames = 1;
+    /**
+     * Generic S and O generators for sensors without a noise profile, as {a, b} per term.
+     */
+    private static final double[] GENERIC_S = {0.0000025720647, 0.000028855721};
+    private static final double[] GENERIC_O = {0.000000000039798506, 0.000000046578279};
+
+    /**
+     * Rebuilds a modeler from a per channel {S, O} model, e.g. from a {@link ParametersSnapshot}.
+     */
+    public NoiseModeler(double[][] inModel, int analogISO, int ISO, int frameCount) {
+        AnalogueISO = analogISO;
+        SensivityISO = ISO;
+        baseModel = new Pair[3];
+        computeModel = new Pair[3];
+        setModel(new NoiseModel(inModel));
+        computeStackingNoiseModel(frameCount);
+    }
+
     public NoiseModeler(Pair<Double,Double>[] inModel, Integer analogISO, Integer ISO, int bayer, SpecificSettingSensor specificSettingSensor) {
         AnalogueISO = analogISO;
         SensivityISO = ISO;
@@ -18,8 +48,8 @@ public class NoiseModeler {
         computeModel = new Pair[3];
         //inModel = null;
         if (inModel == null || inModel.length == 0 || inModel[0].first == 0.0 || (specificSettingSensor != null && specificSettingSensor.ModelerExists)) {
-            Pair<Double, Double> CustomGeneratorS;
-            Pair<Double, Double> CustomGeneratorO;
+            double[] sGenerator;
+            double[] oGenerator;
             if(specificSettingSensor != null) {
                 double[] avrdouble = new double[4];
                 int cnt = 0;
@@ -35,77 +65,93 @@ public class NoiseModeler {
                     avrdouble[3] += ind[3];*/
                     cnt++;
                 }
-                CustomGeneratorS = new Pair<>(avrdouble[0], avrdouble[1]);
-                CustomGeneratorO = new Pair<>(avrdouble[2], avrdouble[3]);
+                sGenerator = new double[]{avrdouble[0], avrdouble[1]};
+                oGenerator = new double[]{avrdouble[2], avrdouble[3]};
             } else {
-                CustomGeneratorS = new Pair<>(0.0000025720647, 0.000028855721);
-                CustomGeneratorO = new Pair<>(0.000000000039798506, 0.000000046578279);
+                sGenerator = GENERIC_S;
+                oGenerator = GENERIC_O;
             }
-            Pair<Double,Double> computedModel = new Pair<>(computeNoiseModelS(ISO,CustomGeneratorS),computeNoiseModelO(ISO,CustomGeneratorO));
             //Test
             /*
-            Pair<Double, Double> TestsGenerator = new Pair<>(1.0798706869238175e-06, -8.618818353621416e-06);
-            Pair<Double, Double> TestoGenerator = new Pair<>(5.790989178667454e-12, 3.7009550769043865e-07);
-            Pair<Double,Double> computedModel = new Pair<>(computeNoiseModelS(ISO,TestsGenerator),computeNoiseModelO(ISO,TestoGenerator));
+            sGenerator = new double[]{1.0798706869238175e-06, -8.618818353621416e-06};
+            oGenerator = new double[]{5.790989178667454e-12, 3.7009550769043865e-07};
              */
-            baseModel[0] = new Pair<>(computedModel.first, computedModel.second);
-            baseModel[1] = new Pair<>(computedModel.first, computedModel.second);
-            baseModel[2] = new Pair<>(computedModel.first, computedModel.second);
+            setModel(new NoiseModel(computeNoiseModelS(ISO, sGenerator), computeNoiseModelO(ISO, oGenerator)));
         } else {
-            if (inModel.length == 1) {
-                baseModel[0] = new Pair<>(inModel[0].first, inModel[0].second);
-                baseModel[1] = new Pair<>(inModel[0].first, inModel[0].second);
-                baseModel[2] = new Pair<>(inModel[0].first, inModel[0].second);
-            }
-            if (inModel.length == 3) {
-                baseModel[0] = new Pair<>(inModel[0].first, inModel[0].second);
-                baseModel[1] = new Pair<>(inModel[1].first, inModel[1].second);
-                baseModel[2] = new Pair<>(inModel[2].first, inModel[2].second);
-            }
-            if (inModel.length == 4) {
-                baseModel[0] = new Pair<>(inModel[0].first, inModel[0].second);
-                baseModel[1] = new Pair<>((inModel[1].first + inModel[2].first) / 2.0, (inModel[1].second + inModel[2].second) / 2.0);
-                baseModel[2] = new Pair<>(inModel[3].first, inModel[3].second);
+            double[][] computed = new double[3][2];
+            for (int i = 0; i < 3; i++) {
+                //1 model for every channel, 3 per channel or 4 per CFA position with averaged greens
+                int first = inModel.length == 1 ? 0 : inModel.length == 4 && i == 2 ? 3 : i;
+                int second = inModel.length == 4 && i == 1 ? 2 : first;
+                computed[i][0] = (inModel[first].first + inModel[second].first) / 2.0;
+                computed[i][1] = (inModel[first].second + inModel[second].second) / 2.0;
             }
+            setModel(new NoiseModel(computed));
         }
 
-        Log.d(TAG, "NoiseModel0->" + baseModel[0]);
-        Log.d(TAG, "NoiseModel1->" + baseModel[1]);
-        Log.d(TAG, "NoiseModel2->" + baseModel[2]);
+        Log.d(TAG, "NoiseModel->" + model);
         computeStackingNoiseModel();
-        Log.d(TAG, "ComputedNoiseModel0->" + computeModel[0]);
-        Log.d(TAG, "ComputedNoiseModel1->" + computeModel[1]);
-        Log.d(TAG, "ComputedNoiseModel2->" + computeModel[2]);
+        Log.d(TAG, "ComputedNoiseModel->" + stacked);
+    }
+
+    /**
+     * Single frame model of the generic generators, for frames replayed without a noise profile.
+     *
+     * @return S and O per color channel, {@code double[3][2]}.
+     */
+    public static double[][] genericModel(int analogISO, int ISO) {
+        double s = GENERIC_S[0] * ISO + GENERIC_S[1];
+        double dGain = Math.max(ISO / (double) analogISO, 1.0);
+        double o = GENERIC_O[0] * ISO * ISO + GENERIC_O[1] * dGain * dGain;
+        return new double[][]{{s, o}, {s, o}, {s, o}};
+    }
+
+    /**
+     * Replaces the single frame model, e.g. with a measured one, and recomputes the stacked model.
+     *
+     * @param model S and O per color channel, {@code double[3][2]}.
+     */
+    public void setBaseModel(double[][] model) {
+        setModel(new NoiseModel(model));
+        Log.d(TAG, "BaseModel replaced->" + this.model);
+        computeStackingNoiseModel(stackedFrames);
+    }
+
+    private void setModel(NoiseModel model) {
+        this.model = model;
+        for (int i = 0; i < 3; i++) baseModel[i] = new Pair<>(model.S(i), model.O(i));
     }
 
     public void computeStackingNoiseModel(){
         computeStackingNoiseModel(FrameNumberSelector.frameCount);
     }
+    public static double stackingNoiseRemove(int FrameCnt){
+        return Math.pow(Math.max(FrameCnt,1),0.9);
+    }
     public void computeStackingNoiseModel(int FrameCnt){
-        double noiseRemove = Math.pow(FrameCnt,0.9);
-        computeModel[0] = new Pair<>(baseModel[0].first/noiseRemove,baseModel[0].second/(Math.pow(noiseRemove,1.0)));
-        computeModel[1] = new Pair<>(baseModel[1].first/noiseRemove,baseModel[1].second/(Math.pow(noiseRemove,1.0)));
-        computeModel[2] = new Pair<>(baseModel[2].first/noiseRemove,baseModel[2].second/(Math.pow(noiseRemove,1.0)));
+        stackedFrames = FrameCnt;
+        stacked = model.stacked(FrameCnt);
+        for (int i = 0; i < 3; i++) computeModel[i] = new Pair<>(stacked.S(i), stacked.O(i));
     }
-    private double computeNoiseModelS(double Sensitivity,Pair<Double,Double> sGenerator) {
-        double returning = sGenerator.first * Sensitivity + sGenerator.second;
+    private double computeNoiseModelS(double Sensitivity,double[] sGenerator) {
+        double returning = sGenerator[0] * Sensitivity + sGenerator[1];
         if(returning < 0.0) {
             Log.d("NoiseModeler","Negative noise model sGenerator at Sensivity:"+ Sensitivity+
-                    ",First:"+sGenerator.first+
-                    ",Second:"+sGenerator.second);
+                    ",First:"+sGenerator[0]+
+                    ",Second:"+sGenerator[1]);
             //returning=-returning;
         }
         return returning;
     }
 
-    private double computeNoiseModelO(double Sensitivity,Pair<Double,Double> oGenerator) {
+    private double computeNoiseModelO(double Sensitivity,double[] oGenerator) {
         double dGain = Math.max(Sensitivity/AnalogueISO,1.0);
-        double returning = (oGenerator.first * Sensitivity*Sensitivity) + (oGenerator.second*dGain*dGain);
+        double returning = (oGenerator[0] * Sensitivity*Sensitivity) + (oGenerator[1]*dGain*dGain);
         if(returning < 0.0) {
             Log.d("NoiseModeler","Negative noise model oGenerator at Sensivity:"+Sensitivity+
                     ",Dgain:"+dGain+
-                    ",First:"+oGenerator.first+
-                    ",Second:"+oGenerator.second);
+                    ",First:"+oGenerator[0]+
+                    ",Second:"+oGenerator[1]);
             //returning=-returning;
         }
         return returning;
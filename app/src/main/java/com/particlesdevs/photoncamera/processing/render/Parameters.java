@@ -19,6 +19,7 @@ import androidx.annotation.NonNull;
 
 import com.particlesdevs.photoncamera.app.PhotonCamera;
 import com.particlesdevs.photoncamera.processing.parameters.FrameNumberSelector;
+import com.particlesdevs.photoncamera.processing.parameters.NoiseCalibrator;
 import com.particlesdevs.photoncamera.settings.PreferenceKeys;
 import com.particlesdevs.photoncamera.capture.CaptureController;
 
@@ -145,6 +146,10 @@ public class Parameters {
             }
         }
         noiseModeler = new NoiseModeler(result.get(CaptureResult.SENSOR_NOISE_PROFILE), analogIso, sensivity, cfaPattern, sensorSpecifics);
+        if (NoiseCalibrator.enabled) {
+            double[][] measured = PhotonCamera.getNoiseCalibrator().getTable().model(sensivity);
+            if (measured != null) noiseModeler.setBaseModel(measured);
+        }
         int[] blarr = new int[4];
         BlackLevelPattern level = CaptureController.mCameraCharacteristics.get(CameraCharacteristics.SENSOR_BLACK_LEVEL_PATTERN);
         if (result != null) {
@@ -409,6 +414,98 @@ public class Parameters {
         return params;
     }
 
+    /**
+     * Immutable copy for one shot, processors should work on it instead of this instance.
+     */
+    public ParametersSnapshot snapshot() {
+        ParametersSnapshot.Builder builder = new ParametersSnapshot.Builder()
+                .setRawSize(rawSize.x, rawSize.y)
+                .setCfaPattern(cfaPattern)
+                .setLevels(blackLevel, whiteLevel, realWL)
+                .setWhitePoint(whitePoint)
+                .setGainMap(gainMap, mapSize.x, mapSize.y, hasGainMap)
+                .setColor(sensorToProPhoto, proPhotoToSRGB, CCT)
+                .setCustomNeutral(customNeutral)
+                .setTonemap(tonemapStrength, customTonemap, tonemapCurves, gammaCurve)
+                .setOptics(focalLength,
+                        sensorSize != null ? sensorSize.getWidth() : 0.f,
+                        sensorSize != null ? sensorSize.getHeight() : 0.f,
+                        angleX, angleY, perXAngle, perYAngle, XPerMm, YPerMm)
+                .setIntrinsics(cameraIntrinsic, cameraIntrinsicRev)
+                .setCameraRotation(cameraRotation)
+                .setSensorSpecifics(sensorSpecifics)
+                .setDescription(toString());
+        if (sensorPix != null)
+            builder.setSensorPix(sensorPix.left, sensorPix.top, sensorPix.right, sensorPix.bottom);
+        if (hotPixels != null) {
+            int[] hot = new int[hotPixels.length * 2];
+            for (int i = 0; i < hotPixels.length; i++) {
+                hot[i * 2] = hotPixels[i].x;
+                hot[i * 2 + 1] = hotPixels[i].y;
+            }
+            builder.setHotPixels(hot);
+        }
+        if (noiseModeler != null) {
+            builder.setNoise(noiseModeler.model.toArray(), noiseModeler.AnalogueISO, noiseModeler.SensivityISO)
+                    .setStackedFrames(noiseModeler.stackedFrames);
+        } else {
+            builder.setNoise(null, analogIso, analogIso);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Private mutable copy of a snapshot for the GL pipelines, which adjust their parameters
+     * while running.
+     */
+    public static Parameters from(ParametersSnapshot snapshot) {
+        Parameters params = new Parameters();
+        params.analogIso = snapshot.analogIso;
+        params.cfaPattern = snapshot.cfaPattern;
+        params.rawSize = new Point(snapshot.rawWidth, snapshot.rawHeight);
+        params.blackLevel = snapshot.getBlackLevel();
+        params.whitePoint = snapshot.getWhitePoint();
+        params.whiteLevel = snapshot.whiteLevel;
+        params.realWL = snapshot.realWL;
+        params.hasGainMap = snapshot.hasGainMap;
+        params.mapSize = new Point(snapshot.mapWidth, snapshot.mapHeight);
+        int[] pix = snapshot.getSensorPix();
+        params.sensorPix = new Rect(pix[0], pix[1], pix[2], pix[3]);
+        params.gainMap = snapshot.getGainMap();
+        params.proPhotoToSRGB = snapshot.getProPhotoToSRGB();
+        params.sensorToProPhoto = snapshot.getSensorToProPhoto();
+        params.tonemapStrength = snapshot.tonemapStrength;
+        params.customTonemap = snapshot.getCustomTonemap();
+        params.customNeutral = snapshot.getCustomNeutral();
+        int[] hot = snapshot.getHotPixels();
+        if (hot != null) {
+            params.hotPixels = new Point[hot.length / 2];
+            for (int i = 0; i < params.hotPixels.length; i++)
+                params.hotPixels[i] = new Point(hot[i * 2], hot[i * 2 + 1]);
+        }
+        params.focalLength = snapshot.focalLength;
+        params.cameraRotation = snapshot.cameraRotation;
+        params.noiseModeler = new NoiseModeler(snapshot.getBaseNoiseModel(), snapshot.analogIso,
+                snapshot.sensitivityIso, snapshot.stackedFrames);
+        params.CCT = snapshot.CCT;
+        params.sensorSize = new SizeF(snapshot.sensorWidthMm, snapshot.sensorHeightMm);
+        params.angleX = snapshot.angleX;
+        params.angleY = snapshot.angleY;
+        params.perXAngle = snapshot.perXAngle;
+        params.perYAngle = snapshot.perYAngle;
+        params.XPerMm = snapshot.xPerMm;
+        params.YPerMm = snapshot.yPerMm;
+        double[] intrinsic = snapshot.getCameraIntrinsic();
+        if (intrinsic != null) params.cameraIntrinsic = intrinsic;
+        double[] intrinsicRev = snapshot.getCameraIntrinsicRev();
+        if (intrinsicRev != null) params.cameraIntrinsicRev = intrinsicRev;
+        float[][] curves = snapshot.getTonemapCurves();
+        if (curves != null) params.tonemapCurves = curves;
+        params.gammaCurve = snapshot.gammaCurve;
+        params.sensorSpecifics = snapshot.sensorSpecifics;
+        return params;
+    }
+
     @NonNull
     @Override
     public String toString() {
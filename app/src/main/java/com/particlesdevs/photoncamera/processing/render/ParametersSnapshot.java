@@ -0,0 +1,474 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of the per-shot processing {@link Parameters}.
+ * <p>
+ * Processors take one snapshot after the capture metadata has been parsed and pass it down the
+ * pipeline instead of sharing {@code PhotonCamera.getParameters()}. Adjustments such as the
+ * white level boost before post processing are derived views, the original snapshot never
+ * changes, so several shots can be processed side by side and repeated runs see the same input.
+ * <p>
+ * The class holds plain Java values only and can be built on the JVM with {@link Builder}.
+ */
+public final class ParametersSnapshot {
+    public final int rawWidth;
+    public final int rawHeight;
+    public final byte cfaPattern;
+    public final int whiteLevel;
+    public final int realWL;
+    public final boolean hasGainMap;
+    public final int mapWidth;
+    public final int mapHeight;
+    public final float tonemapStrength;
+    public final float focalLength;
+    public final float gammaCurve;
+    public final int cameraRotation;
+    public final int analogIso;
+    public final int sensitivityIso;
+    public final int stackedFrames;
+    public final double angleX;
+    public final double angleY;
+    public final double perXAngle;
+    public final double perYAngle;
+    public final double xPerMm;
+    public final double yPerMm;
+    public final float sensorWidthMm;
+    public final float sensorHeightMm;
+    /**
+     * Text of the parameters and settings of the shot, saved as the image description.
+     */
+    public final String description;
+    /**
+     * Shared, must be treated as read only.
+     */
+    public final ColorCorrectionTransform CCT;
+    /**
+     * Shared, must be treated as read only.
+     */
+    public final SpecificSettingSensor sensorSpecifics;
+
+    private final float[] blackLevel;
+    private final float[] whitePoint;
+    private final float[] gainMap;
+    private final int[] sensorPix;
+    private final float[] proPhotoToSRGB;
+    private final float[] sensorToProPhoto;
+    private final float[] customTonemap;
+    private final float[] customNeutral;
+    private final int[] hotPixels;
+    private final double[] cameraIntrinsic;
+    private final double[] cameraIntrinsicRev;
+    private final float[][] tonemapCurves;
+    private final double[][] baseNoiseModel;
+    private final NoiseModel stackedNoise;
+
+    private ParametersSnapshot(Builder b) {
+        rawWidth = b.rawWidth;
+        rawHeight = b.rawHeight;
+        cfaPattern = b.cfaPattern;
+        whiteLevel = b.whiteLevel;
+        realWL = b.realWL;
+        hasGainMap = b.hasGainMap;
+        mapWidth = b.mapWidth;
+        mapHeight = b.mapHeight;
+        tonemapStrength = b.tonemapStrength;
+        focalLength = b.focalLength;
+        gammaCurve = b.gammaCurve;
+        cameraRotation = b.cameraRotation;
+        analogIso = b.analogIso;
+        sensitivityIso = b.sensitivityIso;
+        stackedFrames = Math.max(b.stackedFrames, 1);
+        angleX = b.angleX;
+        angleY = b.angleY;
+        perXAngle = b.perXAngle;
+        perYAngle = b.perYAngle;
+        xPerMm = b.xPerMm;
+        yPerMm = b.yPerMm;
+        sensorWidthMm = b.sensorWidthMm;
+        sensorHeightMm = b.sensorHeightMm;
+        description = b.description;
+        CCT = b.CCT;
+        sensorSpecifics = b.sensorSpecifics;
+        blackLevel = copy(b.blackLevel);
+        whitePoint = copy(b.whitePoint);
+        gainMap = copy(b.gainMap);
+        sensorPix = b.sensorPix == null ? new int[]{0, 0, rawWidth, rawHeight} : b.sensorPix.clone();
+        proPhotoToSRGB = copy(b.proPhotoToSRGB);
+        sensorToProPhoto = copy(b.sensorToProPhoto);
+        customTonemap = copy(b.customTonemap);
+        customNeutral = copy(b.customNeutral);
+        hotPixels = b.hotPixels == null ? null : b.hotPixels.clone();
+        cameraIntrinsic = b.cameraIntrinsic == null ? null : b.cameraIntrinsic.clone();
+        cameraIntrinsicRev = b.cameraIntrinsicRev == null ? null : b.cameraIntrinsicRev.clone();
+        tonemapCurves = copy(b.tonemapCurves);
+        baseNoiseModel = new double[3][2];
+        if (b.baseNoiseModel != null) {
+            for (int i = 0; i < 3; i++) {
+                baseNoiseModel[i][0] = b.baseNoiseModel[i][0];
+                baseNoiseModel[i][1] = b.baseNoiseModel[i][1];
+            }
+        }
+        stackedNoise = new NoiseModel(baseNoiseModel).stacked(stackedFrames);
+    }
+
+    private static float[] copy(float[] in) {
+        return in == null ? null : in.clone();
+    }
+
+    private static float[][] copy(float[][] in) {
+        if (in == null) return null;
+        float[][] out = new float[in.length][];
+        for (int i = 0; i < in.length; i++) out[i] = copy(in[i]);
+        return out;
+    }
+
+    public float blackLevel(int channel) {
+        return blackLevel[channel];
+    }
+
+    public float[] getBlackLevel() {
+        return blackLevel.clone();
+    }
+
+    /**
+     * @return sum of the four bayer black levels.
+     */
+    public float blackLevelSum() {
+        return blackLevel[0] + blackLevel[1] + blackLevel[2] + blackLevel[3];
+    }
+
+    public float whitePoint(int channel) {
+        return whitePoint[channel];
+    }
+
+    public float[] getWhitePoint() {
+        return copy(whitePoint);
+    }
+
+    public float[] getGainMap() {
+        return copy(gainMap);
+    }
+
+    /**
+     * @return active array as left, top, right, bottom.
+     */
+    public int[] getSensorPix() {
+        return sensorPix.clone();
+    }
+
+    public float[] getProPhotoToSRGB() {
+        return copy(proPhotoToSRGB);
+    }
+
+    public float[] getSensorToProPhoto() {
+        return copy(sensorToProPhoto);
+    }
+
+    public float[] getCustomTonemap() {
+        return copy(customTonemap);
+    }
+
+    public float[] getCustomNeutral() {
+        return copy(customNeutral);
+    }
+
+    /**
+     * @return hot pixel coordinates as x0, y0, x1, y1... or null if none were reported.
+     */
+    public int[] getHotPixels() {
+        return hotPixels == null ? null : hotPixels.clone();
+    }
+
+    public double[] getCameraIntrinsic() {
+        return cameraIntrinsic == null ? null : cameraIntrinsic.clone();
+    }
+
+    public double[] getCameraIntrinsicRev() {
+        return cameraIntrinsicRev == null ? null : cameraIntrinsicRev.clone();
+    }
+
+    public float[][] getTonemapCurves() {
+        return copy(tonemapCurves);
+    }
+
+    /**
+     * @return single frame noise model, S and O per color channel.
+     */
+    public double[][] getBaseNoiseModel() {
+        double[][] out = new double[3][];
+        for (int i = 0; i < 3; i++) out[i] = baseNoiseModel[i].clone();
+        return out;
+    }
+
+    /**
+     * @return noise model of a stack of {@link #stackedFrames} frames, S and O per color channel.
+     */
+    public double[][] getNoiseModel() {
+        return stackedNoise.toArray();
+    }
+
+    /**
+     * @return noise model of a stack of {@link #stackedFrames} frames.
+     */
+    public NoiseModel getStackedNoise() {
+        return stackedNoise;
+    }
+
+    /**
+     * @return signal dependent noise of the stack averaged over the color channels.
+     */
+    public float noiseS() {
+        return (float) stackedNoise.meanS();
+    }
+
+    /**
+     * @return signal independent noise of the stack averaged over the color channels.
+     */
+    public float noiseO() {
+        return (float) stackedNoise.meanO();
+    }
+
+    /**
+     * View with black levels rescaled so the white level becomes {@code targetWhiteLevel},
+     * the transform applied to merged frames before post processing.
+     */
+    public ParametersSnapshot scaledToWhiteLevel(float targetWhiteLevel) {
+        Builder builder = toBuilder();
+        for (int i = 0; i < 4; i++) {
+            builder.blackLevel[i] = blackLevel[i] * targetWhiteLevel / whiteLevel;
+        }
+        builder.whiteLevel = (int) targetWhiteLevel;
+        return builder.build();
+    }
+
+    /**
+     * View whose noise model describes a stack of {@code frames} merged frames.
+     */
+    public ParametersSnapshot withStackedFrames(int frames) {
+        if (frames == stackedFrames) return this;
+        return toBuilder().setStackedFrames(frames).build();
+    }
+
+    public ParametersSnapshot withCameraRotation(int cameraRotation) {
+        if (cameraRotation == this.cameraRotation) return this;
+        return toBuilder().setCameraRotation(cameraRotation).build();
+    }
+
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.rawWidth = rawWidth;
+        b.rawHeight = rawHeight;
+        b.cfaPattern = cfaPattern;
+        b.whiteLevel = whiteLevel;
+        b.realWL = realWL;
+        b.hasGainMap = hasGainMap;
+        b.mapWidth = mapWidth;
+        b.mapHeight = mapHeight;
+        b.tonemapStrength = tonemapStrength;
+        b.focalLength = focalLength;
+        b.gammaCurve = gammaCurve;
+        b.cameraRotation = cameraRotation;
+        b.analogIso = analogIso;
+        b.sensitivityIso = sensitivityIso;
+        b.stackedFrames = stackedFrames;
+        b.angleX = angleX;
+        b.angleY = angleY;
+        b.perXAngle = perXAngle;
+        b.perYAngle = perYAngle;
+        b.xPerMm = xPerMm;
+        b.yPerMm = yPerMm;
+        b.sensorWidthMm = sensorWidthMm;
+        b.sensorHeightMm = sensorHeightMm;
+        b.description = description;
+        b.CCT = CCT;
+        b.sensorSpecifics = sensorSpecifics;
+        b.blackLevel = blackLevel.clone();
+        b.whitePoint = copy(whitePoint);
+        b.gainMap = copy(gainMap);
+        b.sensorPix = sensorPix.clone();
+        b.proPhotoToSRGB = copy(proPhotoToSRGB);
+        b.sensorToProPhoto = copy(sensorToProPhoto);
+        b.customTonemap = copy(customTonemap);
+        b.customNeutral = copy(customNeutral);
+        b.hotPixels = getHotPixels();
+        b.cameraIntrinsic = getCameraIntrinsic();
+        b.cameraIntrinsicRev = getCameraIntrinsicRev();
+        b.tonemapCurves = copy(tonemapCurves);
+        b.baseNoiseModel = getBaseNoiseModel();
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "ParametersSnapshot{" +
+                "rawSize=" + rawWidth + "x" + rawHeight +
+                ", cfaPattern=" + cfaPattern +
+                ", blackLevel=" + Arrays.toString(blackLevel) +
+                ", whiteLevel=" + whiteLevel +
+                ", whitePoint=" + Arrays.toString(whitePoint) +
+                ", hasGainMap=" + hasGainMap +
+                ", iso=" + sensitivityIso +
+                ", stackedFrames=" + stackedFrames +
+                '}';
+    }
+
+    public static class Builder {
+        private int rawWidth;
+        private int rawHeight;
+        private byte cfaPattern;
+        private int whiteLevel = 1023;
+        private int realWL = -1;
+        private boolean hasGainMap;
+        private int mapWidth = 1;
+        private int mapHeight = 1;
+        private float tonemapStrength = 1.4f;
+        private float focalLength;
+        private float gammaCurve = 2.0f;
+        private int cameraRotation;
+        private int analogIso = 100;
+        private int sensitivityIso = 100;
+        private int stackedFrames = 1;
+        private double angleX;
+        private double angleY;
+        private double perXAngle;
+        private double perYAngle;
+        private double xPerMm;
+        private double yPerMm;
+        private float sensorWidthMm;
+        private float sensorHeightMm;
+        private String description;
+        private ColorCorrectionTransform CCT;
+        private SpecificSettingSensor sensorSpecifics;
+        private float[] blackLevel = new float[4];
+        private float[] whitePoint = new float[]{1.f, 1.f, 1.f};
+        private float[] gainMap = new float[]{1.f, 1.f, 1.f, 1.f};
+        private int[] sensorPix;
+        private float[] proPhotoToSRGB = new float[9];
+        private float[] sensorToProPhoto = new float[9];
+        private float[] customTonemap;
+        private float[] customNeutral;
+        private int[] hotPixels;
+        private double[] cameraIntrinsic;
+        private double[] cameraIntrinsicRev;
+        private float[][] tonemapCurves;
+        private double[][] baseNoiseModel;
+
+        public Builder setRawSize(int width, int height) {
+            rawWidth = width;
+            rawHeight = height;
+            return this;
+        }
+
+        public Builder setCfaPattern(int cfaPattern) {
+            this.cfaPattern = (byte) cfaPattern;
+            return this;
+        }
+
+        public Builder setLevels(float[] blackLevel, int whiteLevel, int realWL) {
+            this.blackLevel = Arrays.copyOf(blackLevel, 4);
+            this.whiteLevel = whiteLevel;
+            this.realWL = realWL;
+            return this;
+        }
+
+        public Builder setWhitePoint(float[] whitePoint) {
+            this.whitePoint = copy(whitePoint);
+            return this;
+        }
+
+        public Builder setGainMap(float[] gainMap, int mapWidth, int mapHeight, boolean hasGainMap) {
+            this.gainMap = copy(gainMap);
+            this.mapWidth = mapWidth;
+            this.mapHeight = mapHeight;
+            this.hasGainMap = hasGainMap;
+            return this;
+        }
+
+        public Builder setSensorPix(int left, int top, int right, int bottom) {
+            sensorPix = new int[]{left, top, right, bottom};
+            return this;
+        }
+
+        public Builder setColor(float[] sensorToProPhoto, float[] proPhotoToSRGB, ColorCorrectionTransform CCT) {
+            this.sensorToProPhoto = copy(sensorToProPhoto);
+            this.proPhotoToSRGB = copy(proPhotoToSRGB);
+            this.CCT = CCT;
+            return this;
+        }
+
+        public Builder setCustomNeutral(float[] customNeutral) {
+            this.customNeutral = copy(customNeutral);
+            return this;
+        }
+
+        public Builder setTonemap(float tonemapStrength, float[] customTonemap, float[][] tonemapCurves, float gammaCurve) {
+            this.tonemapStrength = tonemapStrength;
+            this.customTonemap = copy(customTonemap);
+            this.tonemapCurves = copy(tonemapCurves);
+            this.gammaCurve = gammaCurve;
+            return this;
+        }
+
+        public Builder setDescription(String description) {
+            this.description = description;
+            return this;
+        }
+
+        public Builder setHotPixels(int[] hotPixels) {
+            this.hotPixels = hotPixels == null ? null : hotPixels.clone();
+            return this;
+        }
+
+        public Builder setOptics(float focalLength, float sensorWidthMm, float sensorHeightMm,
+                                 double angleX, double angleY, double perXAngle, double perYAngle,
+                                 double xPerMm, double yPerMm) {
+            this.focalLength = focalLength;
+            this.sensorWidthMm = sensorWidthMm;
+            this.sensorHeightMm = sensorHeightMm;
+            this.angleX = angleX;
+            this.angleY = angleY;
+            this.perXAngle = perXAngle;
+            this.perYAngle = perYAngle;
+            this.xPerMm = xPerMm;
+            this.yPerMm = yPerMm;
+            return this;
+        }
+
+        public Builder setIntrinsics(double[] cameraIntrinsic, double[] cameraIntrinsicRev) {
+            this.cameraIntrinsic = cameraIntrinsic == null ? null : cameraIntrinsic.clone();
+            this.cameraIntrinsicRev = cameraIntrinsicRev == null ? null : cameraIntrinsicRev.clone();
+            return this;
+        }
+
+        public Builder setCameraRotation(int cameraRotation) {
+            this.cameraRotation = cameraRotation;
+            return this;
+        }
+
+        /**
+         * @param baseNoiseModel single frame S and O per color channel, {@code double[3][2]}.
+         */
+        public Builder setNoise(double[][] baseNoiseModel, int analogIso, int sensitivityIso) {
+            this.baseNoiseModel = baseNoiseModel;
+            this.analogIso = analogIso;
+            this.sensitivityIso = sensitivityIso;
+            return this;
+        }
+
+        public Builder setStackedFrames(int stackedFrames) {
+            this.stackedFrames = stackedFrames;
+            return this;
+        }
+
+        public Builder setSensorSpecifics(SpecificSettingSensor sensorSpecifics) {
+            this.sensorSpecifics = sensorSpecifics;
+            return this;
+        }
+
+        public ParametersSnapshot build() {
+            return new ParametersSnapshot(this);
+        }
+    }
+}
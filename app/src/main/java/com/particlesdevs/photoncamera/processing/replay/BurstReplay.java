@@ -0,0 +1,513 @@
+package com.particlesdevs.photoncamera.processing.replay;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.processing.dng.DngReader;
+import com.particlesdevs.photoncamera.processing.dng.DngTag;
+import com.particlesdevs.photoncamera.processing.dng.DngWriter;
+import com.particlesdevs.photoncamera.processing.jpeg.JpegEncoder;
+import com.particlesdevs.photoncamera.processing.merge.CpuHdrxMerge;
+import com.particlesdevs.photoncamera.processing.merge.CpuTileAligner;
+import com.particlesdevs.photoncamera.processing.processor.ShotProcessingQueue;
+import com.particlesdevs.photoncamera.processing.render.Converter;
+import com.particlesdevs.photoncamera.processing.render.NoiseModeler;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Processes a burst recorded as DNG files on the JVM, to profile and debug the pipeline
+ * without a device.
+ * <p>
+ * The frames are read from a directory in name order, the first one is the reference. Shot
+ * parameters are rebuilt from the tags of the first DNG and the {@link ReplaySidecar}, frames
+ * are merged with {@link CpuHdrxMerge} the way HdrxProcessor does with alignAlgorithm 0, and
+ * the result is saved as a DNG and as a half resolution JPEG developed by {@link CpuDevelop}.
+ * The GL stages are replaced by their CPU counterparts. Every stage is timed and the report
+ * is written next to the outputs.
+ * <p>
+ * Run from the command line with {@code ./gradlew replayDebug -Preplay="<burst dir> [options]"}.
+ */
+public class BurstReplay {
+    private static final String TAG = "BurstReplay";
+    /**
+     * White level of the merged frame, same as ProcessorBase.FAKE_WL.
+     */
+    private static final float FAKE_WL = 65535.f;
+    public static final String MERGED_DNG = "merged.dng";
+    public static final String PREVIEW_JPEG = "preview.jpg";
+    public static final String REPORT = "replay.txt";
+
+    private final Path burst;
+    private final Path output;
+    private Path sidecar;
+    private boolean align;
+    private int compression = DngTag.COMPRESSION_NONE;
+    private ForkJoinPool pool;
+
+    public static class Report {
+        public final int frames;
+        public final int width;
+        public final int height;
+        /**
+         * Milliseconds per stage in run order.
+         */
+        public final Map<String, Long> stageMs;
+        /**
+         * Tiles per second of the alignment stage, 0 when it did not run.
+         */
+        public final float alignTilesPerSecond;
+        /**
+         * Rotation in radians the gyro saw during every frame, 0 without gyro samples.
+         */
+        public final double[] frameRotation;
+
+        Report(int frames, int width, int height, Map<String, Long> stageMs, float alignTilesPerSecond,
+               double[] frameRotation) {
+            this.frames = frames;
+            this.width = width;
+            this.height = height;
+            this.stageMs = stageMs;
+            this.alignTilesPerSecond = alignTilesPerSecond;
+            this.frameRotation = frameRotation;
+        }
+
+        public long totalMs() {
+            long total = 0;
+            for (long ms : stageMs.values()) total += ms;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append("frames=").append(frames).append('\n');
+            out.append("size=").append(width).append('x').append(height).append('\n');
+            for (Map.Entry<String, Long> stage : stageMs.entrySet()) {
+                out.append("stage.").append(stage.getKey()).append('=').append(stage.getValue()).append('\n');
+            }
+            out.append("total=").append(totalMs()).append('\n');
+            if (alignTilesPerSecond > 0.f) {
+                out.append("align.tilesPerSecond=").append(Math.round(alignTilesPerSecond)).append('\n');
+            }
+            for (int i = 0; i < frameRotation.length; i++) {
+                out.append("frame.").append(i).append(".rotationDeg=")
+                        .append(String.format(Locale.US, "%.4f", Math.toDegrees(frameRotation[i]))).append('\n');
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * @param burst  directory with the DNG frames.
+     * @param output directory for the merged frame, the preview and the report.
+     */
+    public BurstReplay(Path burst, Path output) {
+        this.burst = burst;
+        this.output = output;
+    }
+
+    /**
+     * @param sidecar capture metadata, {@link ReplaySidecar#DEFAULT_NAME} in the burst directory
+     *                when not set.
+     */
+    public BurstReplay setSidecar(Path sidecar) {
+        this.sidecar = sidecar;
+        return this;
+    }
+
+    /**
+     * Also runs {@link CpuTileAligner} on the burst, to time the alignment HdrxProcessor runs
+     * with alignAlgorithm 1. The merge does not use the vectors.
+     */
+    public BurstReplay setAlign(boolean align) {
+        this.align = align;
+        return this;
+    }
+
+    /**
+     * @param compression {@link DngTag#COMPRESSION_NONE} or {@link DngTag#COMPRESSION_LOSSLESS_JPEG}.
+     */
+    public BurstReplay setCompression(int compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param pool pool for all stages, the common pool when not set.
+     */
+    public BurstReplay setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public Report run() throws IOException {
+        ShotProcessingQueue.StageTimer timer = new ShotProcessingQueue.StageTimer();
+        List<Path> files = frames(burst);
+        if (files.isEmpty()) throw new IOException("No DNG files in " + burst);
+        Path sidecarPath = sidecar != null ? sidecar : burst.resolve(ReplaySidecar.DEFAULT_NAME);
+        ReplaySidecar values = sidecar != null || Files.exists(sidecarPath)
+                ? ReplaySidecar.read(sidecarPath) : ReplaySidecar.empty();
+        int cnt = files.size();
+        DngReader[] readers = new DngReader[cnt];
+        ByteBuffer[] frames = new ByteBuffer[cnt];
+        for (int i = 0; i < cnt; i++) {
+            readers[i] = DngReader.open(files.get(i));
+            frames[i] = nativeOrder(readers[i].readRaw(), readers[i].order());
+        }
+        timer.stage("load");
+
+        ParametersSnapshot shot = parameters(readers[0], values);
+        int width = shot.rawWidth;
+        int height = shot.rawHeight;
+        for (int i = 1; i < cnt; i++) {
+            if (readers[i].getWidth() != width || readers[i].getHeight() != height)
+                throw new IOException(files.get(i) + " does not match the size of " + files.get(0));
+        }
+        float[] layerMpy = new float[cnt];
+        long[] exposureTime = new long[cnt];
+        float minMpy = Float.MAX_VALUE;
+        for (int i = 0; i < cnt; i++) {
+            exposureTime[i] = values.getLong("frame." + i + ".exposureTime", readers[i].hasTag(DngTag.EXPOSURE_TIME)
+                    ? Math.round(readers[i].getDoubles(DngTag.EXPOSURE_TIME)[0] * 1e9) : 0);
+            int iso = values.getInt("frame." + i + ".iso", readers[i].hasTag(DngTag.ISO_SPEED_RATINGS)
+                    ? (int) readers[i].getLong(DngTag.ISO_SPEED_RATINGS) : shot.sensitivityIso);
+            layerMpy[i] = exposureTime[i] > 0 ? exposureTime[i] * (float) iso : 1.f;
+            minMpy = Math.min(minMpy, layerMpy[i]);
+        }
+        double noisempy = Math.pow(2.0, values.getDouble("mergeStrength", 0.0));
+        float noiseS = (float) Math.max(shot.withStackedFrames(1).noiseS() * noisempy, Float.MIN_NORMAL);
+        float noiseO = (float) Math.max(shot.withStackedFrames(1).noiseO() * noisempy, Float.MIN_NORMAL);
+        shot = shot.withStackedFrames(cnt);
+        Log.d(TAG, "Replaying " + cnt + " frames " + width + "x" + height + " " + shot);
+        timer.stage("parameters");
+
+        ForkJoinPool workers = pool != null ? pool : ForkJoinPool.commonPool();
+        float tilesPerSecond = 0.f;
+        if (align && cnt > 1) {
+            CpuTileAligner aligner = new CpuTileAligner().setPool(workers);
+            aligner.init(width, height, cnt);
+            aligner.loadFrame(frames[0], 1.f);
+            for (int i = 1; i < cnt; i++) aligner.loadFrame(frames[i], minMpy / layerMpy[i]);
+            aligner.outputBuffer(ByteBuffer.allocateDirect((cnt - 1) * CpuTileAligner.alignmentSize(width, height) * 4));
+            aligner.align();
+            tilesPerSecond = aligner.getTilesPerSecond();
+            timer.stage("align");
+        }
+
+        ByteBuffer gainMap = CpuDevelop.interpolateGainMap(shot);
+        timer.stage("gainmap");
+
+        CpuHdrxMerge merge = new CpuHdrxMerge().setPool(workers);
+        merge.init(width, height, cnt);
+        for (int i = 0; i < cnt; i++) merge.loadFrame(frames[i], FAKE_WL / shot.whiteLevel * (minMpy / layerMpy[i]));
+        ByteBuffer merged = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.nativeOrder());
+        merge.loadInterpolatedGainMap(gainMap);
+        merge.outputBuffer(merged);
+        merge.processFrame(noiseS, noiseO, 1.5f, 1, 0.f, 0.f, 0.f, shot.whiteLevel,
+                shot.whitePoint(0), shot.whitePoint(1), shot.whitePoint(2), shot.cfaPattern);
+        frames = null;
+        timer.stage("merge");
+
+        Files.createDirectories(output);
+        ParametersSnapshot result = shot.scaledToWhiteLevel(FAKE_WL);
+        new DngWriter(result)
+                .setDescription("Replayed " + cnt + " frames")
+                .setRotation(shot.cameraRotation)
+                .setExposure(exposureTime[0], shot.sensitivityIso, 0.f)
+                .setCompression(compression)
+                .setPool(workers)
+                .write(output.resolve(MERGED_DNG), merged, width * 2);
+        timer.stage("saveRaw");
+
+        ByteBuffer preview = CpuDevelop.preview(merged, result);
+        timer.stage("develop");
+
+        try (OutputStream out = Files.newOutputStream(output.resolve(PREVIEW_JPEG))) {
+            new JpegEncoder(values.getInt("jpegQuality", 97)).setPool(workers)
+                    .encode(preview, width / 2, height / 2, width / 2 * 4, out);
+        }
+        timer.stage("saveJpeg");
+
+        long skew = values.getLong("rollingShutterSkew", 0);
+        double[] rotation = new double[cnt];
+        for (int i = 0; i < cnt; i++) {
+            long timestamp = values.getLong("frame." + i + ".timestamp", 0);
+            if (values.gyroSamples() > 1 && timestamp > 0)
+                rotation[i] = values.rotation(timestamp, timestamp + exposureTime[i] + skew);
+        }
+        Report report = new Report(cnt, width, height, timer.stagesMs(), tilesPerSecond, rotation);
+        Files.write(output.resolve(REPORT), report.toString().getBytes(StandardCharsets.UTF_8));
+        return report;
+    }
+
+    private static List<Path> frames(Path burst) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(burst)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.US).endsWith(".dng"))
+                    files.add(path);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static ByteBuffer nativeOrder(ByteBuffer raw, ByteOrder order) {
+        if (order == ByteOrder.nativeOrder()) return raw.order(ByteOrder.nativeOrder());
+        ByteBuffer out = ByteBuffer.allocateDirect(raw.capacity()).order(ByteOrder.nativeOrder());
+        out.asShortBuffer().put(raw.duplicate().order(order).asShortBuffer());
+        return out;
+    }
+
+    /**
+     * Rebuilds the shot parameters from the tags of a DNG, values of the sidecar take
+     * precedence. Without a noise profile the generic {@link NoiseModeler} model is used.
+     */
+    public static ParametersSnapshot parameters(DngReader dng, ReplaySidecar values) {
+        ParametersSnapshot.Builder builder = new ParametersSnapshot.Builder()
+                .setRawSize(dng.getWidth(), dng.getHeight());
+        int cfaPattern = dng.hasTag(DngTag.CFA_PATTERN) ? cfaPattern(dng.getLongs(DngTag.CFA_PATTERN)) : 0;
+        builder.setCfaPattern(values.getInt("cfaPattern", cfaPattern));
+
+        float[] blackLevel = values.getFloats("blackLevel");
+        if (blackLevel == null) blackLevel = dng.hasTag(DngTag.BLACK_LEVEL) ? floats(dng.getDoubles(DngTag.BLACK_LEVEL)) : new float[1];
+        if (blackLevel.length < 4) blackLevel = new float[]{blackLevel[0], blackLevel[0], blackLevel[0], blackLevel[0]};
+        int whiteLevel = values.getInt("whiteLevel", dng.hasTag(DngTag.WHITE_LEVEL) ? (int) dng.getLong(DngTag.WHITE_LEVEL) : 65535);
+        builder.setLevels(blackLevel, whiteLevel, whiteLevel);
+
+        float[] neutral = values.getFloats("neutral");
+        if (neutral == null) neutral = dng.hasTag(DngTag.AS_SHOT_NEUTRAL) ? floats(dng.getDoubles(DngTag.AS_SHOT_NEUTRAL)) : new float[]{1.f, 1.f, 1.f};
+        builder.setWhitePoint(neutral);
+
+        int iso = values.getInt("iso", dng.hasTag(DngTag.ISO_SPEED_RATINGS) ? (int) dng.getLong(DngTag.ISO_SPEED_RATINGS) : 100);
+        int analogIso = values.getInt("analogIso", iso);
+        double[] profile = values.getDoubles("noiseProfile");
+        if (profile == null && dng.hasTag(DngTag.NOISE_PROFILE)) profile = dng.getDoubles(DngTag.NOISE_PROFILE);
+        builder.setNoise(noiseModel(profile, analogIso, iso), analogIso, iso);
+
+        float[] sensorToProPhoto = values.getFloats("sensorToProPhoto");
+        if (sensorToProPhoto == null) sensorToProPhoto = sensorToProPhoto(dng, neutral);
+        float[] proPhotoToSRGB = values.getFloats("proPhotoToSRGB");
+        if (proPhotoToSRGB == null) {
+            proPhotoToSRGB = new float[9];
+            Converter.multiply(Converter.HDRXCCM, Converter.sProPhotoToXYZ, proPhotoToSRGB);
+        }
+        builder.setColor(sensorToProPhoto, proPhotoToSRGB, null);
+
+        if (dng.hasTag(DngTag.OPCODE_LIST_2)) gainMap(builder, dng.getBytes(DngTag.OPCODE_LIST_2), values.getInt("cfaPattern", cfaPattern));
+        int rotation = dng.hasTag(DngTag.ORIENTATION) ? rotation((int) dng.getLong(DngTag.ORIENTATION)) : 0;
+        builder.setCameraRotation(values.getInt("cameraRotation", rotation));
+        return builder.build();
+    }
+
+    /**
+     * @param pattern DNG CFA pattern, colors of the 2x2 cell with 0 red, 1 green and 2 blue.
+     * @return CFA arrangement as used by the pipeline.
+     */
+    static int cfaPattern(long[] pattern) {
+        for (int cfa = 0; cfa < 4; cfa++) {
+            int[] channels = CpuHdrxMerge.cfaChannels(cfa);
+            boolean match = pattern.length >= 4;
+            for (int i = 0; i < 4 && match; i++) match = channels[i] == pattern[i];
+            if (match) return cfa;
+        }
+        return 0;
+    }
+
+    private static double[][] noiseModel(double[] profile, int analogIso, int iso) {
+        if (profile == null || profile.length < 2 || profile[0] <= 0.0) {
+            Log.d(TAG, "No noise profile, using the generic model");
+            return NoiseModeler.genericModel(analogIso, iso);
+        }
+        int pairs = profile.length / 2;
+        double[][] model = new double[3][2];
+        for (int c = 0; c < 3; c++) {
+            int pair;
+            if (pairs >= 4) pair = c == 0 ? 0 : c == 2 ? 3 : -1;
+            else pair = pairs == 3 ? c : 0;
+            if (pair < 0) {
+                model[c][0] = (profile[2] + profile[4]) / 2.0;
+                model[c][1] = (profile[3] + profile[5]) / 2.0;
+            } else {
+                model[c][0] = profile[pair * 2];
+                model[c][1] = profile[pair * 2 + 1];
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Sensor to ProPhoto transform from the forward matrices interpolated for the neutral like
+     * {@link com.particlesdevs.photoncamera.processing.render.Parameters} does, from ColorMatrix1
+     * without them, white balance only when the DNG has neither.
+     */
+    private static float[] sensorToProPhoto(DngReader dng, float[] neutral) {
+        float[] out = new float[9];
+        float[] forward1 = matrix(dng, DngTag.FORWARD_MATRIX_1);
+        if (forward1 != null) {
+            float[] forward2 = matrix(dng, DngTag.FORWARD_MATRIX_2);
+            float[] calibration1 = matrix(dng, DngTag.CAMERA_CALIBRATION_1);
+            float[] calibration2 = matrix(dng, DngTag.CAMERA_CALIBRATION_2);
+            if (calibration1 == null) calibration1 = new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+            if (calibration2 == null) calibration2 = calibration1;
+            double interpolationFactor = 0.0;
+            float[] colorMatrix1 = matrix(dng, DngTag.COLOR_MATRIX_1);
+            float[] colorMatrix2 = matrix(dng, DngTag.COLOR_MATRIX_2);
+            if (forward2 != null && colorMatrix1 != null && colorMatrix2 != null
+                    && dng.hasTag(DngTag.CALIBRATION_ILLUMINANT_2)) {
+                try {
+                    interpolationFactor = Converter.findDngInterpolationFactor(
+                            (int) dng.getLong(DngTag.CALIBRATION_ILLUMINANT_1), (int) dng.getLong(DngTag.CALIBRATION_ILLUMINANT_2),
+                            calibration1, calibration2, colorMatrix1, colorMatrix2, neutral);
+                } catch (IllegalArgumentException e) {
+                    Log.d(TAG, "No interpolation between illuminants:" + e.getMessage());
+                }
+            } else {
+                forward2 = forward1;
+            }
+            float[] sensorToXYZ = new float[9];
+            Converter.calculateCameraToXYZD50Transform(forward1, forward2, calibration1, calibration2,
+                    neutral, interpolationFactor, sensorToXYZ);
+            Converter.multiply(Converter.sXYZtoProPhoto, sensorToXYZ, out);
+            return out;
+        }
+        if (dng.hasTag(DngTag.COLOR_MATRIX_1) && dng.getDoubles(DngTag.COLOR_MATRIX_1).length == 9) {
+            float[] sensorToXYZ = new float[9];
+            if (Converter.invert(floats(dng.getDoubles(DngTag.COLOR_MATRIX_1)), sensorToXYZ)) {
+                Converter.multiply(Converter.sXYZtoProPhoto, sensorToXYZ, out);
+                return out;
+            }
+        }
+        for (int c = 0; c < 3; c++) out[c * 4] = 1.f / neutral[c];
+        return out;
+    }
+
+    private static float[] matrix(DngReader dng, int tag) {
+        if (!dng.hasTag(tag)) return null;
+        double[] values = dng.getDoubles(tag);
+        return values.length == 9 ? floats(values) : null;
+    }
+
+    /**
+     * Reads back the GainMap opcodes DngWriter stores, one per CFA position, into an R, Geven,
+     * Godd, B map.
+     */
+    private static void gainMap(ParametersSnapshot.Builder builder, byte[] opcodes, int cfaPattern) {
+        ByteBuffer in = ByteBuffer.wrap(opcodes).order(ByteOrder.BIG_ENDIAN);
+        int count = in.getInt();
+        int[] colors = CpuHdrxMerge.cfaChannels(cfaPattern);
+        float[] map = null;
+        int mapWidth = 0;
+        int mapHeight = 0;
+        for (int i = 0; i < count && in.remaining() >= 16; i++) {
+            int id = in.getInt();
+            in.getInt();
+            in.getInt();
+            int size = in.getInt();
+            int next = in.position() + size;
+            if (id == 9) {
+                int top = in.getInt();
+                int left = in.getInt();
+                in.position(in.position() + 8 + 16);
+                int height = in.getInt();
+                int width = in.getInt();
+                in.position(in.position() + 32);
+                int planes = in.getInt();
+                if (map == null) {
+                    mapWidth = width;
+                    mapHeight = height;
+                    map = new float[width * height * 4];
+                    for (int p = 0; p < map.length; p++) map[p] = 1.f;
+                }
+                if (width == mapWidth && height == mapHeight && top < 2 && left < 2) {
+                    int color = colors[top * 2 + left];
+                    int channel = color == 0 ? 0 : color == 2 ? 3 : top == 0 ? 1 : 2;
+                    for (int p = 0; p < width * height; p++) {
+                        map[p * 4 + channel] = in.getFloat();
+                        in.position(in.position() + (planes - 1) * 4);
+                    }
+                }
+            }
+            in.position(next);
+        }
+        if (map != null) builder.setGainMap(map, mapWidth, mapHeight, true);
+    }
+
+    private static int rotation(int orientation) {
+        switch (orientation) {
+            case 6:
+                return 90;
+            case 3:
+                return 180;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private static float[] floats(double[] values) {
+        float[] out = new float[values.length];
+        for (int i = 0; i < values.length; i++) out[i] = (float) values[i];
+        return out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: BurstReplay <burst dir> [-o <output dir>] [-sidecar <file>]"
+                    + " [-threads <n>] [-align] [-compress]");
+            System.exit(2);
+        }
+        Path burst = Paths.get(args[0]);
+        Path output = burst.resolve("replay");
+        Path sidecar = null;
+        boolean align = false;
+        int compression = DngTag.COMPRESSION_NONE;
+        int threads = 0;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    output = Paths.get(args[++i]);
+                    break;
+                case "-sidecar":
+                    sidecar = Paths.get(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-align":
+                    align = true;
+                    break;
+                case "-compress":
+                    compression = DngTag.COMPRESSION_LOSSLESS_JPEG;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        try {
+            Report report = new BurstReplay(burst, output).setSidecar(sidecar).setAlign(align)
+                    .setCompression(compression).setPool(pool).run();
+            System.out.print(report);
+            System.out.println("output=" + output.toAbsolutePath());
+        } finally {
+            if (threads > 0) pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.particlesdevs.photoncamera.processing.replay;
+
+import com.particlesdevs.photoncamera.processing.merge.CpuHdrxMerge;
+import com.particlesdevs.photoncamera.processing.render.Converter;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * CPU stand-ins for the GL stages around the merge, so a burst can be processed without a
+ * GL context.
+ */
+public class CpuDevelop {
+    /**
+     * Same output as the InterpolateGainMap script: the lens shading gain of every bayer
+     * position divided by 5, one float per pixel in native order. The map is sampled
+     * bilinearly instead of bicubically.
+     */
+    public static ByteBuffer interpolateGainMap(ParametersSnapshot parameters) {
+        int width = parameters.rawWidth;
+        int height = parameters.rawHeight;
+        int mapWidth = parameters.mapWidth;
+        int mapHeight = parameters.mapHeight;
+        float[] map = parameters.getGainMap();
+        if (map == null || map.length < mapWidth * mapHeight * 4) {
+            map = new float[]{1.f, 1.f, 1.f, 1.f};
+            mapWidth = 1;
+            mapHeight = 1;
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        FloatBuffer gains = out.asFloatBuffer();
+        int[] x0 = new int[width];
+        float[] fx = new float[width];
+        for (int x = 0; x < width; x++) {
+            float u = Math.max(0.f, Math.min(mapWidth - 1.f, (x + 0.5f) * mapWidth / width - 0.5f));
+            x0[x] = Math.min((int) u, Math.max(mapWidth - 2, 0));
+            fx[x] = mapWidth > 1 ? u - x0[x] : 0.f;
+        }
+        int offsetX = parameters.cfaPattern % 2;
+        int offsetY = parameters.cfaPattern / 2 % 2;
+        float[] row = new float[width];
+        for (int y = 0; y < height; y++) {
+            float v = Math.max(0.f, Math.min(mapHeight - 1.f, (y + 0.5f) * mapHeight / height - 0.5f));
+            int y0 = Math.min((int) v, Math.max(mapHeight - 2, 0));
+            int y1 = Math.min(y0 + 1, mapHeight - 1);
+            float fy = mapHeight > 1 ? v - y0 : 0.f;
+            int factY = Math.floorMod(y - offsetY, 2);
+            for (int x = 0; x < width; x++) {
+                int factX = Math.floorMod(x - offsetX, 2);
+                int xa = x0[x];
+                int xb = Math.min(xa + 1, mapWidth - 1);
+                float g;
+                if (factX + factY == 1) {
+                    g = (sample(map, mapWidth, xa, xb, y0, y1, fx[x], fy, 1)
+                            + sample(map, mapWidth, xa, xb, y0, y1, fx[x], fy, 2)) * 0.5f;
+                } else {
+                    g = sample(map, mapWidth, xa, xb, y0, y1, fx[x], fy, factX == 0 ? 0 : 3);
+                }
+                row[x] = g / 5.f;
+            }
+            gains.position(y * width);
+            gains.put(row);
+        }
+        return out;
+    }
+
+    private static float sample(float[] map, int mapWidth, int x0, int x1, int y0, int y1,
+                                float fx, float fy, int channel) {
+        float top = map[(y0 * mapWidth + x0) * 4 + channel] * (1.f - fx) + map[(y0 * mapWidth + x1) * 4 + channel] * fx;
+        float bottom = map[(y1 * mapWidth + x0) * 4 + channel] * (1.f - fx) + map[(y1 * mapWidth + x1) * 4 + channel] * fx;
+        return top * (1.f - fy) + bottom * fy;
+    }
+
+    /**
+     * Half resolution preview of a bayer frame: every 2x2 cell becomes one pixel, then black
+     * level, sensor to ProPhoto and ProPhoto to sRGB transforms and the sRGB curve are applied.
+     *
+     * @param raw 16 bit samples in native order, levels as given by the parameters.
+     * @return RGBA pixels, {@code rawWidth / 2} by {@code rawHeight / 2}.
+     */
+    public static ByteBuffer preview(ByteBuffer raw, ParametersSnapshot parameters) {
+        int width = parameters.rawWidth;
+        int outWidth = width / 2;
+        int outHeight = parameters.rawHeight / 2;
+        ShortBuffer samples = raw.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int[] channels = CpuHdrxMerge.cfaChannels(parameters.cfaPattern);
+        float[] black = parameters.getBlackLevel();
+        float[] scale = new float[4];
+        for (int i = 0; i < 4; i++) scale[i] = 1.f / Math.max(parameters.whiteLevel - black[i], 1.f);
+        float[] color = new float[9];
+        Converter.multiply(parameters.getProPhotoToSRGB(), parameters.getSensorToProPhoto(), color);
+        byte[] curve = srgbCurve();
+        ByteBuffer out = ByteBuffer.allocateDirect(outWidth * outHeight * 4);
+        short[] top = new short[width];
+        short[] bottom = new short[width];
+        float[] sensor = new float[3];
+        float[] counts = new float[3];
+        for (int y = 0; y < outHeight; y++) {
+            samples.position(y * 2 * width);
+            samples.get(top);
+            samples.get(bottom);
+            for (int x = 0; x < outWidth; x++) {
+                sensor[0] = sensor[1] = sensor[2] = 0.f;
+                counts[0] = counts[1] = counts[2] = 0.f;
+                for (int i = 0; i < 4; i++) {
+                    int value = ((i < 2 ? top : bottom)[x * 2 + (i & 1)]) & 0xFFFF;
+                    sensor[channels[i]] += (value - black[i]) * scale[i];
+                    counts[channels[i]]++;
+                }
+                for (int c = 0; c < 3; c++) sensor[c] = counts[c] > 0.f ? sensor[c] / counts[c] : 0.f;
+                int index = (y * outWidth + x) * 4;
+                for (int c = 0; c < 3; c++) {
+                    float v = color[c * 3] * sensor[0] + color[c * 3 + 1] * sensor[1] + color[c * 3 + 2] * sensor[2];
+                    out.put(index + c, curve[(int) (Math.max(0.f, Math.min(1.f, v)) * (curve.length - 1) + 0.5f)]);
+                }
+                out.put(index + 3, (byte) 0xFF);
+            }
+        }
+        return out;
+    }
+
+    private static byte[] srgbCurve() {
+        byte[] curve = new byte[4096];
+        for (int i = 0; i < curve.length; i++) {
+            double v = i / (double) (curve.length - 1);
+            v = v <= 0.0031308 ? v * 12.92 : 1.055 * Math.pow(v, 1.0 / 2.4) - 0.055;
+            curve[i] = (byte) Math.round(v * 255.0);
+        }
+        return curve;
+    }
+}
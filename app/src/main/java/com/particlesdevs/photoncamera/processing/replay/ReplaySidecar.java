@@ -0,0 +1,166 @@
+package com.particlesdevs.photoncamera.processing.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Capture metadata of a recorded burst that the DNG files do not carry.
+ * <p>
+ * The sidecar is a properties file with the {@code CaptureResult} values of the shot, every key
+ * is optional and overrides what is read from the first DNG:
+ * <pre>
+ *     cfaPattern=0                       SENSOR_INFO_COLOR_FILTER_ARRANGEMENT
+ *     blackLevel=64,64,64,64             SENSOR_DYNAMIC_BLACK_LEVEL
+ *     whiteLevel=1023                    SENSOR_DYNAMIC_WHITE_LEVEL
+ *     neutral=0.5,1,0.6                  SENSOR_NEUTRAL_COLOR_POINT
+ *     noiseProfile=S,O,S,O,S,O           SENSOR_NOISE_PROFILE, 1, 3 or 4 pairs
+ *     iso=400                            SENSOR_SENSITIVITY
+ *     analogIso=400                      SENSOR_MAX_ANALOG_SENSITIVITY
+ *     sensorToProPhoto=...               9 values, from the forward matrices
+ *     proPhotoToSRGB=...                 9 values
+ *     cameraRotation=90
+ *     mergeStrength=0                    Settings.mergeStrength
+ *     rollingShutterSkew=33000000        SENSOR_ROLLING_SHUTTER_SKEW
+ *     frame.N.timestamp=...              SENSOR_TIMESTAMP of the N-th DNG
+ *     frame.N.exposureTime=...           SENSOR_EXPOSURE_TIME
+ *     frame.N.iso=...                    SENSOR_SENSITIVITY
+ *     gyro=gyro.csv                      relative to the sidecar
+ * </pre>
+ * The gyro file has one sample per line, {@code timestampNs,x,y,z} in rad/s, in the
+ * SENSOR_TIMESTAMP time base. Lines starting with {@code #} are skipped.
+ */
+public class ReplaySidecar {
+    public static final String DEFAULT_NAME = "burst.properties";
+
+    private final Properties properties;
+    /**
+     * Gyro sample times in ns, ascending.
+     */
+    public final long[] gyroTimestamps;
+    /**
+     * Angular rates in rad/s as x, y, z per sample.
+     */
+    public final float[] gyroRates;
+
+    public ReplaySidecar(Properties properties, long[] gyroTimestamps, float[] gyroRates) {
+        this.properties = properties;
+        this.gyroTimestamps = gyroTimestamps;
+        this.gyroRates = gyroRates;
+    }
+
+    /**
+     * @return sidecar without any values, when the burst has none.
+     */
+    public static ReplaySidecar empty() {
+        return new ReplaySidecar(new Properties(), new long[0], new float[0]);
+    }
+
+    public static ReplaySidecar read(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String gyro = properties.getProperty("gyro");
+        if (gyro == null) return new ReplaySidecar(properties, new long[0], new float[0]);
+        Path parent = path.toAbsolutePath().getParent();
+        return readGyro(properties, parent.resolve(gyro));
+    }
+
+    private static ReplaySidecar readGyro(Properties properties, Path path) throws IOException {
+        List<String[]> samples = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] values = line.split("[,\\s]+");
+                if (values.length < 4) throw new IOException("Bad gyro sample: " + line);
+                samples.add(values);
+            }
+        }
+        long[] timestamps = new long[samples.size()];
+        float[] rates = new float[samples.size() * 3];
+        for (int i = 0; i < timestamps.length; i++) {
+            String[] values = samples.get(i);
+            timestamps[i] = Long.parseLong(values[0]);
+            for (int c = 0; c < 3; c++) rates[i * 3 + c] = Float.parseFloat(values[c + 1]);
+            if (i > 0 && timestamps[i] < timestamps[i - 1])
+                throw new IOException("Gyro samples are not sorted at line " + (i + 1));
+        }
+        return new ReplaySidecar(properties, timestamps, rates);
+    }
+
+    public boolean has(String key) {
+        return properties.getProperty(key) != null;
+    }
+
+    public int getInt(String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    public long getLong(String key, long fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Long.parseLong(value.trim());
+    }
+
+    public double getDouble(String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * @return comma separated values of the key, or null if it is not set.
+     */
+    public double[] getDoubles(String key) {
+        String value = properties.getProperty(key);
+        if (value == null) return null;
+        String[] parts = value.trim().split("[,\\s]+");
+        double[] out = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Double.parseDouble(parts[i]);
+        return out;
+    }
+
+    public float[] getFloats(String key) {
+        double[] values = getDoubles(key);
+        if (values == null) return null;
+        float[] out = new float[values.length];
+        for (int i = 0; i < values.length; i++) out[i] = (float) values[i];
+        return out;
+    }
+
+    public int gyroSamples() {
+        return gyroTimestamps.length;
+    }
+
+    /**
+     * Rotation angle accumulated between two timestamps, integrating the magnitude of the
+     * angular rate with the trapezoid rule.
+     *
+     * @return angle in radians, 0 when no gyro samples cover the interval.
+     */
+    public double rotation(long from, long to) {
+        double angle = 0.0;
+        for (int i = 1; i < gyroTimestamps.length; i++) {
+            long t0 = Math.max(gyroTimestamps[i - 1], from);
+            long t1 = Math.min(gyroTimestamps[i], to);
+            if (t1 <= t0) continue;
+            angle += (rate(i - 1) + rate(i)) * 0.5 * (t1 - t0) * 1e-9;
+        }
+        return angle;
+    }
+
+    private double rate(int sample) {
+        double x = gyroRates[sample * 3];
+        double y = gyroRates[sample * 3 + 1];
+        double z = gyroRates[sample * 3 + 2];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+}
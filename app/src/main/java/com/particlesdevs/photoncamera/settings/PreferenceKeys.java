@@ -45,6 +45,10 @@ public class PreferenceKeys {
         COMMON_KEYS.add(Key.KEY_AE_MODE.mValue);
         COMMON_KEYS.add(Key.CAMERA_MODE.mValue);
         COMMON_KEYS.add(Key.KEY_SAVE_RAW.mValue);
+        COMMON_KEYS.add(Key.KEY_COMPRESS_RAW.mValue);
+        COMMON_KEYS.add(Key.KEY_PROCESSING_MEMORY.mValue);
+        COMMON_KEYS.add(Key.KEY_STREAMING_MERGE.mValue);
+        COMMON_KEYS.add(Key.KEY_PARALLEL_JPEG.mValue);
     }
 
     private final SettingsManager settingsManager;
@@ -190,6 +194,31 @@ public class PreferenceKeys {
         return preferenceKeys.settingsManager.getInteger(SCOPE_GLOBAL, Key.KEY_SAVE_RAW);
     }
 
+    public static boolean isCompressRawOn() {
+        return preferenceKeys.settingsManager.getBoolean(SCOPE_GLOBAL, Key.KEY_COMPRESS_RAW);
+    }
+
+    /**
+     * @return megabytes processing may hold, 0 to size it from the device memory.
+     */
+    public static int getProcessingMemoryValue() {
+        return preferenceKeys.settingsManager.getInteger(SCOPE_GLOBAL, Key.KEY_PROCESSING_MEMORY, 0);
+    }
+
+    /**
+     * @return true to merge burst frames while they are captured instead of after the burst.
+     */
+    public static boolean isStreamingMergeOn() {
+        return preferenceKeys.settingsManager.getBoolean(SCOPE_GLOBAL, Key.KEY_STREAMING_MERGE);
+    }
+
+    /**
+     * @return true to encode the final JPEG with the parallel Java encoder instead of Bitmap.compress.
+     */
+    public static boolean isParallelJpegOn() {
+        return preferenceKeys.settingsManager.getBoolean(SCOPE_GLOBAL, Key.KEY_PARALLEL_JPEG);
+    }
+
     public static boolean isBatterySaverOn(){
         return getBool(PreferenceKeys.Key.KEY_ENERGY_SAVING);
     }
@@ -406,6 +435,10 @@ public class PreferenceKeys {
         KEY_PREVIEW_RESOLUTION(R.string.pref_preview_resolution_key),////TODO add preview resolution selector
         KEY_SHOW_AF_DATA(R.string.pref_show_afdata_key),
         KEY_SAVE_RAW(R.string.pref_save_raw_key),
+        KEY_COMPRESS_RAW(R.string.pref_compress_raw_key),
+        KEY_PROCESSING_MEMORY(R.string.pref_processing_memory_key),
+        KEY_STREAMING_MERGE(R.string.pref_streaming_merge_key),
+        KEY_PARALLEL_JPEG(R.string.pref_parallel_jpeg_key),
         KEY_CFA(R.string.pref_cfa_key),
         KEY_REMOSAIC(R.string.pref_remosaic_key),////TODO
 
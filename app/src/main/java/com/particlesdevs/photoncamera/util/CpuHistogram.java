@@ -0,0 +1,263 @@
+package com.particlesdevs.photoncamera.util;
+
+import android.util.Log;
+
+import com.particlesdevs.photoncamera.processing.merge.CpuHdrxMerge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Four channel histograms on the CPU, the same {@code int[4][histSize]} the histogram compute
+ * shader of {@link com.particlesdevs.photoncamera.processing.opengl.scripts.GLHistogram} gives.
+ * <p>
+ * Every {@link #resize}-th pixel of every {@link #resize}-th row is counted, in bin
+ * {@code (int) (value * histSize)} of its channel, and values outside the bins are dropped as the
+ * shader drops them. Rows are split over the pool, every band counts into its own histograms and
+ * bands are summed pairwise when they join, so threads never share a counter.
+ * <p>
+ * RGBA8 and half float samples are binned through a table of every possible value, Bayer RAW16
+ * through a table of every sample level. Bayer frames count red, both greens and blue into the
+ * first three histograms and the mean of every bayer quad into the fourth, sampling every
+ * {@link #resize}-th quad.
+ */
+public class CpuHistogram {
+    private static final String TAG = "CpuHistogram";
+    private static final int RGBA8 = 0;
+    private static final int RGBA16F = 1;
+    private static final int RGBA32F = 2;
+
+    public final int histSize;
+    /**
+     * Pixels between two samples along each axis.
+     */
+    public int resize = 3;
+    /**
+     * Histograms to count, red, green, blue and alpha.
+     */
+    public final boolean[] channels = {true, true, true, true};
+    public int[][] outputArr;
+    private ForkJoinPool pool;
+    private int[] halfBins;
+    /**
+     * Time the last histogram took.
+     */
+    public double lastComputeMs;
+
+    public CpuHistogram() {
+        this(256);
+    }
+
+    public CpuHistogram(int histSize) {
+        if (histSize <= 0) throw new IllegalArgumentException("Invalid histogram size " + histSize);
+        this.histSize = histSize;
+    }
+
+    public CpuHistogram setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @param rowStride bytes per row, 4 per pixel without padding.
+     */
+    public int[][] computeRgba8(ByteBuffer in, int width, int height, int rowStride) {
+        return compute(in, width, height, rowStride, RGBA8);
+    }
+
+    /**
+     * @param in        RGBA half floats in native byte order.
+     * @param rowStride bytes per row, 8 per pixel without padding.
+     */
+    public int[][] computeRgba16f(ByteBuffer in, int width, int height, int rowStride) {
+        if (halfBins == null) {
+            halfBins = new int[65536];
+            for (int h = 0; h < 65536; h++) halfBins[h] = bin(halfToFloat(h));
+        }
+        return compute(in, width, height, rowStride, RGBA16F);
+    }
+
+    /**
+     * @param in        RGBA floats in native byte order, as GL reads back half float textures.
+     * @param rowStride bytes per row, 16 per pixel without padding.
+     */
+    public int[][] computeRgba32f(ByteBuffer in, int width, int height, int rowStride) {
+        return compute(in, width, height, rowStride, RGBA32F);
+    }
+
+    /**
+     * @param in         RAW16 samples in native byte order.
+     * @param rowStride  bytes per row.
+     * @param blackLevel level binned at 0.
+     * @param whiteLevel level binned at 1, dropped as the shader drops 1.
+     */
+    public int[][] computeBayer(ByteBuffer in, int width, int height, int rowStride, int cfaPattern,
+                                float blackLevel, float whiteLevel) {
+        long start = System.nanoTime();
+        ShortBuffer samples = in.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        int stride = rowStride / 2;
+        int[] levelBins = new int[65536];
+        float[] levels = new float[65536];
+        float range = Math.max(whiteLevel - blackLevel, 1e-6f);
+        for (int s = 0; s < 65536; s++) {
+            levels[s] = (s - blackLevel) / range;
+            levelBins[s] = bin(levels[s]);
+        }
+        int[] quadChannels = CpuHdrxMerge.cfaChannels(cfaPattern);
+        int step = Math.max(resize, 1) * 2;
+        int quadsX = (width / 2 + Math.max(resize, 1) - 1) / Math.max(resize, 1);
+        int rows = (height / 2 + Math.max(resize, 1) - 1) / Math.max(resize, 1);
+        outputArr = pool().invoke(new Band(0, rows, grain(rows), (row, out) -> {
+            int p = row * step * stride;
+            for (int q = 0; q < quadsX; q++) {
+                int x = p + q * step;
+                int s0 = samples.get(x) & 0xFFFF;
+                int s1 = samples.get(x + 1) & 0xFFFF;
+                int s2 = samples.get(x + stride) & 0xFFFF;
+                int s3 = samples.get(x + stride + 1) & 0xFFFF;
+                count(out, quadChannels[0], levelBins[s0]);
+                count(out, quadChannels[1], levelBins[s1]);
+                count(out, quadChannels[2], levelBins[s2]);
+                count(out, quadChannels[3], levelBins[s3]);
+                if (channels[3]) {
+                    int b = bin((levels[s0] + levels[s1] + levels[s2] + levels[s3]) * 0.25f);
+                    if (b >= 0) out[3][b]++;
+                }
+            }
+        }));
+        finish(start);
+        return outputArr;
+    }
+
+    private void count(int[][] out, int channel, int bin) {
+        if (bin >= 0 && channels[channel]) out[channel][bin]++;
+    }
+
+    private int[][] compute(ByteBuffer in, int width, int height, int rowStride, int layout) {
+        long start = System.nanoTime();
+        int step = Math.max(resize, 1);
+        int columns = (width + step - 1) / step;
+        int rows = (height + step - 1) / step;
+        ByteBuffer bytes = in.duplicate().order(ByteOrder.nativeOrder());
+        ShortBuffer halves = layout == RGBA16F ? bytes.asShortBuffer() : null;
+        FloatBuffer floats = layout == RGBA32F ? bytes.asFloatBuffer() : null;
+        int[] byteBins = new int[256];
+        for (int v = 0; v < 256; v++) byteBins[v] = bin(v / 255.f);
+        int[] halfBins = this.halfBins;
+        outputArr = pool().invoke(new Band(0, rows, grain(rows), (row, out) -> {
+            for (int c = 0; c < 4; c++) {
+                if (!channels[c]) continue;
+                int[] hist = out[c];
+                switch (layout) {
+                    case RGBA8: {
+                        int p = row * step * rowStride + c;
+                        for (int x = 0; x < columns; x++) {
+                            int b = byteBins[bytes.get(p + x * step * 4) & 0xFF];
+                            if (b >= 0) hist[b]++;
+                        }
+                        break;
+                    }
+                    case RGBA16F: {
+                        int p = row * step * (rowStride / 2) + c;
+                        for (int x = 0; x < columns; x++) {
+                            int b = halfBins[halves.get(p + x * step * 4) & 0xFFFF];
+                            if (b >= 0) hist[b]++;
+                        }
+                        break;
+                    }
+                    default: {
+                        int p = row * step * (rowStride / 4) + c;
+                        for (int x = 0; x < columns; x++) {
+                            int b = bin(floats.get(p + x * step * 4));
+                            if (b >= 0) hist[b]++;
+                        }
+                        break;
+                    }
+                }
+            }
+        }));
+        finish(start);
+        return outputArr;
+    }
+
+    private void finish(long start) {
+        lastComputeMs = (System.nanoTime() - start) / 1e6;
+        Log.d(TAG, "Histogram " + histSize + " elapsed:" + lastComputeMs + " ms");
+    }
+
+    /**
+     * @return bin of a value, -1 outside the histogram.
+     */
+    private int bin(float value) {
+        float scaled = value * histSize;
+        if (!(scaled > -1.f) || scaled >= histSize) return -1;
+        return (int) scaled;
+    }
+
+    /**
+     * Sampled rows per band, a few bands per thread so uneven rows even out.
+     */
+    private int grain(int rows) {
+        return Math.max(1, rows / (pool().getParallelism() * 4));
+    }
+
+    private ForkJoinPool pool() {
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    static float halfToFloat(int half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        if (exponent == 0x1F) return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        if (exponent == 0) {
+            float value = mantissa * (1.f / (1 << 24));
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    private interface RowCounter {
+        void count(int row, int[][] out);
+    }
+
+    /**
+     * Rows of one band counted into histograms of its own.
+     */
+    @SuppressWarnings("serial")
+    private final class Band extends RecursiveTask<int[][]> {
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RowCounter counter;
+
+        Band(int from, int to, int grain, RowCounter counter) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.counter = counter;
+        }
+
+        @Override
+        protected int[][] compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                Band right = new Band(middle, to, grain, counter);
+                right.fork();
+                int[][] out = new Band(from, middle, grain, counter).compute();
+                int[][] other = right.join();
+                for (int c = 0; c < 4; c++) {
+                    for (int i = 0; i < histSize; i++) out[c][i] += other[c][i];
+                }
+                return out;
+            }
+            int[][] out = new int[4][histSize];
+            for (int row = from; row < to; row++) counter.count(row, out);
+            return out;
+        }
+    }
+}
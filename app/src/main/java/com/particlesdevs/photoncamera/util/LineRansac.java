@@ -0,0 +1,230 @@
+package com.particlesdevs.photoncamera.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RANSAC fit of a line y = slope * x + intercept on primitive arrays.
+ * <p>
+ * Every hypothesis is the line through two distinct points, points within {@code threshold}
+ * perpendicular distance of it are its inliers. Hypotheses are evaluated in batches of
+ * {@link #BATCH}, the best one is kept and after each batch the iteration count is cut to what
+ * the inlier ratio found so far needs for the requested confidence. The consensus set of the
+ * best hypothesis is then refitted with least squares.
+ * <p>
+ * The points of hypothesis {@code i} are drawn from a counter based generator seeded with
+ * {@code seed} and {@code i}, and ties go to the lower index, so the result depends only on the
+ * seed and not on how batches are split over a pool. Scratch is kept between calls, a fitter
+ * is not thread safe.
+ */
+public class LineRansac {
+    public static final int BATCH = 64;
+    /**
+     * Hypotheses below which a batch is not split further on the pool.
+     */
+    private static final int SPLIT = 8;
+
+    private long seed = 0x5DEECE66DL;
+    private double confidence = 0.99;
+    private ForkJoinPool pool;
+    private double[] indexX = new double[0];
+    private final double[] batchSlope = new double[BATCH];
+    private final double[] batchIntercept = new double[BATCH];
+    private final int[] batchInliers = new int[BATCH];
+
+    /**
+     * Result of the last fit, 0 when no hypothesis reached the inlier ratio.
+     */
+    public double slope;
+    public double intercept;
+    /**
+     * Inliers of the best hypothesis.
+     */
+    public int inliers;
+    /**
+     * Hypotheses evaluated by the last fit.
+     */
+    public int iterations;
+
+    public LineRansac setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param confidence probability of drawing an all inlier pair before stopping, 1 always
+     *                   runs every iteration.
+     */
+    public LineRansac setConfidence(double confidence) {
+        this.confidence = confidence;
+        return this;
+    }
+
+    /**
+     * @param pool pool to evaluate hypotheses on, null to evaluate them on the calling thread.
+     */
+    public LineRansac setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Fits {@code y[i]} against {@code x = i + 1}, the abscissa {@link RANSAC#perform} uses.
+     */
+    public boolean fit(double[] y, int count, int maxIterations, double threshold, double inlierRatio) {
+        if (indexX.length < count) {
+            indexX = new double[count];
+            for (int i = 0; i < count; i++) indexX[i] = i + 1;
+        }
+        return fit(indexX, y, count, maxIterations, threshold, inlierRatio);
+    }
+
+    /**
+     * @param count         points used from the start of {@code x} and {@code y}.
+     * @param maxIterations hypotheses to evaluate at most.
+     * @param threshold     largest perpendicular distance of an inlier.
+     * @param inlierRatio   part of the points a hypothesis needs as inliers to be accepted.
+     * @return true when a hypothesis was accepted.
+     */
+    public boolean fit(double[] x, double[] y, int count, int maxIterations, double threshold, double inlierRatio) {
+        slope = 0.0;
+        intercept = 0.0;
+        inliers = 0;
+        iterations = 0;
+        if (count < 2) return false;
+        long minInliers = Math.round(inlierRatio * count);
+        int best = -1;
+        double bestSlope = 0.0;
+        double bestIntercept = 0.0;
+        int limit = maxIterations;
+        while (iterations < limit) {
+            int size = Math.min(BATCH, limit - iterations);
+            if (pool != null && size > SPLIT) {
+                pool.invoke(new Batch(x, y, count, threshold, iterations, 0, size));
+            } else {
+                for (int i = 0; i < size; i++) evaluate(x, y, count, threshold, iterations, i);
+            }
+            for (int i = 0; i < size; i++) {
+                if (batchInliers[i] >= minInliers && batchInliers[i] > best) {
+                    best = batchInliers[i];
+                    bestSlope = batchSlope[i];
+                    bestIntercept = batchIntercept[i];
+                }
+            }
+            iterations += size;
+            if (best > 0) limit = Math.min(limit, requiredIterations(best / (double) count));
+        }
+        if (best < 0) return false;
+        inliers = best;
+        slope = bestSlope;
+        intercept = bestIntercept;
+        refit(x, y, count, threshold);
+        return true;
+    }
+
+    /**
+     * @return hypotheses needed to draw one all inlier pair with the configured confidence.
+     */
+    private int requiredIterations(double inlierRatio) {
+        if (confidence >= 1.0) return Integer.MAX_VALUE;
+        double allInliers = inlierRatio * inlierRatio;
+        if (allInliers >= 1.0) return 0;
+        if (allInliers <= 0.0) return Integer.MAX_VALUE;
+        double needed = Math.log(1.0 - confidence) / Math.log(1.0 - allInliers);
+        return needed >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.ceil(needed);
+    }
+
+    /**
+     * Least squares line through the inliers of the current line, kept when it is defined.
+     */
+    private void refit(double[] x, double[] y, int count, double threshold) {
+        double dx = 1.0;
+        double dy = slope;
+        double norm = Math.sqrt(dx * dx + dy * dy);
+        double nx = -dy / norm;
+        double ny = dx / norm;
+        double sx = 0.0;
+        double sy = 0.0;
+        double sxx = 0.0;
+        double sxy = 0.0;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(nx * x[i] + ny * (y[i] - intercept)) > threshold) continue;
+            sx += x[i];
+            sy += y[i];
+            sxx += x[i] * x[i];
+            sxy += x[i] * y[i];
+            n++;
+        }
+        double det = n * sxx - sx * sx;
+        if (n < 2 || Math.abs(det) < 1e-12 * Math.max(1.0, n * sxx)) return;
+        slope = (n * sxy - sx * sy) / det;
+        intercept = (sy - slope * sx) / n;
+    }
+
+    /**
+     * Counts the inliers of hypothesis {@code first + slot} into the batch scratch.
+     */
+    private void evaluate(double[] x, double[] y, int count, double threshold, int first, int slot) {
+        long state = mix(seed + (first + slot) * 0x9E3779B97F4A7C15L);
+        int i0 = (int) ((state >>> 1) % count);
+        int i1 = (int) ((mix(state) >>> 1) % (count - 1));
+        if (i1 >= i0) i1++;
+        double x0 = x[i0];
+        double y0 = y[i0];
+        double dx = x[i1] - x0;
+        double dy = y[i1] - y0;
+        double norm = Math.sqrt(dx * dx + dy * dy);
+        if (dx == 0.0 || norm == 0.0) {
+            batchInliers[slot] = -1;
+            return;
+        }
+        double nx = -dy / norm;
+        double ny = dx / norm;
+        int inside = 0;
+        for (int j = 0; j < count; j++) {
+            if (Math.abs(nx * (x[j] - x0) + ny * (y[j] - y0)) <= threshold) inside++;
+        }
+        batchInliers[slot] = inside;
+        batchSlope[slot] = dy / dx;
+        batchIntercept[slot] = y0 - dy / dx * x0;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @SuppressWarnings("serial")
+    private final class Batch extends RecursiveAction {
+        private final double[] x;
+        private final double[] y;
+        private final int count;
+        private final double threshold;
+        private final int first;
+        private final int from;
+        private final int to;
+
+        Batch(double[] x, double[] y, int count, double threshold, int first, int from, int to) {
+            this.x = x;
+            this.y = y;
+            this.count = count;
+            this.threshold = threshold;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (pool != null && to - from > SPLIT) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(x, y, count, threshold, first, from, middle),
+                        new Batch(x, y, count, threshold, first, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) evaluate(x, y, count, threshold, first, i);
+        }
+    }
+}
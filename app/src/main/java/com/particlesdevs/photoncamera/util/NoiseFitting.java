@@ -40,51 +40,227 @@ public class NoiseFitting {
         }
     }
 
-    public static NoiseParameters findParameters(List<DataPoint> data) {
-        if (data.size() < 2) {
-            Log.e("CurveFitting", "Not enough data points to fit a curve");
-            return new NoiseParameters(0, 0, 0);
+    /**
+     * Streaming weighted least squares fit of N^2 = w * S + O.
+     * <p>
+     * Observations only update six sums, so any number of them can be added in constant
+     * memory, and accumulators filled on different threads can be merged before solving.
+     */
+    public static class Accumulator {
+        private double sumA;
+        private double sumAW;
+        private double sumAWW;
+        private double sumAZ;
+        private double sumAWZ;
+        private double sumAZZ;
+        private long count;
+
+        public void add(double w, double N) {
+            add(w, N, 1.0);
         }
 
-        // Step 1: Find S using all possible pairs and average the results
-        double sumS = 0;
-        int pairCount = 0;
+        /**
+         * @param weight weight of the observation, e.g. the pixel count of its patch.
+         */
+        public void add(double w, double N, double weight) {
+            double z = N * N;
+            sumA += weight;
+            sumAW += weight * w;
+            sumAWW += weight * w * w;
+            sumAZ += weight * z;
+            sumAWZ += weight * w * z;
+            sumAZZ += weight * z * z;
+            count++;
+        }
 
-        for (int i = 0; i < data.size(); i++) {
-            for (int j = i + 1; j < data.size(); j++) {
-                DataPoint p1 = data.get(i);
-                DataPoint p2 = data.get(j);
+        /**
+         * Adds the observations of another accumulator to this one.
+         */
+        public Accumulator merge(Accumulator other) {
+            sumA += other.sumA;
+            sumAW += other.sumAW;
+            sumAWW += other.sumAWW;
+            sumAZ += other.sumAZ;
+            sumAWZ += other.sumAWZ;
+            sumAZZ += other.sumAZZ;
+            count += other.count;
+            return this;
+        }
 
-                double wDiff = p1.w - p2.w;
-                if (Math.abs(wDiff) < 1e-10) continue; // Skip if w values are too close
+        public void reset() {
+            sumA = sumAW = sumAWW = sumAZ = sumAWZ = sumAZZ = 0.0;
+            count = 0;
+        }
 
-                // N1^2 - N2^2 = (w1-w2)*S
-                // Therefore S = (N1^2 - N2^2)/(w1-w2)
-                double S = (p1.N * p1.N - p2.N * p2.N) / wDiff;
-                sumS += S;
-                pairCount++;
-            }
+        public long count() {
+            return count;
         }
 
-        if (pairCount == 0) {
-            throw new IllegalArgumentException("No valid pairs found to calculate S");
+        /**
+         * @return the sums and the count, to persist the accumulator.
+         */
+        public double[] toArray() {
+            return new double[]{sumA, sumAW, sumAWW, sumAZ, sumAWZ, sumAZZ, count};
         }
 
-        double S = sumS / pairCount;
+        /**
+         * @param state array written by {@link #toArray()}.
+         */
+        public static Accumulator fromArray(double[] state) {
+            Accumulator accumulator = new Accumulator();
+            accumulator.sumA = state[0];
+            accumulator.sumAW = state[1];
+            accumulator.sumAWW = state[2];
+            accumulator.sumAZ = state[3];
+            accumulator.sumAWZ = state[4];
+            accumulator.sumAZZ = state[5];
+            accumulator.count = (long) state[6];
+            return accumulator;
+        }
 
-        // Step 2: Find O by averaging O values calculated from each point
-        double sumO = 0;
-        for (DataPoint p : data) {
-            // N^2 = w*S + O
-            // Therefore O = N^2 - w*S
-            double O = p.N * p.N - p.w * S;
-            sumO += O;
+        /**
+         * @return S and O minimizing the weighted squared error of N^2. The error is the weighted
+         * RMSE of N^2, the RMSE of N needs the observations, see {@link #calculateRMSE}. When all
+         * observations share one w, S is 0 and O their mean.
+         */
+        public NoiseParameters solve() {
+            if (sumA <= 0.0) return new NoiseParameters(0, 0, 0);
+            double det = sumA * sumAWW - sumAW * sumAW;
+            double S;
+            double O;
+            if (Math.abs(det) <= 1e-12 * sumA * sumAWW) {
+                S = 0.0;
+                O = sumAZ / sumA;
+            } else {
+                S = (sumA * sumAWZ - sumAW * sumAZ) / det;
+                O = (sumAZ - S * sumAW) / sumA;
+            }
+            double squared = sumAZZ - 2.0 * S * sumAWZ - 2.0 * O * sumAZ
+                    + S * S * sumAWW + 2.0 * S * O * sumAW + O * O * sumA;
+            return new NoiseParameters(S, O, Math.sqrt(Math.max(squared, 0.0) / sumA));
+        }
+    }
+
+    /**
+     * Huber threshold in robust standard deviations of the relative residual.
+     */
+    private static final double HUBER_K = 1.345;
+    /**
+     * Median absolute deviation to standard deviation of a normal distribution.
+     */
+    private static final double MAD_SCALE = 1.4826;
+
+    /**
+     * Robust fit of N^2 = w * S + O in linear time.
+     * <p>
+     * The first pass is an ordinary least squares fit. Each further pass weights every
+     * observation by 1 / predicted^2, the inverse variance of a sample variance, and by the
+     * Huber weight of its relative residual, so outlier patches lose influence instead of
+     * pulling the fit. The residual scale is the median absolute residual of the previous pass,
+     * found by selection so a pass stays linear.
+     *
+     * @param w          mean brightness of each observation.
+     * @param N          noise standard deviation of each observation.
+     * @param weights    per observation weights, null for equal weights.
+     * @param iterations reweighted passes after the first one.
+     * @return S and O, error is the RMSE of N as in {@link #calculateRMSE}.
+     */
+    public static NoiseParameters fitHuber(double[] w, double[] N, double[] weights, int count, int iterations) {
+        Accumulator accumulator = new Accumulator();
+        for (int i = 0; i < count; i++) accumulator.add(w[i], N[i], weights == null ? 1.0 : weights[i]);
+        NoiseParameters fit = accumulator.solve();
+        double[] passWeights = iterations > 0 && count > 0 ? new double[count] : null;
+        for (int pass = 0; passWeights != null && pass < iterations; pass++) {
+            if (!huberWeights(w, N, weights, count, fit, passWeights)) break;
+            accumulator.reset();
+            for (int i = 0; i < count; i++) accumulator.add(w[i], N[i], passWeights[i]);
+            fit = accumulator.solve();
+        }
+        double sumSquaredError = 0;
+        for (int i = 0; i < count; i++) {
+            double error = Math.sqrt(Math.max(w[i] * fit.S + fit.O, 1e-10)) - N[i];
+            sumSquaredError += error * error;
+        }
+        fit.error = Math.sqrt(sumSquaredError / Math.max(count, 1));
+        return fit;
+    }
+
+    /**
+     * Weights of a reweighted pass around {@code model}: 1 / predicted^2 times the Huber weight of
+     * the relative residual, times {@code weights} when given.
+     *
+     * @param out weights of the pass, used as scratch first so it must not be {@code weights}.
+     * @return false when the model fits exactly and there is nothing to reweight.
+     */
+    public static boolean huberWeights(double[] w, double[] N, double[] weights, int count,
+                                       NoiseParameters model, double[] out) {
+        if (count == 0) return false;
+        for (int i = 0; i < count; i++) {
+            double predicted = Math.max(w[i] * model.S + model.O, 1e-10);
+            out[i] = Math.abs(N[i] * N[i] - predicted) / predicted;
         }
-        double O = sumO / data.size();
+        double threshold = HUBER_K * MAD_SCALE * select(out, count, count / 2);
+        if (threshold < 1e-12) return false;
+        for (int i = 0; i < count; i++) {
+            double predicted = Math.max(w[i] * model.S + model.O, 1e-10);
+            double u = Math.abs(N[i] * N[i] - predicted) / predicted;
+            double huber = u <= threshold ? 1.0 : threshold / u;
+            double weight = weights == null ? 1.0 : weights[i];
+            out[i] = weight * huber / (predicted * predicted);
+        }
+        return true;
+    }
 
-        double error = calculateRMSE(data, new NoiseParameters(S, O));
+    /**
+     * Quickselect, reorders the first {@code count} values of {@code values}.
+     *
+     * @return the {@code k}-th smallest of them.
+     */
+    private static double select(double[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double t = values[i];
+                    values[i] = values[j];
+                    values[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) right = j;
+            else if (k >= i) left = i;
+            else break;
+        }
+        return values[k];
+    }
 
-        return new NoiseParameters(S, O, error);
+    public static NoiseParameters findParameters(List<DataPoint> data) {
+        if (data.size() < 2) {
+            Log.e("CurveFitting", "Not enough data points to fit a curve");
+            return new NoiseParameters(0, 0, 0);
+        }
+        double[] w = new double[data.size()];
+        double[] N = new double[data.size()];
+        double minW = Double.MAX_VALUE;
+        double maxW = -Double.MAX_VALUE;
+        for (int i = 0; i < w.length; i++) {
+            DataPoint p = data.get(i);
+            w[i] = p.w;
+            N[i] = p.N;
+            minW = Math.min(minW, p.w);
+            maxW = Math.max(maxW, p.w);
+        }
+        if (maxW - minW < 1e-10) {
+            throw new IllegalArgumentException("No valid pairs found to calculate S");
+        }
+        return fitHuber(w, N, null, w.length, 3);
     }
 
     /**
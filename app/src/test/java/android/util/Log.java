@@ -21,6 +21,13 @@ public class Log {
         return 0;
     }
 
+    public static String getStackTraceString(Throwable tr) {
+        if (tr == null) return "";
+        java.io.StringWriter sw = new java.io.StringWriter();
+        tr.printStackTrace(new java.io.PrintWriter(sw));
+        return sw.toString();
+    }
+
     public static boolean isLoggable(String tag, int level) {
         return false;
     }
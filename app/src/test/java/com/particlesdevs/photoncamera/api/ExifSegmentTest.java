@@ -0,0 +1,162 @@
+package com.particlesdevs.photoncamera.api;
+
+import com.particlesdevs.photoncamera.processing.dng.DngTag;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ExifSegmentTest {
+    /**
+     * Entry offsets of one IFD of the TIFF structure in {@code tiff}, by tag.
+     */
+    private static Map<Integer, Integer> readIfd(ByteBuffer tiff, int offset) {
+        Map<Integer, Integer> entries = new HashMap<>();
+        int count = tiff.getShort(offset) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12;
+            entries.put(tiff.getShort(entry) & 0xFFFF, entry);
+        }
+        return entries;
+    }
+
+    private static int valueOffset(ByteBuffer tiff, int entry) {
+        int size = DngTag.typeSize(tiff.getShort(entry + 2)) * tiff.getInt(entry + 4);
+        return size <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+    }
+
+    private static String ascii(ByteBuffer tiff, int entry) {
+        byte[] value = new byte[tiff.getInt(entry + 4) - 1];
+        ByteBuffer view = tiff.duplicate();
+        view.position(valueOffset(tiff, entry));
+        view.get(value);
+        return new String(value, StandardCharsets.US_ASCII);
+    }
+
+    private static double rational(ByteBuffer tiff, int entry) {
+        int offset = valueOffset(tiff, entry);
+        return (tiff.getInt(offset) & 0xFFFFFFFFL) / (double) (tiff.getInt(offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static ParseExif.ExifData createData() {
+        ParseExif.ExifData data = new ParseExif.ExifData();
+        data.SENSITIVITY_TYPE = "3";
+        data.PHOTOGRAPHIC_SENSITIVITY = "800";
+        data.F_NUMBER = "1.8";
+        data.FOCAL_LENGTH = "470/100";
+        data.APERTURE_VALUE = "1.8";
+        data.EXPOSURE_TIME = "0.01";
+        data.DATETIME = "2024:01:02 03:04:05";
+        data.COMPRESSION = "97";
+        data.COLOR_SPACE = "sRGB";
+        data.EXIF_VERSION = "0231";
+        data.IMAGE_DESCRIPTION = "parameters:\n test";
+        return data;
+    }
+
+    private static byte[] fakeJpeg() {
+        byte[] jpeg = new byte[5000];
+        for (int i = 0; i < jpeg.length; i++) jpeg[i] = (byte) (i * 31);
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[jpeg.length - 2] = (byte) 0xFF;
+        jpeg[jpeg.length - 1] = (byte) 0xD9;
+        return jpeg;
+    }
+
+    /**
+     * Purpose: Tags of the segment
+     * Input : ExifData as filled by ParseExif.parse
+     * Expected
+     *  IFD0 and EXIF IFD tags with the parsed values
+     */
+    @Test
+    public void tags() {
+        byte[] segment = ExifSegment.build(createData());
+        ByteBuffer buffer = ByteBuffer.wrap(segment);
+        assertEquals(0xFFE1, buffer.getShort(0) & 0xFFFF);
+        assertEquals(segment.length - 2, buffer.getShort(2) & 0xFFFF);
+        assertEquals("Exif", new String(segment, 4, 4, StandardCharsets.US_ASCII));
+        ByteBuffer tiff = ByteBuffer.wrap(Arrays.copyOfRange(segment, 10, segment.length));
+        assertEquals('M', tiff.get(0));
+        assertEquals(42, tiff.getShort(2));
+
+        Map<Integer, Integer> ifd0 = readIfd(tiff, tiff.getInt(4));
+        assertEquals("parameters:\n test", ascii(tiff, ifd0.get(DngTag.IMAGE_DESCRIPTION)));
+        assertEquals("2024:01:02 03:04:05", ascii(tiff, ifd0.get(ExifSegment.TAG_DATETIME)));
+        assertEquals("PhotonCamera", ascii(tiff, ifd0.get(ExifSegment.TAG_COPYRIGHT)));
+        assertEquals(97, tiff.getShort(valueOffset(tiff, ifd0.get(DngTag.COMPRESSION))));
+
+        Map<Integer, Integer> exif = readIfd(tiff, tiff.getInt(valueOffset(tiff, ifd0.get(ExifSegment.TAG_EXIF_IFD))));
+        assertEquals(0.01, rational(tiff, exif.get(DngTag.EXPOSURE_TIME)), 1e-6);
+        assertEquals(1.8, rational(tiff, exif.get(DngTag.F_NUMBER)), 1e-4);
+        assertEquals(1.8, rational(tiff, exif.get(ExifSegment.TAG_APERTURE_VALUE)), 1e-4);
+        assertEquals(4.7, rational(tiff, exif.get(DngTag.FOCAL_LENGTH)), 1e-4);
+        assertEquals(800, tiff.getShort(valueOffset(tiff, exif.get(DngTag.ISO_SPEED_RATINGS))));
+        assertEquals(3, tiff.getShort(valueOffset(tiff, exif.get(ExifSegment.TAG_SENSITIVITY_TYPE))));
+        assertEquals(ExifSegment.COLOR_SPACE_SRGB, tiff.getShort(valueOffset(tiff, exif.get(ExifSegment.TAG_COLOR_SPACE))));
+        assertEquals("0231", new String(segment, 10 + valueOffset(tiff, exif.get(ExifSegment.TAG_EXIF_VERSION)), 4,
+                StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Purpose: Missing values are left out
+     */
+    @Test
+    public void emptyValues() {
+        ParseExif.ExifData data = new ParseExif.ExifData();
+        data.FOCAL_LENGTH = "";
+        byte[] segment = ExifSegment.build(data);
+        ByteBuffer tiff = ByteBuffer.wrap(Arrays.copyOfRange(segment, 10, segment.length));
+        Map<Integer, Integer> ifd0 = readIfd(tiff, 8);
+        assertFalse(ifd0.containsKey(DngTag.IMAGE_DESCRIPTION));
+        Map<Integer, Integer> exif = readIfd(tiff, tiff.getInt(valueOffset(tiff, ifd0.get(ExifSegment.TAG_EXIF_IFD))));
+        assertTrue(exif.isEmpty());
+    }
+
+    /**
+     * Purpose: Segment is spliced after SOI, image data is untouched
+     * Input : fake JPEG written in uneven chunks
+     * Expected
+     *  SOI, segment, then the rest of the JPEG byte for byte
+     */
+    @Test
+    public void splice() throws IOException {
+        byte[] jpeg = fakeJpeg();
+        byte[] segment = ExifSegment.build(createData());
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (OutputStream out = new ExifJpegOutputStream(file, segment)) {
+            out.write(jpeg[0]);
+            out.write(jpeg, 1, 700);
+            out.write(jpeg, 701, jpeg.length - 701);
+        }
+        byte[] written = file.toByteArray();
+        assertEquals(jpeg.length + segment.length, written.length);
+        assertArrayEquals(Arrays.copyOfRange(jpeg, 0, 2), Arrays.copyOfRange(written, 0, 2));
+        assertArrayEquals(segment, Arrays.copyOfRange(written, 2, 2 + segment.length));
+        assertArrayEquals(Arrays.copyOfRange(jpeg, 2, jpeg.length), Arrays.copyOfRange(written, 2 + segment.length, written.length));
+    }
+
+    /**
+     * Purpose: Oversized description is dropped instead of overflowing the segment length
+     */
+    @Test
+    public void longDescription() {
+        ParseExif.ExifData data = createData();
+        char[] text = new char[70000];
+        Arrays.fill(text, 'a');
+        data.IMAGE_DESCRIPTION = new String(text);
+        byte[] segment = ExifSegment.build(data);
+        assertTrue(segment.length < 0xFFFF);
+        assertEquals(segment.length - 2, ByteBuffer.wrap(segment).getShort(2) & 0xFFFF);
+    }
+}
@@ -0,0 +1,91 @@
+package com.particlesdevs.photoncamera.capture;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class BurstCompletionTest {
+
+    private static Thread producer(int count, long periodMs, Runnable signal) {
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                try {
+                    Thread.sleep(periodMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                signal.run();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Purpose: barrier completes as soon as both fake producers delivered the whole burst
+     * Input : 8 frames every 2ms, 8 gyro segments every 3ms
+     * Expected
+     *  completes well before the timeout with frames == gyroSegments == 8
+     */
+    @Test
+    public void completesWhenFramesAndGyroArrive() throws Exception {
+        BurstCompletion completion = new BurstCompletion(8);
+        long start = System.nanoTime();
+        Thread frames = producer(8, 2, completion::onFrame);
+        Thread gyro = producer(8, 3, completion::onGyroSegment);
+        BurstCompletion.Result result = completion.await(5, TimeUnit.SECONDS, BurstCompletion.TimeoutPolicy.FAIL);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        frames.join();
+        gyro.join();
+        assertFalse(result.timedOut);
+        assertEquals(8, result.frames);
+        assertEquals(8, result.gyroSegments);
+        assertTrue("elapsed:" + elapsedMs, elapsedMs < 2000);
+    }
+
+    /**
+     * Purpose: gyro producer alone does not complete the barrier
+     * Input : 4 gyro segments and 3 of 4 frames, PROCEED policy
+     * Expected
+     *  completes after the timeout with the partial counts
+     */
+    @Test
+    public void proceedPolicyCompletesWithPartialBurst() throws Exception {
+        BurstCompletion completion = new BurstCompletion(4);
+        for (int i = 0; i < 4; i++) completion.onGyroSegment();
+        for (int i = 0; i < 3; i++) completion.onFrame();
+        assertFalse(completion.isDone());
+        BurstCompletion.Result result = completion.await(20, TimeUnit.MILLISECONDS, BurstCompletion.TimeoutPolicy.PROCEED);
+        assertTrue(result.timedOut);
+        assertEquals(3, result.frames);
+        assertEquals(4, result.gyroSegments);
+        assertTrue(completion.future().isDone());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void failPolicyThrows() throws Exception {
+        BurstCompletion completion = new BurstCompletion(2);
+        completion.onFrame();
+        completion.await(10, TimeUnit.MILLISECONDS, BurstCompletion.TimeoutPolicy.FAIL);
+    }
+
+    /**
+     * Purpose: lowering the expected count once the sequence reports fewer frames completes the barrier
+     */
+    @Test
+    public void setExpectedCompletes() throws Exception {
+        BurstCompletion completion = new BurstCompletion(10);
+        for (int i = 0; i < 6; i++) {
+            completion.onFrame();
+            completion.onGyroSegment();
+        }
+        assertFalse(completion.isDone());
+        completion.setExpected(6);
+        BurstCompletion.Result result = completion.await(0, TimeUnit.MILLISECONDS, BurstCompletion.TimeoutPolicy.FAIL);
+        assertFalse(result.timedOut);
+        assertEquals(6, result.frames);
+    }
+}
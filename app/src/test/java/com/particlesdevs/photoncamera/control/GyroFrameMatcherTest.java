@@ -0,0 +1,131 @@
+package com.particlesdevs.photoncamera.control;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GyroFrameMatcherTest {
+    private static final long MS = 1000000L;
+    private static final long GYRO_START = 10000 * MS;
+    /**
+     * Camera timestamps are 5 s behind the gyro ones, as with a System.nanoTime based camera.
+     */
+    private static final long OFFSET = 5000 * MS;
+    private static final long EXPOSURE = 20 * MS;
+    private static final long SKEW = 30 * MS;
+    private static final long[] FRAMES = {5100 * MS, 5250 * MS, 5400 * MS, 5550 * MS};
+
+    /**
+     * 1 kHz gyro over 1 s, x ramps up at 1 rad/s^2 from the start, y is 2 rad/s between
+     * 400 ms and 420 ms and z is still.
+     */
+    private static GyroRingBuffer history() {
+        GyroRingBuffer history = new GyroRingBuffer(2048);
+        for (int i = 0; i <= 1000; i++)
+            history.add(GYRO_START + i * MS, i * 1e-3f, i >= 400 && i <= 420 ? 2f : 0f, 0f);
+        return history;
+    }
+
+    private static GyroFrameMatcher matcher(GyroRingBuffer history) {
+        GyroFrameMatcher matcher = new GyroFrameMatcher(history, FRAMES.length, OFFSET);
+        for (int i = FRAMES.length - 1; i >= 0; i--) matcher.setFrame(i, FRAMES[i], EXPOSURE, SKEW);
+        return matcher;
+    }
+
+    /**
+     * Integral of the x ramp between two gyro times in ms after the gyro start.
+     */
+    private static double ramp(double t0, double t1) {
+        return (t1 * t1 - t0 * t0) * 0.5e-6;
+    }
+
+    /**
+     * Purpose: Frames cover their exposure window in the gyro time base
+     * Input : four frames with 20 ms exposure and 30 ms skew, results delivered out of order
+     * Expected
+     *  windows from SENSOR_TIMESTAMP plus the offset over skew plus exposure, shakiness and
+     *  samples of that window, rotation from the first exposure to the middle of the frame
+     */
+    @Test
+    public void matchesExposure() {
+        GyroRingBuffer history = history();
+        GyroFrameMatcher matcher = matcher(history);
+        assertTrue(matcher.isComplete());
+        assertEquals(GYRO_START + 100 * MS, matcher.origin());
+        List<GyroBurst> frames = new ArrayList<>();
+        assertTrue(matcher.match(frames));
+        assertEquals(FRAMES.length, frames.size());
+
+        GyroBurst second = frames.get(1);
+        assertEquals(FRAMES[1], second.timestamp);
+        assertEquals(GYRO_START + 250 * MS, second.from);
+        assertEquals(GYRO_START + 300 * MS, second.to);
+        assertEquals(50, second.samples);
+        assertEquals(ramp(250, 300), second.shakiness, 1e-7);
+        assertEquals(-ramp(100, 275), second.integrated[0], 1e-7);
+        assertEquals(0f, second.integrated[1], 0f);
+        assertEquals(ramp(400, 450) + 0.041, frames.get(2).shakiness, 1e-6);
+        assertSame(frames.get(3), GyroFrameMatcher.forTimestamp(frames, FRAMES[3]));
+        assertNull(GyroFrameMatcher.forTimestamp(frames, FRAMES[3] + 1));
+    }
+
+    /**
+     * Purpose: Rows are integrated over their own exposure along the rolling shutter
+     * Input : third frame, its first rows exposed while y moves, its last rows after it stopped
+     * Expected
+     *  first row y angle 0.04 rad, last row none, x over each row exposure, upper band blurrier
+     *  than the lower one, row positions 30 ms apart along the y movement
+     */
+    @Test
+    public void rowMotion() {
+        List<GyroBurst> frames = new ArrayList<>();
+        assertTrue(matcher(history()).match(frames));
+        GyroBurst frame = frames.get(2);
+        double[] values = new double[5];
+        assertTrue(frame.rowMotion(0, values));
+        assertEquals(0.04, values[GyroRingBuffer.ANGLE_Y], 1e-7);
+        assertEquals(ramp(400, 420), values[GyroRingBuffer.ANGLE_X], 1e-7);
+        assertTrue(frame.rowMotion(1, values));
+        assertEquals(0.0, values[GyroRingBuffer.ANGLE_Y], 0.0);
+        assertEquals(ramp(430, 450), values[GyroRingBuffer.ANGLE_X], 1e-7);
+
+        float[] bands = frame.bandShakiness(2);
+        assertTrue(bands[0] > bands[1] + 0.02f);
+
+        float[] first = new float[3];
+        float[] last = new float[3];
+        assertTrue(frame.rowPosition(0, first));
+        assertTrue(frame.rowPosition(1, last));
+        assertEquals(-ramp(100, 410), first[0], 1e-6);
+        assertEquals(-ramp(100, 440), last[0], 1e-6);
+        assertEquals(0.021f, last[1] - first[1], 1e-6f);
+    }
+
+    /**
+     * Purpose: Frames without timing or gyro coverage fall back to the capture callbacks
+     * Input : a frame without result, then a frame exposed after the last gyro sample
+     * Expected
+     *  match fails and leaves the frames untouched, the uncovered frame is not matched
+     */
+    @Test
+    public void incomplete() {
+        GyroRingBuffer history = history();
+        GyroFrameMatcher matcher = new GyroFrameMatcher(history, 2, OFFSET);
+        matcher.setFrame(0, FRAMES[0], EXPOSURE, SKEW);
+        matcher.setFrame(5, FRAMES[1], EXPOSURE, SKEW);
+        assertFalse(matcher.hasFrame(1));
+        List<GyroBurst> frames = new ArrayList<>();
+        GyroBurst callbacks = new GyroBurst(history, GYRO_START, GYRO_START, GYRO_START + 50 * MS);
+        frames.add(callbacks);
+        assertFalse(matcher.match(frames));
+        assertSame(callbacks, frames.get(0));
+
+        matcher.setFrame(1, 5990 * MS, EXPOSURE, SKEW);
+        assertFalse(matcher.isComplete());
+        assertNull(matcher.frame(1));
+        assertNotNull(matcher.frame(0));
+    }
+}
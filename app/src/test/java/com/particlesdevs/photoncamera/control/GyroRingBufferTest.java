@@ -0,0 +1,146 @@
+package com.particlesdevs.photoncamera.control;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class GyroRingBufferTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * Purpose: Rotation and RMS over windows that do not fall on samples are exact for a constant rate
+     * Input : 200 Hz stream of (0.5, -0.2, 0.1) rad/s for 2 s, window 103.3 ms to 1617.9 ms
+     * Expected
+     *  angles equal to rate * duration, RMS equal to the rate magnitude, samples counted after
+     *  the window start, uncovered windows rejected
+     */
+    @Test
+    public void constantRate() {
+        GyroRingBuffer buffer = new GyroRingBuffer(1000);
+        assertEquals(1024, buffer.capacity());
+        for (int i = 0; i <= 400; i++) assertTrue(buffer.add(1000 * MS + i * 5 * MS, 0.5f, -0.2f, 0.1f));
+        long from = 1000 * MS + 103300000L;
+        long to = 1000 * MS + 1617900000L;
+        double seconds = (to - from) * 1e-9;
+        double[] rotation = buffer.rotation(from, to);
+        assertEquals(0.5 * seconds, rotation[0], 1e-7);
+        assertEquals(-0.2 * seconds, rotation[1], 1e-7);
+        assertEquals(0.1 * seconds, rotation[2], 1e-7);
+        assertEquals(Math.sqrt(0.25 + 0.04 + 0.01), buffer.rms(from, to), 1e-6);
+        assertEquals(303, buffer.samples(from, to));
+        assertEquals(20, buffer.indexAtOrBefore(from));
+
+        assertNull(buffer.rotation(999 * MS, to));
+        assertNull(buffer.rotation(from, 3001 * MS));
+        assertTrue(Double.isNaN(buffer.rms(to, from)));
+        assertFalse(buffer.add(1000 * MS, 0, 0, 0));
+    }
+
+    /**
+     * Purpose: Integrals of a sampled sinusoid match the analytic values
+     * Input : 1 kHz stream with x = 2 sin(2 pi 3 t), y = cos(2 pi 5 t), z = 0.3
+     * Expected
+     *  x and y angles within 1e-5 rad of the analytic integral, RMS over whole periods within 1e-4
+     */
+    @Test
+    public void sinusoid() {
+        GyroRingBuffer buffer = new GyroRingBuffer(4096);
+        for (int i = 0; i <= 3000; i++) {
+            double t = i * 1e-3;
+            buffer.add(i * MS, (float) (2.0 * Math.sin(2 * Math.PI * 3 * t)),
+                    (float) Math.cos(2 * Math.PI * 5 * t), 0.3f);
+        }
+        long from = 123456789L;
+        long to = 2345678901L;
+        double t0 = from * 1e-9;
+        double t1 = to * 1e-9;
+        double[] values = new double[5];
+        assertTrue(buffer.integrate(from, to, values));
+        double x = 2.0 / (2 * Math.PI * 3) * (Math.cos(2 * Math.PI * 3 * t0) - Math.cos(2 * Math.PI * 3 * t1));
+        double y = (Math.sin(2 * Math.PI * 5 * t1) - Math.sin(2 * Math.PI * 5 * t0)) / (2 * Math.PI * 5);
+        assertEquals(x, values[GyroRingBuffer.ANGLE_X], 1e-5);
+        assertEquals(y, values[GyroRingBuffer.ANGLE_Y], 1e-5);
+        assertEquals(0.3 * (t1 - t0), values[GyroRingBuffer.ANGLE_Z], 1e-6);
+        double rms = Math.sqrt(4.0 / 2 + 1.0 / 2 + 0.09);
+        assertEquals(rms, buffer.rms(0, 2000 * MS), 1e-4);
+    }
+
+    /**
+     * Purpose: Only the newest samples are kept after the ring wraps
+     * Input : 256 sample ring, 1000 samples at 1 ms with x equal to 1 rad/s
+     * Expected
+     *  oldest is sample 745, windows before it are rejected, windows after it integrate exactly
+     */
+    @Test
+    public void wraps() {
+        GyroRingBuffer buffer = new GyroRingBuffer(256);
+        for (int i = 0; i < 1000; i++) buffer.add(i * MS, 1f, 0f, 0f);
+        assertEquals(1000, buffer.written());
+        assertEquals(745, buffer.oldest());
+        assertEquals(999 * MS, buffer.lastTimestamp());
+        assertEquals(744, buffer.indexAtOrBefore(700 * MS));
+        assertNull(buffer.rotation(700 * MS, 900 * MS));
+        assertEquals(0.2485, buffer.rotation(750 * MS + 500000, 999 * MS)[0], 1e-9);
+        assertEquals(1f, buffer.rate(999, 0), 0f);
+    }
+
+    /**
+     * Purpose: Frames read their motion from the ring without copying samples
+     * Input : x = 1 rad/s for 100 ms then 3 rad/s, frames over 0-50 ms and 100-200 ms
+     * Expected
+     *  per frame shakiness and samples, rotation counted from the burst origin with x negated,
+     *  shakiness over the first 10 samples, clones with their own rotation
+     */
+    @Test
+    public void frames() {
+        GyroRingBuffer buffer = new GyroRingBuffer(1024);
+        for (int i = 0; i <= 300; i++) buffer.add(i * MS, i <= 100 ? 1f : 3f, 0f, 0f);
+        GyroBurst first = new GyroBurst(buffer, 0, 0, 50 * MS);
+        GyroBurst second = new GyroBurst(buffer, 0, 101 * MS, 200 * MS);
+        assertEquals(0.05f, first.shakiness, 1e-6f);
+        assertEquals(50, first.samples);
+        assertEquals(-0.05f, first.integrated[0], 1e-6f);
+        assertEquals(0.297f, second.shakiness, 1e-6f);
+        assertEquals(99, second.samples);
+        assertEquals(-(0.1f + 0.002f + 0.297f), second.integrated[0], 1e-6f);
+        assertEquals(0.03f, second.shakiness(10), 1e-6f);
+        assertEquals(3.0, second.rms(), 1e-6);
+
+        GyroBurst copy = second.clone();
+        copy.integrated[0] = 0f;
+        assertNotEquals(0f, second.integrated[0], 0f);
+        assertSame(buffer, copy.getHistory());
+    }
+
+    /**
+     * Purpose: Queries racing the writer never mix samples of two laps
+     * Input : 64 sample ring written with a constant rate while another thread queries the
+     *  newest 40 ms
+     * Expected
+     *  every covered query gives the exact constant rate result
+     */
+    @Test
+    public void concurrentReader() throws Exception {
+        GyroRingBuffer buffer = new GyroRingBuffer(64);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            double[] values = new double[5];
+            while (!done.get()) {
+                long last = buffer.lastTimestamp();
+                if (last < 40 * MS) continue;
+                if (buffer.integrate(last - 40 * MS, last, values)
+                        && Math.abs(values[GyroRingBuffer.ANGLE_Y] - 0.08) > 1e-9)
+                    failure.set("y:" + values[GyroRingBuffer.ANGLE_Y]);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 2000000; i++) buffer.add(i * MS, 0f, 2f, 0f);
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+}
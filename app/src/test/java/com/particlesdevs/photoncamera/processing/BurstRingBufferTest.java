@@ -0,0 +1,120 @@
+package com.particlesdevs.photoncamera.processing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BurstRingBufferTest {
+    private static class Frame {
+        final long burst;
+        final int number;
+
+        Frame(long burst, int number) {
+            this.burst = burst;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Purpose: drive thousands of synthetic frames through back to back bursts
+     * Input : 400 bursts of 1..24 frames, capacity 16 so the producer hits backpressure
+     * Expected
+     *  every frame is drained exactly once, by its own burst and in capture order
+     */
+    @Test
+    public void stressOverlappingBursts() throws InterruptedException {
+        final int burstCount = 400;
+        AtomicInteger released = new AtomicInteger();
+        BurstRingBuffer<Frame> buffer = new BurstRingBuffer<>(16, item -> released.incrementAndGet());
+        BlockingQueue<long[]> startedBursts = new ArrayBlockingQueue<>(burstCount);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int[] produced = new int[1];
+
+        Thread producer = new Thread(() -> {
+            for (int b = 0; b < burstCount; b++) {
+                long burstId = buffer.beginBurst();
+                int frames = 1 + (b * 7) % 24;
+                //Processing of the burst is scheduled as soon as it starts
+                startedBursts.add(new long[]{burstId, frames});
+                for (int i = 0; i < frames; i++) {
+                    if (!buffer.offer(burstId, new Frame(burstId, i), 5, TimeUnit.SECONDS)) {
+                        failure.compareAndSet(null, new AssertionError("offer timed out"));
+                        return;
+                    }
+                    produced[0]++;
+                }
+            }
+        }, "producer");
+
+        int[] consumed = new int[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                List<Frame> out = new ArrayList<>();
+                for (int b = 0; b < burstCount; b++) {
+                    long[] burst = startedBursts.take();
+                    out.clear();
+                    int drained = buffer.drainBurst(burst[0], (int) burst[1], out, 5, TimeUnit.SECONDS);
+                    assertEquals(burst[1], drained);
+                    for (int i = 0; i < out.size(); i++) {
+                        assertEquals(burst[0], out.get(i).burst);
+                        assertEquals(i, out.get(i).number);
+                    }
+                    consumed[0] += drained;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }, "consumer");
+
+        producer.start();
+        consumer.start();
+        producer.join(60000);
+        consumer.join(60000);
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertTrue(produced[0] > 4000);
+        assertEquals(produced[0], consumed[0]);
+        assertEquals(0, released.get());
+        assertEquals(0, buffer.size());
+    }
+
+    /**
+     * Purpose: frames of a newer burst are left for that burst, leftovers of an older one are released
+     */
+    @Test
+    public void drainKeepsNewerBurstAndReleasesOlder() {
+        List<Frame> released = new ArrayList<>();
+        BurstRingBuffer<Frame> buffer = new BurstRingBuffer<>(8, released::add);
+        long first = buffer.beginBurst();
+        for (int i = 0; i < 3; i++) assertTrue(buffer.offer(first, new Frame(first, i), 0, TimeUnit.MILLISECONDS));
+        long second = buffer.beginBurst();
+        for (int i = 0; i < 2; i++) assertTrue(buffer.offer(second, new Frame(second, i), 0, TimeUnit.MILLISECONDS));
+
+        List<Frame> out = new ArrayList<>();
+        assertEquals(2, buffer.drainBurst(first, 2, out, 0, TimeUnit.MILLISECONDS));
+        assertEquals(3, buffer.size());
+
+        out.clear();
+        //Asking for more frames than the burst has stops at the burst boundary
+        assertEquals(2, buffer.drainBurst(second, 5, out, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, released.size());
+        assertEquals(first, released.get(0).burst);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void offerTimesOutWhenFull() {
+        BurstRingBuffer<Frame> buffer = new BurstRingBuffer<>(3, null);
+        assertEquals(4, buffer.capacity());
+        long burst = buffer.beginBurst();
+        for (int i = 0; i < 4; i++) assertTrue(buffer.offer(burst, new Frame(burst, i), 0, TimeUnit.MILLISECONDS));
+        assertFalse(buffer.offer(burst, new Frame(burst, 4), 5, TimeUnit.MILLISECONDS));
+    }
+}
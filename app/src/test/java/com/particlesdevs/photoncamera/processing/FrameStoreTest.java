@@ -0,0 +1,211 @@
+package com.particlesdevs.photoncamera.processing;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameStoreTest {
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+    private static final int BYTES = WIDTH * HEIGHT * 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        FrameStore.setBudgetBytes(768L << 20);
+    }
+
+    private static ByteBuffer frame(int seed) {
+        ByteBuffer raw = ByteBuffer.allocateDirect(BYTES).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = raw.asShortBuffer();
+        for (int i = 0; i < WIDTH * HEIGHT; i++) samples.put(i, (short) (i * 7 + seed));
+        return raw;
+    }
+
+    private static boolean same(ByteBuffer expected, ByteBuffer actual) {
+        ByteBuffer a = expected.duplicate();
+        a.clear();
+        return a.equals(actual);
+    }
+
+    /**
+     * Purpose: Frames stay in their Image while they fit into the budget
+     * Input : two frames under a budget of three
+     * Expected
+     *  frames not spilled, buffers are the Image memory, the Image is released once on close
+     *  and the resident bytes go back down
+     */
+    @Test
+    public void keepsFramesInBudget() {
+        FrameStore.setBudgetBytes(FrameStore.residentBytes() + BYTES * 3);
+        long before = FrameStore.residentBytes();
+        AtomicInteger released = new AtomicInteger();
+        ByteBuffer raw = frame(1);
+        try (FrameStore store = new FrameStore(folder.getRoot().toPath())) {
+            FrameStore.Frame first = store.add(raw, WIDTH, HEIGHT, WIDTH * 2, 10, released::incrementAndGet);
+            FrameStore.Frame second = store.add(frame(2), WIDTH, HEIGHT, WIDTH * 2, 20, released::incrementAndGet);
+            assertFalse(first.isSpilled());
+            assertFalse(second.isSpilled());
+            assertEquals(0, store.getSpilledBytes());
+            assertEquals(before + BYTES * 2, FrameStore.residentBytes());
+
+            first.buffer().putShort(0, (short) 1234);
+            assertEquals(1234, raw.getShort(0));
+            assertEquals(ByteOrder.nativeOrder(), first.buffer().order());
+            first.close();
+            first.close();
+            second.close();
+            assertEquals(2, released.get());
+            assertEquals(before, FrameStore.residentBytes());
+        }
+    }
+
+    /**
+     * Purpose: Frames past the budget are spilled and their Image is released right away
+     * Input : three frames with room for one and a half, the store closed before reading
+     * Expected
+     *  first frame in memory, the others spilled with their Images released on add, same
+     *  samples, views of a spilled frame share its memory
+     */
+    @Test
+    public void spillsPastBudget() {
+        FrameStore.setBudgetBytes(FrameStore.residentBytes() + BYTES * 3 / 2);
+        AtomicInteger released = new AtomicInteger();
+        FrameStore.Frame[] frames = new FrameStore.Frame[3];
+        ByteBuffer[] raws = {frame(1), frame(2), frame(3)};
+        try (FrameStore store = new FrameStore(folder.getRoot().toPath())) {
+            for (int i = 0; i < 3; i++)
+                frames[i] = store.add(raws[i], WIDTH, HEIGHT, WIDTH * 2, i, released::incrementAndGet);
+            assertEquals(2, released.get());
+            assertEquals(BYTES * 2L, store.getSpilledBytes());
+            assertTrue(store.getSpillBandwidth() > 0.f);
+        }
+        assertEquals(0, folder.getRoot().list().length);
+        assertFalse(frames[0].isSpilled());
+        assertTrue(frames[1].isSpilled());
+        assertTrue(frames[2].isSpilled());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BYTES, frames[i].capacity());
+            assertTrue(same(raws[i], frames[i].buffer()));
+        }
+        assertEquals(ByteOrder.nativeOrder(), frames[2].buffer().order());
+
+        ByteBuffer view = frames[2].buffer();
+        view.putShort(100, (short) -7);
+        assertEquals(-7, frames[2].buffer().getShort(100));
+
+        for (FrameStore.Frame frame : frames) frame.close();
+        assertEquals(3, released.get());
+    }
+
+    /**
+     * Purpose: Closing a frame frees its place in the budget
+     * Input : budget of one frame, a second frame added before and after closing the first
+     * Expected
+     *  spilled while the first is held, kept in memory once it was closed
+     */
+    @Test
+    public void closingFreesBudget() {
+        FrameStore.setBudgetBytes(FrameStore.residentBytes() + BYTES);
+        try (FrameStore store = new FrameStore(folder.getRoot().toPath())) {
+            FrameStore.Frame first = store.add(frame(1), WIDTH, HEIGHT, WIDTH * 2, 0, () -> {
+            });
+            FrameStore.Frame spilled = store.add(frame(2), WIDTH, HEIGHT, WIDTH * 2, 1, () -> {
+            });
+            assertTrue(spilled.isSpilled());
+            first.close();
+            FrameStore.Frame kept = store.add(frame(3), WIDTH, HEIGHT, WIDTH * 2, 2, () -> {
+            });
+            assertFalse(kept.isSpilled());
+            spilled.close();
+            kept.close();
+            try {
+                kept.buffer();
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    /**
+     * Purpose: Regions of closed frames are spilled into again and free space at the end is cut off
+     * Input : budget of nothing, three frames spilled, the middle one closed and a fourth spilled,
+     *  then all closed
+     * Expected
+     *  the fourth takes the region of the middle one without growing the file, samples of all
+     *  frames kept, the file is empty once every frame was closed
+     */
+    @Test
+    public void reusesClosedRegions() {
+        FrameStore.setBudgetBytes(0);
+        ByteBuffer[] raws = {frame(1), frame(2), frame(3), frame(4)};
+        FrameStore.Frame[] frames = new FrameStore.Frame[4];
+        try (FrameStore store = new FrameStore(folder.getRoot().toPath())) {
+            for (int i = 0; i < 3; i++)
+                frames[i] = store.add(raws[i], WIDTH, HEIGHT, WIDTH * 2, i, () -> {
+                });
+            long fileBytes = store.getFileBytes();
+            assertEquals(BYTES * 3L, fileBytes);
+            frames[1].close();
+            frames[3] = store.add(raws[3], WIDTH, HEIGHT, WIDTH * 2, 3, () -> {
+            });
+            assertTrue(frames[3].isSpilled());
+            assertEquals(fileBytes, store.getFileBytes());
+            assertTrue(same(raws[0], frames[0].buffer()));
+            assertTrue(same(raws[2], frames[2].buffer()));
+            assertTrue(same(raws[3], frames[3].buffer()));
+
+            frames[3].close();
+            frames[2].close();
+            assertEquals(BYTES, store.getFileBytes());
+            frames[0].close();
+            assertEquals(0, store.getFileBytes());
+        }
+    }
+
+    /**
+     * Purpose: Frames spilled on the spill thread are handed on in the order they were added
+     * Input : budget of one frame, four frames added with a callback
+     * Expected
+     *  first frame handed on right away in memory, the others spilled and handed on in order by
+     *  the time the store was flushed, Images released as they were spilled
+     */
+    @Test
+    public void spillsOnSpillThread() throws InterruptedException {
+        FrameStore.setBudgetBytes(FrameStore.residentBytes() + BYTES);
+        AtomicInteger released = new AtomicInteger();
+        List<FrameStore.Frame> stored = Collections.synchronizedList(new ArrayList<>());
+        ByteBuffer[] raws = {frame(1), frame(2), frame(3), frame(4)};
+        try (FrameStore store = new FrameStore(folder.getRoot().toPath())) {
+            store.add(raws[0], WIDTH, HEIGHT, WIDTH * 2, 0, released::incrementAndGet, stored::add);
+            assertEquals(1, stored.size());
+            for (int i = 1; i < 4; i++)
+                store.add(raws[i], WIDTH, HEIGHT, WIDTH * 2, i, released::incrementAndGet, stored::add);
+            store.flush();
+            assertEquals(4, stored.size());
+            assertEquals(3, released.get());
+            assertFalse(stored.get(0).isSpilled());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, stored.get(i).timestamp);
+                assertEquals(i > 0, stored.get(i).isSpilled());
+                assertTrue(same(raws[i], stored.get(i).buffer()));
+            }
+            for (FrameStore.Frame frame : stored) frame.close();
+            assertEquals(4, released.get());
+            assertEquals(0, store.getFileBytes());
+        }
+    }
+}
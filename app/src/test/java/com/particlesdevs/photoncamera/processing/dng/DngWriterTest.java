@@ -0,0 +1,247 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class DngWriterTest {
+    private static ParametersSnapshot createParameters(int width, int height, boolean gainMap) {
+        ParametersSnapshot.Builder builder = new ParametersSnapshot.Builder()
+                .setRawSize(width, height)
+                .setCfaPattern(3)
+                .setLevels(new float[]{64.f, 65.f, 66.f, 67.5f}, 1023, 1023)
+                .setWhitePoint(new float[]{0.5f, 1.f, 0.625f})
+                .setColor(new float[]{1.2f, -0.1f, -0.1f, -0.2f, 1.3f, -0.1f, 0.f, -0.3f, 1.3f}, new float[9], null)
+                .setNoise(new double[][]{{1e-4, 1e-6}, {1e-4, 1e-6}, {1e-4, 1e-6}}, 800, 400)
+                .setOptics(4.7f, 6.4f, 4.8f, 1, 1, 1, 1, 1, 1);
+        if (gainMap) {
+            float[] map = new float[3 * 2 * 4];
+            for (int i = 0; i < map.length; i++) map[i] = 1.f + i / 10.f;
+            builder.setGainMap(map, 3, 2, true);
+        }
+        return builder.build();
+    }
+
+    private static ByteBuffer createFrame(int width, int height, int rowStride, ByteOrder order) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(rowStride * height).order(order);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame.putShort(y * rowStride + x * 2, (short) ((x * 7 + y * 13) & 0x3FF));
+            }
+        }
+        return frame;
+    }
+
+    private static Path write(DngWriter writer, ByteBuffer frame, int rowStride) throws IOException {
+        Path path = File.createTempFile("DngWriterTest", ".dng").toPath();
+        path.toFile().deleteOnExit();
+        long written = writer.write(path, frame, rowStride);
+        assertEquals(Files.size(path), written);
+        return path;
+    }
+
+    private static void assertFrame(ByteBuffer expected, int width, int height, int rowStride, ByteBuffer actual) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("x:" + x + " y:" + y, expected.getShort(y * rowStride + x * 2),
+                        actual.getShort((y * width + x) * 2));
+            }
+        }
+    }
+
+    /**
+     * Purpose: Tiles with padded edges and row stride round trip
+     * Input : 100x70 frame with 224 byte rows, 32x16 tiles
+     * Expected
+     *  identical samples, source buffer untouched
+     */
+    @Test
+    public void roundTripEdgeTiles() throws IOException {
+        int rowStride = 224;
+        ByteBuffer frame = createFrame(100, 70, rowStride, ByteOrder.LITTLE_ENDIAN);
+        DngWriter writer = new DngWriter(createParameters(100, 70, false)).setTileSize(32, 16);
+        Path path = write(writer, frame, rowStride);
+        assertEquals(0, frame.position());
+        DngReader reader = DngReader.open(path);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, reader.order());
+        assertEquals(100, reader.getWidth());
+        assertEquals(70, reader.getHeight());
+        assertEquals(4 * 5, reader.getLongs(DngTag.TILE_OFFSETS).length);
+        assertFrame(frame, 100, 70, rowStride, reader.readRaw());
+    }
+
+    /**
+     * Purpose: More tile rows than one gathering write holds
+     */
+    @Test
+    public void roundTripManyBatches() throws IOException {
+        ByteBuffer frame = createFrame(1000, 600, 2000, ByteOrder.LITTLE_ENDIAN);
+        DngWriter writer = new DngWriter(createParameters(1000, 600, false)).setTileSize(16, 16);
+        DngReader reader = DngReader.open(write(writer, frame, 2000));
+        assertFrame(frame, 1000, 600, 2000, reader.readRaw());
+    }
+
+    /**
+     * Purpose: Big endian source is written as a big endian file
+     */
+    @Test
+    public void bigEndian() throws IOException {
+        ByteBuffer frame = createFrame(64, 48, 128, ByteOrder.BIG_ENDIAN);
+        DngReader reader = DngReader.open(write(new DngWriter(createParameters(64, 48, false)), frame, 128));
+        assertEquals(ByteOrder.BIG_ENDIAN, reader.order());
+        assertFrame(frame, 64, 48, 128, reader.readRaw());
+    }
+
+    /**
+     * Purpose: Metadata tags
+     * Expected
+     *  CFA, levels, neutral, orientation and noise profile from the parameters
+     */
+    @Test
+    public void metadata() throws IOException {
+        ByteBuffer frame = createFrame(64, 48, 128, ByteOrder.LITTLE_ENDIAN);
+        DngWriter writer = new DngWriter(createParameters(64, 48, false))
+                .setCamera("Make", "Model")
+                .setDescription("test")
+                .setRotation(90)
+                .setExposure(10000000L, 400, 1.8f);
+        DngReader reader = DngReader.open(write(writer, frame, 128));
+        assertArrayEquals(new long[]{2, 1, 1, 0}, reader.getLongs(DngTag.CFA_PATTERN));
+        assertArrayEquals(new double[]{64.0, 65.0, 66.0, 67.5}, reader.getDoubles(DngTag.BLACK_LEVEL), 1e-4);
+        assertEquals(1023, reader.getLong(DngTag.WHITE_LEVEL));
+        assertArrayEquals(new double[]{0.5, 1.0, 0.625}, reader.getDoubles(DngTag.AS_SHOT_NEUTRAL), 1e-4);
+        assertEquals(6, reader.getLong(DngTag.ORIENTATION));
+        assertEquals("Make Model", reader.getAscii(DngTag.UNIQUE_CAMERA_MODEL));
+        assertEquals("test", reader.getAscii(DngTag.IMAGE_DESCRIPTION));
+        assertEquals(0.01, reader.getDoubles(DngTag.EXPOSURE_TIME)[0], 1e-6);
+        assertEquals(400, reader.getLong(DngTag.ISO_SPEED_RATINGS));
+        assertEquals(9, reader.getDoubles(DngTag.COLOR_MATRIX_1).length);
+        assertEquals(9, reader.getDoubles(DngTag.FORWARD_MATRIX_1).length);
+        assertEquals(DngTag.ILLUMINANT_UNKNOWN, reader.getLong(DngTag.CALIBRATION_ILLUMINANT_1));
+        assertFalse(reader.hasTag(DngTag.COLOR_MATRIX_2));
+        assertArrayEquals(new long[]{0, 0, 48, 64}, reader.getLongs(DngTag.ACTIVE_AREA));
+        assertArrayEquals(new double[]{8, 8}, reader.getDoubles(DngTag.DEFAULT_CROP_ORIGIN), 0);
+        assertArrayEquals(new double[]{48, 32}, reader.getDoubles(DngTag.DEFAULT_CROP_SIZE), 0);
+        assertFalse(reader.hasTag(DngTag.DATE_TIME));
+        assertArrayEquals(new long[]{1, 2, 0, 0}, reader.getLongs(DngTag.DNG_BACKWARD_VERSION));
+        assertArrayEquals(new double[]{1e-4, 1e-6, 1e-4, 1e-6, 1e-4, 1e-6}, reader.getDoubles(DngTag.NOISE_PROFILE), 0);
+        assertFalse(reader.hasTag(DngTag.OPCODE_LIST_2));
+    }
+
+    /**
+     * Purpose: Camera calibration, active area and capture time
+     * Input : two illuminants, standard A without forward matrix and D65 with forward matrix and
+     *  calibration, active area of 4,2 to 60,46 in a 64x48 frame, a capture time
+     * Expected
+     *  matrices and illuminants as given, active area as top, left, bottom, right, crop 8 pixels
+     *  inside of it, capture time in both date tags
+     */
+    @Test
+    public void calibration() throws IOException {
+        double[] colorMatrix1 = {0.9, -0.3, -0.1, -0.4, 1.2, 0.2, -0.1, 0.2, 0.6};
+        double[] colorMatrix2 = {0.7, -0.2, -0.05, -0.45, 1.25, 0.2, -0.1, 0.25, 0.55};
+        double[] forwardMatrix2 = {0.6, 0.3, 0.1, 0.25, 0.7, 0.05, 0.05, 0.0, 0.75};
+        double[] calibration2 = {1.02, 0, 0, 0, 1, 0, 0, 0, 0.98};
+        long time = System.currentTimeMillis();
+        DngWriter writer = new DngWriter(createParameters(64, 48, false))
+                .setCalibration(0, 17, colorMatrix1, null, null)
+                .setCalibration(1, 21, colorMatrix2, forwardMatrix2, calibration2)
+                .setActiveArea(4, 2, 60, 46)
+                .setDateTime(time);
+        DngReader reader = DngReader.open(write(writer, createFrame(64, 48, 128, ByteOrder.LITTLE_ENDIAN), 128));
+        assertArrayEquals(colorMatrix1, reader.getDoubles(DngTag.COLOR_MATRIX_1), 1e-6);
+        assertArrayEquals(colorMatrix2, reader.getDoubles(DngTag.COLOR_MATRIX_2), 1e-6);
+        assertFalse(reader.hasTag(DngTag.FORWARD_MATRIX_1));
+        assertArrayEquals(forwardMatrix2, reader.getDoubles(DngTag.FORWARD_MATRIX_2), 1e-6);
+        assertFalse(reader.hasTag(DngTag.CAMERA_CALIBRATION_1));
+        assertArrayEquals(calibration2, reader.getDoubles(DngTag.CAMERA_CALIBRATION_2), 1e-6);
+        assertEquals(17, reader.getLong(DngTag.CALIBRATION_ILLUMINANT_1));
+        assertEquals(21, reader.getLong(DngTag.CALIBRATION_ILLUMINANT_2));
+        assertArrayEquals(new long[]{2, 4, 46, 60}, reader.getLongs(DngTag.ACTIVE_AREA));
+        assertArrayEquals(new double[]{8, 8}, reader.getDoubles(DngTag.DEFAULT_CROP_ORIGIN), 0);
+        assertArrayEquals(new double[]{40, 28}, reader.getDoubles(DngTag.DEFAULT_CROP_SIZE), 0);
+        String dateTime = new java.text.SimpleDateFormat("yyyy:MM:dd HH:mm:ss", java.util.Locale.US).format(new java.util.Date(time));
+        assertEquals(dateTime, reader.getAscii(DngTag.DATE_TIME));
+        assertEquals(dateTime, reader.getAscii(DngTag.DATE_TIME_ORIGINAL));
+    }
+
+    /**
+     * Purpose: Lens shading map as GainMap opcodes
+     * Input : 3x2 map, BGGR pattern
+     * Expected
+     *  four big endian opcodes, top left cell is blue and uses map channel 3
+     */
+    @Test
+    public void gainMapOpcodes() throws IOException {
+        ByteBuffer frame = createFrame(64, 48, 128, ByteOrder.LITTLE_ENDIAN);
+        DngReader reader = DngReader.open(write(new DngWriter(createParameters(64, 48, true)), frame, 128));
+        ByteBuffer opcodes = ByteBuffer.wrap(reader.getBytes(DngTag.OPCODE_LIST_2));
+        assertEquals(4, opcodes.getInt());
+        assertEquals(9, opcodes.getInt());
+        opcodes.getInt();
+        opcodes.getInt();
+        int size = opcodes.getInt();
+        assertEquals(76 + 6 * 4, size);
+        //Top, left
+        assertEquals(0, opcodes.getInt());
+        assertEquals(0, opcodes.getInt());
+        opcodes.position(opcodes.position() + 4 * 8 + 8 * 4 + 4);
+        assertEquals(1.3f, opcodes.getFloat(), 1e-6f);
+        assertArrayEquals(new long[]{1, 3, 0, 0}, reader.getLongs(DngTag.DNG_BACKWARD_VERSION));
+    }
+
+    /**
+     * Purpose: Lossless JPEG tiles round trip
+     * Input : 100x70 frame with 224 byte rows, 32x16 tiles, compressed on a 3 thread pool
+     * Expected
+     *  identical samples, compression tag 7
+     */
+    @Test
+    public void roundTripLosslessJpeg() throws IOException {
+        int rowStride = 224;
+        ByteBuffer frame = createFrame(100, 70, rowStride, ByteOrder.LITTLE_ENDIAN);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        DngWriter writer = new DngWriter(createParameters(100, 70, false))
+                .setTileSize(32, 16)
+                .setCompression(DngTag.COMPRESSION_LOSSLESS_JPEG)
+                .setPool(pool);
+        DngReader reader = DngReader.open(write(writer, frame, rowStride));
+        pool.shutdown();
+        assertEquals(DngTag.COMPRESSION_LOSSLESS_JPEG, reader.getLong(DngTag.COMPRESSION));
+        assertFrame(frame, 100, 70, rowStride, reader.readRaw());
+    }
+
+    /**
+     * Purpose: Compressed file is smaller for a smooth noisy frame
+     * Input : 512x384 gradient with 3 bits of noise, 10 bit white level
+     * Expected
+     *  round trip, less than 60% of the uncompressed size
+     */
+    @Test
+    public void losslessJpegSize() throws IOException {
+        int width = 512;
+        int height = 384;
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+        java.util.Random random = new java.util.Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame.putShort((y * width + x) * 2, (short) (64 + (x + y) / 2 + random.nextInt(8)));
+            }
+        }
+        ParametersSnapshot parameters = createParameters(width, height, false);
+        Path plain = write(new DngWriter(parameters), frame, width * 2);
+        Path compressed = write(new DngWriter(parameters).setCompression(DngTag.COMPRESSION_LOSSLESS_JPEG), frame, width * 2);
+        assertTrue(Files.size(compressed) < Files.size(plain) * 0.6);
+        assertFrame(frame, width, height, width * 2, DngReader.open(compressed).readRaw());
+    }
+}
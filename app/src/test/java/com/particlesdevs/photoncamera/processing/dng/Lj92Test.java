@@ -0,0 +1,70 @@
+package com.particlesdevs.photoncamera.processing.dng;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Lj92Test {
+    private static short[] roundTrip(short[] samples, int width, int height, int tileWidth, int tileHeight) throws IOException {
+        Lj92Encoder encoder = new Lj92Encoder(tileWidth, tileHeight);
+        encoder.encode(ShortBuffer.wrap(samples), 0, width, width, height);
+        Lj92Decoder decoder = new Lj92Decoder(encoder.output());
+        assertEquals(tileWidth, decoder.getWidth());
+        assertEquals(tileHeight, decoder.getHeight());
+        assertEquals(Lj92Encoder.COMPONENTS, decoder.getComponents());
+        short[] out = new short[tileWidth * tileHeight];
+        decoder.decode(out);
+        return out;
+    }
+
+    /**
+     * Purpose: Extreme differences and stuffed bytes
+     * Input : alternating 0 and 65535 samples, random 16 bit samples
+     * Expected
+     *  identical samples, including differences of 32768
+     */
+    @Test
+    public void fullRange() throws IOException {
+        short[] samples = new short[64 * 16];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) (((i / 2 + i / 64) & 1) == 0 ? 0 : 0xFFFF);
+        assertArrayEquals(samples, roundTrip(samples, 64, 16, 64, 16));
+        Random random = new Random(2);
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) random.nextInt(1 << 16);
+        assertArrayEquals(samples, roundTrip(samples, 64, 16, 64, 16));
+    }
+
+    /**
+     * Purpose: Flat tile has a single used symbol
+     * Expected
+     *  round trip, a few bytes per row
+     */
+    @Test
+    public void flat() throws IOException {
+        short[] samples = new short[256 * 256];
+        java.util.Arrays.fill(samples, (short) 1023);
+        Lj92Encoder encoder = new Lj92Encoder(256, 256);
+        encoder.encode(ShortBuffer.wrap(samples), 0, 256, 256, 256);
+        assertTrue(encoder.length() < 256 * 256 / 8 + 128);
+        assertArrayEquals(samples, roundTrip(samples, 256, 256, 256, 256));
+    }
+
+    /**
+     * Purpose: Partial tile is padded by repeating edge samples
+     * Input : 10x5 region in a 16x8 tile
+     * Expected
+     *  region decodes unchanged
+     */
+    @Test
+    public void paddedEdge() throws IOException {
+        short[] samples = new short[10 * 5];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) (i * 37);
+        short[] out = roundTrip(samples, 10, 5, 16, 8);
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 10; x++) assertEquals(samples[y * 10 + x], out[y * 16 + x]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.particlesdevs.photoncamera.processing.jpeg;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class JpegEncoderTest {
+    private static ByteBuffer createImage(int width, int height, int rowStride) {
+        ByteBuffer rgba = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * rowStride + x * 4;
+                rgba.put(i, (byte) (x * 255 / width));
+                rgba.put(i + 1, (byte) (y * 255 / height));
+                rgba.put(i + 2, (byte) (128 + 100 * Math.sin(x / 9.0) * Math.cos(y / 7.0)));
+                rgba.put(i + 3, (byte) 255);
+            }
+        }
+        return rgba;
+    }
+
+    private static byte[] encode(JpegEncoder encoder, ByteBuffer rgba, int width, int height, int rowStride) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = encoder.encode(rgba, width, height, rowStride, out);
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+
+    private static double psnr(ByteBuffer rgba, int rowStride, BufferedImage decoded) {
+        double error = 0;
+        int count = 0;
+        for (int y = 0; y < decoded.getHeight(); y++) {
+            for (int x = 0; x < decoded.getWidth(); x++) {
+                int rgb = decoded.getRGB(x, y);
+                for (int c = 0; c < 3; c++) {
+                    int expected = rgba.get(y * rowStride + x * 4 + c) & 0xFF;
+                    int actual = (rgb >> (16 - c * 8)) & 0xFF;
+                    error += (expected - actual) * (expected - actual);
+                    count++;
+                }
+            }
+        }
+        return 10 * Math.log10(255.0 * 255.0 / (error / count));
+    }
+
+    /**
+     * Purpose: Output decodes with a standard decoder
+     * Input : 333x201 image with padded rows, quality 97
+     * Expected
+     *  same size, PSNR above 35dB, one restart marker between every pair of strips
+     */
+    @Test
+    public void decodes() throws IOException {
+        int rowStride = 333 * 4 + 12;
+        ByteBuffer rgba = createImage(333, 201, rowStride);
+        byte[] jpeg = encode(new JpegEncoder(97), rgba, 333, 201, rowStride);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(decoded);
+        assertEquals(333, decoded.getWidth());
+        assertEquals(201, decoded.getHeight());
+        assertTrue(psnr(rgba, rowStride, decoded) > 35.0);
+        int markers = 0;
+        for (int i = 0; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xF8) == 0xD0) markers++;
+        }
+        assertEquals((201 + 15) / 16 - 1, markers);
+    }
+
+    /**
+     * Purpose: Output does not depend on the thread count
+     * Input : 256x100 image on 1 and 3 threads
+     * Expected
+     *  identical bytes
+     */
+    @Test
+    public void deterministic() throws IOException {
+        ByteBuffer rgba = createImage(256, 100, 256 * 4);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool three = new ForkJoinPool(3);
+        byte[] first = encode(new JpegEncoder(90).setPool(single), rgba, 256, 100, 256 * 4);
+        byte[] second = encode(new JpegEncoder(90).setPool(three), rgba, 256, 100, 256 * 4);
+        single.shutdown();
+        three.shutdown();
+        assertArrayEquals(first, second);
+    }
+
+    /**
+     * Purpose: Lower quality gives a smaller file
+     */
+    @Test
+    public void quality() throws IOException {
+        ByteBuffer rgba = createImage(128, 128, 128 * 4);
+        assertTrue(encode(new JpegEncoder(50), rgba, 128, 128, 128 * 4).length
+                < encode(new JpegEncoder(97), rgba, 128, 128, 128 * 4).length);
+    }
+}
@@ -0,0 +1,167 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CpuHdrxMergeTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 96;
+    private static final int WHITE_LEVEL = 1023;
+    private static final float NOISE_S = 2e-4f;
+    private static final float NOISE_O = 1e-6f;
+    private static final float EXPOSURE = 65535.f / WHITE_LEVEL;
+
+    private static double scene(int x, int y) {
+        return 100 + 600.0 * x / WIDTH + 50 * Math.sin(y / 5.0);
+    }
+
+    /**
+     * Noisy frame of the scene, multiplied by gain and with a square of {@code square} added
+     * at {@code squareX}.
+     */
+    private static ByteBuffer frame(Random random, double gain, int squareX, double square) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double clean = scene(x, y) * gain;
+                if (x >= squareX && x < squareX + 24 && y >= 36 && y < 60) clean += square;
+                double sigma = WHITE_LEVEL * Math.sqrt(NOISE_S * clean / WHITE_LEVEL + NOISE_O);
+                int value = (int) Math.round(clean + random.nextGaussian() * sigma);
+                frame.putShort((y * WIDTH + x) * 2, (short) Math.max(0, Math.min(WHITE_LEVEL, value)));
+            }
+        }
+        return frame;
+    }
+
+    private static ByteBuffer merge(ByteBuffer[] frames, float[] exposures, ForkJoinPool pool) {
+        CpuHdrxMerge merge = new CpuHdrxMerge().setPool(pool);
+        merge.init(WIDTH, HEIGHT, frames.length);
+        for (int i = 0; i < frames.length; i++) merge.loadFrame(frames[i], exposures[i]);
+        ByteBuffer output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2);
+        merge.outputBuffer(output);
+        merge.processFrame(NOISE_S, NOISE_O, 1.5f, 1.f, 0.f, 0.f, 0.f, WHITE_LEVEL,
+                1.f, 1.f, 1.f, 0);
+        return output.order(ByteOrder.nativeOrder());
+    }
+
+    private static double rmsError(ByteBuffer frame, double scale, int x0, int x1) {
+        double error = 0;
+        int count = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = x0; x < x1; x++) {
+                double d = (frame.getShort((y * WIDTH + x) * 2) & 0xFFFF) - scene(x, y) * scale;
+                error += d * d;
+                count++;
+            }
+        }
+        return Math.sqrt(error / count);
+    }
+
+    private static float[] exposures(int count, float exposure) {
+        float[] exposures = new float[count];
+        Arrays.fill(exposures, exposure);
+        return exposures;
+    }
+
+    /**
+     * Purpose: Static burst is denoised
+     * Input : 8 frames of the same scene with independent noise
+     * Expected
+     *  error of the merge at most half of the error of the reference frame
+     */
+    @Test
+    public void denoise() {
+        Random random = new Random(1);
+        ByteBuffer[] frames = new ByteBuffer[8];
+        for (int i = 0; i < frames.length; i++) frames[i] = frame(random, 1.0, 0, 0);
+        ByteBuffer merged = merge(frames, exposures(frames.length, EXPOSURE), ForkJoinPool.commonPool());
+        double reference = rmsError(frames[0], 1.0, 0, WIDTH) * EXPOSURE;
+        double result = rmsError(merged, EXPOSURE, 0, WIDTH);
+        assertTrue("reference " + reference + " merged " + result, result < reference * 0.5);
+    }
+
+    /**
+     * Purpose: Content that moved is not merged into the reference
+     * Input : reference with a bright square, other frames with the square moved by 64 pixels
+     * Expected
+     *  square keeps its level, the moved square leaves less than a tenth of its level where
+     *  plain averaging would leave five sixths
+     */
+    @Test
+    public void ghosts() {
+        Random random = new Random(2);
+        ByteBuffer[] frames = new ByteBuffer[6];
+        frames[0] = frame(random, 1.0, 16, 250);
+        for (int i = 1; i < frames.length; i++) frames[i] = frame(random, 1.0, 80, 250);
+        ByteBuffer merged = merge(frames, exposures(frames.length, EXPOSURE), ForkJoinPool.commonPool());
+        double noise = rmsError(frames[0], 1.0, 120, WIDTH) * EXPOSURE;
+        double square = 0;
+        double ghost = 0;
+        for (int y = 36; y < 60; y++) {
+            for (int x = 0; x < 24; x++) {
+                square += (merged.getShort((y * WIDTH + 16 + x) * 2) & 0xFFFF) - (scene(16 + x, y) + 250) * EXPOSURE;
+                ghost += (merged.getShort((y * WIDTH + 80 + x) * 2) & 0xFFFF) - scene(80 + x, y) * EXPOSURE;
+            }
+        }
+        square /= 24 * 24;
+        ghost /= 24 * 24;
+        assertTrue("square " + square + " noise " + noise, Math.abs(square) < noise);
+        assertTrue("ghost " + ghost, Math.abs(ghost) < 250 * EXPOSURE * 0.1);
+    }
+
+    /**
+     * Purpose: Frames of different exposure are brought to the same scale
+     * Input : reference and 4 frames with half the signal and twice the exposure multiplier
+     * Expected
+     *  mean of the merge matches the scene within 1%
+     */
+    @Test
+    public void exposure() {
+        Random random = new Random(3);
+        ByteBuffer[] frames = new ByteBuffer[5];
+        float[] exposures = exposures(frames.length, EXPOSURE * 2.f);
+        frames[0] = frame(random, 1.0, 0, 0);
+        exposures[0] = EXPOSURE;
+        for (int i = 1; i < frames.length; i++) frames[i] = frame(random, 0.5, 0, 0);
+        ByteBuffer merged = merge(frames, exposures, ForkJoinPool.commonPool());
+        double sum = 0;
+        double expected = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                sum += merged.getShort((y * WIDTH + x) * 2) & 0xFFFF;
+                expected += scene(x, y) * EXPOSURE;
+            }
+        }
+        assertEquals(1.0, sum / expected, 0.01);
+    }
+
+    /**
+     * Purpose: Result does not depend on the number of threads
+     * Input : same burst merged on 1 and 3 threads
+     * Expected
+     *  identical output
+     */
+    @Test
+    public void deterministic() {
+        Random random = new Random(4);
+        ByteBuffer[] frames = new ByteBuffer[4];
+        for (int i = 0; i < frames.length; i++) frames[i] = frame(random, 1.0, 40 * i, 200);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool triple = new ForkJoinPool(3);
+        try {
+            ByteBuffer first = merge(frames, exposures(frames.length, EXPOSURE), single);
+            ByteBuffer second = merge(frames, exposures(frames.length, EXPOSURE), triple);
+            assertEquals(first, second);
+        } finally {
+            single.shutdown();
+            triple.shutdown();
+        }
+    }
+}
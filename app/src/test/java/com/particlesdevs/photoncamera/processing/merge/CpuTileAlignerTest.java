@@ -0,0 +1,128 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CpuTileAlignerTest {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 384;
+
+    /**
+     * Frame that matches the reference when sampled (shiftX, shiftY) raw pixels further.
+     */
+    private static ByteBuffer frame(Random random, double shiftX, double shiftY) {
+        return SyntheticBayer.shifted(WIDTH, HEIGHT, random, 4, SyntheticBayer::detailedScene, shiftX, shiftY);
+    }
+
+    private static FloatBuffer align(ByteBuffer[] frames, ForkJoinPool pool, int slots) {
+        CpuTileAligner aligner = new CpuTileAligner().setPool(pool).setSlots(slots);
+        aligner.init(WIDTH, HEIGHT, frames.length);
+        for (ByteBuffer frame : frames) aligner.loadFrame(frame, 1.f);
+        ByteBuffer output = ByteBuffer.allocateDirect(
+                (frames.length - 1) * CpuTileAligner.alignmentSize(WIDTH, HEIGHT) * 4);
+        aligner.outputBuffer(output);
+        aligner.align();
+        assertTrue(aligner.getTilesPerSecond() > 0.f);
+        return output.order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * @return part of the tiles away from the border whose vector is within tolerance.
+     */
+    private static double matching(FloatBuffer vectors, int frame, double expectedX, double expectedY, double tolerance) {
+        int tilesX = WIDTH / 16 + 1;
+        int tilesY = HEIGHT / 16 + 1;
+        int base = frame * CpuTileAligner.alignmentSize(WIDTH, HEIGHT);
+        int good = 0;
+        int count = 0;
+        for (int ty = 4; ty < tilesY - 4; ty++) {
+            for (int tx = 4; tx < tilesX - 4; tx++) {
+                int i = base + (ty * tilesX + tx) * 2;
+                if (Math.abs(vectors.get(i) - expectedX) <= tolerance && Math.abs(vectors.get(i + 1) - expectedY) <= tolerance)
+                    good++;
+                count++;
+            }
+        }
+        return good / (double) count;
+    }
+
+    /**
+     * Purpose: Known whole pixel shifts are found, including ones past the finest search window
+     * Input : reference and frames shifted by (6,-4), (40,22) and (-58,30) raw pixels
+     * Expected
+     *  vectors of (3,-2), (20,11) and (-29,15) quads on at least 95% of inner tiles
+     */
+    @Test
+    public void shifts() {
+        Random random = new Random(1);
+        ByteBuffer[] frames = {frame(random, 0, 0), frame(random, 6, -4), frame(random, 40, 22), frame(random, -58, 30)};
+        FloatBuffer vectors = align(frames, ForkJoinPool.commonPool(), 2);
+        assertTrue(matching(vectors, 0, 3, -2, 0.3) > 0.95);
+        assertTrue(matching(vectors, 1, 20, 11, 0.3) > 0.95);
+        assertTrue(matching(vectors, 2, -29, 15, 0.3) > 0.95);
+    }
+
+    /**
+     * Purpose: Subpixel refinement finds half quad shifts
+     * Input : frame shifted by (3,-5) raw pixels, a quad and a half
+     * Expected
+     *  vectors within 0.2 of (1.5,-2.5) on at least 90% of inner tiles
+     */
+    @Test
+    public void subpixel() {
+        Random random = new Random(2);
+        ByteBuffer[] frames = {frame(random, 0, 0), frame(random, 3, -5)};
+        FloatBuffer vectors = align(frames, ForkJoinPool.commonPool(), 1);
+        assertTrue(matching(vectors, 0, 1.5, -2.5, 0.2) > 0.9);
+    }
+
+    /**
+     * Purpose: Vectors do not depend on threads or on how many frames share the pyramids
+     * Input : same burst on 1 thread with 1 slot and on 3 threads with 3 slots
+     * Expected
+     *  identical vectors
+     */
+    @Test
+    public void deterministic() {
+        Random random = new Random(3);
+        ByteBuffer[] frames = {frame(random, 0, 0), frame(random, 4, 2), frame(random, -10, 6), frame(random, 1, 1)};
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool triple = new ForkJoinPool(3);
+        try {
+            assertEquals(align(frames, single, 1), align(frames, triple, 3));
+        } finally {
+            single.shutdown();
+            triple.shutdown();
+        }
+    }
+
+    /**
+     * Purpose: Frames aligned one at a time to a reference loaded once match the whole burst
+     * Input : reference and frames shifted by (6,-4) and (-10,6), aligned together and one by one
+     * Expected
+     *  identical vectors
+     */
+    @Test
+    public void alignsFrameByFrame() {
+        Random random = new Random(4);
+        ByteBuffer[] frames = {frame(random, 0, 0), frame(random, 6, -4), frame(random, -10, 6)};
+        FloatBuffer burst = align(frames, ForkJoinPool.commonPool(), 1);
+        CpuTileAligner aligner = new CpuTileAligner();
+        aligner.init(WIDTH, HEIGHT, 2);
+        aligner.loadReference(frames[0], 1.f);
+        int size = CpuTileAligner.alignmentSize(WIDTH, HEIGHT);
+        ByteBuffer output = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder());
+        for (int f = 1; f < frames.length; f++) {
+            aligner.alignFrame(frames[f], 1.f, null, output);
+            FloatBuffer vectors = output.asFloatBuffer();
+            for (int i = 0; i < size; i++) assertEquals(burst.get((f - 1) * size + i), vectors.get(i), 0.f);
+        }
+    }
+}
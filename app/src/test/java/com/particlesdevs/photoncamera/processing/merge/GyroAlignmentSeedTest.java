@@ -0,0 +1,136 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class GyroAlignmentSeedTest {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 384;
+    private static final float[] STILL = {0.f, 0.f, 0.f};
+    private static final GyroAlignmentSeed SEED = new GyroAlignmentSeed(600, 600, WIDTH / 2.0, HEIGHT / 2.0);
+
+    /**
+     * Frame seen after the camera turned from STILL to {@code rotation}.
+     */
+    private static ByteBuffer frame(Random random, float[] rotation) {
+        double[] h = SEED.homography(rotation, STILL);
+        return SyntheticBayer.frame(WIDTH, HEIGHT, random, 4, (x, y) -> {
+            double w = h[6] * x + h[7] * y + h[8];
+            return SyntheticBayer.detailedScene((h[0] * x + h[1] * y + h[2]) / w, (h[3] * x + h[4] * y + h[5]) / w);
+        });
+    }
+
+    private static FloatBuffer align(ByteBuffer reference, ByteBuffer frame, float[] seed) {
+        CpuTileAligner aligner = new CpuTileAligner().setPool(ForkJoinPool.commonPool());
+        aligner.init(WIDTH, HEIGHT, 2);
+        aligner.loadFrame(reference, 1.f);
+        aligner.loadFrame(frame, 1.f);
+        aligner.setSeed(1, seed);
+        ByteBuffer output = ByteBuffer.allocateDirect(CpuTileAligner.alignmentSize(WIDTH, HEIGHT) * 4);
+        aligner.outputBuffer(output);
+        aligner.align();
+        return output.order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * @return part of the tiles, whose match lies well inside the frame, within tolerance of the
+     * expected vector.
+     */
+    private static double matching(FloatBuffer vectors, float[] expected, double tolerance) {
+        int tilesX = WIDTH / 16 + 1;
+        int tilesY = HEIGHT / 16 + 1;
+        int good = 0;
+        int count = 0;
+        for (int ty = 2; ty < tilesY - 2; ty++) {
+            for (int tx = 2; tx < tilesX - 2; tx++) {
+                int i = (ty * tilesX + tx) * 2;
+                double x = tx * 16 + expected[i] * 2;
+                double y = ty * 16 + expected[i + 1] * 2;
+                if (x < 32 || y < 32 || x > WIDTH - 32 || y > HEIGHT - 32) continue;
+                if (Math.abs(vectors.get(i) - expected[i]) <= tolerance
+                        && Math.abs(vectors.get(i + 1) - expected[i + 1]) <= tolerance)
+                    good++;
+                count++;
+            }
+        }
+        return good / (double) count;
+    }
+
+    /**
+     * Purpose: Predicted vectors follow the rotation between the frames
+     * Input : same rotation, a 0.1 rad pan, a 0.05 rad roll with a 600 px focal length
+     * Expected
+     *  no motion for the same rotation, focal * tan(0.1) raw pixels at the principal point for
+     *  the pan, the roll turns the corners around the principal point
+     */
+    @Test
+    public void field() {
+        float[] rotated = {0.2f, -0.1f, 0.3f};
+        for (float v : SEED.field(rotated, rotated, WIDTH, HEIGHT)) assertEquals(0.f, v, 1e-4f);
+
+        int tilesX = WIDTH / 16 + 1;
+        int centre = ((HEIGHT / 32) * tilesX + WIDTH / 32) * 2;
+        float[] pan = SEED.field(new float[]{0.1f, 0.f, 0.f}, STILL, WIDTH, HEIGHT);
+        assertEquals(600 * Math.tan(0.1) / 2, pan[centre], 1e-3);
+        assertEquals(0.f, pan[centre + 1], 1e-4f);
+
+        float[] roll = SEED.field(new float[]{0.f, 0.f, 0.05f}, STILL, WIDTH, HEIGHT);
+        double cos = Math.cos(0.05);
+        double sin = Math.sin(0.05);
+        double x = -WIDTH / 2.0;
+        double y = -HEIGHT / 2.0;
+        assertEquals((x * cos - y * sin - x) / 2, roll[0], 1e-3);
+        assertEquals((x * sin + y * cos - y) / 2, roll[1], 1e-3);
+        assertEquals(0.f, roll[centre], 1e-4f);
+    }
+
+    /**
+     * Purpose: A gyro seed lets alignment find motion beyond the reach of the unseeded pyramid
+     * Input : frame after a 0.17 rad pan, 0.04 rad tilt and 0.01 rad roll, about 100 raw pixels,
+     *  aligned without a seed and with a seed from a gyro reading 0.01 rad off in pan
+     * Expected
+     *  unseeded vectors miss the true field on most tiles, seeded ones match it within half a
+     *  quad on at least 90% of them
+     */
+    @Test
+    public void seededAlignment() {
+        Random random = new Random(4);
+        float[] turned = {-0.17f, 0.04f, 0.01f};
+        ByteBuffer reference = frame(random, STILL);
+        ByteBuffer frame = frame(random, turned);
+        float[] truth = SEED.field(STILL, turned, WIDTH, HEIGHT);
+        float[] gyro = SEED.field(STILL, new float[]{-0.18f, 0.04f, 0.01f}, WIDTH, HEIGHT);
+
+        assertTrue(matching(align(reference, frame, null), truth, 0.5) < 0.5);
+        assertTrue(matching(align(reference, frame, gyro), truth, 0.5) > 0.9);
+    }
+
+    /**
+     * Purpose: Focal lengths in pixels come from the focal length and the pixel pitch of each axis
+     * Input : 4.7mm lens on a 6.4x4.8mm sensor read out at 512x400, angles of view from the width
+     * Expected
+     *  4.7 * 512 / 6.4 and 4.7 * 400 / 4.8 pixels, the principal point in the frame center
+     */
+    @Test
+    public void focalFromParameters() {
+        double angle = 2 * Math.atan(6.4 / (4.7 * 2));
+        ParametersSnapshot parameters = new ParametersSnapshot.Builder()
+                .setRawSize(512, 400)
+                .setOptics(4.7f, 6.4f, 4.8f, angle, angle, 512 / angle, 400 / angle, 512 / 6.4, 400 / 4.8)
+                .build();
+        GyroAlignmentSeed seed = GyroAlignmentSeed.fromParameters(parameters);
+        assertEquals(4.7 * 512 / 6.4, seed.focalX, 1e-3);
+        assertEquals(4.7 * 400 / 4.8, seed.focalY, 1e-3);
+        assertEquals(256, seed.centerX, 1e-9);
+        assertEquals(200, seed.centerY, 1e-9);
+    }
+}
@@ -0,0 +1,168 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import com.particlesdevs.photoncamera.control.GyroBurst;
+import com.particlesdevs.photoncamera.control.GyroRingBuffer;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class GyroWarpMeshTest {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 384;
+    private static final float[] STILL = {0.f, 0.f, 0.f};
+    private static final GyroAlignmentSeed CAMERA = new GyroAlignmentSeed(600, 600, WIDTH / 2.0, HEIGHT / 2.0);
+
+    /**
+     * Rotation while a row was exposed, a pan that keeps going during the readout.
+     */
+    private static float[] shutter(double row) {
+        return new float[]{(float) (0.03 + 0.02 * row), (float) (0.01 - 0.01 * row), 0.005f};
+    }
+
+    private static float[][] bands(int bands) {
+        float[][] out = new float[bands][];
+        for (int b = 0; b < bands; b++) out[b] = shutter((b + 0.5) / bands);
+        return out;
+    }
+
+    private static float[][] still(int bands) {
+        float[][] out = new float[bands][];
+        for (int b = 0; b < bands; b++) out[b] = STILL;
+        return out;
+    }
+
+    /**
+     * @return mean absolute difference to the scene over the inner part of the frame.
+     */
+    private static double error(ShortBuffer frame) {
+        double sum = 0;
+        int count = 0;
+        for (int y = 48; y < HEIGHT - 48; y++) {
+            for (int x = 48; x < WIDTH - 48; x++) {
+                sum += Math.abs((frame.get(y * WIDTH + x) & 0xFFFF) - SyntheticBayer.scene(x, y));
+                count++;
+            }
+        }
+        return sum / count;
+    }
+
+    /**
+     * Purpose: A single band mesh is the frame homography
+     * Input : reference and frame rotated 0.1 rad apart in pan with a roll, one band
+     * Expected
+     *  seed equal to GyroAlignmentSeed.field within a tenth of a quad, map equal to the
+     *  homography within a quarter of a pixel away from vertices
+     */
+    @Test
+    public void singleBand() {
+        float[] reference = {0.02f, 0.01f, 0.f};
+        float[] frame = {-0.08f, 0.03f, 0.02f};
+        GyroWarpMesh mesh = GyroWarpMesh.build(CAMERA, new float[][]{reference}, new float[][]{frame},
+                WIDTH, HEIGHT, GyroWarpMesh.DEFAULT_STEP);
+        assertEquals(9, mesh.homographies.length);
+        assertEquals(WIDTH / 64 + 1, mesh.meshX);
+        assertEquals(HEIGHT / 64 + 1, mesh.meshY);
+
+        float[] field = CAMERA.field(reference, frame, WIDTH, HEIGHT);
+        float[] seed = mesh.seed(new float[CpuTileAligner.alignmentSize(WIDTH, HEIGHT)]);
+        for (int i = 0; i < field.length; i++) assertEquals(field[i], seed[i], 0.1f);
+
+        double[] h = CAMERA.homography(reference, frame);
+        double[] position = new double[2];
+        mesh.map(300.5, 100.25, position);
+        double w = h[6] * 300.5 + h[7] * 100.25 + h[8];
+        assertEquals((h[0] * 300.5 + h[1] * 100.25 + h[2]) / w, position[0], 0.25);
+        assertEquals((h[3] * 300.5 + h[4] * 100.25 + h[5]) / w, position[1], 0.25);
+    }
+
+    /**
+     * Purpose: Bands follow the camera along the rolling shutter readout
+     * Input : pan and tilt that keep changing during the readout, 8 bands
+     * Expected
+     *  mesh at the centre row of every band within a fifth of a pixel of that band homography,
+     *  first and last rows mapped by the first and last band, apart by the pan change
+     */
+    @Test
+    public void rollingShutter() {
+        int bands = 8;
+        GyroWarpMesh mesh = GyroWarpMesh.build(CAMERA, still(bands), bands(bands), WIDTH, HEIGHT, 16);
+        double[] position = new double[2];
+        for (int b = 0; b < bands; b++) {
+            double y = (b + 0.5) * HEIGHT / bands;
+            double[] h = CAMERA.homography(STILL, shutter((b + 0.5) / bands));
+            double w = h[6] * 256 + h[7] * y + h[8];
+            mesh.map(256, y, position);
+            assertEquals((h[0] * 256 + h[1] * y + h[2]) / w, position[0], 0.2);
+            assertEquals((h[3] * 256 + h[4] * y + h[5]) / w, position[1], 0.2);
+        }
+        double[] top = CAMERA.homography(STILL, shutter(0.5 / bands));
+        double[] bottom = CAMERA.homography(STILL, shutter(1 - 0.5 / bands));
+        mesh.map(256, 0, position);
+        double first = position[0];
+        assertEquals((top[0] * 256 + top[2]) / (top[6] * 256 + top[8]), first, 0.2);
+        mesh.map(256, HEIGHT, position);
+        double w = bottom[6] * 256 + bottom[7] * HEIGHT + bottom[8];
+        assertEquals((bottom[0] * 256 + bottom[1] * HEIGHT + bottom[2]) / w, position[0], 0.2);
+        assertTrue(first - position[0] > 600 * 0.01);
+    }
+
+    /**
+     * Purpose: The CPU warp brings a rolling shutter frame back onto the reference
+     * Input : bayer frame whose every row was exposed at its own rotation, warped without bands
+     *  and with 8 bands
+     * Expected
+     *  the single homography leaves the shear of the readout, 8 bands bring the error within a
+     *  third of it and a tenth of the unwarped one
+     */
+    @Test
+    public void warp() {
+        ShortBuffer frame = ShortBuffer.allocate(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            double[] h = CAMERA.homography(shutter(y / (HEIGHT - 1.0)), STILL);
+            for (int x = 0; x < WIDTH; x++) {
+                double w = h[6] * x + h[7] * y + h[8];
+                double value = SyntheticBayer.scene((h[0] * x + h[1] * y + h[2]) / w,
+                        (h[3] * x + h[4] * y + h[5]) / w);
+                frame.put(y * WIDTH + x, (short) Math.round(value));
+            }
+        }
+        ShortBuffer single = ShortBuffer.allocate(WIDTH * HEIGHT);
+        GyroWarpMesh.build(CAMERA, still(1), new float[][]{shutter(0.5)}, WIDTH, HEIGHT, 64).warp(frame, single);
+        ShortBuffer banded = ShortBuffer.allocate(WIDTH * HEIGHT);
+        GyroWarpMesh.build(CAMERA, still(8), bands(8), WIDTH, HEIGHT, 64).warp(frame, banded);
+
+        double unwarped = error(frame);
+        double singleError = error(single);
+        double bandedError = error(banded);
+        assertTrue(singleError < unwarped);
+        assertTrue(bandedError * 3 < singleError);
+        assertTrue(bandedError * 10 < unwarped);
+    }
+
+    /**
+     * Purpose: Band rotations come from the rows exposure in the gyro history
+     * Input : 1 kHz gyro panning at 1 rad/s, a frame exposed for 10 ms with 40 ms skew, and a
+     *  frame delimited by capture callbacks
+     * Expected
+     *  two bands 20 ms apart turned 0.02 rad apart in the integrated convention, the callback
+     *  frame uses its rotation for every band
+     */
+    @Test
+    public void rotations() {
+        long ms = 1000000L;
+        GyroRingBuffer history = new GyroRingBuffer(1024);
+        for (int i = 0; i <= 200; i++) history.add(i * ms, 1f, 0f, 0f);
+        GyroBurst exposed = GyroBurst.exposure(history, 0, 100 * ms, 10 * ms, 40 * ms);
+        float[][] bands = GyroWarpMesh.rotations(exposed, 2);
+        assertEquals(-0.115f, bands[0][0], 1e-5f);
+        assertEquals(-0.135f, bands[1][0], 1e-5f);
+        assertEquals(0.f, bands[1][1], 0.f);
+
+        GyroBurst callbacks = new GyroBurst(history, 0, 100 * ms, 150 * ms);
+        for (float[] band : GyroWarpMesh.rotations(callbacks, 3))
+            assertArrayEquals(callbacks.integrated, band, 0.f);
+    }
+}
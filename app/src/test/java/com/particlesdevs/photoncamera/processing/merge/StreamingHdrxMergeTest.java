@@ -0,0 +1,118 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class StreamingHdrxMergeTest {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 384;
+    private static final float WHITE = 1023.f;
+    private static final double SIGMA = 8.0;
+    private static final float NOISE_O = (float) (SIGMA * SIGMA / (WHITE * WHITE));
+
+    /**
+     * Noisy frame of the scene moved by (dx, dy) raw pixels: the frame shows scene(p - d) at p.
+     */
+    private static ByteBuffer frame(Random random, int dx, int dy) {
+        return SyntheticBayer.shifted(WIDTH, HEIGHT, random, SIGMA, SyntheticBayer::scene, dx, dy);
+    }
+
+    /**
+     * @return RMS difference to the scene away from the borders.
+     */
+    private static double error(ByteBuffer frame) {
+        ShortBuffer samples = frame.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        double sum = 0;
+        int count = 0;
+        for (int y = 32; y < HEIGHT - 32; y++) {
+            for (int x = 32; x < WIDTH - 32; x++) {
+                double d = (samples.get(y * WIDTH + x) & 0xFFFF) - SyntheticBayer.scene(x, y);
+                sum += d * d;
+                count++;
+            }
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    private static ByteBuffer merge(CpuTileAligner aligner, ByteBuffer reference, ByteBuffer... frames) {
+        StreamingHdrxMerge merge = new StreamingHdrxMerge().setPool(ForkJoinPool.commonPool()).setAligner(aligner);
+        merge.init(WIDTH, HEIGHT);
+        merge.start(reference, 1.f, 0.f, NOISE_O, 1.5f, 1.f, 0.f, 0.f, 0.f, WHITE, 1.f, 1.f, 1.f, 0);
+        for (ByteBuffer frame : frames) merge.addFrame(frame, 1.f, null);
+        assertEquals(frames.length + 1, merge.getFrames());
+        assertTrue(merge.getFramesPerSecond() > 0.f);
+        ByteBuffer output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2);
+        merge.finish(output);
+        return output;
+    }
+
+    /**
+     * Purpose: Still frames average down the noise
+     * Input : reference and 7 frames of a still scene with 8 DN of noise, no aligner
+     * Expected
+     *  noise below 0.45 of a single frame, close to 1 / sqrt(8)
+     */
+    @Test
+    public void averagesStill() {
+        Random random = new Random(1);
+        ByteBuffer reference = frame(random, 0, 0);
+        ByteBuffer[] frames = new ByteBuffer[7];
+        for (int i = 0; i < frames.length; i++) frames[i] = frame(random, 0, 0);
+        double single = error(reference);
+        double merged = error(merge(null, reference, frames));
+        assertEquals(SIGMA, single, 0.5);
+        assertTrue(merged < single * 0.45);
+    }
+
+    /**
+     * Purpose: Moved frames are aligned before they are folded in, unaligned ones are rejected
+     * Input : reference and 3 frames moved by up to 14 raw pixels, with and without aligner
+     * Expected
+     *  aligned merge well below the single frame noise, unaligned merge no worse than a single
+     *  frame since the tile weights reject the moved content
+     */
+    @Test
+    public void alignsMovedFrames() {
+        Random random = new Random(2);
+        ByteBuffer reference = frame(random, 0, 0);
+        ByteBuffer[] frames = {frame(random, 6, 2), frame(random, -4, 8), frame(random, 14, -10)};
+        double single = error(reference);
+        CpuTileAligner aligner = new CpuTileAligner().setPool(ForkJoinPool.commonPool());
+        double aligned = error(merge(aligner, reference, frames));
+        double unaligned = error(merge(null, reference, frames));
+        assertTrue(aligned < single * 0.7);
+        assertTrue(unaligned < single * 1.1);
+    }
+
+    /**
+     * Purpose: The output may be the reference and the merge is reusable
+     * Input : merge finished into its own reference, then frames added without start
+     * Expected
+     *  output written in place, adding without a reference throws
+     */
+    @Test
+    public void finishesInPlace() {
+        Random random = new Random(3);
+        ByteBuffer reference = frame(random, 0, 0);
+        double single = error(reference);
+        StreamingHdrxMerge merge = new StreamingHdrxMerge();
+        merge.init(WIDTH, HEIGHT);
+        merge.start(reference, 1.f, 0.f, NOISE_O, 1.5f, 1.f, 0.f, 0.f, 0.f, WHITE, 1.f, 1.f, 1.f, 0);
+        merge.addFrame(frame(random, 0, 0), 1.f, null);
+        merge.addFrame(frame(random, 0, 0), 1.f, null);
+        merge.finish(reference);
+        assertTrue(error(reference) < single * 0.7);
+        try {
+            merge.addFrame(frame(random, 0, 0), 1.f, null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
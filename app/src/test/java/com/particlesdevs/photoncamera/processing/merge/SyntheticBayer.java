@@ -0,0 +1,59 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic raw frames of a smooth scene with texture at several scales, for the alignment and
+ * merge tests.
+ */
+final class SyntheticBayer {
+    interface Scene {
+        double at(double x, double y);
+    }
+
+    private SyntheticBayer() {
+    }
+
+    /**
+     * Sum of sines at several scales around level 400.
+     */
+    static double scene(double x, double y) {
+        return 400 + 120 * Math.sin(x / 11.3 + 0.4) * Math.cos(y / 8.7)
+                + 90 * Math.sin((x + 1.7 * y) / 23.9) + 70 * Math.cos((2.3 * x - y) / 41.1)
+                + 60 * Math.sin(x / 67.0) * Math.sin(y / 53.0);
+    }
+
+    /**
+     * {@link #scene} with a fine diagonal texture added, so small tiles find a match.
+     */
+    static double detailedScene(double x, double y) {
+        return scene(x, y) + 40 * Math.cos((x - 3.1 * y) / 6.3);
+    }
+
+    /**
+     * Noisy RAW16 frame in native order.
+     *
+     * @param scene value at every pixel, before the noise.
+     * @param sigma standard deviation of the gaussian noise added to every sample.
+     */
+    static ByteBuffer frame(int width, int height, Random random, double sigma, Scene scene) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.nativeOrder());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double value = scene.at(x, y) + random.nextGaussian() * sigma;
+                frame.putShort((y * width + x) * 2, (short) Math.round(value));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Noisy frame of the scene moved by (dx, dy) raw pixels: the frame shows scene(p - d) at p.
+     */
+    static ByteBuffer shifted(int width, int height, Random random, double sigma, Scene scene,
+                              double dx, double dy) {
+        return frame(width, height, random, sigma, (x, y) -> scene.at(x - dx, y - dy));
+    }
+}
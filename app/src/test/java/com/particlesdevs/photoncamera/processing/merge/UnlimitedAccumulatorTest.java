@@ -0,0 +1,165 @@
+package com.particlesdevs.photoncamera.processing.merge;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class UnlimitedAccumulatorTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final float WHITE_LEVEL = 4095.f;
+    private static final float[] WHITE_POINT = {1.f, 1.f, 1.f};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        UnlimitedAccumulator.checkpointFrames = 16;
+    }
+
+    private static int sample(int x, int y, int frame) {
+        return 1000 + (x * 7 + y * 13 + frame * 31) % 100;
+    }
+
+    private static ByteBuffer frame(int frame) {
+        ByteBuffer raw = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = raw.asShortBuffer();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) samples.put(y * WIDTH + x, (short) sample(x, y, frame));
+        }
+        return raw;
+    }
+
+    private static ShortBuffer finish(UnlimitedAccumulator accumulator) {
+        ByteBuffer output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        accumulator.finish(output, 65535.f);
+        return output.asShortBuffer();
+    }
+
+    /**
+     * @return largest difference of the output to the mean of the frames, in output steps.
+     */
+    private static double error(ShortBuffer output, int[] frames) {
+        double worst = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double mean = 0;
+                for (int frame : frames) mean += sample(x, y, frame) / (double) WHITE_LEVEL;
+                mean = mean / frames.length * 65535.0;
+                worst = Math.max(worst, Math.abs((output.get(y * WIDTH + x) & 0xFFFF) - mean));
+            }
+        }
+        return worst;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] out = new int[to - from];
+        for (int i = from; i < to; i++) out[i - from] = i;
+        return out;
+    }
+
+    /**
+     * Purpose: Hundreds of frames average without losing precision
+     * Input : 1000 frames of 64x48 samples varying between frames
+     * Expected
+     *  output within one 16 bit step of the double precision mean
+     */
+    @Test
+    public void averagesPrecisely() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("unlimited.bin");
+        try (UnlimitedAccumulator accumulator = UnlimitedAccumulator.open(path, WIDTH, HEIGHT, 0,
+                WHITE_LEVEL, WHITE_POINT)) {
+            for (int i = 0; i < 1000; i++) accumulator.add(frame(i), WIDTH * 2);
+            assertEquals(1000, accumulator.getFrames());
+            assertTrue(accumulator.getFramesPerSecond() > 0.f);
+            assertEquals(0.0, error(finish(accumulator), range(0, 1000)), 1.0);
+        }
+    }
+
+    /**
+     * Purpose: A stack left by a killed process is only continued when it is recovered
+     * Input : checkpoint every 4 frames, 6 frames added before the file is dropped, recovered
+     *  and 2 more frames added
+     * Expected
+     *  the 2 frames after the checkpoint are lost, the stack holds frames 0 to 3, 6 and 7
+     */
+    @Test
+    public void resumesCheckpoint() throws Exception {
+        UnlimitedAccumulator.checkpointFrames = 4;
+        Path path = folder.getRoot().toPath().resolve("unlimited.bin");
+        UnlimitedAccumulator first = UnlimitedAccumulator.open(path, WIDTH, HEIGHT, 0, WHITE_LEVEL, WHITE_POINT);
+        for (int i = 0; i < 6; i++) first.add(frame(i), WIDTH * 2);
+        first.close();
+
+        try (UnlimitedAccumulator resumed = UnlimitedAccumulator.recover(path)) {
+            assertEquals(4, resumed.getFrames());
+            assertEquals(4, resumed.getResumedFrames());
+            resumed.add(frame(6), WIDTH * 2);
+            resumed.add(frame(7), WIDTH * 2);
+            assertEquals(6, resumed.getFrames());
+            assertEquals(0.0, error(finish(resumed), new int[]{0, 1, 2, 3, 6, 7}), 1.0);
+        }
+    }
+
+    /**
+     * Purpose: A checkpoint is finished after a restart, a new stream starts over
+     * Input : 5 frames checkpointed every 5, recovered; then opened for the same stream, and
+     *  for another size
+     * Expected
+     *  recovered stack of 5 frames equal to their mean, both opens start an empty stack and
+     *  recovering a missing file gives null
+     */
+    @Test
+    public void recoversOrStartsOver() throws Exception {
+        UnlimitedAccumulator.checkpointFrames = 5;
+        Path path = folder.getRoot().toPath().resolve("unlimited.bin");
+        UnlimitedAccumulator first = UnlimitedAccumulator.open(path, WIDTH, HEIGHT, 0, WHITE_LEVEL, WHITE_POINT);
+        for (int i = 0; i < 5; i++) first.add(frame(i), WIDTH * 2);
+        first.close();
+
+        try (UnlimitedAccumulator recovered = UnlimitedAccumulator.recover(path)) {
+            assertNotNull(recovered);
+            assertEquals(WIDTH, recovered.width);
+            assertEquals(5, recovered.getFrames());
+            assertEquals(0.0, error(finish(recovered), range(0, 5)), 1.0);
+        }
+
+        try (UnlimitedAccumulator fresh = UnlimitedAccumulator.open(path, WIDTH, HEIGHT, 0, WHITE_LEVEL, WHITE_POINT)) {
+            assertEquals(0, fresh.getFrames());
+            assertEquals(0, fresh.getResumedFrames());
+        }
+        UnlimitedAccumulator other = UnlimitedAccumulator.open(path, WIDTH / 2, HEIGHT, 0, WHITE_LEVEL, WHITE_POINT);
+        assertEquals(0, other.getFrames());
+        other.delete();
+        assertNull(UnlimitedAccumulator.recover(path));
+    }
+
+    /**
+     * Purpose: Samples are clipped to their white point and hot pixels are filtered as on GL
+     * Input : RGGB frame with red white point 0.2, one bright pixel on a green site
+     * Expected
+     *  red samples at 0.2 of the output range, the bright green pixel replaced by its neighbours
+     */
+    @Test
+    public void clipsAndFiltersHotPixels() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("unlimited.bin");
+        ByteBuffer raw = frame(0);
+        raw.asShortBuffer().put(20 * WIDTH + 21, (short) 4000);
+        try (UnlimitedAccumulator accumulator = UnlimitedAccumulator.open(path, WIDTH, HEIGHT, 0,
+                WHITE_LEVEL, new float[]{0.2f, 1.f, 1.f})) {
+            accumulator.add(raw, WIDTH * 2);
+            ShortBuffer output = finish(accumulator);
+            assertEquals(65535 * 0.2, output.get(10 * WIDTH + 10) & 0xFFFF, 1.0);
+            assertEquals(sample(21, 20, 0) / WHITE_LEVEL * 65535.0, output.get(20 * WIDTH + 21) & 0xFFFF, 65535 * 0.03);
+        }
+    }
+}
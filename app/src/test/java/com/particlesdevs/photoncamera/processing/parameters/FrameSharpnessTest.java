@@ -0,0 +1,103 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameSharpnessTest {
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    private static final int BLACK = 64;
+
+    private static double scene(double x, double y) {
+        return 0.4 + 0.1 * Math.sin(x / 2.9 + y / 4.1) + 0.15 * Math.sin(x / 5.3) * Math.cos(y / 7.1) + 0.1 * Math.sin((x + 2.3 * y) / 13.7)
+                + 0.1 * (((int) (x / 24) + (int) (y / 24)) % 2);
+    }
+
+    /**
+     * Bayer frame of the scene, greens at the positions of {@code cfaPattern}, red and blue
+     * flat. Motion blur averages the scene over {@code blur} pixels along x.
+     */
+    private static ByteBuffer frame(int cfaPattern, double gain, int blur, long seed) {
+        Random random = new Random(seed);
+        boolean greenFirst = cfaPattern == 1 || cfaPattern == 2;
+        ByteBuffer raw = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = raw.asShortBuffer();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean green = (((x + y) & 1) == 0) == greenFirst;
+                double w = 0.2;
+                if (green) {
+                    w = 0.0;
+                    for (int k = 0; k < blur; k++) w += scene(x + k - blur / 2.0, y);
+                    w /= blur;
+                }
+                double v = BLACK + w * gain * 900 + random.nextGaussian() * 2;
+                samples.put(y * WIDTH + x, (short) Math.max(0, Math.round(v)));
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Purpose: Motion blur lowers the score, exposure does not change it much
+     * Input : RGGB frames of one scene still, blurred over 6 and 16 pixels, and still at half
+     *  exposure
+     * Expected
+     *  scores fall with the blur, half exposure within 2% of full, every tile filled
+     */
+    @Test
+    public void ranksBlur() {
+        FrameSharpness sharpness = new FrameSharpness(4);
+        float[] tiles = new float[FrameSharpness.tiles(WIDTH, HEIGHT)];
+        assertEquals((WIDTH / 4 / 32) * (HEIGHT / 4 / 32), tiles.length);
+        float still = sharpness.score(frame(0, 1.0, 1, 1), WIDTH, HEIGHT, WIDTH * 2, 0, tiles);
+        for (float tile : tiles) assertTrue(tile > 0.f);
+        float shaken = sharpness.score(frame(0, 1.0, 6, 2), WIDTH, HEIGHT, WIDTH * 2, 0, null);
+        float blurred = sharpness.score(frame(0, 1.0, 16, 3), WIDTH, HEIGHT, WIDTH * 2, 0, null);
+        float dark = sharpness.score(frame(0, 0.5, 1, 4), WIDTH, HEIGHT, WIDTH * 2, 0, null);
+        assertTrue(still > shaken * 1.05f);
+        assertTrue(shaken > blurred * 1.3f);
+        assertEquals(still, dark, still * 0.02f);
+    }
+
+    /**
+     * Purpose: Greens are taken from the CFA pattern
+     * Input : the same scene as RGGB and as GRBG
+     * Expected
+     *  equal scores, reading GRBG as RGGB scores the noise of the flat red and blue instead,
+     *  near 2 for white noise
+     */
+    @Test
+    public void followsCfa() {
+        FrameSharpness sharpness = new FrameSharpness(4);
+        float rggb = sharpness.score(frame(0, 1.0, 1, 5), WIDTH, HEIGHT, WIDTH * 2, 0, null);
+        ByteBuffer grbg = frame(1, 1.0, 1, 5);
+        assertEquals(rggb, sharpness.score(grbg, WIDTH, HEIGHT, WIDTH * 2, 1, null), rggb * 0.05f);
+        assertEquals(2.f, sharpness.score(grbg, WIDTH, HEIGHT, WIDTH * 2, 0, null), 0.2f);
+    }
+
+    /**
+     * Purpose: Scores are found by sensor timestamp until the ring wraps
+     * Input : capacity 2, three scores offered
+     * Expected
+     *  last two found, first and unknown timestamps NaN
+     */
+    @Test
+    public void keepsLastScores() {
+        FrameSharpness sharpness = new FrameSharpness(2);
+        sharpness.put(100, 1.f);
+        sharpness.put(200, 2.f);
+        assertEquals(1.f, sharpness.get(100), 0.f);
+        sharpness.put(300, 3.f);
+        assertTrue(Float.isNaN(sharpness.get(100)));
+        assertEquals(2.f, sharpness.get(200), 0.f);
+        assertEquals(3.f, sharpness.get(300), 0.f);
+        assertTrue(Float.isNaN(sharpness.get(400)));
+    }
+}
@@ -0,0 +1,47 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LuckyFrameSelectorTest {
+    /**
+     * Purpose: Blur mixes gyro and image, relative to the burst
+     * Input : four frames, the third shaken on the gyro, the fourth soft in the image only
+     * Expected
+     *  both rank behind the others, blur 1 for the mean frame, gyro alone when a score is missing
+     */
+    @Test
+    public void mixesGyroAndImage() {
+        float[] shakiness = {1.f, 1.f, 3.f, 1.f};
+        float[] sharpness = {2.f, 2.f, 2.f, 0.5f};
+        float[] blur = LuckyFrameSelector.blur(shakiness, sharpness);
+        assertTrue(blur[2] > blur[0]);
+        assertTrue(blur[3] > blur[0]);
+        assertEquals(blur[0], blur[1], 0.f);
+        assertEquals(0.5 * 1.0 / 1.5 + 0.5 * 1.625 / 2.0, blur[0], 1e-6);
+
+        float[] gyro = LuckyFrameSelector.blur(shakiness, new float[]{2.f, Float.NaN, 2.f, 0.5f});
+        assertEquals(1.0 / 1.5, gyro[3], 1e-6);
+        assertEquals(3.0 / 1.5, gyro[2], 1e-6);
+        for (float b : LuckyFrameSelector.blur(new float[4], null)) assertEquals(1.f, b, 0.f);
+    }
+
+    /**
+     * Purpose: Only frames well above the mean blur are thrown away, within the throw count
+     * Input : eight frames, two far blurrier, with throw counts 1 and 4, and a three frame burst
+     * Expected
+     *  one then both blurry frames rejected, the others kept, the short burst kept whole
+     */
+    @Test
+    public void rejectsUnlucky() {
+        float[] blur = {0.8f, 0.9f, 0.85f, 2.5f, 0.9f, 2.f, 0.95f, 0.8f};
+        boolean[] one = LuckyFrameSelector.reject(blur, 1);
+        boolean[] four = LuckyFrameSelector.reject(blur, 4);
+        for (int i = 0; i < blur.length; i++) {
+            assertEquals(i == 3, one[i]);
+            assertEquals(i == 3 || i == 5, four[i]);
+        }
+        for (boolean rejected : LuckyFrameSelector.reject(new float[]{1.f, 5.f, 1.f}, 2)) assertFalse(rejected);
+    }
+}
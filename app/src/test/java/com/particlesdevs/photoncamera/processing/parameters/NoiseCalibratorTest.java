@@ -0,0 +1,141 @@
+package com.particlesdevs.photoncamera.processing.parameters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NoiseCalibratorTest {
+    private static final int WIDTH = 1536;
+    private static final int HEIGHT = 1024;
+    private static final int BLACK = 64;
+    private static final int WHITE = 1023;
+    private static final float[] BLACK_LEVEL = {BLACK, BLACK, BLACK, BLACK};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * RGGB frame of flat 96 pixel blocks at random levels with noise N^2 = S * w + O, the right
+     * quarter is a high contrast stripe texture.
+     */
+    private static ByteBuffer frame(double S, double O, long seed) {
+        Random random = new Random(seed);
+        double[] blocks = new double[(WIDTH / 96 + 1) * (HEIGHT / 96 + 1)];
+        for (int i = 0; i < blocks.length; i++) blocks[i] = 0.002 + random.nextDouble() * 0.9;
+        ByteBuffer raw = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = raw.asShortBuffer();
+        double range = WHITE - BLACK;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double w = blocks[(y / 96) * (WIDTH / 96 + 1) + x / 96];
+                if (x >= WIDTH * 3 / 4) w = (x / 3) % 2 == 0 ? 0.1 : 0.6;
+                if ((x & 1) == 0 && (y & 1) == 0) w *= 0.5;
+                double v = w + random.nextGaussian() * Math.sqrt(S * w + O);
+                long value = Math.round(BLACK + v * range);
+                samples.put(y * WIDTH + x, (short) Math.max(0, Math.min(WHITE, value)));
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Purpose: The measured model matches the noise the frames were made with
+     * Input : three 1536x1024 frames at ISO 400 with S = 4e-4, O = 4e-6 and a textured quarter
+     * Expected
+     *  S within 10% and O within 25% for every channel
+     */
+    @Test
+    public void recoversModel() {
+        NoiseCalibrator calibrator = new NoiseCalibrator(new NoiseProfileTable(), null);
+        assertNull(calibrator.getTable().model(400));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(calibrator.calibrate(frame(4e-4, 4e-6, i), WIDTH, HEIGHT, WIDTH * 2, 0,
+                    BLACK_LEVEL, WHITE, 400) > NoiseProfileTable.minObservations);
+        }
+        double[][] model = calibrator.getTable().model(400);
+        assertNotNull(model);
+        for (int c = 0; c < 3; c++) {
+            assertEquals(4e-4, model[c][0], 4e-5);
+            assertEquals(4e-6, model[c][1], 1e-6);
+        }
+    }
+
+    /**
+     * Purpose: Nearby ISOs are modeled from the closest reliable bucket, far ones are not
+     * Input : table calibrated at ISO 400, models asked for at ISO 500 and 1600
+     * Expected
+     *  ISO 500 has S scaled by 1.25 and O by 1.25^2, ISO 1600 has no model
+     */
+    @Test
+    public void scalesToNearbyIso() {
+        NoiseCalibrator calibrator = new NoiseCalibrator(new NoiseProfileTable(), null);
+        for (int i = 0; i < 3; i++)
+            calibrator.calibrate(frame(4e-4, 4e-6, 10 + i), WIDTH, HEIGHT, WIDTH * 2, 0, BLACK_LEVEL, WHITE, 400);
+        double[][] base = calibrator.getTable().model(400);
+        double[][] scaled = calibrator.getTable().model(500);
+        assertEquals(base[1][0] * 1.25, scaled[1][0], 1e-12);
+        assertEquals(base[1][1] * 1.25 * 1.25, scaled[1][1], 1e-15);
+        assertNull(calibrator.getTable().model(1600));
+    }
+
+    /**
+     * Purpose: The table survives a save and load, and offer saves it in the background and
+     * throttles frames
+     * Input : two offered frames within the minimum interval, the saved file is loaded once the
+     *  saves are flushed
+     * Expected
+     *  only the first frame is used, the loaded table gives the same model
+     */
+    @Test
+    public void persists() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("noise.properties");
+        NoiseProfileTable table = new NoiseProfileTable();
+        NoiseCalibrator calibrator = new NoiseCalibrator(table, path);
+        for (int i = 0; i < 2; i++)
+            calibrator.calibrate(frame(1e-3, 1e-5, 20 + i), WIDTH, HEIGHT, WIDTH * 2, 0, BLACK_LEVEL, WHITE, 1600);
+        ByteBuffer last = frame(1e-3, 1e-5, 22);
+        assertTrue(calibrator.offer(last, WIDTH, HEIGHT, WIDTH * 2, 0, BLACK_LEVEL, WHITE, 1600));
+        assertFalse(calibrator.offer(last, WIDTH, HEIGHT, WIDTH * 2, 0, BLACK_LEVEL, WHITE, 1600));
+        assertEquals(3, table.frames(1600));
+
+        calibrator.flush().get(5, TimeUnit.SECONDS);
+        NoiseProfileTable loaded = NoiseProfileTable.load(path);
+        assertEquals(3, loaded.frames(1600));
+        double[][] expected = table.model(1600);
+        double[][] actual = loaded.model(1600);
+        for (int c = 0; c < 3; c++) {
+            assertEquals(expected[c][0], actual[c][0], expected[c][0] * 1e-12);
+            assertEquals(expected[c][1], actual[c][1], expected[c][1] * 1e-9);
+        }
+        assertEquals(0, NoiseProfileTable.load(path.resolveSibling("missing.properties")).size());
+    }
+
+    /**
+     * Purpose: A frame without enough flat patches is not counted
+     * Input : frame clipped at the white level everywhere
+     * Expected
+     *  no observations, no frame in the table, nothing to save
+     */
+    @Test
+    public void skipsFramesWithoutObservations() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("clipped.properties");
+        NoiseProfileTable table = new NoiseProfileTable();
+        NoiseCalibrator calibrator = new NoiseCalibrator(table, path);
+        ByteBuffer clipped = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < WIDTH * HEIGHT; i++) clipped.putShort(i * 2, (short) WHITE);
+        assertTrue(calibrator.offer(clipped, WIDTH, HEIGHT, WIDTH * 2, 0, BLACK_LEVEL, WHITE, 800));
+        assertEquals(0, calibrator.lastObservations);
+        assertEquals(0, table.frames(800));
+        calibrator.flush().get(5, TimeUnit.SECONDS);
+        assertFalse(path.toFile().exists());
+    }
+}
@@ -0,0 +1,105 @@
+package com.particlesdevs.photoncamera.processing.processor;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ShotProcessingQueueTest {
+    private static final long MB = 1 << 20;
+    private final ShotProcessingQueue queue = new ShotProcessingQueue(100 * MB);
+
+    @After
+    public void shutdown() {
+        queue.shutdown();
+    }
+
+    private static ShotProcessingQueue.Job job(long bytes, CountDownLatch release, boolean fail) {
+        return new ShotProcessingQueue.Job() {
+            @Override
+            public long memoryBytes() {
+                return bytes;
+            }
+
+            @Override
+            public void process(ShotProcessingQueue.StageTimer timer) throws Exception {
+                if (release != null) release.await();
+                timer.stage("process");
+                if (fail) throw new IllegalStateException("failed on purpose");
+            }
+        };
+    }
+
+    /**
+     * Purpose: A shot that does not fit waits for admission until memory is given back
+     * Input : budget 100MB, a 70MB shot held in processing, then a 50MB shot submitted
+     * Expected
+     *  second submit blocks while the first holds its memory, is admitted once the first
+     *  finished, and all memory is given back after both
+     */
+    @Test
+    public void blocksUntilBudgetReleased() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ShotProcessingQueue.JobStats> first = queue.submit(job(70 * MB, release, false));
+        assertEquals(70 * MB, queue.getReservedBytes());
+
+        AtomicReference<CompletableFuture<ShotProcessingQueue.JobStats>> second = new AtomicReference<>();
+        Thread capture = new Thread(() -> {
+            try {
+                second.set(queue.submit(job(50 * MB, null, false)));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        capture.start();
+        capture.join(200);
+        assertTrue(capture.isAlive());
+        assertNull(second.get());
+
+        release.countDown();
+        capture.join(5000);
+        assertFalse(capture.isAlive());
+        assertFalse(first.get(5, TimeUnit.SECONDS).failed);
+        ShotProcessingQueue.JobStats stats = second.get().get(5, TimeUnit.SECONDS);
+        assertFalse(stats.failed);
+        assertTrue(stats.admissionWaitMs >= 150);
+        assertEquals(0, queue.getReservedBytes());
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    /**
+     * Purpose: A failed shot is reported and still gives its memory back
+     * Input : 80MB shot whose processing throws, then another 80MB shot
+     * Expected
+     *  first reported failed with its stages, second admitted and processed, nothing reserved
+     */
+    @Test
+    public void failedJobReleasesBudget() throws Exception {
+        ShotProcessingQueue.JobStats failed = queue.submit(job(80 * MB, null, true)).get(5, TimeUnit.SECONDS);
+        assertTrue(failed.failed);
+        assertTrue(failed.stageMs.containsKey("process"));
+        assertEquals(80 * MB, failed.memoryBytes);
+        assertFalse(queue.submit(job(80 * MB, null, false)).get(5, TimeUnit.SECONDS).failed);
+        assertEquals(0, queue.getReservedBytes());
+    }
+
+    /**
+     * Purpose: A shot larger than the whole budget is admitted once nothing else is in flight,
+     * and the budget follows the device memory
+     * Input : 300MB shot against a budget of 100MB; budgets for 0, 2GB, 6GB and 16GB devices
+     * Expected
+     *  shot processed; budgets of 512MB, 512MB, 1.5GB and 3GB
+     */
+    @Test
+    public void admitsOversizedShotAlone() throws Exception {
+        assertFalse(queue.submit(job(300 * MB, null, false)).get(5, TimeUnit.SECONDS).failed);
+        assertEquals(512 * MB, ShotProcessingQueue.budgetFor(0));
+        assertEquals(512 * MB, ShotProcessingQueue.budgetFor(2048 * MB));
+        assertEquals(1536 * MB, ShotProcessingQueue.budgetFor(6144 * MB));
+        assertEquals(3072 * MB, ShotProcessingQueue.budgetFor(16384 * MB));
+    }
+}
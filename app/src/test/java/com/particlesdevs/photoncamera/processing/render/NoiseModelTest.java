@@ -0,0 +1,63 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoiseModelTest {
+    private static final double[][] MODEL = {{1e-4, 1e-6}, {2e-4, 2e-6}, {3e-4, 3e-6}};
+
+    /**
+     * Purpose: The model is a copy of its input and derived values match the channels
+     * Input : a per channel model, the input array changed after construction
+     * Expected
+     *  channels unchanged, sums, means and sigma from the channel values, toArray a copy
+     */
+    @Test
+    public void derivedValues() {
+        double[][] input = {MODEL[0].clone(), MODEL[1].clone(), MODEL[2].clone()};
+        NoiseModel model = new NoiseModel(input);
+        input[1][0] = 1.0;
+        assertEquals(2e-4, model.S(1), 0.0);
+        assertEquals(6e-4, model.sumS(), 1e-18);
+        assertEquals(2e-6, model.meanO(), 1e-20);
+        assertEquals(Math.sqrt(3e-4 * 0.5 + 3e-6), model.sigma(2, 0.5), 1e-15);
+        model.toArray()[0][0] = 1.0;
+        assertEquals(1e-4, model.S(0), 0.0);
+    }
+
+    /**
+     * Purpose: Stacked and scaled models
+     * Input : model stacked for 8 frames, model scaled by 2 and 4
+     * Expected
+     *  S and O divided by 8^0.9, S doubled and O quadrupled
+     */
+    @Test
+    public void stacked() {
+        NoiseModel model = new NoiseModel(MODEL);
+        NoiseModel stacked = model.stacked(8);
+        assertEquals(2e-4 / Math.pow(8, 0.9), stacked.S(1), 1e-18);
+        assertEquals(3e-6 / Math.pow(8, 0.9), stacked.O(2), 1e-20);
+        NoiseModel scaled = model.scaled(2, 4);
+        assertEquals(4e-4, scaled.S(1), 1e-18);
+        assertEquals(1.2e-5, scaled.O(2), 1e-20);
+    }
+
+    /**
+     * Purpose: NoiseModeler keeps the primitive models and the Pair views in sync
+     * Input : modeler from a snapshot model at ISO 400 for 4 frames, then a replaced base model
+     * Expected
+     *  stacked model for 4 frames, views equal to the models, both follow the new base model
+     */
+    @Test
+    public void modeler() {
+        NoiseModeler modeler = new NoiseModeler(MODEL, 400, 400, 4);
+        assertEquals(new NoiseModel(MODEL).stacked(4), modeler.stacked);
+        assertEquals(modeler.stacked.S(2), modeler.computeModel[2].first, 0.0);
+
+        modeler.setBaseModel(new double[][]{{1e-3, 1e-5}, {1e-3, 1e-5}, {1e-3, 1e-5}});
+        assertEquals(new NoiseModel(1e-3, 1e-5).stacked(4), modeler.stacked);
+        assertEquals(1e-3, modeler.baseModel[1].first, 0.0);
+        assertEquals(new NoiseModel(1e-3, 1e-5).stacked(4).O(0), modeler.computeModel[0].second, 0.0);
+    }
+}
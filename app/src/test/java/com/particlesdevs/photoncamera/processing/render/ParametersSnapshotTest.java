@@ -0,0 +1,70 @@
+package com.particlesdevs.photoncamera.processing.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParametersSnapshotTest {
+    private static ParametersSnapshot createSnapshot() {
+        return new ParametersSnapshot.Builder()
+                .setRawSize(4000, 3000)
+                .setCfaPattern(1)
+                .setLevels(new float[]{64.f, 64.f, 63.f, 65.f}, 1023, 1023)
+                .setWhitePoint(new float[]{0.5f, 1.f, 0.6f})
+                .setNoise(new double[][]{{1e-4, 1e-6}, {2e-4, 2e-6}, {3e-4, 3e-6}}, 800, 1600)
+                .build();
+    }
+
+    /**
+     * Purpose: White level boost is a derived view
+     * Input : snapshot with 10 bit white level
+     * Expected
+     *  black levels scaled by 65535/1023 in the view, original unchanged
+     */
+    @Test
+    public void scaledToWhiteLevelKeepsOriginal() {
+        ParametersSnapshot snapshot = createSnapshot();
+        ParametersSnapshot scaled = snapshot.scaledToWhiteLevel(65535.f);
+        assertEquals(65535, scaled.whiteLevel);
+        assertEquals(64.f * 65535.f / 1023.f, scaled.blackLevel(0), 1e-3);
+        assertEquals(65.f * 65535.f / 1023.f, scaled.blackLevel(3), 1e-3);
+        assertEquals(1023, snapshot.whiteLevel);
+        assertArrayEquals(new float[]{64.f, 64.f, 63.f, 65.f}, snapshot.getBlackLevel(), 0);
+        assertArrayEquals(snapshot.getWhitePoint(), scaled.getWhitePoint(), 0);
+    }
+
+    /**
+     * Purpose: Arrays returned by getters can not change the snapshot
+     */
+    @Test
+    public void gettersReturnCopies() {
+        ParametersSnapshot snapshot = createSnapshot();
+        snapshot.getBlackLevel()[0] = 0.f;
+        snapshot.getWhitePoint()[1] = 0.f;
+        snapshot.getBaseNoiseModel()[0][0] = 0.0;
+        assertEquals(64.f, snapshot.blackLevel(0), 0);
+        assertEquals(1.f, snapshot.whitePoint(1), 0);
+        assertEquals(1e-4, snapshot.getBaseNoiseModel()[0][0], 0);
+    }
+
+    /**
+     * Purpose: Stacked noise model matches NoiseModeler.computeStackingNoiseModel
+     * Input : 8 stacked frames
+     * Expected
+     *  channel averages of S and O divided by 8^0.9
+     */
+    @Test
+    public void stackedNoise() {
+        ParametersSnapshot snapshot = createSnapshot();
+        assertEquals(1, snapshot.stackedFrames);
+        assertEquals(2e-4, snapshot.noiseS(), 1e-9);
+        assertEquals(2e-6, snapshot.noiseO(), 1e-11);
+        ParametersSnapshot stacked = snapshot.withStackedFrames(8);
+        double noiseRemove = Math.pow(8, 0.9);
+        assertEquals(2e-4 / noiseRemove, stacked.noiseS(), 1e-9);
+        assertEquals(2e-6 / noiseRemove, stacked.noiseO(), 1e-11);
+        assertEquals(3e-4 / noiseRemove, stacked.getNoiseModel()[2][0], 1e-12);
+        assertEquals(1, snapshot.stackedFrames);
+        assertSame(stacked, stacked.withStackedFrames(8));
+    }
+}
@@ -0,0 +1,165 @@
+package com.particlesdevs.photoncamera.processing.replay;
+
+import com.particlesdevs.photoncamera.processing.dng.DngReader;
+import com.particlesdevs.photoncamera.processing.dng.DngTag;
+import com.particlesdevs.photoncamera.processing.dng.DngWriter;
+import com.particlesdevs.photoncamera.processing.render.ParametersSnapshot;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BurstReplayTest {
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 192;
+
+    private static ParametersSnapshot createParameters() {
+        float[] map = new float[4 * 3 * 4];
+        for (int i = 0; i < map.length; i++) map[i] = 1.f + (i % 7) / 10.f;
+        return new ParametersSnapshot.Builder()
+                .setRawSize(WIDTH, HEIGHT)
+                .setCfaPattern(1)
+                .setLevels(new float[]{64.f, 64.f, 64.f, 64.f}, 1023, 1023)
+                .setWhitePoint(new float[]{0.5f, 1.f, 0.625f})
+                .setColor(new float[]{1.2f, -0.1f, -0.1f, -0.2f, 1.3f, -0.1f, 0.f, -0.3f, 1.3f}, new float[9], null)
+                .setNoise(new double[][]{{2e-4, 1e-6}, {1e-4, 2e-6}, {3e-4, 3e-6}}, 100, 400)
+                .setGainMap(map, 4, 3, true)
+                .build();
+    }
+
+    /**
+     * Writes a static scene with independent noise per frame.
+     */
+    private static Path createBurst(int frames) throws IOException {
+        Path burst = Files.createTempDirectory("BurstReplayTest");
+        burst.toFile().deleteOnExit();
+        Random random = new Random(1);
+        DngWriter writer = new DngWriter(createParameters()).setExposure(10000000L, 400, 1.8f);
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer frame = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    double value = 300 + 200 * Math.sin(x / 60.0) * Math.cos(y / 45.0) + random.nextGaussian() * 12;
+                    frame.putShort((y * WIDTH + x) * 2, (short) Math.round(value));
+                }
+            }
+            writer.write(burst.resolve(String.format("frame%02d.dng", i)), frame, WIDTH * 2);
+        }
+        return burst;
+    }
+
+    /**
+     * Purpose: Shot parameters are rebuilt from the tags DngWriter stores
+     * Input : DNG written with a GRBG pattern, levels, neutral, noise model and a 4x3 gain map
+     * Expected
+     *  same values in the rebuilt snapshot, color transform within rounding of the rationals
+     */
+    @Test
+    public void parametersFromDng() throws IOException {
+        Path burst = createBurst(1);
+        ParametersSnapshot expected = createParameters();
+        ParametersSnapshot actual = BurstReplay.parameters(DngReader.open(burst.resolve("frame00.dng")), ReplaySidecar.empty());
+        assertEquals(WIDTH, actual.rawWidth);
+        assertEquals(HEIGHT, actual.rawHeight);
+        assertEquals(1, actual.cfaPattern);
+        assertEquals(1023, actual.whiteLevel);
+        assertArrayEquals(expected.getBlackLevel(), actual.getBlackLevel(), 1e-4f);
+        assertArrayEquals(expected.getWhitePoint(), actual.getWhitePoint(), 1e-4f);
+        assertEquals(400, actual.sensitivityIso);
+        for (int c = 0; c < 3; c++)
+            assertArrayEquals(expected.getBaseNoiseModel()[c], actual.getBaseNoiseModel()[c], 1e-12);
+        assertEquals(4, actual.mapWidth);
+        assertEquals(3, actual.mapHeight);
+        assertArrayEquals(expected.getGainMap(), actual.getGainMap(), 1e-6f);
+        assertArrayEquals(expected.getSensorToProPhoto(), actual.getSensorToProPhoto(), 1e-3f);
+    }
+
+    /**
+     * Purpose: Sidecar values take precedence over the DNG tags
+     * Input : sidecar with white level, neutral, noise profile as 4 pairs and ISO
+     * Expected
+     *  sidecar values in the snapshot, greens of the noise profile averaged
+     */
+    @Test
+    public void sidecarOverrides() throws IOException {
+        Path burst = createBurst(1);
+        Path sidecar = burst.resolve(ReplaySidecar.DEFAULT_NAME);
+        Files.write(sidecar, ("whiteLevel=4095\nneutral=0.4,1,0.7\niso=800\nanalogIso=200\n"
+                + "noiseProfile=1e-4,1e-6,2e-4,2e-6,4e-4,4e-6,5e-4,5e-6\n").getBytes(StandardCharsets.UTF_8));
+        ParametersSnapshot actual = BurstReplay.parameters(DngReader.open(burst.resolve("frame00.dng")),
+                ReplaySidecar.read(sidecar));
+        assertEquals(4095, actual.whiteLevel);
+        assertArrayEquals(new float[]{0.4f, 1.f, 0.7f}, actual.getWhitePoint(), 1e-6f);
+        assertEquals(800, actual.sensitivityIso);
+        assertEquals(200, actual.analogIso);
+        assertArrayEquals(new double[]{3e-4, 3e-6}, actual.getBaseNoiseModel()[1], 1e-12);
+        assertArrayEquals(new double[]{5e-4, 5e-6}, actual.getBaseNoiseModel()[2], 1e-12);
+    }
+
+    /**
+     * Purpose: A burst replays end to end with a timing report
+     * Input : 4 noisy frames of a static scene, sidecar with frame timestamps, 10 ms skew and
+     * a gyro file turning at 0.5 rad/s
+     * Expected
+     *  merged DNG with the input size and a stack of 4, less noise than one frame, a JPEG,
+     *  every stage in the report and 10 mrad of rotation per frame
+     */
+    @Test
+    public void replay() throws IOException {
+        Path burst = createBurst(4);
+        StringBuilder gyro = new StringBuilder("# t,x,y,z\n");
+        for (int i = 0; i <= 200; i++) gyro.append(i * 1000000L).append(",0.3,0.4,0\n");
+        Files.write(burst.resolve("gyro.csv"), gyro.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder sidecar = new StringBuilder("gyro=gyro.csv\nrollingShutterSkew=10000000\n");
+        for (int i = 0; i < 4; i++) sidecar.append("frame.").append(i).append(".timestamp=").append((i + 1) * 33000000L).append('\n');
+        Files.write(burst.resolve(ReplaySidecar.DEFAULT_NAME), sidecar.toString().getBytes(StandardCharsets.UTF_8));
+        Path output = burst.resolve("replay");
+
+        BurstReplay.Report report = new BurstReplay(burst, output).setAlign(true).run();
+
+        assertEquals(4, report.frames);
+        assertEquals(Arrays.asList("load", "parameters", "align", "gainmap", "merge", "saveRaw", "develop", "saveJpeg"),
+                Arrays.asList(report.stageMs.keySet().toArray()));
+        assertTrue(report.alignTilesPerSecond > 0.f);
+        for (double rotation : report.frameRotation) assertEquals(0.01, rotation, 1e-6);
+        assertTrue(Files.readAllLines(output.resolve(BurstReplay.REPORT)).contains("frames=4"));
+
+        DngReader merged = DngReader.open(output.resolve(BurstReplay.MERGED_DNG));
+        assertEquals(WIDTH, merged.getWidth());
+        assertEquals(HEIGHT, merged.getHeight());
+        assertEquals(65535, merged.getLong(DngTag.WHITE_LEVEL));
+        assertTrue(noise(merged) < noise(DngReader.open(burst.resolve("frame00.dng"))) * 0.75);
+
+        byte[] jpeg = Files.readAllBytes(output.resolve(BurstReplay.PREVIEW_JPEG));
+        assertEquals((byte) 0xFF, jpeg[0]);
+        assertEquals((byte) 0xD8, jpeg[1]);
+    }
+
+    /**
+     * @return standard deviation of the difference of same color neighbours two pixels apart,
+     * relative to the white level.
+     */
+    private static double noise(DngReader dng) throws IOException {
+        ByteBuffer raw = dng.readRaw();
+        double whiteLevel = dng.getLong(DngTag.WHITE_LEVEL);
+        double sum = 0.0;
+        int count = 0;
+        for (int y = 16; y < HEIGHT - 16; y++) {
+            for (int x = 16; x < WIDTH - 18; x++) {
+                double d = ((raw.getShort((y * WIDTH + x) * 2) & 0xFFFF) - (raw.getShort((y * WIDTH + x + 2) * 2) & 0xFFFF)) / whiteLevel;
+                sum += d * d;
+                count++;
+            }
+        }
+        return Math.sqrt(sum / count);
+    }
+}
@@ -0,0 +1,169 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CpuHistogramTest {
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+
+    /**
+     * Histograms the way the compute shader counts them, one pixel at a time.
+     */
+    private static int[][] reference(float[] values, int width, int height, int resize, int histSize) {
+        int[][] out = new int[4][histSize];
+        for (int y = 0; y < height; y += resize) {
+            for (int x = 0; x < width; x += resize) {
+                for (int c = 0; c < 4; c++) {
+                    float scaled = values[(y * width + x) * 4 + c] * histSize;
+                    if (scaled > -1.f && scaled < histSize) out[c][(int) scaled]++;
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Purpose: RGBA8 histograms match a pixel by pixel count, whatever the threads
+     * Input : 97x61 random RGBA8 image with padded rows, every 3rd pixel, 256 bins, common pool
+     *  and a pool of 4 threads
+     * Expected
+     *  both equal to the reference
+     */
+    @Test
+    public void countsRgba8() {
+        int rowStride = WIDTH * 4 + 12;
+        ByteBuffer in = ByteBuffer.allocateDirect(rowStride * HEIGHT);
+        float[] values = new float[WIDTH * HEIGHT * 4];
+        Random random = new Random(1);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int i = 0; i < WIDTH * 4; i++) {
+                int v = random.nextInt(256);
+                in.put(y * rowStride + i, (byte) v);
+                values[y * WIDTH * 4 + i] = v / 255.f;
+            }
+        }
+        int[][] expected = reference(values, WIDTH, HEIGHT, 3, 256);
+        CpuHistogram histogram = new CpuHistogram(256);
+        assertArrayEquals(expected, histogram.computeRgba8(in, WIDTH, HEIGHT, rowStride));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        assertArrayEquals(expected, histogram.setPool(pool).computeRgba8(in, WIDTH, HEIGHT, rowStride));
+        pool.shutdown();
+    }
+
+    /**
+     * Purpose: Half and full float images are binned as the shader bins them
+     * Input : 97x61 RGBA images of values between -0.2 and 1.2, as half floats with 1024 bins
+     *  and as floats with 4096 bins, every sample
+     * Expected
+     *  equal to the reference, values outside 0 to 1 dropped
+     */
+    @Test
+    public void countsFloats() {
+        Random random = new Random(2);
+        ByteBuffer halves = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 8).order(ByteOrder.nativeOrder());
+        ByteBuffer floats = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 16).order(ByteOrder.nativeOrder());
+        float[] halfValues = new float[WIDTH * HEIGHT * 4];
+        float[] floatValues = new float[WIDTH * HEIGHT * 4];
+        for (int i = 0; i < WIDTH * HEIGHT * 4; i++) {
+            int half = Math.round(random.nextFloat() * 1.4f * 1024) + 0x3000;
+            if (random.nextInt(8) == 0) half |= 0x8000;
+            halves.putShort(i * 2, (short) half);
+            halfValues[i] = CpuHistogram.halfToFloat(half);
+            floatValues[i] = random.nextFloat() * 1.4f - 0.2f;
+            floats.putFloat(i * 4, floatValues[i]);
+        }
+        CpuHistogram histogram = new CpuHistogram(1024);
+        histogram.resize = 1;
+        int[][] expected = reference(halfValues, WIDTH, HEIGHT, 1, 1024);
+        assertArrayEquals(expected, histogram.computeRgba16f(halves, WIDTH, HEIGHT, WIDTH * 8));
+        int total = 0;
+        for (int count : expected[0]) total += count;
+        assertTrue(total < WIDTH * HEIGHT);
+
+        histogram = new CpuHistogram(4096);
+        histogram.resize = 1;
+        assertArrayEquals(reference(floatValues, WIDTH, HEIGHT, 1, 4096),
+                histogram.computeRgba32f(floats, WIDTH, HEIGHT, WIDTH * 16));
+    }
+
+    /**
+     * Purpose: Bands of rows that start on sampled rows add up to the whole image, as the GL
+     * histogram reads textures back
+     * Input : 97x61 random half float image, every 3rd pixel, counted whole and in bands of 9 rows
+     * Expected
+     *  the summed bands equal the whole image
+     */
+    @Test
+    public void addsUpBands() {
+        Random random = new Random(3);
+        ByteBuffer halves = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 8).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < WIDTH * HEIGHT * 4; i++)
+            halves.putShort(i * 2, (short) (Math.round(random.nextFloat() * 1024) + 0x3000));
+        CpuHistogram histogram = new CpuHistogram(256);
+        int[][] whole = histogram.computeRgba16f(halves, WIDTH, HEIGHT, WIDTH * 8);
+        int[][] bands = new int[4][256];
+        for (int y = 0; y < HEIGHT; y += 9) {
+            int rows = Math.min(9, HEIGHT - y);
+            halves.position(y * WIDTH * 8);
+            int[][] counts = histogram.computeRgba16f(halves.slice().order(ByteOrder.nativeOrder()), WIDTH, rows, WIDTH * 8);
+            for (int c = 0; c < 4; c++)
+                for (int i = 0; i < 256; i++) bands[c][i] += counts[c][i];
+        }
+        assertArrayEquals(whole, bands);
+    }
+
+    /**
+     * Purpose: Half floats decode exactly
+     * Input : one, a half, minus two, the smallest subnormal and infinity
+     * Expected
+     *  the same floats
+     */
+    @Test
+    public void decodesHalves() {
+        assertEquals(1.f, CpuHistogram.halfToFloat(0x3C00), 0.f);
+        assertEquals(0.5f, CpuHistogram.halfToFloat(0x3800), 0.f);
+        assertEquals(-2.f, CpuHistogram.halfToFloat(0xC000), 0.f);
+        assertEquals((float) Math.pow(2, -24), CpuHistogram.halfToFloat(0x0001), 0.f);
+        assertEquals(Float.POSITIVE_INFINITY, CpuHistogram.halfToFloat(0x7C00), 0.f);
+    }
+
+    /**
+     * Purpose: Bayer samples go to the histogram of their color and quads to the fourth one
+     * Input : 64x48 flat frame of red 0.25, greens 0.5 and blue 0.75 over black level 64 with
+     *  white level 1088, read as RGGB and as BGGR, every 2nd quad, 1024 bins
+     * Expected
+     *  every sampled quad counted once in red, blue and the quad mean, twice in green, in the
+     *  bins of their levels, red and blue swapped for BGGR
+     */
+    @Test
+    public void countsBayer() {
+        int width = 64;
+        int height = 48;
+        ByteBuffer raw = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.nativeOrder());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float level = (x & 1) == 0 && (y & 1) == 0 ? 0.25f : (x & 1) == 1 && (y & 1) == 1 ? 0.75f : 0.5f;
+                raw.putShort((y * width + x) * 2, (short) (64 + level * 1024));
+            }
+        }
+        CpuHistogram histogram = new CpuHistogram(1024);
+        histogram.resize = 2;
+        int quads = (width / 4) * (height / 4);
+        int[][] rggb = histogram.computeBayer(raw, width, height, width * 2, 0, 64, 1088);
+        assertEquals(quads, rggb[0][256]);
+        assertEquals(quads * 2, rggb[1][512]);
+        assertEquals(quads, rggb[2][768]);
+        assertEquals(quads, rggb[3][512]);
+
+        int[][] bggr = histogram.computeBayer(raw, width, height, width * 2, 3, 64, 1088);
+        assertEquals(quads, bggr[2][256]);
+        assertEquals(quads, bggr[0][768]);
+    }
+}
@@ -0,0 +1,116 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class LineRansacTest {
+    /**
+     * y = 0.5 x + 3 with gaussian noise, every third point moved far off the line.
+     */
+    private static double[] data(int count, long seed) {
+        Random random = new Random(seed);
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            double x = i + 1;
+            y[i] = 0.5 * x + 3 + random.nextGaussian() * 0.2;
+            if (i % 3 == 0) y[i] += 20 + random.nextDouble() * 50;
+        }
+        return y;
+    }
+
+    /**
+     * Purpose: The line is recovered despite a third of outliers and refitted on the inliers
+     * Input : 300 points on y = 0.5x + 3 with noise 0.2 and 33% outliers
+     * Expected
+     *  slope within 0.002 and intercept within 0.15, about two thirds of the points as inliers
+     */
+    @Test
+    public void recoversLine() {
+        LineRansac ransac = new LineRansac().setSeed(7);
+        assertTrue(ransac.fit(data(300, 1), 300, 1500, 1, 0.2));
+        assertEquals(0.5, ransac.slope, 0.002);
+        assertEquals(3.0, ransac.intercept, 0.15);
+        assertTrue(ransac.inliers >= 190 && ransac.inliers <= 200);
+    }
+
+    /**
+     * Purpose: Iterations stop early once the inlier ratio makes more of them pointless
+     * Input : same data with up to 1500 iterations at 0.99 confidence and with confidence 1
+     * Expected
+     *  at most 64 iterations with early termination, all 1500 without
+     */
+    @Test
+    public void terminatesEarly() {
+        double[] y = data(300, 2);
+        LineRansac ransac = new LineRansac();
+        ransac.fit(y, 300, 1500, 1, 0.2);
+        assertEquals(LineRansac.BATCH, ransac.iterations);
+        ransac.setConfidence(1.0).fit(y, 300, 1500, 1, 0.2);
+        assertEquals(1500, ransac.iterations);
+    }
+
+    /**
+     * Purpose: The result depends on the seed only, not on the pool
+     * Input : fits with the same seed serially and on a 3 thread pool, and with another seed
+     * Expected
+     *  identical serial and parallel results
+     */
+    @Test
+    public void deterministic() {
+        double[] y = data(500, 3);
+        LineRansac serial = new LineRansac().setSeed(11).setConfidence(1.0);
+        serial.fit(y, 500, 700, 1, 0.2);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            LineRansac parallel = new LineRansac().setSeed(11).setConfidence(1.0).setPool(pool);
+            parallel.fit(y, 500, 700, 1, 0.2);
+            assertEquals(serial.slope, parallel.slope, 0.0);
+            assertEquals(serial.intercept, parallel.intercept, 0.0);
+            assertEquals(serial.inliers, parallel.inliers);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Purpose: No line is reported when no hypothesis reaches the inlier ratio
+     * Input : uniform random points, 90% inliers required
+     * Expected
+     *  fit fails, slope and intercept are 0
+     */
+    @Test
+    public void rejects() {
+        Random random = new Random(4);
+        double[] y = new double[200];
+        for (int i = 0; i < y.length; i++) y[i] = random.nextDouble() * 1000;
+        LineRansac ransac = new LineRansac();
+        assertFalse(ransac.fit(y, 200, 700, 1, 0.9));
+        assertEquals(0.0, ransac.slope, 0.0);
+        assertEquals(0.0, ransac.intercept, 0.0);
+    }
+
+    /**
+     * Purpose: The list adapter returns the same fit as the fitter
+     * Input : the outlier data as a List of Double
+     * Expected
+     *  slope and intercept of a default LineRansac
+     */
+    @Test
+    public void adapter() {
+        double[] y = data(256, 5);
+        List<Double> list = new ArrayList<>();
+        for (double v : y) list.add(v);
+        List<Double> result = RANSAC.perform(list, 2, 700, 1, 0.2);
+        LineRansac ransac = new LineRansac();
+        ransac.fit(y, y.length, 700, 1, 0.2);
+        assertEquals(2, result.size());
+        assertEquals(ransac.slope, result.get(0), 0.0);
+        assertEquals(ransac.intercept, result.get(1), 0.0);
+    }
+}
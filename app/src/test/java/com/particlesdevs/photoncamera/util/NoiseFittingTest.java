@@ -0,0 +1,104 @@
+package com.particlesdevs.photoncamera.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NoiseFittingTest {
+    private static final double S = 2e-4;
+    private static final double O = 1e-6;
+
+    /**
+     * Purpose: Noise free observations are fitted exactly
+     * Input : 64 points on N^2 = 2e-4 w + 1e-6 as data points
+     * Expected
+     *  S and O recovered to 1e-9 relative, error close to 0
+     */
+    @Test
+    public void exact() {
+        List<NoiseFitting.DataPoint> data = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            double w = i / 63.0;
+            data.add(new NoiseFitting.DataPoint(w, Math.sqrt(w * S + O)));
+        }
+        NoiseFitting.NoiseParameters fit = NoiseFitting.findParameters(data);
+        assertEquals(S, fit.S, S * 1e-9);
+        assertEquals(O, fit.O, O * 1e-6);
+        assertEquals(0.0, fit.error, 1e-9);
+    }
+
+    /**
+     * Purpose: Huber weights keep outlier patches from pulling the fit
+     * Input : 2000 noisy observations, every 20th one with 10 times the noise
+     * Expected
+     *  robust S within 5% while the plain least squares fit is more than 10% off
+     */
+    @Test
+    public void robust() {
+        Random random = new Random(3);
+        int count = 2000;
+        double[] w = new double[count];
+        double[] n = new double[count];
+        for (int i = 0; i < count; i++) {
+            w[i] = random.nextDouble();
+            n[i] = Math.sqrt(w[i] * S + O) * (1.0 + random.nextGaussian() * 0.03);
+            if (i % 20 == 0) n[i] *= 10.0;
+        }
+        NoiseFitting.NoiseParameters plain = NoiseFitting.fitHuber(w, n, null, count, 0);
+        NoiseFitting.NoiseParameters robust = NoiseFitting.fitHuber(w, n, null, count, 4);
+        assertTrue(Math.abs(plain.S - S) > 0.1 * S);
+        assertEquals(S, robust.S, 0.05 * S);
+        assertTrue(robust.error > 0.0);
+    }
+
+    /**
+     * Purpose: Merged partial accumulators solve to the same fit as one accumulator
+     * Input : 1000 weighted observations split over 4 accumulators
+     * Expected
+     *  S, O, error and count equal within rounding
+     */
+    @Test
+    public void merge() {
+        Random random = new Random(5);
+        NoiseFitting.Accumulator whole = new NoiseFitting.Accumulator();
+        NoiseFitting.Accumulator[] parts = new NoiseFitting.Accumulator[4];
+        for (int i = 0; i < parts.length; i++) parts[i] = new NoiseFitting.Accumulator();
+        for (int i = 0; i < 1000; i++) {
+            double w = random.nextDouble();
+            double n = Math.sqrt(w * S + O) * (1.0 + random.nextGaussian() * 0.05);
+            double weight = 1 + random.nextInt(16);
+            whole.add(w, n, weight);
+            parts[i % 4].add(w, n, weight);
+        }
+        NoiseFitting.Accumulator merged = new NoiseFitting.Accumulator();
+        for (NoiseFitting.Accumulator part : parts) merged.merge(part);
+        NoiseFitting.NoiseParameters a = whole.solve();
+        NoiseFitting.NoiseParameters b = merged.solve();
+        assertEquals(1000, merged.count());
+        assertEquals(a.S, b.S, Math.abs(a.S) * 1e-9);
+        assertEquals(a.O, b.O, 1e-12);
+        assertEquals(a.error, b.error, a.error * 1e-6);
+    }
+
+    /**
+     * Purpose: The error of the fit is the RMSE of N
+     * Input : noisy observations as data points
+     * Expected
+     *  error equals calculateRMSE of the returned parameters
+     */
+    @Test
+    public void rmse() {
+        Random random = new Random(7);
+        List<NoiseFitting.DataPoint> data = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            double w = random.nextDouble();
+            data.add(new NoiseFitting.DataPoint(w, Math.sqrt(w * S + O) * (1.0 + random.nextGaussian() * 0.05)));
+        }
+        NoiseFitting.NoiseParameters fit = NoiseFitting.findParameters(data);
+        assertEquals(NoiseFitting.calculateRMSE(data, fit), fit.error, 1e-15);
+    }
+}